@@ -1,5 +1,8 @@
 package com.acertainbookstore.business;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /**
@@ -7,26 +10,66 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
  * 
+ * The stock, rating and sale miss counters are updated atomically, so a book
+ * can be bought, restocked or rated without holding a lock on it. Ratings are
+ * accumulated in a {@link RatingAccumulator}, so bursts of ratings of a
+ * popular book do not contend with each other or with its buyers.
+ * 
+ * Titles and authors are interned in a weak {@link StringPool}, so books by
+ * the same author share one author string however they were deserialized.
+ * 
  * @see Book
  * @see StockBook
  * @see ImmutableBook
  */
-public class BookStoreBook extends ImmutableBook {
+public class BookStoreBook extends ImmutableBook implements StockBook {
 
-	/** The number of copies. */
-	private int numCopies;
+	/** The atomic updater of the number of copies. */
+	private static final AtomicIntegerFieldUpdater<BookStoreBook> NUM_COPIES = AtomicIntegerFieldUpdater
+			.newUpdater(BookStoreBook.class, "numCopies");
+
+	/** The atomic updater of the number of sale misses. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> NUM_SALE_MISSES = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "numSaleMisses");
 
-	/** The total rating. */
-	private long totalRating;
+	/** The atomic updater of the number of writes started. */
+	private static final AtomicIntegerFieldUpdater<BookStoreBook> WRITES_STARTED = AtomicIntegerFieldUpdater
+			.newUpdater(BookStoreBook.class, "writesStarted");
+
+	/** The atomic updater of the number of writes finished. */
+	private static final AtomicIntegerFieldUpdater<BookStoreBook> WRITES_FINISHED = AtomicIntegerFieldUpdater
+			.newUpdater(BookStoreBook.class, "writesFinished");
+
+	/** The atomic updater of the checkpoint epoch. */
+	private static final AtomicLongFieldUpdater<BookStoreBook> CHECKPOINT_EPOCH = AtomicLongFieldUpdater
+			.newUpdater(BookStoreBook.class, "checkpointEpoch");
+
+	/** The pool of the titles and authors of all books. */
+	private static final StringPool STRINGS = new StringPool();
+
+	/** The number of copies. */
+	private volatile int numCopies;
 
-	/** The number of times rated. */
-	private long numTimesRated;
+	/** The ratings. */
+	private final RatingAccumulator ratings;
 
 	/** The number of sale misses. */
-	private long numSaleMisses;
+	private volatile long numSaleMisses;
 
 	/** Whether the book is editor picked. */
-	private boolean editorPick;
+	private volatile boolean editorPick;
+
+	/** The immutable view of the book, or null if not created yet. */
+	private volatile ImmutableBook view;
+
+	/** The number of writes which started changing the book. */
+	private volatile int writesStarted;
+
+	/** The number of writes which finished changing the book. */
+	private volatile int writesFinished;
+
+	/** The epoch of the last checkpoint which claimed the book. */
+	private volatile long checkpointEpoch;
 
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
@@ -43,12 +86,11 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of copies
 	 */
 	public BookStoreBook(int isbn, String title, String author, float price, int numCopies) {
-		super(isbn, title, author, price);
+		super(isbn, STRINGS.intern(title), STRINGS.intern(author), price);
 
+		this.ratings = new RatingAccumulator(0, 0);
 		this.setNumSaleMisses(0);
-		this.setNumTimesRated(0);
 		this.setNumCopies(numCopies);
-		this.setTotalRating(0);
 		this.setEditorPick(false);
 	}
 
@@ -60,22 +102,42 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the book to copy
 	 */
 	public BookStoreBook(StockBook bookToCopy) {
-		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
+		super(bookToCopy.getISBN(), STRINGS.intern(bookToCopy.getTitle()), STRINGS.intern(bookToCopy.getAuthor()),
+				bookToCopy.getPrice());
 
+		this.ratings = new RatingAccumulator(bookToCopy.getTotalRating(), bookToCopy.getNumTimesRated());
 		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
-		this.setNumTimesRated(bookToCopy.getNumTimesRated());
 		this.setNumCopies(bookToCopy.getNumCopies());
-		this.setTotalRating(bookToCopy.getTotalRating());
 		this.setEditorPick(bookToCopy.isEditorPick());
 	}
 
+	/**
+	 * Gets the number of titles and authors which were replaced by an equal
+	 * string of another book.
+	 *
+	 * @return the number of strings
+	 */
+	public static long getNumStringsDeduplicated() {
+		return STRINGS.numDeduplicated();
+	}
+
+	/**
+	 * Gets the estimated bytes of the titles and authors which were replaced
+	 * by an equal string of another book.
+	 *
+	 * @return the bytes
+	 */
+	public static long getStringBytesSaved() {
+		return STRINGS.bytesSaved();
+	}
+
 	/**
 	 * Gets the total rating.
 	 *
 	 * @return the total rating
 	 */
 	public long getTotalRating() {
-		return totalRating;
+		return ratings.sum().totalRating;
 	}
 
 	/**
@@ -84,7 +146,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of times rated
 	 */
 	public long getNumTimesRated() {
-		return numTimesRated;
+		return ratings.sum().numTimesRated;
 	}
 
 	/**
@@ -106,12 +168,13 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Gets the average rating.
+	 * Gets the average rating. The total rating and the number of times rated
+	 * are summed over the same ratings, even while the book is rated.
 	 *
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		return ratings.sum().averageRating();
 	}
 
 	/**
@@ -123,26 +186,6 @@ public class BookStoreBook extends ImmutableBook {
 		return editorPick;
 	}
 
-	/**
-	 * Sets the total rating of the book.
-	 *
-	 * @param totalRating
-	 *            the new total rating
-	 */
-	private void setTotalRating(long totalRating) {
-		this.totalRating = totalRating;
-	}
-
-	/**
-	 * Sets the number of times that the book was rated.
-	 *
-	 * @param numTimesRated
-	 *            the new number of times rated
-	 */
-	private void setNumTimesRated(long numTimesRated) {
-		this.numTimesRated = numTimesRated;
-	}
-
 	/**
 	 * Sets the number of copies of a book in stock.
 	 *
@@ -194,12 +237,36 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return true, if successful
 	 */
 	public boolean buyCopies(int numCopies) {
-		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
-			this.numCopies -= numCopies;
-			return true;
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			return false;
 		}
 
-		return false;
+		int currentCopies;
+
+		do {
+			currentCopies = this.numCopies;
+
+			if (currentCopies < numCopies) {
+				return false;
+			}
+		} while (!NUM_COPIES.compareAndSet(this, currentCopies, currentCopies - numCopies));
+
+		return true;
+	}
+
+	/**
+	 * Puts back <code>numCopies</code> copies taken by
+	 * {@link #buyCopies(int)}, e.g. when the rest of an order cannot be
+	 * fulfilled. Unlike {@link #addCopies(int)} this does not reset the sale
+	 * misses of the book.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void returnCopies(int numCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numCopies)) {
+			NUM_COPIES.addAndGet(this, numCopies);
+		}
 	}
 
 	/**
@@ -210,7 +277,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addCopies(int numNewCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
-			this.numCopies += numNewCopies;
+			NUM_COPIES.addAndGet(this, numNewCopies);
 			this.numSaleMisses = 0;
 		}
 	}
@@ -222,7 +289,7 @@ public class BookStoreBook extends ImmutableBook {
 	 *            the number of sales misses encountered
 	 */
 	public void addSaleMiss(int numSaleMisses) {
-		this.numSaleMisses += numSaleMisses;
+		NUM_SALE_MISSES.addAndGet(this, numSaleMisses);
 	}
 
 	/**
@@ -233,8 +300,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			ratings.add(rating);
 		}
 	}
 
@@ -248,6 +314,80 @@ public class BookStoreBook extends ImmutableBook {
 		return this.numSaleMisses > 0;
 	}
 
+	/**
+	 * Marks the start of a write of the book, which must be followed by
+	 * {@link #finishWrite()}. Stores without locks mark all books of an order
+	 * before changing any of them, so readers can tell an order half applied.
+	 */
+	void startWrite() {
+		WRITES_STARTED.incrementAndGet(this);
+	}
+
+	/**
+	 * Marks the end of a write of the book started by {@link #startWrite()}.
+	 */
+	void finishWrite() {
+		WRITES_FINISHED.incrementAndGet(this);
+	}
+
+	/**
+	 * Gets the write stamp of the book, like the sequence number of a
+	 * sequence lock. A read of the book is consistent if the stamp is valid
+	 * and still current after the read, cf. {@link #isWriteStamp(long)}.
+	 *
+	 * @return the stamp, or -1 if a write of the book is running
+	 */
+	long writeStamp() {
+		int finished = writesFinished;
+		int started = writesStarted;
+		return started == finished ? started & 0xFFFFFFFFL : -1;
+	}
+
+	/**
+	 * Checks if no write of the book started since the stamp was taken.
+	 *
+	 * @param stamp
+	 *            the stamp returned by {@link #writeStamp()}
+	 * @return true, if the stamp is valid and current
+	 */
+	boolean isWriteStamp(long stamp) {
+		return stamp >= 0 && (writesStarted & 0xFFFFFFFFL) == stamp;
+	}
+
+	/**
+	 * Checks if a checkpoint claimed the book.
+	 *
+	 * @param epoch
+	 *            the epoch of the checkpoint
+	 * @return true, if claimed
+	 */
+	boolean isClaimedByCheckpoint(long epoch) {
+		return checkpointEpoch >= epoch;
+	}
+
+	/**
+	 * Claims the book for a checkpoint, unless it was claimed already. Whoever
+	 * claims the book first, the checkpoint capturing it or a mutation about to
+	 * change it, provides its state for the checkpoint.
+	 *
+	 * @param epoch
+	 *            the epoch of the checkpoint
+	 * @return true, if this call claimed the book
+	 */
+	boolean claimForCheckpoint(long epoch) {
+		long current;
+
+		do {
+			current = checkpointEpoch;
+
+			if (current >= epoch) {
+				return false;
+			}
+		} while (!CHECKPOINT_EPOCH.compareAndSet(this, current, epoch));
+
+		return true;
+	}
+
 	/**
 	 * Returns a string representation of the book.
 	 *
@@ -260,33 +400,43 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns the {@link ImmutableBook} view of the book. The immutable part of
+	 * a book never changes, so all callers share one view, which also caches
+	 * the wire encoding of the book until the book is removed.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		ImmutableBook view = this.view;
+
+		if (view == null) {
+			// Racing callers may create equal views, either one is fine.
+			view = new ImmutableBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(), true);
+			this.view = view;
+		}
+
+		return view;
 	}
 
 	/**
-	 * Returns a {@link StockBook} copy of the book.
+	 * Returns a {@link StockBook} snapshot of the book. The snapshot shares the
+	 * immutable title and author of the book, and only copies its counters.
 	 *
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
-				this.editorPick);
+		RatingAccumulator.Sum rating = ratings.sum();
+		return new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				this.numCopies, this.numSaleMisses, rating.numTimesRated, rating.totalRating, this.editorPick);
 	}
 
 	/**
-	 * Returns a {@link BookStoreBook} copy of the book.
+	 * Returns a {@link BookStoreBook} copy of the book, sharing its immutable
+	 * title and author.
 	 *
 	 * @return the book store book
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies);
+		return new BookStoreBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(), this.numCopies);
 	}
 }
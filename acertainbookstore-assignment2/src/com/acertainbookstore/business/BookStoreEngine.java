@@ -0,0 +1,153 @@
+package com.acertainbookstore.business;
+
+import java.nio.file.Path;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BookStoreEngine} enumerates the concurrency control implementations
+ * of the bookstore. Every engine implements both the {@link BookStore} and the
+ * {@link StockManager} interfaces.
+ * 
+ * @see BookStore
+ * @see StockManager
+ */
+public enum BookStoreEngine {
+
+	/** The engine protected by a single global read/write lock. */
+	SINGLE_LOCK {
+		@Override
+		public StockManager newInstance() {
+			return new SingleLockConcurrentCertainBookStore(
+					Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_FAIR_LOCK));
+		}
+
+		@Override
+		public StockManager newDurableInstance(Path dataDirectory) throws BookStoreException {
+			return new SingleLockConcurrentCertainBookStore(
+					Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_FAIR_LOCK), dataDirectory);
+		}
+	},
+
+	/** The engine using a top-level lock and per-book locks. */
+	TWO_LEVEL_LOCKING {
+		@Override
+		public StockManager newInstance() {
+			return new TwoLevelLockingConcurrentCertainBookStore();
+		}
+
+		@Override
+		public StockManager newDurableInstance(Path dataDirectory) throws BookStoreException {
+			return new TwoLevelLockingConcurrentCertainBookStore(dataDirectory);
+		}
+	},
+
+	/** The engine using atomic book counters and no locks. */
+	LOCK_FREE {
+		@Override
+		public StockManager newInstance() {
+			return new LockFreeConcurrentCertainBookStore();
+		}
+	},
+
+	/** The engine protected by a global lock with optimistic reads. */
+	STAMPED_LOCK {
+		@Override
+		public StockManager newInstance() {
+			return new StampedLockConcurrentCertainBookStore();
+		}
+	},
+
+	/** The engine keeping multiple versions of the catalog for lock-free reads. */
+	MULTI_VERSION {
+		@Override
+		public StockManager newInstance() {
+			return new MultiVersionConcurrentCertainBookStore();
+		}
+	},
+
+	/** The engine applying all writes in batches on a single writer thread. */
+	SINGLE_WRITER {
+		@Override
+		public StockManager newInstance() {
+			return new SingleWriterConcurrentCertainBookStore();
+		}
+	},
+
+	/** The engine partitioning the books across independently locked shards. */
+	SHARDED {
+		@Override
+		public StockManager newInstance() {
+			return new ShardedCertainBookStore();
+		}
+	},
+
+	/** The engine storing the books in primitive columns. */
+	COLUMNAR {
+		@Override
+		public StockManager newInstance() {
+			return new ColumnarConcurrentCertainBookStore();
+		}
+	},
+
+	/** The engine storing the books outside of the Java heap. */
+	OFF_HEAP {
+		@Override
+		public StockManager newInstance() {
+			return new OffHeapConcurrentCertainBookStore();
+		}
+
+		@Override
+		public StockManager newDurableInstance(Path dataDirectory) throws BookStoreException {
+			return new OffHeapConcurrentCertainBookStore(dataDirectory);
+		}
+	};
+
+	/**
+	 * Creates a new, empty bookstore. The returned instance also implements
+	 * {@link BookStore}.
+	 *
+	 * @return the bookstore
+	 */
+	public abstract StockManager newInstance();
+
+	/**
+	 * Creates a new durable bookstore, which recovers the books logged in the
+	 * data directory and logs its mutations there. The returned instance also
+	 * implements {@link BookStore}.
+	 *
+	 * @param dataDirectory
+	 *            the data directory
+	 * @return the bookstore
+	 * @throws BookStoreException
+	 *             if the engine is not durable, or the log cannot be recovered
+	 */
+	public StockManager newDurableInstance(Path dataDirectory) throws BookStoreException {
+		throw new BookStoreException("The " + name().toLowerCase() + " engine is not durable");
+	}
+
+	/**
+	 * Gets the engine selected by the system properties. The engine property
+	 * takes precedence over the older single lock property.
+	 *
+	 * @return the selected engine
+	 */
+	public static BookStoreEngine fromSystemProperties() {
+		String engineProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_ENGINE);
+
+		if (engineProperty != null) {
+			return valueOf(engineProperty.toUpperCase());
+		}
+
+		String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
+
+		if (singleLockProperty != null && !Boolean.parseBoolean(singleLockProperty)) {
+			return TWO_LEVEL_LOCKING;
+		}
+
+		return SINGLE_LOCK;
+	}
+}
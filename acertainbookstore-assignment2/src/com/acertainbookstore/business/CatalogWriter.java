@@ -0,0 +1,349 @@
+package com.acertainbookstore.business;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link CatalogWriter} applies the {@link StockManager} and
+ * {@link BookStore} mutations to a working version of a multi-version catalog.
+ * Books which are already part of a catalog are never modified; a mutation
+ * copies the books it changes into the working version instead. A mutation
+ * either fails validation and leaves the working version untouched, or is
+ * applied completely, with the exception of a purchase which fails for lack
+ * of copies and still records its sale misses. The recent sales and sale
+ * misses are not versioned, they are recorded in the shared
+ * {@link RecentDemandIndex} as the mutations are applied. The ISBNs of the
+ * books added, marked, rated or removed are collected for the editor picks and
+ * the top rated books, which are updated from the working version once it is
+ * published.
+ *
+ * A {@link CatalogWriter} is not thread-safe, it is owned by one writer at a
+ * time.
+ *
+ * @see MultiVersionConcurrentCertainBookStore
+ */
+final class CatalogWriter {
+
+	/**
+	 * {@link Mutation} is a mutation of the catalog, applied by a
+	 * {@link CatalogWriter}.
+	 */
+	@FunctionalInterface
+	interface Mutation {
+
+		/**
+		 * Applies the mutation.
+		 *
+		 * @param writer
+		 *            the writer of the working version
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void apply(CatalogWriter writer) throws BookStoreException;
+	}
+
+	/** The working version of the catalog. */
+	private PersistentIntMap<BookStoreBook> catalog;
+
+	/** The recent sales and sale misses of the books. */
+	private final RecentDemandIndex recentDemand;
+
+	/** The ISBNs of the books whose editor pick or rating may have changed. */
+	private final Set<Integer> changedIsbns = new LinkedHashSet<>();
+
+	/** Whether all books were removed. */
+	private boolean removedAllBooks;
+
+	/**
+	 * Instantiates a new {@link CatalogWriter}.
+	 *
+	 * @param catalog
+	 *            the version of the catalog to start from
+	 * @param recentDemand
+	 *            the recent sales and sale misses of the books
+	 */
+	CatalogWriter(PersistentIntMap<BookStoreBook> catalog, RecentDemandIndex recentDemand) {
+		this.catalog = catalog;
+		this.recentDemand = recentDemand;
+	}
+
+	/**
+	 * Gets the working version of the catalog.
+	 *
+	 * @return the catalog
+	 */
+	PersistentIntMap<BookStoreBook> getCatalog() {
+		return catalog;
+	}
+
+	/**
+	 * Gets the ISBNs of the books added, marked as editor picks or unmarked,
+	 * rated and removed. Later mutations may have changed the books again, so
+	 * their current versions are looked up in the working version.
+	 *
+	 * @return the ISBNs
+	 */
+	Set<Integer> getChangedIsbns() {
+		return changedIsbns;
+	}
+
+	/**
+	 * Checks if all books were removed, in which case the indexes are cleared
+	 * before the {@link #getChangedIsbns() changed books} are updated.
+	 *
+	 * @return true, if all books were removed
+	 */
+	boolean removedAllBooks() {
+		return removedAllBooks;
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (!(bookPrice >= 0.0)) { // Check if the price of the book is valid, NaN is not
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (catalog.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!catalog.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Copies a book of the working version, so it can be changed.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the new version of the book
+	 */
+	private BookStoreBook newVersion(int isbn) {
+		return new BookStoreBook(catalog.get(isbn));
+	}
+
+	/**
+	 * Adds the books.
+	 *
+	 * @param bookSet
+	 *            the book set
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		// Check if all are there
+		for (StockBook book : bookSet) {
+			validate(book);
+		}
+
+		for (StockBook book : bookSet) {
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			catalog = catalog.put(book.getISBN(), bookStoreBook);
+			changedIsbns.add(bookStoreBook.getISBN());
+		}
+	}
+
+	/**
+	 * Adds copies of existing books.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		for (BookCopy bookCopy : bookCopiesSet) {
+			validate(bookCopy);
+		}
+
+		// Update the number of copies in new versions of the books
+		for (BookCopy bookCopy : bookCopiesSet) {
+			BookStoreBook book = newVersion(bookCopy.getISBN());
+			book.addCopies(bookCopy.getNumCopies());
+			catalog = catalog.put(book.getISBN(), book);
+		}
+	}
+
+	/**
+	 * Marks or unmarks books as editor picks.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		for (BookEditorPick editorPickArg : editorPicks) {
+			validateISBNInStock(editorPickArg.getISBN());
+		}
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			BookStoreBook book = newVersion(editorPickArg.getISBN());
+			book.setEditorPick(editorPickArg.isEditorPick());
+			catalog = catalog.put(book.getISBN(), book);
+			changedIsbns.add(book.getISBN());
+		}
+	}
+
+	/**
+	 * Buys the books. If some book does not have enough copies, the sale misses
+	 * are recorded and the purchase fails.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the book copies to buy
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		// Check that all ISBNs that we buy are there first.
+		int isbn;
+		BookStoreBook book;
+		Boolean saleMiss = false;
+
+		Map<Integer, Integer> salesMisses = new HashMap<>();
+		long timeMillis = System.currentTimeMillis();
+
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			isbn = bookCopyToBuy.getISBN();
+
+			validate(bookCopyToBuy);
+
+			book = catalog.get(isbn);
+
+			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+				// If we cannot sell the copies of the book, it is a miss.
+				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+				saleMiss = true;
+			}
+		}
+
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand
+		if (saleMiss) {
+			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+				book = newVersion(saleMissEntry.getKey());
+				book.addSaleMiss(saleMissEntry.getValue());
+				catalog = catalog.put(book.getISBN(), book);
+				recentDemand.addSaleMisses(book.getISBN(), saleMissEntry.getValue(), timeMillis);
+			}
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		// Then make the purchase.
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			book = newVersion(bookCopyToBuy.getISBN());
+			book.buyCopies(bookCopyToBuy.getNumCopies());
+			catalog = catalog.put(book.getISBN(), book);
+			recentDemand.addSales(book.getISBN(), bookCopyToBuy.getNumCopies(), timeMillis);
+		}
+	}
+
+	/**
+	 * Rates the books.
+	 *
+	 * @param bookRating
+	 *            the book ratings
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		for (BookRating bookRatingArg : bookRating) {
+			validate(bookRatingArg);
+		}
+
+		// Add the ratings to new versions of the books
+		for (BookRating bookRatingArg : bookRating) {
+			BookStoreBook book = newVersion(bookRatingArg.getISBN());
+			book.addRating(bookRatingArg.getRating());
+			catalog = catalog.put(book.getISBN(), book);
+			changedIsbns.add(book.getISBN());
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	void removeAllBooks() {
+		catalog = PersistentIntMap.empty();
+		changedIsbns.clear();
+		removedAllBooks = true;
+		recentDemand.clear();
+	}
+
+	/**
+	 * Removes the books.
+	 *
+	 * @param isbnSet
+	 *            the ISBN set
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(ISBN);
+		}
+
+		for (int isbn : isbnSet) {
+			changedIsbns.add(isbn);
+			catalog = catalog.remove(isbn);
+			recentDemand.remove(isbn);
+		}
+	}
+}
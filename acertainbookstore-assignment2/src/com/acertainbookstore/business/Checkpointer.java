@@ -0,0 +1,604 @@
+package com.acertainbookstore.business;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link Checkpointer} bounds the recovery time of a durable bookstore. A
+ * background thread takes a snapshot of the books once the
+ * {@link WriteAheadLog} grew by {@link #DEFAULT_LOG_SIZE} bytes, or once
+ * {@link #DEFAULT_INTERVAL_SECS} seconds passed since the last snapshot if it
+ * grew at all, and then deletes the segments of the log the snapshot covers.
+ * The system properties {@value BookStoreConstants#PROPERTY_KEY_CHECKPOINT_LOG_SIZE}
+ * and {@value BookStoreConstants#PROPERTY_KEY_CHECKPOINT_INTERVAL} override
+ * both. Recovery loads the snapshot and only replays the log written since.
+ *
+ * A snapshot holds each book as it was when the snapshot began, with its
+ * counters, editor pick, ratings, recent demand and whether it is in demand,
+ * although the bookstore keeps changing the books meanwhile. The checkpointer
+ * only takes the exclusive lock of the bookstore to begin a snapshot, which
+ * rotates the log, and to end it, and captures the books in small chunks under
+ * the shared lock. Mutations preserve a book before they change it for the
+ * first time during a snapshot, and the snapshot writes the preserved state
+ * instead of the changed book. Each book is claimed by whichever comes first,
+ * the snapshot capturing it or a mutation preserving it, so it is written once
+ * and as it was before any change the log records after the rotation.
+ *
+ * A snapshot is written to a temporary file which is renamed over the last
+ * snapshot once it is on disk, so a crash leaves either snapshot complete. Its
+ * records are framed like the records of the log.
+ *
+ * A {@link Checkpointer} is thread-safe.
+ */
+final class Checkpointer {
+
+	/**
+	 * {@link Restorer} puts the books of a snapshot back into a bookstore.
+	 */
+	@FunctionalInterface
+	interface Restorer {
+
+		/**
+		 * Puts the books into the bookstore as they were snapshotted, without
+		 * validating them.
+		 *
+		 * @param books
+		 *            the books
+		 */
+		void restoreBooks(List<BookStoreBook> books);
+	}
+
+	/**
+	 * {@link Snapshotter} takes a snapshot of a durable bookstore and deletes
+	 * the segments of the log it covers.
+	 */
+	@FunctionalInterface
+	interface Snapshotter {
+
+		/**
+		 * Takes a snapshot.
+		 *
+		 * @return the position of the log at which the snapshot began
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 * @throws BookStoreException
+		 *             if the log cannot be written
+		 */
+		long snapshot() throws IOException, BookStoreException;
+	}
+
+	/** The default growth of the log which triggers a snapshot, in bytes. */
+	static final long DEFAULT_LOG_SIZE = 64L << 20;
+
+	/** The default time after which a grown log triggers a snapshot. */
+	static final long DEFAULT_INTERVAL_SECS = 300;
+
+	/** The name of the snapshot file in the data directory. */
+	private static final String SNAPSHOT_FILE_NAME = "bookstore.snapshot";
+
+	/** The name of the snapshot file being written in the data directory. */
+	private static final String TEMPORARY_FILE_NAME = "bookstore.snapshot.tmp";
+
+	/** The version of the snapshot format. */
+	private static final int FORMAT_VERSION = 1;
+
+	/** The record type of the header of a snapshot. */
+	private static final byte HEADER = 1;
+
+	/** The record type of a book. */
+	private static final byte BOOK = 2;
+
+	/** The record type closing a snapshot. */
+	private static final byte END = 3;
+
+	/** The flag of a book in demand. */
+	private static final int IN_DEMAND = 1;
+
+	/** The number of books captured per hold of the shared lock. */
+	private static final int CHUNK_SIZE = 1024;
+
+	/** The number of books restored at once. */
+	private static final int RESTORE_BATCH_SIZE = 4096;
+
+	/** The size of the buffers reading and writing snapshots. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The time between the checks whether to take a snapshot. */
+	private static final long POLL_MILLIS = 100;
+
+	/** The maximum time to wait before retrying a failed snapshot. */
+	private static final long MAX_RETRY_MILLIS = 60000;
+
+	/** The checkpointer of in-memory bookstores, which never snapshots. */
+	private static final Checkpointer DISABLED = new Checkpointer(null, null, null, null, null, 0);
+
+	/** The data directory, or null if disabled. */
+	private final Path directory;
+
+	/** The lock of the bookstore. */
+	private final ReadWriteLock lock;
+
+	/** The books of the bookstore, by ISBN. */
+	private final IntHashMap<BookStoreBook> bookMap;
+
+	/** The recent demand of the books, by ISBN. */
+	private final IntHashMap<DemandWindow> demandWindows;
+
+	/** The ISBNs of the books in demand. */
+	private final Set<Integer> saleMissIsbns;
+
+	/** The number of the first segment of the log not covered by the snapshot. */
+	private final int firstSegment;
+
+	/** The log, set once recovery is done. */
+	private WriteAheadLog log;
+
+	/** The epoch of the last snapshot, counting from 1. */
+	private long epoch;
+
+	/**
+	 * The books preserved for the running snapshot, by ISBN, or null if no
+	 * snapshot is running. Only changed under the exclusive lock.
+	 */
+	private Map<Integer, WriteAheadLog.Encoder> preservedBooks;
+
+	/**
+	 * Instantiates a new {@link Checkpointer}.
+	 *
+	 * @param directory
+	 *            the data directory
+	 * @param lock
+	 *            the lock of the bookstore
+	 * @param bookMap
+	 *            the books, by ISBN
+	 * @param demandWindows
+	 *            the recent demand of the books, by ISBN
+	 * @param saleMissIsbns
+	 *            the ISBNs of the books in demand
+	 * @param firstSegment
+	 *            the number of the first segment of the log to replay
+	 */
+	private Checkpointer(Path directory, ReadWriteLock lock, IntHashMap<BookStoreBook> bookMap,
+			IntHashMap<DemandWindow> demandWindows, Set<Integer> saleMissIsbns, int firstSegment) {
+		this.directory = directory;
+		this.lock = lock;
+		this.bookMap = bookMap;
+		this.demandWindows = demandWindows;
+		this.saleMissIsbns = saleMissIsbns;
+		this.firstSegment = firstSegment;
+	}
+
+	/**
+	 * Gets the checkpointer of in-memory bookstores, which never snapshots and
+	 * preserves nothing.
+	 *
+	 * @return the disabled checkpointer
+	 */
+	static Checkpointer disabled() {
+		return DISABLED;
+	}
+
+	/**
+	 * Restores the books of the snapshot in the data directory, if there is
+	 * one, into an empty bookstore. The caller then replays the log from
+	 * {@link #getFirstSegment()} and {@link #start(WriteAheadLog) starts} the
+	 * checkpointer.
+	 *
+	 * @param directory
+	 *            the data directory
+	 * @param lock
+	 *            the lock of the bookstore, whose exclusive lock keeps all
+	 *            mutations out and whose shared lock keeps books from being
+	 *            added or removed
+	 * @param bookMap
+	 *            the books, by ISBN
+	 * @param demandWindows
+	 *            the recent demand of the books, by ISBN
+	 * @param saleMissIsbns
+	 *            the ISBNs of the books in demand
+	 * @param restorer
+	 *            the restorer of the books
+	 * @return the checkpointer
+	 * @throws BookStoreException
+	 *             if the snapshot cannot be read
+	 */
+	static Checkpointer open(Path directory, ReadWriteLock lock, IntHashMap<BookStoreBook> bookMap,
+			IntHashMap<DemandWindow> demandWindows, Set<Integer> saleMissIsbns, Restorer restorer)
+			throws BookStoreException {
+		Path path = directory.resolve(SNAPSHOT_FILE_NAME);
+
+		try {
+			Files.deleteIfExists(directory.resolve(TEMPORARY_FILE_NAME));
+			int firstSegment = Files.exists(path)
+					? restore(path, demandWindows, saleMissIsbns, restorer)
+					: 0;
+			return new Checkpointer(directory, lock, bookMap, demandWindows, saleMissIsbns, firstSegment);
+		} catch (IOException ex) {
+			throw new BookStoreException("Cannot read the snapshot " + path, ex);
+		}
+	}
+
+	/**
+	 * Gets the number of the first segment of the log not covered by the
+	 * snapshot, which recovery replays from.
+	 *
+	 * @return the number of the segment
+	 */
+	int getFirstSegment() {
+		return firstSegment;
+	}
+
+	/**
+	 * Starts taking snapshots in the background.
+	 *
+	 * @param log
+	 *            the log, replayed from {@link #getFirstSegment()}
+	 */
+	void start(WriteAheadLog log) {
+		this.log = log;
+		startSnapshots(log, this::checkpoint);
+	}
+
+	/**
+	 * Starts a background thread taking snapshots whenever the log grew by
+	 * {@value BookStoreConstants#PROPERTY_KEY_CHECKPOINT_LOG_SIZE} bytes, or
+	 * grew at all and {@value BookStoreConstants#PROPERTY_KEY_CHECKPOINT_INTERVAL}
+	 * seconds passed since the last snapshot.
+	 *
+	 * @param log
+	 *            the log
+	 * @param snapshotter
+	 *            the snapshotter of the bookstore
+	 */
+	static void startSnapshots(WriteAheadLog log, Snapshotter snapshotter) {
+		Thread thread = new Thread(() -> run(log, snapshotter), "bookstore-checkpointer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Preserves a book for the running snapshot, if there is one, before a
+	 * mutation changes it or removes it. The caller must hold the locks which
+	 * keep other mutations from changing the book meanwhile, except for
+	 * ratings.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void preserve(BookStoreBook book) {
+		Map<Integer, WriteAheadLog.Encoder> preserved = preservedBooks;
+
+		if (preserved != null && !book.isClaimedByCheckpoint(epoch)) {
+			// Encode before claiming, so a book claimed by the snapshot meanwhile
+			// was captured before this mutation changes it.
+			WriteAheadLog.Encoder image = encode(book);
+
+			if (book.claimForCheckpoint(epoch)) {
+				preserved.put(book.getISBN(), image);
+			}
+		}
+	}
+
+	/**
+	 * Excludes a book added while a snapshot is running from it, since the log
+	 * records its addition after the rotation.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void exclude(BookStoreBook book) {
+		if (preservedBooks != null) {
+			book.claimForCheckpoint(epoch);
+		}
+	}
+
+	/**
+	 * Takes snapshots whenever the log grew enough or long enough ago. After a
+	 * snapshot failed, the next one waits twice as long as after the previous
+	 * failure, starting from {@link #POLL_MILLIS} and up to
+	 * {@link #MAX_RETRY_MILLIS}, so a full or failing disk is not hammered.
+	 *
+	 * @param log
+	 *            the log
+	 * @param snapshotter
+	 *            the snapshotter of the bookstore
+	 */
+	private static void run(WriteAheadLog log, Snapshotter snapshotter) {
+		long logSize = Long.getLong(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_LOG_SIZE, DEFAULT_LOG_SIZE);
+		long intervalNanos = TimeUnit.SECONDS.toNanos(
+				Long.getLong(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL, DEFAULT_INTERVAL_SECS));
+		long lastNanos = System.nanoTime();
+		long retryNanos = lastNanos;
+		long retryMillis = POLL_MILLIS;
+		long snapshotPosition = 0;
+
+		while (true) {
+			try {
+				Thread.sleep(POLL_MILLIS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+
+			long growth = log.appendedPosition() - snapshotPosition;
+			long now = System.nanoTime();
+
+			if (now - retryNanos < 0) {
+				continue;
+			}
+
+			if (growth >= logSize || (growth > 0 && now - lastNanos >= intervalNanos)) {
+				try {
+					snapshotPosition = snapshotter.snapshot();
+					retryMillis = POLL_MILLIS;
+				} catch (IOException | BookStoreException ex) {
+					// The log still holds everything, a later snapshot retries.
+					ex.printStackTrace();
+					retryNanos = now + TimeUnit.MILLISECONDS.toNanos(retryMillis);
+					retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+				}
+
+				lastNanos = now;
+			}
+		}
+	}
+
+	/**
+	 * Takes a snapshot and deletes the segments of the log it covers.
+	 *
+	 * @return the position of the log at which the snapshot began
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the log cannot be written
+	 */
+	private long checkpoint() throws IOException, BookStoreException {
+		int segment;
+		long snapshotPosition;
+		lock.writeLock().lock();
+
+		try {
+			epoch++;
+			preservedBooks = new ConcurrentHashMap<>();
+			segment = log.rotate();
+			snapshotPosition = log.appendedPosition();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		Path temporary = directory.resolve(TEMPORARY_FILE_NAME);
+		Map<Integer, WriteAheadLog.Encoder> preserved = null;
+
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)) {
+			WriteAheadLog.Encoder header = new WriteAheadLog.Encoder(HEADER);
+			header.writeVarInt(FORMAT_VERSION);
+			header.writeVarInt(segment);
+			header.writeRecordTo(out);
+
+			long numBooks = captureBooks(out);
+			preserved = endSnapshot();
+
+			for (WriteAheadLog.Encoder image : preserved.values()) {
+				image.writeRecordTo(out);
+			}
+
+			WriteAheadLog.Encoder end = new WriteAheadLog.Encoder(END);
+			end.writeVarLong(numBooks + preserved.size());
+			end.writeRecordTo(out);
+			out.flush();
+			channel.force(true);
+		} finally {
+			// Stop preserving books for a failed snapshot.
+			if (preserved == null) {
+				endSnapshot();
+			}
+		}
+
+		Files.move(temporary, directory.resolve(SNAPSHOT_FILE_NAME), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		WriteAheadLog.syncDirectory(directory);
+		log.deleteSegmentsBefore(segment);
+		return snapshotPosition;
+	}
+
+	/**
+	 * Writes the books not preserved yet, in chunks under the shared lock.
+	 *
+	 * @param out
+	 *            the snapshot
+	 * @return the number of books written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private long captureBooks(OutputStream out) throws IOException {
+		int[] isbns;
+		lock.readLock().lock();
+
+		try {
+			isbns = bookMap.keys();
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		List<WriteAheadLog.Encoder> chunk = new ArrayList<>(CHUNK_SIZE);
+		long numBooks = 0;
+
+		for (int start = 0; start < isbns.length; start += CHUNK_SIZE) {
+			lock.readLock().lock();
+
+			try {
+				for (int i = start; i < Math.min(start + CHUNK_SIZE, isbns.length); i++) {
+					BookStoreBook book = bookMap.get(isbns[i]);
+
+					// A book removed since is preserved, a book added since is
+					// claimed already.
+					if (book != null && !book.isClaimedByCheckpoint(epoch)) {
+						WriteAheadLog.Encoder image = encode(book);
+
+						if (book.claimForCheckpoint(epoch)) {
+							chunk.add(image);
+						}
+					}
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+
+			// Write outside of the lock, so mutations only wait for the encoding.
+			for (WriteAheadLog.Encoder image : chunk) {
+				image.writeRecordTo(out);
+			}
+
+			numBooks += chunk.size();
+			chunk.clear();
+		}
+
+		return numBooks;
+	}
+
+	/**
+	 * Ends the running snapshot, once the mutations which preserve books for it
+	 * are done.
+	 *
+	 * @return the books preserved for the snapshot
+	 */
+	private Map<Integer, WriteAheadLog.Encoder> endSnapshot() {
+		lock.writeLock().lock();
+
+		try {
+			Map<Integer, WriteAheadLog.Encoder> preserved = preservedBooks;
+			preservedBooks = null;
+			return preserved;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private WriteAheadLog.Encoder encode(BookStoreBook book) {
+		int isbn = book.getISBN();
+		StockBook stockBook = book.immutableStockBook();
+		WriteAheadLog.Encoder image = new WriteAheadLog.Encoder(BOOK);
+		image.writeStockBook(stockBook);
+		image.writeByte(saleMissIsbns.contains(isbn) ? IN_DEMAND : 0);
+		demandWindows.get(isbn).writeTo(image);
+		return image;
+	}
+
+	/**
+	 * Restores the books of a snapshot.
+	 *
+	 * @param path
+	 *            the snapshot file
+	 * @param demandWindows
+	 *            the recent demand of the books, by ISBN
+	 * @param saleMissIsbns
+	 *            the ISBNs of the books in demand
+	 * @param restorer
+	 *            the restorer of the books
+	 * @return the number of the first segment of the log to replay
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the snapshot is incomplete or corrupt
+	 */
+	private static int restore(Path path, IntHashMap<DemandWindow> demandWindows, Set<Integer> saleMissIsbns,
+			Restorer restorer) throws IOException, BookStoreException {
+		long fileLength = Files.size(path);
+
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+			WriteAheadLog.Decoder header = readRecord(in, fileLength, path);
+
+			if (header.readByte() != HEADER || header.readVarInt() != FORMAT_VERSION) {
+				throw new BookStoreException("The snapshot " + path + " has an unknown format");
+			}
+
+			int firstSegment = header.readVarInt();
+			List<BookStoreBook> books = new ArrayList<>(RESTORE_BATCH_SIZE);
+			List<DemandWindow> windows = new ArrayList<>(RESTORE_BATCH_SIZE);
+			List<Integer> inDemandIsbns = new ArrayList<>();
+			long numBooks = 0;
+
+			while (true) {
+				WriteAheadLog.Decoder record = readRecord(in, fileLength, path);
+				byte type = record.readByte();
+
+				if (type == END) {
+					if (record.readVarLong() != numBooks) {
+						throw new BookStoreException("The snapshot " + path + " misses books");
+					}
+
+					break;
+				}
+
+				if (type != BOOK) {
+					throw new BookStoreException("Unknown record type " + type + " in the snapshot " + path);
+				}
+
+				BookStoreBook book = new BookStoreBook(record.readStockBook());
+
+				if ((record.readByte() & IN_DEMAND) != 0) {
+					inDemandIsbns.add(book.getISBN());
+				}
+
+				books.add(book);
+				windows.add(DemandWindow.readFrom(record));
+				numBooks++;
+
+				if (books.size() == RESTORE_BATCH_SIZE) {
+					restoreBooks(books, windows, demandWindows, restorer);
+				}
+			}
+
+			restoreBooks(books, windows, demandWindows, restorer);
+			saleMissIsbns.addAll(inDemandIsbns);
+			return firstSegment;
+		} catch (EOFException ex) {
+			throw new BookStoreException("The snapshot " + path + " is corrupt", ex);
+		}
+	}
+
+	private static void restoreBooks(List<BookStoreBook> books, List<DemandWindow> windows,
+			IntHashMap<DemandWindow> demandWindows, Restorer restorer) {
+		restorer.restoreBooks(books);
+
+		// The restorer gave the books empty windows.
+		for (int i = 0; i < books.size(); i++) {
+			demandWindows.put(books.get(i).getISBN(), windows.get(i));
+		}
+
+		books.clear();
+		windows.clear();
+	}
+
+	private static WriteAheadLog.Decoder readRecord(InputStream in, long fileLength, Path path)
+			throws IOException, BookStoreException {
+		byte[] payload = WriteAheadLog.readRecord(in, fileLength);
+
+		if (payload == null) {
+			throw new BookStoreException("The snapshot " + path + " is incomplete");
+		}
+
+		return new WriteAheadLog.Decoder(payload);
+	}
+}
@@ -0,0 +1,875 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link ColumnarConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with a columnar inventory.
+ *
+ * Instead of one object per book, every field of the books is stored in its
+ * own primitive array, and a book is the dense slot it occupies in all of
+ * them. Titles and authors are stored once in a {@link StringDictionary} and
+ * referred to by id. Removing a book moves the book of the last slot into the
+ * freed one, so the slots stay dense and scans of the whole catalog, e.g. for
+ * books in demand, are sequential sweeps over one or two arrays. The ISBNs of
+ * the editor picks are kept in an {@link EditorPickIndex} and ordered by
+ * rating in a {@link TopRatedIndex}, so sampling the picks and finding the top
+ * rated books sweep nothing. Most unknown ISBNs are rejected by an
+ * {@link IsbnFilter} before the slot map is probed. All operations are
+ * protected by a single global {@link ReadWriteLock}.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class ColumnarConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The initial number of slots. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The mapping of books from ISBN to slot. */
+	private final IntHashMap<Integer> slotMap = new IntHashMap<>();
+
+	/** The dictionary of titles and authors. */
+	private final StringDictionary dictionary = new StringDictionary();
+
+	/** The ISBNs, by slot. */
+	private int[] isbns = new int[INITIAL_CAPACITY];
+
+	/** The dictionary ids of the titles, by slot. */
+	private int[] titleIds = new int[INITIAL_CAPACITY];
+
+	/** The dictionary ids of the authors, by slot. */
+	private int[] authorIds = new int[INITIAL_CAPACITY];
+
+	/** The prices, by slot. */
+	private float[] prices = new float[INITIAL_CAPACITY];
+
+	/** The numbers of copies, by slot. */
+	private int[] numCopies = new int[INITIAL_CAPACITY];
+
+	/** The total ratings, by slot. */
+	private long[] totalRatings = new long[INITIAL_CAPACITY];
+
+	/** The numbers of times rated, by slot. */
+	private long[] numTimesRated = new long[INITIAL_CAPACITY];
+
+	/** The numbers of sale misses, by slot. */
+	private long[] numSaleMisses = new long[INITIAL_CAPACITY];
+
+	/** Whether the books are editor picks, by slot. */
+	private boolean[] editorPicks = new boolean[INITIAL_CAPACITY];
+
+	/** The number of books, all slots below are in use. */
+	private int numBooks;
+
+	/** The global lock protecting all columns. */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** The recent sales and sale misses of the books, by ISBN. */
+	private final RecentDemandIndex recentDemand = new RecentDemandIndex();
+
+	/** The ISBNs of the editor picks. */
+	private final EditorPickIndex<Integer> editorPickIndex = new EditorPickIndex<>(Integer::intValue,
+			this::isEditorPick);
+
+	/** The ISBNs of the books ordered by rating. */
+	private final TopRatedIndex<Integer> topRatedIndex = new TopRatedIndex<>(Integer::intValue,
+			isbn -> averageRating(slotMap.get(isbn)), slotMap::containsKey);
+
+	/** The filter rejecting ISBNs which are not in the slot map. */
+	private final IsbnFilter isbnFilter = new IsbnFilter();
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 */
+	public ColumnarConcurrentCertainBookStore() {
+		// The columns are allocated with the fields.
+	}
+
+	/**
+	 * Gets the rate of the lookups of ISBNs not in the bookstore which the
+	 * ISBN filter did not reject.
+	 *
+	 * @return the false-positive rate, or 0 if there were no such lookups
+	 */
+	public double getIsbnFilterFalsePositiveRate() {
+		return isbnFilter.falsePositiveRate();
+	}
+
+	/**
+	 * Checks if the book of the ISBN is in stock and an editor pick.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return true, if the book is a current editor pick
+	 */
+	private boolean isEditorPick(int isbn) {
+		Integer slot = slotMap.get(isbn);
+		return slot != null && editorPicks[slot];
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (!(bookPrice >= 0.0)) { // Check if the price of the book is valid, NaN is not
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (slotMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private int validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		int slot = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return slot;
+	}
+
+	private int validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		int slot = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return slot;
+	}
+
+	private int validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		if (!isbnFilter.mightContain(ISBN)) { // Reject most unknown ISBNs without probing the slot map
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		Integer slot = slotMap.get(ISBN);
+
+		if (slot == null) {// Check if the book is in stock
+			isbnFilter.recordFalsePositive();
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Stores the book in its slot, taking a new slot for a new ISBN.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void store(StockBook book) {
+		int isbn = book.getISBN();
+		Integer existingSlot = slotMap.get(isbn);
+		int slot;
+
+		if (existingSlot != null) {
+			slot = existingSlot;
+			dictionary.release(titleIds[slot]);
+			dictionary.release(authorIds[slot]);
+		} else {
+			if (numBooks == isbns.length) {
+				grow();
+			}
+
+			slot = numBooks++;
+			slotMap.put(isbn, slot);
+			isbnFilter.add(isbn);
+		}
+
+		isbns[slot] = isbn;
+		titleIds[slot] = dictionary.acquire(book.getTitle());
+		authorIds[slot] = dictionary.acquire(book.getAuthor());
+		prices[slot] = book.getPrice();
+		numCopies[slot] = book.getNumCopies();
+		totalRatings[slot] = book.getTotalRating();
+		numTimesRated[slot] = book.getNumTimesRated();
+		numSaleMisses[slot] = book.getNumSaleMisses();
+		editorPicks[slot] = book.isEditorPick();
+	}
+
+	/**
+	 * Removes the book of the slot, moving the book of the last slot into it.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	private void remove(int slot) {
+		slotMap.remove(isbns[slot]);
+		dictionary.release(titleIds[slot]);
+		dictionary.release(authorIds[slot]);
+
+		int last = --numBooks;
+
+		if (slot != last) {
+			isbns[slot] = isbns[last];
+			titleIds[slot] = titleIds[last];
+			authorIds[slot] = authorIds[last];
+			prices[slot] = prices[last];
+			numCopies[slot] = numCopies[last];
+			totalRatings[slot] = totalRatings[last];
+			numTimesRated[slot] = numTimesRated[last];
+			numSaleMisses[slot] = numSaleMisses[last];
+			editorPicks[slot] = editorPicks[last];
+			slotMap.put(isbns[slot], slot);
+		}
+	}
+
+	private void grow() {
+		int capacity = isbns.length * 2;
+		isbns = Arrays.copyOf(isbns, capacity);
+		titleIds = Arrays.copyOf(titleIds, capacity);
+		authorIds = Arrays.copyOf(authorIds, capacity);
+		prices = Arrays.copyOf(prices, capacity);
+		numCopies = Arrays.copyOf(numCopies, capacity);
+		totalRatings = Arrays.copyOf(totalRatings, capacity);
+		numTimesRated = Arrays.copyOf(numTimesRated, capacity);
+		numSaleMisses = Arrays.copyOf(numSaleMisses, capacity);
+		editorPicks = Arrays.copyOf(editorPicks, capacity);
+	}
+
+	private float averageRating(int slot) {
+		return numTimesRated[slot] == 0 ? -1.0f : (float) totalRatings[slot] / numTimesRated[slot];
+	}
+
+	private ImmutableBook immutableBook(int slot) {
+		return new ImmutableBook(isbns[slot], dictionary.get(titleIds[slot]), dictionary.get(authorIds[slot]),
+				prices[slot]);
+	}
+
+	private StockBook immutableStockBook(int slot) {
+		return new ImmutableStockBook(isbns[slot], dictionary.get(titleIds[slot]), dictionary.get(authorIds[slot]),
+				prices[slot], numCopies[slot], numSaleMisses[slot], numTimesRated[slot], totalRatings[slot],
+				editorPicks[slot]);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			List<Integer> addedIsbns = new ArrayList<>(bookSet.size());
+
+			for (StockBook book : bookSet) {
+				store(book);
+				addedIsbns.add(book.getISBN());
+			}
+
+			if (isbnFilter.isFull()) {
+				isbnFilter.rebuild(slotMap.keys());
+			}
+
+			editorPickIndex.update(addedIsbns);
+			topRatedIndex.updateAll(addedIsbns);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The slots found by the validation, in iteration order.
+		int[] slots = new int[bookCopiesSet.size()];
+		int i = 0;
+
+		lock.writeLock().lock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				slots[i++] = validate(bookCopy);
+			}
+
+			i = 0;
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int slot = slots[i++];
+				numCopies[slot] += bookCopy.getNumCopies();
+				numSaleMisses[slot] = 0;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		lock.readLock().lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(numBooks);
+
+			for (int slot = 0; slot < numBooks; slot++) {
+				books.add(immutableStockBook(slot));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicksToUpdate) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicksToUpdate == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+
+		try {
+			for (BookEditorPick editorPickArg : editorPicksToUpdate) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			List<Integer> updatedIsbns = new ArrayList<>(editorPicksToUpdate.size());
+
+			for (BookEditorPick editorPickArg : editorPicksToUpdate) {
+				editorPicks[slotMap.get(editorPickArg.getISBN())] = editorPickArg.isEditorPick();
+				updatedIsbns.add(editorPickArg.getISBN());
+			}
+
+			editorPickIndex.update(updatedIsbns);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we buy are there first.
+		boolean saleMiss = false;
+
+		// The slots found by the validation, in iteration order.
+		int[] slots = new int[bookCopiesToBuy.size()];
+		int i = 0;
+		long timeMillis = System.currentTimeMillis();
+
+		lock.writeLock().lock();
+
+		try {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = validate(bookCopyToBuy);
+				slots[i++] = slot;
+
+				if (numCopies[slot] < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				i = 0;
+
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					int slot = slots[i++];
+
+					if (numCopies[slot] < bookCopyToBuy.getNumCopies()) {
+						int numMissing = bookCopyToBuy.getNumCopies() - numCopies[slot];
+						numSaleMisses[slot] += numMissing;
+						recentDemand.addSaleMisses(isbns[slot], numMissing, timeMillis);
+					}
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			i = 0;
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				numCopies[slots[i++]] -= bookCopyToBuy.getNumCopies();
+				recentDemand.addSales(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies(), timeMillis);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				books.add(immutableStockBook(validateISBNInStock(ISBN)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<Book> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				books.add(immutableBook(validateISBNInStock(ISBN)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<Integer> pickedIsbns = editorPickIndex.sample(numBooks);
+			List<Book> books = new ArrayList<>(pickedIsbns.size());
+
+			for (int isbn : pickedIsbns) {
+				books.add(immutableBook(slotMap.get(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<Integer> topIsbns = topRatedIndex.top(numBooks);
+			List<Book> books = new ArrayList<>(topIsbns.size());
+
+			for (int isbn : topIsbns) {
+				books.add(immutableBook(slotMap.get(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Searches the books whose title or author starts with the prefix by
+	 * sweeping its column, in the order of the attribute.
+	 *
+	 * @param attribute
+	 *            the title or author of a slot, read from the column while the
+	 *            lock is held
+	 * @param prefix
+	 *            the prefix
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 */
+	private List<Book> searchByPrefix(Function<Integer, String> attribute, String prefix, int numBooks) {
+		lock.readLock().lock();
+
+		try {
+			Iterable<Integer> slots = () -> IntStream.range(0, this.numBooks).iterator();
+			List<Integer> matches = PrefixIndex.scan(slots, attribute, slot -> isbns[slot], prefix,
+					numBooks);
+			List<Book> books = new ArrayList<>(matches.size());
+
+			for (int slot : matches) {
+				books.add(immutableBook(slot));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByAuthorPrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return searchByPrefix(slot -> dictionary.get(authorIds[slot]), prefix, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByTitlePrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return searchByPrefix(slot -> dictionary.get(titleIds[slot]), prefix, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * boolean, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			Iterable<Integer> slots = () -> IntStream.range(0, this.numBooks).iterator();
+			List<Integer> matches = InvertedIndex.scan(slots, slot -> dictionary.get(titleIds[slot]),
+					slot -> dictionary.get(authorIds[slot]), slot -> isbns[slot], query, matchAll, numBooks);
+			List<Book> books = new ArrayList<>(matches.size());
+
+			for (int slot : matches) {
+				books.add(immutableBook(slot));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice) || Float.isNaN(maxPrice)) {
+			throw new BookStoreException("minPrice = " + minPrice + ", maxPrice = " + maxPrice
+					+ ", but they must be numbers");
+		}
+
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			Iterable<Integer> slots = () -> IntStream.range(0, this.numBooks).iterator();
+			List<Integer> page = PriceIndex.scan(slots, slot -> prices[slot], slot -> isbns[slot], minPrice,
+					maxPrice, offset, numBooks);
+			List<Book> books = new ArrayList<>(page.size());
+
+			for (int slot : page) {
+				books.add(immutableBook(slot));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		lock.readLock().lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			// Sweep the sale miss column.
+			for (int slot = 0; slot < numBooks; slot++) {
+				if (numSaleMisses[slot] > 0) {
+					books.add(immutableStockBook(slot));
+				}
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByRecentMissRate(
+	 * int, int)
+	 */
+	@Override
+	public List<StockBook> getBooksByRecentMissRate(int numBooks, int numMinutes) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (numMinutes < 1 || numMinutes > DemandWindow.NUM_BUCKETS) {
+			throw new BookStoreException(
+					"numMinutes = " + numMinutes + ", but it must be between 1 and " + DemandWindow.NUM_BUCKETS);
+		}
+
+		lock.readLock().lock();
+
+		try {
+			int[] rankedIsbns = recentDemand.rankByRecentMissRate(numBooks, numMinutes, System.currentTimeMillis());
+			List<StockBook> books = new ArrayList<>(rankedIsbns.length);
+
+			for (int isbn : rankedIsbns) {
+				books.add(immutableStockBook(slotMap.get(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The slots found by the validation, in iteration order.
+		int[] slots = new int[bookRating.size()];
+		int i = 0;
+
+		lock.writeLock().lock();
+
+		try {
+			for (BookRating bookRatingArg : bookRating) {
+				slots[i++] = validate(bookRatingArg);
+			}
+
+			i = 0;
+
+			for (BookRating bookRatingArg : bookRating) {
+				int slot = slots[i++];
+				totalRatings[slot] += bookRatingArg.getRating();
+				numTimesRated[slot]++;
+				topRatedIndex.update(isbns[slot]);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lock.writeLock().lock();
+
+		try {
+			slotMap.clear();
+			dictionary.clear();
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			isbnFilter.clear();
+			recentDemand.clear();
+			numBooks = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				remove(slotMap.get(isbn));
+				topRatedIndex.remove(isbn);
+				isbnFilter.remove(isbn);
+				recentDemand.remove(isbn);
+			}
+
+			editorPickIndex.removeAll(isbnSet);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package com.acertainbookstore.business;
+
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * {@link DemandWindow} counts the copies of a book sold and missed over the
+ * last 24 hours in a ring of one-minute buckets. Minutes which fall out of the
+ * window are cleared lazily by the next update, so recording costs O(1)
+ * amortized. Counts saturate at {@link Short#MAX_VALUE} copies per minute,
+ * which keeps a window at under 6 KB. The buckets are allocated by the first
+ * update, so the windows of the many books of a large catalog which are never
+ * sold or missed take a few bytes each.
+ *
+ * A {@link DemandWindow} is not thread-safe: updates of a book must be
+ * serialized, and sums must not run concurrently with updates. Stores without
+ * a lock covering the window serialize them on the window itself.
+ */
+final class DemandWindow {
+
+	/** The length of a bucket in milliseconds. */
+	static final long BUCKET_MILLIS = 60 * 1000;
+
+	/** The number of buckets, covering 24 hours. */
+	static final int NUM_BUCKETS = 24 * 60;
+
+	/**
+	 * {@link RecentDemand} is the recent sales and sale misses of a book.
+	 */
+	private static final class RecentDemand {
+
+		/** The order of the books, most missed first. */
+		private static final Comparator<RecentDemand> MOST_MISSED_FIRST = Comparator
+				.comparingLong((RecentDemand demand) -> demand.saleMisses).reversed()
+				.thenComparingLong(demand -> demand.sales)
+				.thenComparingInt(demand -> demand.isbn);
+
+		/** The ISBN of the book. */
+		private final int isbn;
+
+		/** The recent sales. */
+		private final long sales;
+
+		/** The recent sale misses. */
+		private final long saleMisses;
+
+		private RecentDemand(int isbn, long sales, long saleMisses) {
+			this.isbn = isbn;
+			this.sales = sales;
+			this.saleMisses = saleMisses;
+		}
+	}
+
+	/** The copies sold, by bucket, or null before the first update. */
+	private short[] sales;
+
+	/** The copies missed, by bucket, or null before the first update. */
+	private short[] saleMisses;
+
+	/** The bucket of the last update, counted from the epoch. */
+	private long lastBucket;
+
+	/**
+	 * Adds sold copies of the book.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @param timeMillis
+	 *            the time of the sale
+	 */
+	void addSales(int numCopies, long timeMillis) {
+		int i = advance(timeMillis);
+		sales[i] = saturatedAdd(sales[i], numCopies);
+	}
+
+	/**
+	 * Adds missed copies of the book.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @param timeMillis
+	 *            the time of the sale miss
+	 */
+	void addSaleMisses(int numCopies, long timeMillis) {
+		int i = advance(timeMillis);
+		saleMisses[i] = saturatedAdd(saleMisses[i], numCopies);
+	}
+
+	/**
+	 * Sums the copies sold in the last minutes.
+	 *
+	 * @param numMinutes
+	 *            the number of minutes, at most {@link #NUM_BUCKETS}
+	 * @param timeMillis
+	 *            the current time
+	 * @return the number of copies
+	 */
+	long sumSales(int numMinutes, long timeMillis) {
+		return sum(sales, numMinutes, timeMillis);
+	}
+
+	/**
+	 * Sums the copies missed in the last minutes.
+	 *
+	 * @param numMinutes
+	 *            the number of minutes, at most {@link #NUM_BUCKETS}
+	 * @param timeMillis
+	 *            the current time
+	 * @return the number of copies
+	 */
+	long sumSaleMisses(int numMinutes, long timeMillis) {
+		return sum(saleMisses, numMinutes, timeMillis);
+	}
+
+	/**
+	 * Writes the window to a snapshot, listing only the buckets with sales or
+	 * sale misses.
+	 *
+	 * @param out
+	 *            the encoder
+	 */
+	void writeTo(WriteAheadLog.Encoder out) {
+		int numUsed = 0;
+
+		// Most books of a large catalog were never sold or missed.
+		if (sales != null) {
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				if (sales[i] != 0 || saleMisses[i] != 0) {
+					numUsed++;
+				}
+			}
+		}
+
+		out.writeVarLong(lastBucket);
+		out.writeVarInt(numUsed);
+
+		for (int i = 0; numUsed > 0 && i < NUM_BUCKETS; i++) {
+			if (sales[i] != 0 || saleMisses[i] != 0) {
+				out.writeVarInt(i);
+				out.writeVarInt(sales[i]);
+				out.writeVarInt(saleMisses[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads a window written by {@link #writeTo(WriteAheadLog.Encoder)}.
+	 *
+	 * @param in
+	 *            the decoder
+	 * @return the window
+	 * @throws EOFException
+	 *             if the window ends early or lists a bucket out of range
+	 */
+	static DemandWindow readFrom(WriteAheadLog.Decoder in) throws EOFException {
+		DemandWindow window = new DemandWindow();
+		window.lastBucket = in.readVarLong();
+		int numUsed = in.readVarInt();
+
+		if (numUsed > 0) {
+			window.sales = new short[NUM_BUCKETS];
+			window.saleMisses = new short[NUM_BUCKETS];
+		}
+
+		for (int j = 0; j < numUsed; j++) {
+			int i = in.readVarInt();
+
+			if (i < 0 || i >= NUM_BUCKETS) {
+				throw new EOFException("The bucket " + i + " is out of range");
+			}
+
+			window.sales[i] = (short) in.readVarInt();
+			window.saleMisses[i] = (short) in.readVarInt();
+		}
+
+		return window;
+	}
+
+	/**
+	 * Ranks the books by their sale misses in the last minutes, most missed
+	 * first. Books missed equally often are ranked by their sales, fewest
+	 * first. Books without recent sale misses are left out, and those without
+	 * sale misses in the whole window are reported, so the caller can stop
+	 * visiting them until they are missed again. Each window is summed and
+	 * reported while synchronized on it.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books which may have recent sale misses
+	 * @param windows
+	 *            the windows of the books, null for books without one
+	 * @param expired
+	 *            the consumer of the ISBNs without sale misses in the last
+	 *            {@link #NUM_BUCKETS} minutes
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @param numMinutes
+	 *            the number of minutes, at most {@link #NUM_BUCKETS}
+	 * @param timeMillis
+	 *            the current time
+	 * @return the ISBNs of the books, most missed first
+	 */
+	static int[] rankByRecentMissRate(int[] isbns, IntFunction<DemandWindow> windows, IntConsumer expired,
+			int numBooks, int numMinutes, long timeMillis) {
+		// Keep the most missed numBooks books in a heap whose root is the
+		// least missed of them.
+		PriorityQueue<RecentDemand> mostMissed = new PriorityQueue<>(RecentDemand.MOST_MISSED_FIRST.reversed());
+
+		for (int isbn : isbns) {
+			DemandWindow window = windows.apply(isbn);
+
+			if (window == null) {
+				expired.accept(isbn);
+				continue;
+			}
+
+			long sales;
+			long saleMisses;
+
+			synchronized (window) {
+				saleMisses = window.sumSaleMisses(numMinutes, timeMillis);
+				sales = window.sumSales(numMinutes, timeMillis);
+
+				if (saleMisses == 0 && window.sumSaleMisses(NUM_BUCKETS, timeMillis) == 0) {
+					expired.accept(isbn);
+				}
+			}
+
+			if (saleMisses > 0 && numBooks > 0) {
+				mostMissed.add(new RecentDemand(isbn, sales, saleMisses));
+
+				if (mostMissed.size() > numBooks) {
+					mostMissed.poll();
+				}
+			}
+		}
+
+		List<RecentDemand> ranking = new ArrayList<>(mostMissed);
+		Collections.sort(ranking, RecentDemand.MOST_MISSED_FIRST);
+		int[] rankedIsbns = new int[ranking.size()];
+
+		for (int i = 0; i < rankedIsbns.length; i++) {
+			rankedIsbns[i] = ranking.get(i).isbn;
+		}
+
+		return rankedIsbns;
+	}
+
+	/**
+	 * Moves the window forward to the bucket of the time, clearing the
+	 * buckets of the minutes in between.
+	 *
+	 * @param timeMillis
+	 *            the time
+	 * @return the index of the bucket
+	 */
+	private int advance(long timeMillis) {
+		if (sales == null) {
+			sales = new short[NUM_BUCKETS];
+			saleMisses = new short[NUM_BUCKETS];
+		}
+
+		// A clock going backwards keeps counting in the last bucket.
+		long bucket = Math.max(timeMillis / BUCKET_MILLIS, lastBucket);
+		long firstStale = Math.max(lastBucket + 1, bucket - NUM_BUCKETS + 1);
+
+		for (long stale = firstStale; stale <= bucket; stale++) {
+			sales[index(stale)] = 0;
+			saleMisses[index(stale)] = 0;
+		}
+
+		lastBucket = bucket;
+		return index(bucket);
+	}
+
+	private long sum(short[] counts, int numMinutes, long timeMillis) {
+		if (counts == null) {
+			return 0;
+		}
+
+		long bucket = timeMillis / BUCKET_MILLIS;
+
+		// Buckets after the last update are empty, even if not cleared yet.
+		long first = Math.max(bucket - numMinutes + 1, lastBucket - NUM_BUCKETS + 1);
+		long last = Math.min(bucket, lastBucket);
+		long sum = 0;
+
+		for (long b = first; b <= last; b++) {
+			sum += counts[index(b)];
+		}
+
+		return sum;
+	}
+
+	private static int index(long bucket) {
+		return (int) (bucket % NUM_BUCKETS);
+	}
+
+	private static short saturatedAdd(short count, int numCopies) {
+		return (short) Math.min(Short.MAX_VALUE, (long) count + numCopies);
+	}
+}
@@ -0,0 +1,218 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@link EditorPickIndex} keeps the editor picks of a bookstore in a dense
+ * array, so random editor picks are sampled without looking at the rest of the
+ * catalog. A removed pick is replaced by the last one, and the position of
+ * every pick is indexed by its ISBN.
+ *
+ * A pick is whatever the bookstore looks its books up by, e.g. a
+ * {@link BookStoreBook} or an ISBN. The bookstore tells the index which picks
+ * are current editor picks, and the index checks it again under its own lock
+ * when it is updated, so writers which do not exclude each other may update
+ * it in any order: the last update of an ISBN sees the last change to it.
+ *
+ * An {@link EditorPickIndex} is thread-safe: updates are atomic with respect to
+ * {@link #sample(int)}, and any number of samples run concurrently.
+ *
+ * @param <T>
+ *            the type of the picks
+ */
+final class EditorPickIndex<T> {
+
+	/** The initial number of picks. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The ISBN of a pick. */
+	private final ToIntFunction<? super T> isbnOf;
+
+	/** Whether a pick is a current editor pick of the bookstore. */
+	private final Predicate<? super T> isEditorPick;
+
+	/** The editor picks, all entries below the size are in use. */
+	private Object[] picks = new Object[INITIAL_CAPACITY];
+
+	/** The number of editor picks. */
+	private int size;
+
+	/** The mapping of editor picks from ISBN to position. */
+	private final IntHashMap<Integer> positions = new IntHashMap<>();
+
+	/** The lock protecting the picks and positions. */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Instantiates a new, empty {@link EditorPickIndex}.
+	 *
+	 * @param isbnOf
+	 *            the ISBN of a pick
+	 * @param isEditorPick
+	 *            whether a pick is a current editor pick of the bookstore
+	 */
+	EditorPickIndex(ToIntFunction<? super T> isbnOf, Predicate<? super T> isEditorPick) {
+		this.isbnOf = isbnOf;
+		this.isEditorPick = isEditorPick;
+	}
+
+	/**
+	 * Gets the number of editor picks.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		lock.readLock().lock();
+
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the picks which are current editor picks, replacing the pick with
+	 * the same ISBN. The pick with the ISBN of any other is removed, unless it
+	 * is still a current editor pick itself.
+	 *
+	 * @param books
+	 *            the picks which were added, removed or changed
+	 */
+	void update(Iterable<? extends T> books) {
+		lock.writeLock().lock();
+
+		try {
+			for (T book : books) {
+				int isbn = isbnOf.applyAsInt(book);
+
+				if (isEditorPick.test(book)) {
+					add(isbn, book);
+				} else {
+					Integer position = positions.get(isbn);
+
+					if (position != null && !isEditorPick.test(pickAt(position))) {
+						remove(isbn);
+					}
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the picks of the ISBNs, whether they are current editor picks
+	 * or not.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the removed books
+	 */
+	void removeAll(Iterable<Integer> isbns) {
+		lock.writeLock().lock();
+
+		try {
+			for (int isbn : isbns) {
+				remove(isbn);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all editor picks.
+	 */
+	void clear() {
+		lock.writeLock().lock();
+
+		try {
+			picks = new Object[INITIAL_CAPACITY];
+			size = 0;
+			positions.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Samples distinct editor picks uniformly at random, or all of them if
+	 * there are not more than requested.
+	 *
+	 * The sample is a partial Fisher-Yates shuffle. Instead of swapping the
+	 * shared array, the positions the shuffle would have swapped are kept in
+	 * a small map, so the cost only depends on the number of sampled books.
+	 *
+	 * @param numBooks
+	 *            the number of books to sample
+	 * @return the sampled picks
+	 */
+	List<T> sample(int numBooks) {
+		lock.readLock().lock();
+
+		try {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			int numResults = Math.min(numBooks, size);
+			Map<Integer, Integer> swapped = new HashMap<>(numResults * 2);
+			List<T> books = new ArrayList<>(numResults);
+
+			for (int i = 0; i < numResults; i++) {
+				int j = i + random.nextInt(size - i);
+				int position = swapped.getOrDefault(j, j);
+				swapped.put(j, swapped.getOrDefault(i, i));
+				books.add(pickAt(position));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T pickAt(int position) {
+		return (T) picks[position];
+	}
+
+	private void add(int isbn, T book) {
+		Integer position = positions.get(isbn);
+
+		if (position != null) {
+			// Replace the book, e.g. one added again under the same ISBN.
+			picks[position] = book;
+			return;
+		}
+
+		if (size == picks.length) {
+			picks = Arrays.copyOf(picks, size * 2);
+		}
+
+		picks[size] = book;
+		positions.put(isbn, size++);
+	}
+
+	private void remove(int isbn) {
+		Integer position = positions.remove(isbn);
+
+		if (position == null) {
+			return;
+		}
+
+		T last = pickAt(--size);
+		picks[size] = null;
+
+		if (position != size) {
+			picks[position] = last;
+			positions.put(isbnOf.applyAsInt(last), position);
+		}
+	}
+}
@@ -23,15 +23,21 @@ public class ImmutableBook implements Book {
 	/** The price. */
 	private final float price;
 
+	/**
+	 * Whether the book is a view shared by many responses, which caches its
+	 * wire encoding.
+	 */
+	final transient boolean cachesEncoding;
+
+	/** The cached wire encoding of the book, or null if not encoded yet. */
+	transient volatile byte[] encoding;
+
 	/**
 	 * Instantiates a new {@link ImmutableBook}. This constructor is necessary
 	 * for serialization and has no other purpose.
 	 */
 	public ImmutableBook() {
-		this.isbn = 0;
-		this.title = "";
-		this.author = "";
-		this.price = 0;
+		this(0, "", "", 0);
 	}
 
 	/**
@@ -47,10 +53,30 @@ public class ImmutableBook implements Book {
 	 *            the price
 	 */
 	public ImmutableBook(int isbn, String title, String author, float price) {
+		this(isbn, title, author, price, false);
+	}
+
+	/**
+	 * Instantiates a new {@link ImmutableBook}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 * @param price
+	 *            the price
+	 * @param cachesEncoding
+	 *            true if the book is a shared view which caches its wire
+	 *            encoding
+	 */
+	ImmutableBook(int isbn, String title, String author, float price, boolean cachesEncoding) {
 		this.isbn = isbn;
 		this.title = title;
 		this.author = author;
 		this.price = price;
+		this.cachesEncoding = cachesEncoding;
 	}
 
 	/*
@@ -0,0 +1,77 @@
+package com.acertainbookstore.business;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * {@link ImmutableBookSerializer} serializes {@link ImmutableBook} instances
+ * with Kryo. The encoding of a book only depends on the book itself, never on
+ * the rest of the stream, so the encoding of a shared view is computed once
+ * and then spliced into every response carrying the book.
+ *
+ * @see ImmutableBook
+ */
+public final class ImmutableBookSerializer extends Serializer<ImmutableBook> {
+
+	/** The initial size of the buffer encoding a book. */
+	private static final int BUFFER_SIZE = 64;
+
+	/**
+	 * Instantiates a new {@link ImmutableBookSerializer}.
+	 */
+	public ImmutableBookSerializer() {
+		setImmutable(true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.esotericsoftware.kryo.Serializer#write(com.esotericsoftware.kryo.Kryo,
+	 * com.esotericsoftware.kryo.io.Output, java.lang.Object)
+	 */
+	@Override
+	public void write(Kryo kryo, Output output, ImmutableBook book) {
+		if (!book.cachesEncoding) {
+			encode(output, book);
+			return;
+		}
+
+		byte[] encoding = book.encoding;
+
+		if (encoding == null) {
+			// Racing writers may encode the book twice, to the same bytes.
+			Output buffer = new Output(BUFFER_SIZE, -1);
+			encode(buffer, book);
+			encoding = buffer.toBytes();
+			book.encoding = encoding;
+		}
+
+		output.writeBytes(encoding);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.esotericsoftware.kryo.Serializer#read(com.esotericsoftware.kryo.Kryo,
+	 * com.esotericsoftware.kryo.io.Input, java.lang.Class)
+	 */
+	@Override
+	public ImmutableBook read(Kryo kryo, Input input, Class<ImmutableBook> type) {
+		int isbn = input.readInt(true);
+		String title = input.readString();
+		String author = input.readString();
+		float price = input.readFloat();
+		return new ImmutableBook(isbn, title, author, price);
+	}
+
+	private static void encode(Output output, ImmutableBook book) {
+		output.writeInt(book.getISBN(), true);
+		output.writeString(book.getTitle());
+		output.writeString(book.getAuthor());
+		output.writeFloat(book.getPrice());
+	}
+}
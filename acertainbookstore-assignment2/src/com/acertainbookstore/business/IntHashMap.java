@@ -0,0 +1,292 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * {@link IntHashMap} is a hash map from positive <code>int</code> keys to
+ * values, implemented as an open-addressing table with linear probing. Keys
+ * are stored unboxed in an <code>int[]</code> next to an array of values, so a
+ * lookup neither allocates nor follows a pointer per entry.
+ *
+ * The map has a single writer at a time, which must be serialized by the
+ * caller, but it can be read concurrently with the writer:
+ * <ul>
+ * <li>Once a key is stored in a slot of a table, the slot never holds another
+ * key. Removing a key only clears its value, so a reader is never sent down
+ * the wrong probe sequence by a concurrent removal.</li>
+ * <li>A resize never changes the current table. The entries are rehashed into
+ * a new table which is then published with a single volatile write, so a
+ * reader sees either the complete old or the complete new table.</li>
+ * <li>Every update ends with a volatile write of the table, which makes it
+ * visible to every reader starting afterwards.</li>
+ * </ul>
+ * A reader racing with an update of a key sees either the old or the new
+ * value of the key.
+ *
+ * @param <V>
+ *            the value type, values must not be null
+ */
+final class IntHashMap<V> {
+
+	/** The key marking an empty slot. */
+	private static final int EMPTY_KEY = 0;
+
+	/** The initial number of slots, a power of two. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The current table. */
+	private volatile Table table = new Table(INITIAL_CAPACITY);
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return table.size;
+	}
+
+	/**
+	 * Checks if the map contains the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Gets the value mapped to the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	V get(int key) {
+		Table current = table;
+		int[] keys = current.keys;
+		int mask = keys.length - 1;
+
+		for (int i = slot(key, mask);; i = (i + 1) & mask) {
+			int slotKey = keys[i];
+
+			if (slotKey == key) {
+				return (V) current.values[i];
+			}
+
+			if (slotKey == EMPTY_KEY) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @param key
+	 *            the key, must be positive
+	 * @param value
+	 *            the value
+	 * @return the value previously mapped to the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	V put(int key, V value) {
+		if (key <= EMPTY_KEY) {
+			throw new IllegalArgumentException("key = " + key + ", but it must be positive");
+		}
+
+		Objects.requireNonNull(value);
+		Table current = table;
+		int i = find(current, key);
+
+		if (current.keys[i] == EMPTY_KEY) {
+			// Removed keys keep their slots, so they count towards the load.
+			if ((current.usedSlots + 1) * 2 > current.keys.length) {
+				current = resize(current);
+				i = find(current, key);
+			}
+
+			// A reader racing with the insert sees the key as not mapped yet.
+			current.values[i] = value;
+			current.keys[i] = key;
+			current.usedSlots++;
+			current.size++;
+			table = current;
+			return null;
+		}
+
+		V previous = (V) current.values[i];
+		current.values[i] = value;
+
+		if (previous == null) {
+			current.size++;
+		}
+
+		table = current;
+		return previous;
+	}
+
+	/**
+	 * Removes the mapping of the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value previously mapped to the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	V remove(int key) {
+		Table current = table;
+		int i = find(current, key);
+		V previous = (V) current.values[i];
+
+		if (previous != null) {
+			current.values[i] = null;
+			current.size--;
+			table = current;
+		}
+
+		return previous;
+	}
+
+	/**
+	 * Removes all mappings.
+	 */
+	void clear() {
+		table = new Table(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Performs the action for each value of the map.
+	 *
+	 * @param action
+	 *            the action
+	 */
+	@SuppressWarnings("unchecked")
+	void forEach(Consumer<? super V> action) {
+		for (Object value : table.values) {
+			if (value != null) {
+				action.accept((V) value);
+			}
+		}
+	}
+
+	/**
+	 * Gets the values of the map.
+	 *
+	 * @return a new list of the values
+	 */
+	List<V> values() {
+		List<V> values = new ArrayList<>(size());
+		forEach(values::add);
+		return values;
+	}
+
+	/**
+	 * Gets the keys of the map.
+	 *
+	 * @return a new array of the keys, in no particular order
+	 */
+	int[] keys() {
+		Table current = table;
+		int[] keys = new int[current.size];
+		int numKeys = 0;
+
+		for (int i = 0; i < current.keys.length && numKeys < keys.length; i++) {
+			if (current.values[i] != null) {
+				keys[numKeys++] = current.keys[i];
+			}
+		}
+
+		return numKeys == keys.length ? keys : Arrays.copyOf(keys, numKeys);
+	}
+
+	private static int slot(int key, int mask) {
+		// Spread sequential ISBNs across the table.
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Finds the slot of the key, or the empty slot ending its probe sequence.
+	 *
+	 * @param current
+	 *            the table
+	 * @param key
+	 *            the key
+	 * @return the index of the slot
+	 */
+	private static int find(Table current, int key) {
+		int[] keys = current.keys;
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+
+		while (keys[i] != key && keys[i] != EMPTY_KEY) {
+			i = (i + 1) & mask;
+		}
+
+		return i;
+	}
+
+	/**
+	 * Rehashes the mapped keys of the table into a new table, sized for the
+	 * live entries only, and publishes it.
+	 *
+	 * @param current
+	 *            the current table
+	 * @return the new table
+	 */
+	private Table resize(Table current) {
+		int capacity = INITIAL_CAPACITY;
+
+		while (capacity < (current.size + 1) * 4) {
+			capacity <<= 1;
+		}
+
+		Table resized = new Table(capacity);
+
+		for (int i = 0; i < current.keys.length; i++) {
+			Object value = current.values[i];
+
+			if (value != null) {
+				int j = find(resized, current.keys[i]);
+				resized.keys[j] = current.keys[i];
+				resized.values[j] = value;
+			}
+		}
+
+		resized.size = current.size;
+		resized.usedSlots = current.size;
+		table = resized;
+		return resized;
+	}
+
+	/**
+	 * {@link Table} is one generation of the slots of the map.
+	 */
+	private static final class Table {
+
+		/** The keys of the slots, {@link IntHashMap#EMPTY_KEY} if unused. */
+		private final int[] keys;
+
+		/** The values of the slots, null if unused or removed. */
+		private final Object[] values;
+
+		/** The number of mapped keys, only written by the writer. */
+		private int size;
+
+		/** The number of slots holding a key, mapped or removed. */
+		private int usedSlots;
+
+		private Table(int capacity) {
+			keys = new int[capacity];
+			values = new Object[capacity];
+		}
+	}
+}
@@ -0,0 +1,645 @@
+package com.acertainbookstore.business;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * {@link InvertedIndex} indexes books by the words of their titles and
+ * authors. Each word, or term, maps to the sorted ISBNs of the books
+ * containing it, stored as variable-length deltas, so that the postings of a
+ * common term take little more than a byte per book. Every
+ * {@link Postings#SKIP_INTERVAL} ISBNs the postings keep a skip entry, which
+ * lets a conjunctive search jump over the blocks of a long list which cannot
+ * match its shorter lists.
+ *
+ * Updates go to small sorted buffers of added and removed ISBNs, which are
+ * merged into the compressed postings once they grow past a fraction of
+ * them, so each update costs O(1) amortized re-encoding.
+ *
+ * Stores without an index search their books with
+ * {@link #scan(Iterable, Function, Function, ToIntFunction, String, boolean, int)},
+ * which tokenizes, matches and ranks the books like the index does.
+ *
+ * An {@link InvertedIndex} is not thread-safe: updates must be serialized,
+ * and searches must not run concurrently with updates. Searches may run
+ * concurrently with each other.
+ */
+final class InvertedIndex {
+
+	/** The marker of the end of a list of ISBNs, which are positive. */
+	private static final int END = -1;
+
+	/** The separators of the terms. */
+	private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/**
+	 * {@link Postings} is the sorted ISBNs of the books containing a term.
+	 */
+	private static final class Postings {
+
+		/** The number of ISBNs between two skip entries. */
+		private static final int SKIP_INTERVAL = 128;
+
+		/** The minimum number of buffered updates which triggers a merge. */
+		private static final int MIN_BUFFERED = 64;
+
+		/**
+		 * The merged ISBNs, except for the first of each block, as
+		 * variable-length deltas to their predecessors.
+		 */
+		private byte[] deltas = new byte[0];
+
+		/** The number of merged ISBNs. */
+		private int numMerged;
+
+		/** The first ISBN of each block of merged ISBNs. */
+		private int[] skipIsbns = new int[0];
+
+		/** The offset of the second ISBN of each block in the deltas. */
+		private int[] skipOffsets = new int[0];
+
+		/** The sorted ISBNs added since the last merge. */
+		private int[] added = new int[0];
+
+		/** The number of ISBNs added since the last merge. */
+		private int numAdded;
+
+		/** The sorted merged ISBNs removed since the last merge. */
+		private int[] removed = new int[0];
+
+		/** The number of merged ISBNs removed since the last merge. */
+		private int numRemoved;
+
+		/**
+		 * Gets the number of ISBNs.
+		 *
+		 * @return the number of ISBNs
+		 */
+		int size() {
+			return numMerged + numAdded - numRemoved;
+		}
+
+		/**
+		 * Adds an ISBN, which must not be in the postings.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 */
+		void add(int isbn) {
+			int i = Arrays.binarySearch(removed, 0, numRemoved, isbn);
+
+			if (i >= 0) {
+				System.arraycopy(removed, i + 1, removed, i, --numRemoved - i);
+				return;
+			}
+
+			i = Arrays.binarySearch(added, 0, numAdded, isbn);
+			added = insert(added, numAdded++, -i - 1, isbn);
+			mergeIfNeeded();
+		}
+
+		/**
+		 * Removes an ISBN, which must be in the postings.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 */
+		void remove(int isbn) {
+			int i = Arrays.binarySearch(added, 0, numAdded, isbn);
+
+			if (i >= 0) {
+				System.arraycopy(added, i + 1, added, i, --numAdded - i);
+				return;
+			}
+
+			i = Arrays.binarySearch(removed, 0, numRemoved, isbn);
+			removed = insert(removed, numRemoved++, -i - 1, isbn);
+			mergeIfNeeded();
+		}
+
+		/**
+		 * Checks if a merged ISBN has been removed.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return true, if removed
+		 */
+		boolean isRemoved(int isbn) {
+			return numRemoved > 0 && Arrays.binarySearch(removed, 0, numRemoved, isbn) >= 0;
+		}
+
+		private void mergeIfNeeded() {
+			if (numAdded + numRemoved > Math.max(MIN_BUFFERED, numMerged / 8)) {
+				merge();
+			}
+		}
+
+		/**
+		 * Merges the buffered updates into the compressed postings.
+		 */
+		private void merge() {
+			int size = size();
+			int numBlocks = (size + SKIP_INTERVAL - 1) / SKIP_INTERVAL;
+			byte[] newDeltas = new byte[size * 5];
+			int[] newSkipIsbns = new int[numBlocks];
+			int[] newSkipOffsets = new int[numBlocks];
+			Cursor cursor = new Cursor(this);
+			int offset = 0;
+			int previous = 0;
+
+			for (int n = 0, isbn = cursor.next(); isbn != END; n++, isbn = cursor.next()) {
+				if (n % SKIP_INTERVAL == 0) {
+					newSkipIsbns[n / SKIP_INTERVAL] = isbn;
+					newSkipOffsets[n / SKIP_INTERVAL] = offset;
+				} else {
+					offset = writeVarInt(newDeltas, offset, isbn - previous);
+				}
+
+				previous = isbn;
+			}
+
+			deltas = Arrays.copyOf(newDeltas, offset);
+			numMerged = size;
+			skipIsbns = newSkipIsbns;
+			skipOffsets = newSkipOffsets;
+			numAdded = 0;
+			numRemoved = 0;
+		}
+
+		private static int[] insert(int[] values, int numValues, int i, int value) {
+			if (numValues == values.length) {
+				values = Arrays.copyOf(values, Math.max(4, numValues * 2));
+			}
+
+			System.arraycopy(values, i, values, i + 1, numValues - i);
+			values[i] = value;
+			return values;
+		}
+
+		private static int writeVarInt(byte[] bytes, int offset, int value) {
+			while ((value & ~0x7F) != 0) {
+				bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+
+			bytes[offset++] = (byte) value;
+			return offset;
+		}
+	}
+
+	/**
+	 * {@link Cursor} iterates over the ISBNs of {@link Postings} in ascending
+	 * order, merging the buffered updates on the fly.
+	 */
+	private static final class Cursor {
+
+		/** The postings. */
+		private final Postings postings;
+
+		/** The index of the next merged ISBN to decode. */
+		private int mergedIndex;
+
+		/** The offset of the next delta to decode. */
+		private int offset;
+
+		/** The last decoded merged ISBN. */
+		private int mergedIsbn;
+
+		/** The next merged ISBN which has not been removed, or END. */
+		private int mergedHead;
+
+		/** The index of the next added ISBN. */
+		private int addedIndex;
+
+		private Cursor(Postings postings) {
+			this.postings = postings;
+			mergedHead = nextMerged();
+		}
+
+		/**
+		 * Moves to the next ISBN.
+		 *
+		 * @return the ISBN, or END
+		 */
+		int next() {
+			int addedHead = addedIndex < postings.numAdded ? postings.added[addedIndex] : END;
+
+			if (mergedHead != END && (addedHead == END || mergedHead < addedHead)) {
+				int isbn = mergedHead;
+				mergedHead = nextMerged();
+				return isbn;
+			}
+
+			if (addedHead != END) {
+				addedIndex++;
+			}
+
+			return addedHead;
+		}
+
+		/**
+		 * Moves to the first ISBN which is at least the target.
+		 *
+		 * @param target
+		 *            the target
+		 * @return the ISBN, or END
+		 */
+		int advance(int target) {
+			if (mergedHead != END && mergedHead < target) {
+				mergedHead = seekMerged(target);
+			}
+
+			if (addedIndex < postings.numAdded && postings.added[addedIndex] < target) {
+				int i = Arrays.binarySearch(postings.added, addedIndex, postings.numAdded, target);
+				addedIndex = i >= 0 ? i : -i - 1;
+			}
+
+			return next();
+		}
+
+		private int seekMerged(int target) {
+			int[] skipIsbns = postings.skipIsbns;
+			int nextBlock = (mergedIndex + Postings.SKIP_INTERVAL - 1) / Postings.SKIP_INTERVAL;
+
+			// Jump to the last block starting at or before the target, unless
+			// the target is in the current block, which is the common case of
+			// dense postings and needs no search.
+			if (nextBlock < skipIsbns.length && skipIsbns[nextBlock] <= target) {
+				int block = Arrays.binarySearch(skipIsbns, nextBlock, skipIsbns.length, target);
+				block = block >= 0 ? block : -block - 2;
+				mergedIndex = block * Postings.SKIP_INTERVAL;
+				offset = postings.skipOffsets[block];
+			}
+
+			int isbn;
+
+			do {
+				isbn = nextMerged();
+			} while (isbn != END && isbn < target);
+
+			return isbn;
+		}
+
+		private int nextMerged() {
+			int isbn;
+
+			do {
+				isbn = decode();
+			} while (isbn != END && postings.isRemoved(isbn));
+
+			return isbn;
+		}
+
+		private int decode() {
+			if (mergedIndex == postings.numMerged) {
+				return END;
+			}
+
+			if (mergedIndex % Postings.SKIP_INTERVAL == 0) {
+				mergedIsbn = postings.skipIsbns[mergedIndex / Postings.SKIP_INTERVAL];
+			} else {
+				byte[] deltas = postings.deltas;
+				int delta = 0;
+				int shift = 0;
+				byte b;
+
+				do {
+					b = deltas[offset++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+
+				mergedIsbn += delta;
+			}
+
+			mergedIndex++;
+			return mergedIsbn;
+		}
+	}
+
+	/** The postings, by term. */
+	private final Map<String, Postings> postings = new HashMap<>();
+
+	/** The indexed books, by ISBN. */
+	private final IntHashMap<BookStoreBook> books = new IntHashMap<>();
+
+	/**
+	 * Adds the book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void add(BookStoreBook book) {
+		books.put(book.getISBN(), book);
+
+		for (String term : terms(book)) {
+			postings.computeIfAbsent(term, key -> new Postings()).add(book.getISBN());
+		}
+	}
+
+	/**
+	 * Removes the book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void remove(BookStoreBook book) {
+		books.remove(book.getISBN());
+
+		for (String term : terms(book)) {
+			Postings termPostings = postings.get(term);
+			termPostings.remove(book.getISBN());
+
+			if (termPostings.size() == 0) {
+				postings.remove(term);
+			}
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	void clear() {
+		postings.clear();
+		books.clear();
+	}
+
+	/**
+	 * Searches the books containing all or any of the words of the query,
+	 * ignoring case. Books containing all words are returned in the order of
+	 * their ISBNs. Books containing any word are ranked by the number of words
+	 * they contain, then by their ISBNs.
+	 *
+	 * @param query
+	 *            the query
+	 * @param matchAll
+	 *            true if the books must contain all words, false if any
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 */
+	List<Book> search(String query, boolean matchAll, int numBooks) {
+		List<Postings> queryPostings = new ArrayList<>();
+
+		for (String term : tokenize(query, new LinkedHashSet<>())) {
+			Postings termPostings = postings.get(term);
+
+			if (termPostings != null) {
+				queryPostings.add(termPostings);
+			} else if (matchAll) {
+				return new ArrayList<>();
+			}
+		}
+
+		List<Book> result = new ArrayList<>();
+
+		if (queryPostings.isEmpty() || numBooks == 0) {
+			return result;
+		}
+
+		// The shortest postings propose the fewest candidates.
+		Collections.sort(queryPostings, Comparator.comparingInt(Postings::size));
+
+		int[] isbns = matchAll ? intersect(queryPostings, numBooks) : union(queryPostings, numBooks);
+
+		for (int isbn : isbns) {
+			result.add(books.get(isbn).immutableBook());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Searches the books containing all or any of the words of the query by
+	 * visiting all books, in the order of
+	 * {@link #search(String, boolean, int)}.
+	 *
+	 * @param <T>
+	 *            the type of the books
+	 * @param books
+	 *            the books
+	 * @param title
+	 *            the title of a book
+	 * @param author
+	 *            the author of a book
+	 * @param isbn
+	 *            the ISBN of a book
+	 * @param query
+	 *            the query
+	 * @param matchAll
+	 *            true if the books must contain all words, false if any
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 */
+	static <T> List<T> scan(Iterable<T> books, Function<T, String> title, Function<T, String> author,
+			ToIntFunction<T> isbn, String query, boolean matchAll, int numBooks) {
+		Set<String> queryTerms = tokenize(query, new LinkedHashSet<>());
+		List<T> result = new ArrayList<>();
+
+		if (queryTerms.isEmpty() || numBooks == 0) {
+			return result;
+		}
+
+		// Keep the best numBooks ranks in a heap whose root is the worst.
+		PriorityQueue<Map.Entry<Long, T>> best = new PriorityQueue<>(Map.Entry.comparingByKey());
+
+		for (T book : books) {
+			Set<String> bookTerms = terms(title.apply(book), author.apply(book));
+			int numMatches = 0;
+
+			for (String term : queryTerms) {
+				if (bookTerms.contains(term)) {
+					numMatches++;
+				}
+			}
+
+			if (numMatches == 0 || (matchAll && numMatches < queryTerms.size())) {
+				continue;
+			}
+
+			long rank = rank(numMatches, isbn.applyAsInt(book));
+
+			if (best.size() < numBooks) {
+				best.add(new AbstractMap.SimpleImmutableEntry<>(rank, book));
+			} else if (rank > best.peek().getKey()) {
+				best.poll();
+				best.add(new AbstractMap.SimpleImmutableEntry<>(rank, book));
+			}
+		}
+
+		while (!best.isEmpty()) {
+			result.add(best.poll().getValue());
+		}
+
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * Intersects the postings, leapfrogging the cursors over each other.
+	 *
+	 * @param queryPostings
+	 *            the postings, shortest first
+	 * @param numBooks
+	 *            the maximum number of ISBNs
+	 * @return the first ISBNs contained in all postings
+	 */
+	private static int[] intersect(List<Postings> queryPostings, int numBooks) {
+		int numCursors = queryPostings.size();
+		Cursor[] cursors = new Cursor[numCursors];
+
+		for (int i = 0; i < numCursors; i++) {
+			cursors[i] = new Cursor(queryPostings.get(i));
+		}
+
+		int[] isbns = new int[Math.min(numBooks, queryPostings.get(0).size())];
+		int numIsbns = 0;
+		int candidate = cursors[0].next();
+		int numMatches = 1;
+
+		for (int i = 1 % numCursors; candidate != END && numIsbns < isbns.length; i = (i + 1) % numCursors) {
+			if (numMatches == numCursors) {
+				isbns[numIsbns++] = candidate;
+				candidate = cursors[i].next();
+				numMatches = 1;
+			} else {
+				int isbn = cursors[i].advance(candidate);
+
+				if (isbn == candidate) {
+					numMatches++;
+				} else {
+					candidate = isbn;
+					numMatches = 1;
+				}
+			}
+		}
+
+		return Arrays.copyOf(isbns, numIsbns);
+	}
+
+	/**
+	 * Unites the postings, keeping the ISBNs contained in the most postings.
+	 * Once numBooks ISBNs are kept, of which the worst is contained in m
+	 * postings, only ISBNs contained in more than m postings can replace it.
+	 * Each of them is contained in one of the shortest n - m postings, so only
+	 * these propose candidates, which the longer postings are merely probed
+	 * for.
+	 *
+	 * @param queryPostings
+	 *            the postings, shortest first
+	 * @param numBooks
+	 *            the maximum number of ISBNs
+	 * @return the ISBNs contained in the most postings, ranked
+	 */
+	private static int[] union(List<Postings> queryPostings, int numBooks) {
+		int numCursors = queryPostings.size();
+		Cursor[] cursors = new Cursor[numCursors];
+		int[] heads = new int[numCursors];
+
+		for (int i = 0; i < numCursors; i++) {
+			cursors[i] = new Cursor(queryPostings.get(i));
+			heads[i] = cursors[i].next();
+		}
+
+		// Keep the best numBooks ranks in a heap whose root is the worst.
+		PriorityQueue<Long> best = new PriorityQueue<>();
+		int numProposing = numCursors;
+
+		while (numProposing > 0) {
+			int isbn = END;
+
+			for (int i = 0; i < numProposing; i++) {
+				if (heads[i] != END && (isbn == END || heads[i] < isbn)) {
+					isbn = heads[i];
+				}
+			}
+
+			if (isbn == END) {
+				break;
+			}
+
+			int numMatches = 0;
+
+			for (int i = 0; i < numCursors; i++) {
+				if (heads[i] != END && heads[i] < isbn) {
+					heads[i] = cursors[i].advance(isbn);
+				}
+
+				if (heads[i] == isbn) {
+					numMatches++;
+					heads[i] = cursors[i].next();
+				}
+			}
+
+			long rank = rank(numMatches, isbn);
+
+			if (best.size() < numBooks) {
+				best.add(rank);
+			} else if (rank > best.peek()) {
+				best.poll();
+				best.add(rank);
+			}
+
+			if (best.size() == numBooks) {
+				numProposing = numCursors - (int) (best.peek() >>> 32);
+			}
+		}
+
+		int[] isbns = new int[best.size()];
+
+		for (int i = isbns.length - 1; i >= 0; i--) {
+			isbns[i] = ~best.poll().intValue();
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Ranks an ISBN of a union, first by the number of postings containing
+	 * it, then by the ISBN, lowest first.
+	 *
+	 * @param numMatches
+	 *            the number of postings containing the ISBN
+	 * @param isbn
+	 *            the ISBN
+	 * @return the rank, higher is better
+	 */
+	private static long rank(int numMatches, int isbn) {
+		return ((long) numMatches << 32) | (~isbn & 0xFFFFFFFFL);
+	}
+
+	private static Set<String> terms(BookStoreBook book) {
+		return terms(book.getTitle(), book.getAuthor());
+	}
+
+	private static Set<String> terms(String title, String author) {
+		Set<String> terms = new LinkedHashSet<>();
+		tokenize(title, terms);
+		tokenize(author, terms);
+		return terms;
+	}
+
+	private static Set<String> tokenize(String text, Set<String> terms) {
+		for (String term : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+			if (!term.isEmpty()) {
+				terms.add(term);
+			}
+		}
+
+		return terms;
+	}
+}
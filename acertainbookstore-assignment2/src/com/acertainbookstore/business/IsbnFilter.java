@@ -0,0 +1,214 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link IsbnFilter} is a counting Bloom filter over the ISBNs of a
+ * bookstore. It answers whether an ISBN might be in the bookstore without
+ * touching the book map, so lookups of ISBNs the bookstore does not carry are
+ * mostly rejected after reading {@link #NUM_HASHES} words. Unlike a plain
+ * Bloom filter it supports removals: each ISBN increments
+ * {@link #NUM_HASHES} 4-bit counters, sixteen of which are packed in a
+ * <code>long</code> and updated by compare-and-set. A counter which reaches 15
+ * sticks there, so overflows may only cause false positives, never false
+ * negatives.
+ *
+ * With at least {@link #COUNTERS_PER_ISBN} counters per ISBN the filter lets
+ * through about 1% of the unknown ISBNs. It cannot grow by itself, so its
+ * owner rebuilds it from the ISBNs once it {@link #isFull()}. The filter
+ * counts the lookups it rejected and the false positives its owner reports.
+ *
+ * Updates and lookups may run concurrently, rebuilds and clears must not run
+ * concurrently with anything else. This is why the lock-free bookstore keeps
+ * no filter: it has no lock to exclude the rebuilds with. Neither do the
+ * multi-version bookstores, whose readers look ISBNs up in the version of the
+ * catalog they pinned, which one shared filter does not describe. The off-heap
+ * bookstore keeps none either, since a miss in its {@link OffHeapIntIndex}
+ * costs a probe or two of a flat table, and the filter would bring back a
+ * heap structure growing with the catalog.
+ */
+final class IsbnFilter {
+
+	/** The number of counters incremented per ISBN. */
+	private static final int NUM_HASHES = 4;
+
+	/** The minimum number of counters per ISBN. */
+	private static final int COUNTERS_PER_ISBN = 10;
+
+	/** The number of ISBNs an empty filter is sized for. */
+	private static final int MIN_CAPACITY = 1024;
+
+	/** The number of bits of a counter. */
+	private static final int COUNTER_BITS = 4;
+
+	/** The maximum value of a counter, which sticks once reached. */
+	private static final long MAX_COUNT = (1L << COUNTER_BITS) - 1;
+
+	/** The counters, sixteen per word. */
+	private AtomicLongArray counters;
+
+	/** The mask of the index of a counter. */
+	private int mask;
+
+	/** The number of ISBNs the filter is sized for. */
+	private int capacity;
+
+	/** The number of ISBNs in the filter. */
+	private final AtomicInteger size = new AtomicInteger();
+
+	/** The number of lookups rejected. */
+	private final LongAdder rejections = new LongAdder();
+
+	/** The number of lookups let through for ISBNs not in the bookstore. */
+	private final LongAdder falsePositives = new LongAdder();
+
+	/**
+	 * Instantiates a new empty {@link IsbnFilter}.
+	 */
+	IsbnFilter() {
+		allocate(MIN_CAPACITY);
+	}
+
+	/**
+	 * Adds an ISBN, which must not be in the filter.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void add(int isbn) {
+		long hash = hash(isbn);
+
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int index = index(hash, i);
+			int word = index >>> 4;
+			int shift = (index & 15) * COUNTER_BITS;
+			long current;
+
+			do {
+				current = counters.get(word);
+			} while (((current >>> shift) & MAX_COUNT) != MAX_COUNT
+					&& !counters.compareAndSet(word, current, current + (1L << shift)));
+		}
+
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Removes an ISBN, which must be in the filter.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void remove(int isbn) {
+		long hash = hash(isbn);
+
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int index = index(hash, i);
+			int word = index >>> 4;
+			int shift = (index & 15) * COUNTER_BITS;
+			long current;
+
+			do {
+				current = counters.get(word);
+			} while (((current >>> shift) & MAX_COUNT) != MAX_COUNT
+					&& !counters.compareAndSet(word, current, current - (1L << shift)));
+		}
+
+		size.decrementAndGet();
+	}
+
+	/**
+	 * Checks if an ISBN might be in the filter, counting the rejections.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return false if the ISBN is not in the filter, true if it might be
+	 */
+	boolean mightContain(int isbn) {
+		long hash = hash(isbn);
+
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int index = index(hash, i);
+
+			if (((counters.get(index >>> 4) >>> ((index & 15) * COUNTER_BITS)) & MAX_COUNT) == 0) {
+				rejections.increment();
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Records that a lookup let through was for an ISBN not in the bookstore.
+	 */
+	void recordFalsePositive() {
+		falsePositives.increment();
+	}
+
+	/**
+	 * Gets the rate of the lookups of ISBNs not in the bookstore which were
+	 * let through.
+	 *
+	 * @return the false-positive rate, or 0 if there were no such lookups
+	 */
+	double falsePositiveRate() {
+		long numFalsePositives = falsePositives.sum();
+		long numNegatives = rejections.sum() + numFalsePositives;
+		return numNegatives == 0 ? 0.0 : (double) numFalsePositives / numNegatives;
+	}
+
+	/**
+	 * Checks if the filter holds more ISBNs than it is sized for.
+	 *
+	 * @return true, if full
+	 */
+	boolean isFull() {
+		return size.get() > capacity;
+	}
+
+	/**
+	 * Rebuilds the filter for the ISBNs, sized for twice as many.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 */
+	void rebuild(int[] isbns) {
+		allocate(Math.max(MIN_CAPACITY, isbns.length * 2));
+		size.set(0);
+
+		for (int isbn : isbns) {
+			add(isbn);
+		}
+	}
+
+	/**
+	 * Removes all ISBNs and shrinks the filter to its initial size.
+	 */
+	void clear() {
+		allocate(MIN_CAPACITY);
+		size.set(0);
+	}
+
+	private void allocate(int numIsbns) {
+		int numCounters = Integer.highestOneBit(numIsbns * COUNTERS_PER_ISBN - 1) << 1;
+		counters = new AtomicLongArray(numCounters >>> 4);
+		mask = numCounters - 1;
+		capacity = numCounters / COUNTERS_PER_ISBN;
+	}
+
+	private int index(long hash, int i) {
+		// Double hashing derives all indexes from the two halves of one hash.
+		return ((int) hash + i * ((int) (hash >>> 32) | 1)) & mask;
+	}
+
+	private static long hash(int isbn) {
+		// The finalizer of SplitMix64 spreads consecutive ISBNs.
+		long hash = isbn * 0x9E3779B97F4A7C15L;
+		hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+}
@@ -0,0 +1,749 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link LockFreeConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities without taking any locks.
+ *
+ * Books are kept in a {@link ConcurrentHashMap} and their counters are updated
+ * with compare-and-set operations on the {@link BookStoreBook}. An order is
+ * bought by reserving the copies of each book in ascending ISBN order; if any
+ * book of the order cannot be reserved, the copies already taken are returned
+ * and the sale misses are recorded, so an order is still bought either
+ * completely or not at all.
+ *
+ * Orders, restocks and ratings mark every book they change when they start
+ * and when they finish. Reads of several books check the marks of the books
+ * they read before and after reading, like a sequence lock, and are retried if
+ * a write of one of these books ran in between, so they never see an order
+ * half applied. Readers never make writers wait, and writes of other books
+ * never make readers retry.
+ *
+ * The editor picks are sampled from an {@link EditorPickIndex}, and the top
+ * rated books read off a {@link TopRatedIndex}, which every write adding,
+ * removing, marking or rating books updates after changing them. The indexes
+ * check the books again while they update them, so a book removed or unmarked
+ * by a concurrent write is not left behind.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class LockFreeConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private Map<Integer, BookStoreBook> bookMap = null;
+
+	/** The recent sales and sale misses of the books. */
+	private final RecentDemandIndex recentDemand = new RecentDemandIndex();
+
+	/** The editor picks, sampled by getEditorPicks. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>(BookStoreBook::getISBN,
+			this::isEditorPick);
+
+	/** The books of the book map ordered by rating. */
+	private final TopRatedIndex<BookStoreBook> topRatedIndex = new TopRatedIndex<>(BookStoreBook::getISBN,
+			BookStoreBook::getAverageRating, this::isInStore);
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 */
+	public LockFreeConcurrentCertainBookStore() {
+		bookMap = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Checks if the book is still in the book map.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is in the book map
+	 */
+	private boolean isInStore(BookStoreBook book) {
+		return bookMap.get(book.getISBN()) == book;
+	}
+
+	/**
+	 * Checks if the book is an editor pick which is still in the book map.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is a current editor pick
+	 */
+	private boolean isEditorPick(BookStoreBook book) {
+		return book.isEditorPick() && isInStore(book);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (!(bookPrice >= 0.0)) { // Check if the price of the book is valid, NaN is not
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private BookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		BookStoreBook book = getBookInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		getBookInStock(ISBN);
+	}
+
+	/**
+	 * Looks up a book, failing if the ISBN is invalid or the book is not in
+	 * stock. Since books can be removed concurrently, callers use the returned
+	 * instance instead of looking the book up again.
+	 *
+	 * @param ISBN
+	 *            the ISBN
+	 * @return the book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private BookStoreBook getBookInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	/**
+	 * Reads several books until no order, restock or rating of any of them
+	 * started or was running while they were read. Writes of other books do
+	 * not interfere with the read.
+	 *
+	 * @param <T>
+	 *            the result type
+	 * @param books
+	 *            the books
+	 * @param view
+	 *            the read of one book
+	 * @return the results of the reads, in the order of the books
+	 */
+	private static <T> List<T> consistentRead(List<BookStoreBook> books, Function<BookStoreBook, T> view) {
+		long[] stamps = new long[books.size()];
+		List<T> views = new ArrayList<>(books.size());
+
+		while (true) {
+			boolean consistent = true;
+			views.clear();
+
+			for (int i = 0; i < stamps.length && consistent; i++) {
+				BookStoreBook book = books.get(i);
+				stamps[i] = book.writeStamp();
+				consistent = stamps[i] >= 0;
+				views.add(view.apply(book));
+			}
+
+			// Validate only after all books were read, so there is an instant
+			// at which all of them had the values read.
+			for (int i = 0; i < stamps.length && consistent; i++) {
+				consistent = books.get(i).isWriteStamp(stamps[i]);
+			}
+
+			if (consistent) {
+				return views;
+			}
+
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Marks the start of a write of the books. Every book is marked before any
+	 * is changed, so a read of several books sees the whole write or none of
+	 * it.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	private static void startWrites(Collection<BookStoreBook> books) {
+		for (BookStoreBook book : books) {
+			book.startWrite();
+		}
+	}
+
+	/**
+	 * Marks the end of a write of the books started by
+	 * {@link #startWrites(Collection)}.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	private static void finishWrites(Collection<BookStoreBook> books) {
+		for (BookStoreBook book : books) {
+			book.finishWrite();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check if all are there
+		for (StockBook book : bookSet) {
+			validate(book);
+		}
+
+		List<BookStoreBook> addedBooks = new ArrayList<>(bookSet.size());
+
+		for (StockBook book : bookSet) {
+			int isbn = book.getISBN();
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+
+			// Another client may have added the same ISBN after validation, in
+			// which case the books added so far are taken out again.
+			if (bookMap.putIfAbsent(isbn, bookStoreBook) != null) {
+				for (BookStoreBook addedBook : addedBooks) {
+					bookMap.remove(addedBook.getISBN(), addedBook);
+				}
+
+				editorPickIndex.update(addedBooks);
+				topRatedIndex.updateAll(addedBooks);
+				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+			}
+
+			addedBooks.add(bookStoreBook);
+		}
+
+		editorPickIndex.update(addedBooks);
+		topRatedIndex.updateAll(addedBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Map<BookStoreBook, Integer> booksToUpdate = new HashMap<>();
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			validate(bookCopy);
+			booksToUpdate.put(bookMap.get(bookCopy.getISBN()), bookCopy.getNumCopies());
+		}
+
+		// A book removed after validation is left out.
+		booksToUpdate.remove(null);
+		startWrites(booksToUpdate.keySet());
+
+		try {
+			// Update the number of copies
+			for (Map.Entry<BookStoreBook, Integer> bookToUpdate : booksToUpdate.entrySet()) {
+				bookToUpdate.getKey().addCopies(bookToUpdate.getValue());
+			}
+		} finally {
+			finishWrites(booksToUpdate.keySet());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return consistentRead(new ArrayList<>(bookMap.values()), book -> book.immutableStockBook());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			validate(editorPickArg);
+		}
+
+		List<BookStoreBook> books = new ArrayList<>(editorPicks.size());
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+
+			if (book != null) {
+				book.setEditorPick(editorPickArg.isEditorPick());
+				books.add(book);
+			}
+		}
+
+		editorPickIndex.update(books);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we buy are there first.
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			validate(bookCopyToBuy);
+		}
+
+		List<BookCopy> sortedCopiesToBuy = new ArrayList<>(bookCopiesToBuy);
+		sortedCopiesToBuy.sort((first, second) -> Integer.compare(first.getISBN(), second.getISBN()));
+
+		// The books of the order, or null for a book removed after validation.
+		List<BookStoreBook> books = new ArrayList<>(sortedCopiesToBuy.size());
+
+		for (BookCopy bookCopyToBuy : sortedCopiesToBuy) {
+			books.add(bookMap.get(bookCopyToBuy.getISBN()));
+		}
+
+		List<BookStoreBook> booksInStock = new ArrayList<>(books);
+		booksInStock.removeIf(book -> book == null);
+		long timeMillis = System.currentTimeMillis();
+		startWrites(booksInStock);
+
+		try {
+			// Reserve the copies of every book in the order.
+			Map<BookStoreBook, Integer> reserved = new HashMap<>();
+			Map<BookStoreBook, Integer> salesMisses = new HashMap<>();
+			boolean removed = false;
+
+			for (int i = 0; i < sortedCopiesToBuy.size(); i++) {
+				BookStoreBook book = books.get(i);
+				int numCopies = sortedCopiesToBuy.get(i).getNumCopies();
+
+				if (book == null) {
+					// The book was removed after validation.
+					removed = true;
+				} else if (book.buyCopies(numCopies)) {
+					reserved.put(book, numCopies);
+				} else {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(book, Math.max(numCopies - book.getNumCopies(), 1));
+				}
+			}
+
+			if (removed || !salesMisses.isEmpty()) {
+				// Roll back the reservations before reporting the failure.
+				for (Map.Entry<BookStoreBook, Integer> reservation : reserved.entrySet()) {
+					reservation.getKey().returnCopies(reservation.getValue());
+				}
+
+				if (removed) {
+					throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+				}
+
+				// We throw exception now since we want to see how many books in the
+				// order incurred misses which is used by books in demand
+				for (Map.Entry<BookStoreBook, Integer> saleMissEntry : salesMisses.entrySet()) {
+					saleMissEntry.getKey().addSaleMiss(saleMissEntry.getValue());
+					recentDemand.addSaleMisses(saleMissEntry.getKey().getISBN(), saleMissEntry.getValue(), timeMillis);
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			for (Map.Entry<BookStoreBook, Integer> reservation : reserved.entrySet()) {
+				recentDemand.addSales(reservation.getKey().getISBN(), reservation.getValue(), timeMillis);
+			}
+		} finally {
+			finishWrites(booksInStock);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<BookStoreBook> books = new ArrayList<>(isbnSet.size());
+
+		for (Integer ISBN : isbnSet) {
+			books.add(getBookInStock(ISBN));
+		}
+
+		return consistentRead(books, book -> book.immutableStockBook());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Book> books = new ArrayList<>(isbnSet.size());
+
+		// The immutable part of a book never changes, so any read of it is
+		// consistent.
+		for (Integer ISBN : isbnSet) {
+			books.add(getBookInStock(ISBN).immutableBook());
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return editorPickIndex.sample(numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return topRatedIndex.top(numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByAuthorPrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Titles and authors never change, so the books are read without
+		// validation, like in getBooks.
+		return PrefixIndex.scan(bookMap.values(), BookStoreBook::getAuthor, BookStoreBook::getISBN, prefix, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByTitlePrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Titles and authors never change, so the books are read without
+		// validation, like in getBooks.
+		return PrefixIndex.scan(bookMap.values(), BookStoreBook::getTitle, BookStoreBook::getISBN, prefix, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * boolean, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Titles and authors never change, so the books are read without
+		// validation, like in getBooks.
+		return InvertedIndex.scan(bookMap.values(), BookStoreBook::getTitle, BookStoreBook::getAuthor,
+				BookStoreBook::getISBN, query, matchAll, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice) || Float.isNaN(maxPrice)) {
+			throw new BookStoreException("minPrice = " + minPrice + ", maxPrice = " + maxPrice
+					+ ", but they must be numbers");
+		}
+
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Prices never change, so the books are read without validation, like
+		// in getBooks.
+		return PriceIndex.scan(bookMap.values(), BookStoreBook::getPrice, BookStoreBook::getISBN, minPrice,
+				maxPrice, offset, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return bookMap.values().stream()
+				.filter(book -> book.hadSaleMiss())
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByRecentMissRate(
+	 * int, int)
+	 */
+	@Override
+	public List<StockBook> getBooksByRecentMissRate(int numBooks, int numMinutes) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (numMinutes < 1 || numMinutes > DemandWindow.NUM_BUCKETS) {
+			throw new BookStoreException(
+					"numMinutes = " + numMinutes + ", but it must be between 1 and " + DemandWindow.NUM_BUCKETS);
+		}
+
+		int[] rankedIsbns = recentDemand.rankByRecentMissRate(numBooks, numMinutes, System.currentTimeMillis());
+		List<StockBook> books = new ArrayList<>(rankedIsbns.length);
+
+		for (int isbn : rankedIsbns) {
+			BookStoreBook book = bookMap.get(isbn);
+
+			// The book may have been removed since it was ranked.
+			if (book != null) {
+				books.add(book.immutableStockBook());
+			}
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The books found by the validation, in iteration order.
+		List<BookStoreBook> books = new ArrayList<>(bookRating.size());
+
+		for (BookRating bookRatingArg : bookRating) {
+			books.add(validate(bookRatingArg));
+		}
+
+		// Ratings are accumulated atomically, the marks only keep readers of
+		// several books from seeing some of the ratings.
+		Set<BookStoreBook> ratedBooks = new HashSet<>(books);
+		startWrites(ratedBooks);
+
+		try {
+			int i = 0;
+
+			for (BookRating bookRatingArg : bookRating) {
+				books.get(i++).addRating(bookRatingArg.getRating());
+			}
+		} finally {
+			finishWrites(ratedBooks);
+		}
+
+		topRatedIndex.updateAll(books);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		// Only the books actually removed are taken out of the indexes, the
+		// books added concurrently stay.
+		List<BookStoreBook> removedBooks = new ArrayList<>();
+		bookMap.values().removeIf(removedBooks::add);
+		editorPickIndex.update(removedBooks);
+		topRatedIndex.updateAll(removedBooks);
+		recentDemand.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(ISBN);
+		}
+
+		List<BookStoreBook> removedBooks = new ArrayList<>(isbnSet.size());
+
+		for (int isbn : isbnSet) {
+			BookStoreBook book = bookMap.remove(isbn);
+
+			if (book != null) {
+				removedBooks.add(book);
+			}
+
+			recentDemand.remove(isbn);
+		}
+
+		editorPickIndex.update(removedBooks);
+		topRatedIndex.updateAll(removedBooks);
+	}
+}
@@ -0,0 +1,522 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link MultiVersionConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with multi-version concurrency control.
+ *
+ * The catalog is a {@link PersistentIntMap} of {@link BookStoreBook}s which are
+ * never modified once published. Every write builds a new version of the books
+ * it changes and of the map, and publishes the new catalog with a single
+ * volatile write. Readers take no locks: they pin the current catalog and read
+ * a consistent snapshot from it, however long they take. Writers are
+ * serialized by a lock among themselves only. Old versions are reclaimed by
+ * the garbage collector once no reader refers to them any more.
+ *
+ * The editor picks are sampled from an {@link EditorPickIndex}, and the top
+ * rated books read off a {@link TopRatedIndex}. Both are updated right after
+ * each version is published, so they may lag behind the catalog by one
+ * version.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class MultiVersionConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The current version of the catalog, mapping ISBNs to books. */
+	private volatile PersistentIntMap<BookStoreBook> catalog = PersistentIntMap.empty();
+
+	/** The lock serializing the writers. */
+	private final Lock writeLock = new ReentrantLock();
+
+	/** The recent sales and sale misses of the books, shared by all versions. */
+	private final RecentDemandIndex recentDemand = new RecentDemandIndex();
+
+	/** The editor picks of the current version. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>(BookStoreBook::getISBN,
+			this::isEditorPick);
+
+	/** The books of the current version ordered by rating. */
+	private final TopRatedIndex<BookStoreBook> topRatedIndex = new TopRatedIndex<>(BookStoreBook::getISBN,
+			BookStoreBook::getAverageRating, this::isInStore);
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 */
+	public MultiVersionConcurrentCertainBookStore() {
+		// Nothing to initialize, the catalog starts empty.
+	}
+
+	private void validateISBNInStock(PersistentIntMap<BookStoreBook> snapshot, Integer ISBN)
+			throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (!snapshot.containsKey(ISBN)) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/**
+	 * Gets the current version of the catalog.
+	 *
+	 * @return the catalog
+	 */
+	PersistentIntMap<BookStoreBook> getCatalog() {
+		return catalog;
+	}
+
+	/**
+	 * Gets the recent sales and sale misses of the books.
+	 *
+	 * @return the recent demand
+	 */
+	RecentDemandIndex getRecentDemand() {
+		return recentDemand;
+	}
+
+	/**
+	 * Checks if the book is in the current version.
+	 *
+	 * @param book
+	 *            the version of the book
+	 * @return true, if the book is the current version
+	 */
+	private boolean isInStore(BookStoreBook book) {
+		return catalog.get(book.getISBN()) == book;
+	}
+
+	/**
+	 * Checks if the book is an editor pick of the current version.
+	 *
+	 * @param book
+	 *            the version of the book
+	 * @return true, if the book is a current editor pick
+	 */
+	private boolean isEditorPick(BookStoreBook book) {
+		return book.isEditorPick() && isInStore(book);
+	}
+
+	/**
+	 * Publishes the working version of the writer as the new version of the
+	 * catalog, and then updates the editor picks and top rated books it
+	 * changed.
+	 *
+	 * @param writer
+	 *            the writer
+	 */
+	void publish(CatalogWriter writer) {
+		PersistentIntMap<BookStoreBook> published = writer.getCatalog();
+		catalog = published;
+
+		if (writer.removedAllBooks()) {
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+		}
+
+		// A writer may change a book several times, only its last version is
+		// in the catalog.
+		List<BookStoreBook> changedBooks = new ArrayList<>();
+		List<Integer> removedIsbns = new ArrayList<>();
+
+		for (int isbn : writer.getChangedIsbns()) {
+			BookStoreBook book = published.get(isbn);
+
+			if (book == null) {
+				removedIsbns.add(isbn);
+			} else {
+				changedBooks.add(book);
+			}
+		}
+
+		editorPickIndex.removeAll(removedIsbns);
+		editorPickIndex.update(changedBooks);
+
+		for (int isbn : removedIsbns) {
+			topRatedIndex.remove(isbn);
+		}
+
+		topRatedIndex.updateAll(changedBooks);
+	}
+
+	/**
+	 * Applies a mutation to a new version of the catalog and publishes it. The
+	 * version is published even if the mutation fails, since a failed purchase
+	 * still records its sale misses.
+	 *
+	 * @param mutation
+	 *            the mutation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	void write(CatalogWriter.Mutation mutation) throws BookStoreException {
+		writeLock.lock();
+
+		try {
+			CatalogWriter writer = new CatalogWriter(catalog, recentDemand);
+
+			try {
+				mutation.apply(writer);
+			} finally {
+				publish(writer);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		write(writer -> writer.addBooks(bookSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		write(writer -> writer.addCopies(bookCopiesSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		PersistentIntMap<BookStoreBook> snapshot = catalog;
+		List<StockBook> books = new ArrayList<>(snapshot.size());
+		snapshot.forEach(book -> books.add(book.immutableStockBook()));
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		write(writer -> writer.updateEditorPicks(editorPicks));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		write(writer -> writer.buyBooks(bookCopiesToBuy));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		PersistentIntMap<BookStoreBook> snapshot = catalog;
+
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(snapshot, ISBN);
+		}
+
+		return isbnSet.stream()
+				.map(isbn -> snapshot.get(isbn).immutableStockBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		PersistentIntMap<BookStoreBook> snapshot = catalog;
+
+		// Check that all ISBNs that we rate are there to start with.
+		for (Integer ISBN : isbnSet) {
+			validateISBNInStock(snapshot, ISBN);
+		}
+
+		return isbnSet.stream()
+				.map(isbn -> snapshot.get(isbn).immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return editorPickIndex.sample(numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return topRatedIndex.top(numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByAuthorPrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		PersistentIntMap<BookStoreBook> snapshot = catalog;
+		List<BookStoreBook> books = new ArrayList<>(snapshot.size());
+		snapshot.forEach(books::add);
+		return PrefixIndex.scan(books, BookStoreBook::getAuthor, BookStoreBook::getISBN, prefix, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByTitlePrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		PersistentIntMap<BookStoreBook> snapshot = catalog;
+		List<BookStoreBook> books = new ArrayList<>(snapshot.size());
+		snapshot.forEach(books::add);
+		return PrefixIndex.scan(books, BookStoreBook::getTitle, BookStoreBook::getISBN, prefix, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * boolean, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		PersistentIntMap<BookStoreBook> snapshot = catalog;
+		List<BookStoreBook> books = new ArrayList<>(snapshot.size());
+		snapshot.forEach(books::add);
+		return InvertedIndex.scan(books, BookStoreBook::getTitle, BookStoreBook::getAuthor, BookStoreBook::getISBN,
+				query, matchAll, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice) || Float.isNaN(maxPrice)) {
+			throw new BookStoreException("minPrice = " + minPrice + ", maxPrice = " + maxPrice
+					+ ", but they must be numbers");
+		}
+
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		PersistentIntMap<BookStoreBook> snapshot = catalog;
+		List<BookStoreBook> books = new ArrayList<>(snapshot.size());
+		snapshot.forEach(books::add);
+		return PriceIndex.scan(books, BookStoreBook::getPrice, BookStoreBook::getISBN, minPrice, maxPrice, offset,
+				numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		List<StockBook> books = new ArrayList<>();
+		catalog.forEach(book -> {
+			if (book.hadSaleMiss()) {
+				books.add(book.immutableStockBook());
+			}
+		});
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByRecentMissRate(
+	 * int, int)
+	 */
+	@Override
+	public List<StockBook> getBooksByRecentMissRate(int numBooks, int numMinutes) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (numMinutes < 1 || numMinutes > DemandWindow.NUM_BUCKETS) {
+			throw new BookStoreException(
+					"numMinutes = " + numMinutes + ", but it must be between 1 and " + DemandWindow.NUM_BUCKETS);
+		}
+
+		int[] rankedIsbns = recentDemand.rankByRecentMissRate(numBooks, numMinutes, System.currentTimeMillis());
+		PersistentIntMap<BookStoreBook> snapshot = catalog;
+		List<StockBook> books = new ArrayList<>(rankedIsbns.length);
+
+		for (int isbn : rankedIsbns) {
+			BookStoreBook book = snapshot.get(isbn);
+
+			// The book may have been removed since it was ranked.
+			if (book != null) {
+				books.add(book.immutableStockBook());
+			}
+		}
+
+		return books;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		write(writer -> writer.rateBooks(bookRating));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		write(writer -> writer.removeAllBooks());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		write(writer -> writer.removeBooks(isbnSet));
+	}
+}
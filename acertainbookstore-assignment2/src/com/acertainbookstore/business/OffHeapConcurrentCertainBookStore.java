@@ -0,0 +1,1170 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link OffHeapConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with the inventory kept outside of the
+ * Java heap.
+ *
+ * Every book is a fixed-size record in a direct {@link ByteBuffer}, its title
+ * and author are stored in an {@link OffHeapStringArena} and the ISBNs are
+ * indexed by an {@link OffHeapIntIndex}. Records are kept dense by moving the
+ * last record into the place of a removed one. The heap only holds the
+ * buffers' handles and the objects returned to the clients, so its footprint
+ * does not grow with the catalog and the garbage collector never scans the
+ * books. All operations are protected by a single global
+ * {@link ReadWriteLock}.
+ *
+ * A store created with a data directory is durable: it logs its mutations to
+ * a {@link WriteAheadLog} in the directory before they return, and copies its
+ * buffers into an {@link OffHeapImage} in the background. When it is created
+ * again it maps the image in place instead of loading the books, and only
+ * replays the log written since the image was taken. Like the snapshots of
+ * the other durable engines, taking an image does not pause writers: the
+ * records are copied a chunk at a time, and a writer first copies the chunk
+ * it is about to change if the image has not got it yet.
+ *
+ * The recent sales and sale misses are kept on the heap in a
+ * {@link RecentDemandIndex}, which holds only the books sold or missed. They
+ * are not part of the image, so a restart recovers only those logged since
+ * the image was taken. The ISBNs of the editor picks are kept on the heap in
+ * an {@link EditorPickIndex} as well, and the ISBNs of all books ordered by
+ * rating in a {@link TopRatedIndex}. A store mapping an image only builds
+ * these on the first request for editor picks or top rated books, which reads
+ * all the records.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class OffHeapConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The offset of the ISBN in a record. */
+	private static final int ISBN = 0;
+
+	/** The offset of the price in a record. */
+	private static final int PRICE = 4;
+
+	/** The offset of the number of copies in a record. */
+	private static final int NUM_COPIES = 8;
+
+	/** The offset of the flags in a record. */
+	private static final int FLAGS = 12;
+
+	/** The offset of the total rating in a record. */
+	private static final int TOTAL_RATING = 16;
+
+	/** The offset of the number of times rated in a record. */
+	private static final int NUM_TIMES_RATED = 24;
+
+	/** The offset of the number of sale misses in a record. */
+	private static final int NUM_SALE_MISSES = 32;
+
+	/** The offset of the arena reference of the title in a record. */
+	private static final int TITLE = 40;
+
+	/** The offset of the arena reference of the author in a record. */
+	private static final int AUTHOR = 48;
+
+	/** The size of a record in bytes. */
+	private static final int RECORD_SIZE = 56;
+
+	/** The flag of editor picks. */
+	private static final int EDITOR_PICK_FLAG = 1;
+
+	/** The initial number of records. */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/** The records of the books. */
+	private ByteBuffer records;
+
+	/** The number of books, all records below are in use. */
+	private int numBooks;
+
+	/** The mapping of books from ISBN to record number. */
+	private OffHeapIntIndex index = new OffHeapIntIndex();
+
+	/** The titles and authors of the books. */
+	private OffHeapStringArena arena = new OffHeapStringArena();
+
+	/** The global lock protecting the records, index and arena. */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** The recent sales and sale misses of the books, by ISBN. */
+	private final RecentDemandIndex recentDemand = new RecentDemandIndex();
+
+	/** The ISBNs of the editor picks, or null until the picks of an image are indexed. */
+	private volatile EditorPickIndex<Integer> editorPickIndex = newEditorPickIndex();
+
+	/** The ISBNs ordered by rating, or null until the books of an image are indexed. */
+	private volatile TopRatedIndex<Integer> topRatedIndex = newTopRatedIndex();
+
+	/** The log of the mutations, disabled unless the store is durable. */
+	private WriteAheadLog log = WriteAheadLog.disabled();
+
+	/** The image of the buffers, or null unless the store is durable. */
+	private OffHeapImage image;
+
+	/** The copy of the buffers into a new image, or null if none is running. */
+	private OffHeapImage.Copy imageCopy;
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 */
+	public OffHeapConcurrentCertainBookStore() {
+		records = allocateRecords(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new durable {@link CertainBookStore}, which maps the
+	 * image in the data directory, replays the log written since and logs its
+	 * mutations there.
+	 *
+	 * @param dataDirectory
+	 *            the data directory
+	 * @throws BookStoreException
+	 *             if the image cannot be mapped or the log cannot be opened
+	 *             or replayed
+	 */
+	public OffHeapConcurrentCertainBookStore(Path dataDirectory) throws BookStoreException {
+		this();
+
+		OffHeapImage recovered = OffHeapImage.open(dataDirectory, RECORD_SIZE);
+
+		if (recovered.getRecords() != null) {
+			records = recovered.getRecords();
+			numBooks = recovered.getNumBooks();
+			index = recovered.getIndex();
+			arena = recovered.getArena();
+			editorPickIndex = null;
+			topRatedIndex = null;
+		}
+
+		// The log stays disabled during the replay, so replayed mutations are
+		// not logged again.
+		log = WriteAheadLog.open(dataDirectory, recovered.getFirstSegment(), this, this,
+				this::buyBooks);
+		image = recovered;
+		Checkpointer.startSnapshots(log, this::checkpoint);
+	}
+
+	private EditorPickIndex<Integer> newEditorPickIndex() {
+		return new EditorPickIndex<>(Integer::intValue, this::isEditorPickInStock);
+	}
+
+	private TopRatedIndex<Integer> newTopRatedIndex() {
+		return new TopRatedIndex<>(Integer::intValue, isbn -> averageRating(index.get(isbn)),
+				isbn -> index.get(isbn) != OffHeapIntIndex.NO_VALUE);
+	}
+
+	/**
+	 * Checks if the book of the ISBN is in stock and an editor pick.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return true, if the book is a current editor pick
+	 */
+	private boolean isEditorPickInStock(int isbn) {
+		int record = index.get(isbn);
+		return record != OffHeapIntIndex.NO_VALUE && isEditorPick(record);
+	}
+
+	/**
+	 * Updates the editor picks of the books, unless they are not indexed yet.
+	 * The caller holds the write lock.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books added, removed or changed
+	 */
+	private void updateEditorPickIndex(List<Integer> isbns) {
+		if (editorPickIndex != null) {
+			editorPickIndex.update(isbns);
+		}
+	}
+
+	/**
+	 * Updates the ratings of the books, unless they are not indexed yet. The
+	 * caller holds the write lock.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books added, removed or rated
+	 */
+	private void updateTopRatedIndex(List<Integer> isbns) {
+		if (topRatedIndex != null) {
+			topRatedIndex.updateAll(isbns);
+		}
+	}
+
+	/**
+	 * Indexes the editor picks and ratings of the records, unless they are
+	 * indexed already.
+	 */
+	private void indexRecords() {
+		lock.writeLock().lock();
+
+		try {
+			if (editorPickIndex == null) {
+				EditorPickIndex<Integer> picks = newEditorPickIndex();
+				TopRatedIndex<Integer> topRated = newTopRatedIndex();
+				List<Integer> isbns = new ArrayList<>();
+
+				for (int record = 0; record < numBooks; record++) {
+					int isbn = records.getInt(offset(record, ISBN));
+					topRated.update(isbn);
+
+					if (isEditorPick(record)) {
+						isbns.add(isbn);
+					}
+				}
+
+				picks.update(isbns);
+				editorPickIndex = picks;
+				topRatedIndex = topRated;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static ByteBuffer allocateRecords(int capacity) {
+		return ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.nativeOrder());
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (!(bookPrice >= 0.0)) { // Check if the price of the book is valid, NaN is not
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (index.get(isbn) != OffHeapIntIndex.NO_VALUE) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private int validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		int record = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return record;
+	}
+
+	private int validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		int record = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return record;
+	}
+
+	private int validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		int record = index.get(ISBN);
+
+		if (record == OffHeapIntIndex.NO_VALUE) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return record;
+	}
+
+	private static int offset(int record, int field) {
+		return record * RECORD_SIZE + field;
+	}
+
+	private int getNumCopies(int record) {
+		return records.getInt(offset(record, NUM_COPIES));
+	}
+
+	private boolean isEditorPick(int record) {
+		return (records.getInt(offset(record, FLAGS)) & EDITOR_PICK_FLAG) != 0;
+	}
+
+	private float averageRating(int record) {
+		long numTimesRated = records.getLong(offset(record, NUM_TIMES_RATED));
+		return numTimesRated == 0 ? -1.0f : (float) records.getLong(offset(record, TOTAL_RATING)) / numTimesRated;
+	}
+
+	/**
+	 * Preserves the record for the running copy of the buffers, if any,
+	 * before it is changed.
+	 *
+	 * @param record
+	 *            the record
+	 */
+	private void preserve(int record) {
+		if (imageCopy != null) {
+			imageCopy.preserve(records, offset(record, 0), RECORD_SIZE);
+		}
+	}
+
+	private ImmutableBook immutableBook(int record) {
+		return new ImmutableBook(records.getInt(offset(record, ISBN)),
+				arena.get(records.getLong(offset(record, TITLE))),
+				arena.get(records.getLong(offset(record, AUTHOR))),
+				records.getFloat(offset(record, PRICE)));
+	}
+
+	private StockBook immutableStockBook(int record) {
+		return new ImmutableStockBook(records.getInt(offset(record, ISBN)),
+				arena.get(records.getLong(offset(record, TITLE))),
+				arena.get(records.getLong(offset(record, AUTHOR))),
+				records.getFloat(offset(record, PRICE)),
+				getNumCopies(record),
+				records.getLong(offset(record, NUM_SALE_MISSES)),
+				records.getLong(offset(record, NUM_TIMES_RATED)),
+				records.getLong(offset(record, TOTAL_RATING)),
+				isEditorPick(record));
+	}
+
+	/**
+	 * Appends the record of a new book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void append(StockBook book) {
+		if ((numBooks + 1) * RECORD_SIZE > records.capacity()) {
+			ByteBuffer grown = allocateRecords(2 * records.capacity() / RECORD_SIZE);
+			ByteBuffer used = records.duplicate();
+			((Buffer) used).limit(numBooks * RECORD_SIZE);
+			((Buffer) used).position(0);
+			grown.put(used);
+			records = grown;
+		}
+
+		int record = numBooks++;
+		preserve(record);
+		records.putInt(offset(record, ISBN), book.getISBN());
+		records.putFloat(offset(record, PRICE), book.getPrice());
+		records.putInt(offset(record, NUM_COPIES), book.getNumCopies());
+		records.putInt(offset(record, FLAGS), book.isEditorPick() ? EDITOR_PICK_FLAG : 0);
+		records.putLong(offset(record, TOTAL_RATING), book.getTotalRating());
+		records.putLong(offset(record, NUM_TIMES_RATED), book.getNumTimesRated());
+		records.putLong(offset(record, NUM_SALE_MISSES), book.getNumSaleMisses());
+		records.putLong(offset(record, TITLE), arena.add(book.getTitle()));
+		records.putLong(offset(record, AUTHOR), arena.add(book.getAuthor()));
+		index.put(book.getISBN(), record);
+	}
+
+	/**
+	 * Removes the record, moving the last record into its place.
+	 *
+	 * @param record
+	 *            the record
+	 */
+	private void remove(int record) {
+		index.remove(records.getInt(offset(record, ISBN)));
+		arena.free(records.getLong(offset(record, TITLE)));
+		arena.free(records.getLong(offset(record, AUTHOR)));
+
+		int last = --numBooks;
+
+		if (record != last) {
+			preserve(record);
+
+			for (int i = 0; i < RECORD_SIZE; i += Long.BYTES) {
+				records.putLong(offset(record, i), records.getLong(offset(last, i)));
+			}
+
+			index.put(records.getInt(offset(record, ISBN)), record);
+		}
+
+		if (arena.needsCompaction()) {
+			compactArena();
+		}
+	}
+
+	/**
+	 * Moves the live titles and authors into a new arena, dropping the
+	 * garbage left by removed books.
+	 */
+	private void compactArena() {
+		OffHeapStringArena compacted = arena.newCompactedArena();
+
+		for (int record = 0; record < numBooks; record++) {
+			preserve(record);
+			records.putLong(offset(record, TITLE), compacted.add(arena.get(records.getLong(offset(record, TITLE)))));
+			records.putLong(offset(record, AUTHOR),
+					compacted.add(arena.get(records.getLong(offset(record, AUTHOR)))));
+		}
+
+		arena = compacted;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			List<Integer> addedIsbns = new ArrayList<>(bookSet.size());
+
+			for (StockBook book : bookSet) {
+				int existing = index.get(book.getISBN());
+
+				// A set may hold two different books with the same ISBN, the
+				// last one replaces the others like in a map.
+				if (existing != OffHeapIntIndex.NO_VALUE) {
+					remove(existing);
+				}
+
+				append(book);
+				addedIsbns.add(book.getISBN());
+			}
+
+			updateEditorPickIndex(addedIsbns);
+			updateTopRatedIndex(addedIsbns);
+
+			position = log.logAddBooks(bookSet);
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The records found by the validation, in iteration order.
+		int[] bookRecords = new int[bookCopiesSet.size()];
+		int i = 0;
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				bookRecords[i++] = validate(bookCopy);
+			}
+
+			i = 0;
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int record = bookRecords[i++];
+				preserve(record);
+				records.putInt(offset(record, NUM_COPIES), getNumCopies(record) + bookCopy.getNumCopies());
+				records.putLong(offset(record, NUM_SALE_MISSES), 0);
+			}
+
+			position = log.logAddCopies(bookCopiesSet);
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		lock.readLock().lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(numBooks);
+
+			for (int record = 0; record < numBooks; record++) {
+				books.add(immutableStockBook(record));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			List<Integer> updatedIsbns = new ArrayList<>(editorPicks.size());
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				int record = index.get(editorPickArg.getISBN());
+				preserve(record);
+				int flagsOffset = offset(record, FLAGS);
+				int flags = records.getInt(flagsOffset);
+				flags = editorPickArg.isEditorPick() ? flags | EDITOR_PICK_FLAG : flags & ~EDITOR_PICK_FLAG;
+				records.putInt(flagsOffset, flags);
+				updatedIsbns.add(editorPickArg.getISBN());
+			}
+
+			updateEditorPickIndex(updatedIsbns);
+
+			position = log.logUpdateEditorPicks(editorPicks);
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		buyBooks(bookCopiesToBuy, System.currentTimeMillis());
+	}
+
+	/**
+	 * Buys the books at the given time, which a replayed purchase takes from
+	 * the log.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the book copies to buy
+	 * @param timeMillis
+	 *            the time of the purchase
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void buyBooks(Set<BookCopy> bookCopiesToBuy, long timeMillis) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we buy are there first.
+		boolean saleMiss = false;
+
+		// The records found by the validation, in iteration order.
+		int[] bookRecords = new int[bookCopiesToBuy.size()];
+		int i = 0;
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int record = validate(bookCopyToBuy);
+				bookRecords[i++] = record;
+
+				if (getNumCopies(record) < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception once the misses are logged since we want to
+			// see how many books in the order incurred misses which is used by
+			// books in demand
+			if (saleMiss) {
+				i = 0;
+
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					int record = bookRecords[i++];
+					int missing = bookCopyToBuy.getNumCopies() - getNumCopies(record);
+
+					if (missing > 0) {
+						preserve(record);
+						int missesOffset = offset(record, NUM_SALE_MISSES);
+						records.putLong(missesOffset, records.getLong(missesOffset) + missing);
+						recentDemand.addSaleMisses(bookCopyToBuy.getISBN(), missing, timeMillis);
+					}
+				}
+			} else {
+				i = 0;
+
+				// Then make the purchase.
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					int record = bookRecords[i++];
+					preserve(record);
+					records.putInt(offset(record, NUM_COPIES), getNumCopies(record) - bookCopyToBuy.getNumCopies());
+					recentDemand.addSales(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies(), timeMillis);
+				}
+			}
+
+			position = log.logBuyBooks(bookCopiesToBuy, timeMillis, saleMiss);
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(position);
+
+		if (saleMiss) {
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				books.add(immutableStockBook(validateISBNInStock(ISBN)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<Book> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				books.add(immutableBook(validateISBNInStock(ISBN)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (editorPickIndex == null) {
+			indexRecords();
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<Integer> pickedIsbns = editorPickIndex.sample(numBooks);
+			List<Book> books = new ArrayList<>(pickedIsbns.size());
+
+			for (int isbn : pickedIsbns) {
+				books.add(immutableBook(index.get(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (topRatedIndex == null) {
+			indexRecords();
+		}
+
+		lock.readLock().lock();
+
+		try {
+			List<Integer> topIsbns = topRatedIndex.top(numBooks);
+			List<Book> books = new ArrayList<>(topIsbns.size());
+
+			for (int isbn : topIsbns) {
+				books.add(immutableBook(index.get(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Searches the books whose title or author starts with the prefix by
+	 * visiting all records, in the order of the attribute.
+	 *
+	 * @param field
+	 *            the offset of the arena reference of the title or author
+	 * @param prefix
+	 *            the prefix
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 */
+	private List<Book> searchByPrefix(int field, String prefix, int numBooks) {
+		lock.readLock().lock();
+
+		try {
+			Iterable<Integer> allRecords = () -> IntStream.range(0, this.numBooks).iterator();
+			List<Integer> matches = PrefixIndex.scan(allRecords,
+					record -> arena.get(records.getLong(offset(record, field))),
+					record -> records.getInt(offset(record, ISBN)), prefix, numBooks);
+			List<Book> books = new ArrayList<>(matches.size());
+
+			for (int record : matches) {
+				books.add(immutableBook(record));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByAuthorPrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return searchByPrefix(AUTHOR, prefix, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByTitlePrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return searchByPrefix(TITLE, prefix, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * boolean, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			Iterable<Integer> allRecords = () -> IntStream.range(0, this.numBooks).iterator();
+			List<Integer> matches = InvertedIndex.scan(allRecords,
+					record -> arena.get(records.getLong(offset(record, TITLE))),
+					record -> arena.get(records.getLong(offset(record, AUTHOR))),
+					record -> records.getInt(offset(record, ISBN)), query, matchAll, numBooks);
+			List<Book> books = new ArrayList<>(matches.size());
+
+			for (int record : matches) {
+				books.add(immutableBook(record));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice) || Float.isNaN(maxPrice)) {
+			throw new BookStoreException("minPrice = " + minPrice + ", maxPrice = " + maxPrice
+					+ ", but they must be numbers");
+		}
+
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			Iterable<Integer> allRecords = () -> IntStream.range(0, this.numBooks).iterator();
+			List<Integer> page = PriceIndex.scan(allRecords, record -> records.getFloat(offset(record, PRICE)),
+					record -> records.getInt(offset(record, ISBN)), minPrice, maxPrice, offset, numBooks);
+			List<Book> books = new ArrayList<>(page.size());
+
+			for (int record : page) {
+				books.add(immutableBook(record));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		lock.readLock().lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>();
+
+			// Sweep the records.
+			for (int record = 0; record < numBooks; record++) {
+				if (records.getLong(offset(record, NUM_SALE_MISSES)) > 0) {
+					books.add(immutableStockBook(record));
+				}
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByRecentMissRate(
+	 * int, int)
+	 */
+	@Override
+	public List<StockBook> getBooksByRecentMissRate(int numBooks, int numMinutes) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (numMinutes < 1 || numMinutes > DemandWindow.NUM_BUCKETS) {
+			throw new BookStoreException(
+					"numMinutes = " + numMinutes + ", but it must be between 1 and " + DemandWindow.NUM_BUCKETS);
+		}
+
+		lock.readLock().lock();
+
+		try {
+			int[] rankedIsbns = recentDemand.rankByRecentMissRate(numBooks, numMinutes, System.currentTimeMillis());
+			List<StockBook> books = new ArrayList<>(rankedIsbns.length);
+
+			for (int isbn : rankedIsbns) {
+				books.add(immutableStockBook(index.get(isbn)));
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The records found by the validation, in iteration order.
+		int[] bookRecords = new int[bookRating.size()];
+		int i = 0;
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			for (BookRating bookRatingArg : bookRating) {
+				bookRecords[i++] = validate(bookRatingArg);
+			}
+
+			i = 0;
+			List<Integer> ratedIsbns = new ArrayList<>(bookRecords.length);
+
+			for (BookRating bookRatingArg : bookRating) {
+				int record = bookRecords[i++];
+				preserve(record);
+				records.putLong(offset(record, TOTAL_RATING),
+						records.getLong(offset(record, TOTAL_RATING)) + bookRatingArg.getRating());
+				records.putLong(offset(record, NUM_TIMES_RATED),
+						records.getLong(offset(record, NUM_TIMES_RATED)) + 1);
+				ratedIsbns.add(bookRatingArg.getISBN());
+			}
+
+			updateTopRatedIndex(ratedIsbns);
+
+			position = log.logRateBooks(bookRating);
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			numBooks = 0;
+			index.clear();
+			arena.clear();
+			editorPickIndex = newEditorPickIndex();
+			topRatedIndex = newTopRatedIndex();
+			recentDemand.clear();
+			position = log.logRemoveAllBooks();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				remove(index.get(isbn));
+				recentDemand.remove(isbn);
+			}
+
+			List<Integer> removedIsbns = new ArrayList<>(isbnSet);
+			updateEditorPickIndex(removedIsbns);
+			updateTopRatedIndex(removedIsbns);
+
+			position = log.logRemoveBooks(isbnSet);
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(position);
+	}
+
+	/**
+	 * Copies the buffers into a new image and deletes the segments of the log
+	 * it covers. The records are copied a chunk at a time under the shared
+	 * lock, so neither readers nor writers wait for the whole copy.
+	 *
+	 * @return the position of the log at which the image was taken
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the log cannot be written
+	 */
+	private long checkpoint() throws IOException, BookStoreException {
+		int segment;
+		long position;
+		OffHeapImage.Copy copy;
+
+		lock.writeLock().lock();
+
+		try {
+			segment = log.rotate();
+			position = log.appendedPosition();
+
+			// Writers preserve the records they change from now on, so the
+			// copy holds them as they were at the rotation.
+			copy = image.copy(segment, records, numBooks, RECORD_SIZE, index, arena);
+			imageCopy = copy;
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		try {
+			boolean copied;
+
+			do {
+				lock.readLock().lock();
+
+				try {
+					copied = !copy.copyNextChunk();
+				} finally {
+					lock.readLock().unlock();
+				}
+			} while (!copied);
+		} finally {
+			lock.writeLock().lock();
+
+			try {
+				imageCopy = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		copy.save();
+		log.deleteSegmentsBefore(segment);
+		return position;
+	}
+}
@@ -0,0 +1,474 @@
+package com.acertainbookstore.business;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OffHeapImage} snapshots the buffers of an
+ * {@link OffHeapConcurrentCertainBookStore} into a file with the same fixed
+ * layout, and maps them back in place when the bookstore restarts. Opening an
+ * image reads its header and maps its regions, but does not read or decode a
+ * single book: the pages of the records, the index and the arena are faulted
+ * in when a request first touches them, so a restarted bookstore serves
+ * requests right away whatever the size of its catalog.
+ *
+ * The regions are mapped privately, so the bookstore changes its copy of a
+ * page on the first write to it and the image stays as it was snapshotted.
+ * The log written since the snapshot is replayed on top of it.
+ *
+ * An image starts with a header of big-endian ints, followed by the records,
+ * the slots of the index and the arena, each aligned to a page. The records
+ * and the slots are in the native byte order of the machine which wrote the
+ * image, which must be the one reading it. Only the used part of the records
+ * and the arena is written, so the rest of their capacity is left as a hole
+ * in the file. An image is written to a temporary file which is renamed over
+ * the last image once it is on disk, so a crash leaves either image complete.
+ *
+ * An {@link OffHeapImage} is not thread-safe, it is used by the
+ * checkpointer thread of its bookstore only.
+ */
+final class OffHeapImage {
+
+	/** The name of the image file in the data directory. */
+	private static final String IMAGE_FILE_NAME = "bookstore.image";
+
+	/** The name of the image file being written in the data directory. */
+	private static final String TEMPORARY_FILE_NAME = "bookstore.image.tmp";
+
+	/** The first int of an image. */
+	private static final int MAGIC = 0x424B494D;
+
+	/** The version of the image format. */
+	private static final int FORMAT_VERSION = 1;
+
+	/** The alignment of the regions. */
+	private static final int PAGE_SIZE = 4096;
+
+	/** The offset of the magic int in the header. */
+	private static final int HEADER_MAGIC = 0;
+
+	/** The offset of the format version in the header. */
+	private static final int HEADER_VERSION = 4;
+
+	/** The offset of the byte order in the header. */
+	private static final int HEADER_BYTE_ORDER = 8;
+
+	/** The offset of the first segment of the log to replay in the header. */
+	private static final int HEADER_FIRST_SEGMENT = 12;
+
+	/** The offset of the number of books in the header. */
+	private static final int HEADER_NUM_BOOKS = 16;
+
+	/** The offset of the number of keys of the index in the header. */
+	private static final int HEADER_INDEX_SIZE = 20;
+
+	/** The offset of the used bytes of the arena in the header. */
+	private static final int HEADER_ARENA_USED = 24;
+
+	/** The offset of the garbage bytes of the arena in the header. */
+	private static final int HEADER_ARENA_GARBAGE = 28;
+
+	/** The offset of the length of the records in the header. */
+	private static final int HEADER_RECORDS_LENGTH = 32;
+
+	/** The offset of the length of the slots of the index in the header. */
+	private static final int HEADER_INDEX_LENGTH = 36;
+
+	/** The offset of the length of the arena in the header. */
+	private static final int HEADER_ARENA_LENGTH = 40;
+
+	/** The size of the header in bytes. */
+	private static final int HEADER_SIZE = 44;
+
+	/** The byte order of an image written in little-endian order. */
+	private static final int LITTLE_ENDIAN = 1;
+
+	/** The byte order of an image written in big-endian order. */
+	private static final int BIG_ENDIAN = 2;
+
+	/** The data directory. */
+	private final Path directory;
+
+	/** The number of the first segment of the log not covered by the image. */
+	private final int firstSegment;
+
+	/** The number of books of the image. */
+	private final int numBooks;
+
+	/** The mapped records, or null if there is no image. */
+	private final ByteBuffer records;
+
+	/** The mapped index, or null if there is no image. */
+	private final OffHeapIntIndex index;
+
+	/** The mapped arena, or null if there is no image. */
+	private final OffHeapStringArena arena;
+
+	private OffHeapImage(Path directory, int firstSegment, int numBooks, ByteBuffer records, OffHeapIntIndex index,
+			OffHeapStringArena arena) {
+		this.directory = directory;
+		this.firstSegment = firstSegment;
+		this.numBooks = numBooks;
+		this.records = records;
+		this.index = index;
+		this.arena = arena;
+	}
+
+	/**
+	 * Maps the image in the data directory, if there is one. The caller then
+	 * uses the mapped buffers in place and replays the log from
+	 * {@link #getFirstSegment()}.
+	 *
+	 * @param directory
+	 *            the data directory
+	 * @param recordSize
+	 *            the size of a record in bytes
+	 * @return the image, whose buffers are null if there is none
+	 * @throws BookStoreException
+	 *             if the image cannot be mapped or is corrupt
+	 */
+	static OffHeapImage open(Path directory, int recordSize) throws BookStoreException {
+		Path path = directory.resolve(IMAGE_FILE_NAME);
+
+		try {
+			Files.deleteIfExists(directory.resolve(TEMPORARY_FILE_NAME));
+
+			if (!Files.exists(path)) {
+				return new OffHeapImage(directory, 0, 0, null, null, null);
+			}
+
+			// Private mappings need a channel open for writing, although they
+			// never write to the file.
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+				while (header.hasRemaining() && channel.read(header) >= 0) {
+					// Read the whole header.
+				}
+
+				if (header.hasRemaining() || header.getInt(HEADER_MAGIC) != MAGIC
+						|| header.getInt(HEADER_VERSION) != FORMAT_VERSION) {
+					throw new BookStoreException("The image " + path + " has an unknown format");
+				}
+
+				if (header.getInt(HEADER_BYTE_ORDER) != byteOrder()) {
+					throw new BookStoreException("The image " + path + " was written in another byte order");
+				}
+
+				int numBooks = header.getInt(HEADER_NUM_BOOKS);
+				int recordsLength = header.getInt(HEADER_RECORDS_LENGTH);
+				int indexLength = header.getInt(HEADER_INDEX_LENGTH);
+				int arenaLength = header.getInt(HEADER_ARENA_LENGTH);
+				long recordsOffset = PAGE_SIZE;
+				long indexOffset = align(recordsOffset + recordsLength);
+				long arenaOffset = align(indexOffset + indexLength);
+
+				if (recordsLength < 0 || indexLength < 0 || arenaLength < 0
+						|| arenaOffset + arenaLength > channel.size()) {
+					throw new BookStoreException("The image " + path + " is incomplete");
+				}
+
+				if (recordsLength % recordSize != 0 || numBooks < 0 || numBooks > recordsLength / recordSize) {
+					throw new BookStoreException("The image " + path + " is corrupt");
+				}
+
+				ByteBuffer records = channel.map(MapMode.PRIVATE, recordsOffset, recordsLength)
+						.order(ByteOrder.nativeOrder());
+				OffHeapIntIndex index = new OffHeapIntIndex(channel.map(MapMode.PRIVATE, indexOffset, indexLength),
+						header.getInt(HEADER_INDEX_SIZE));
+				OffHeapStringArena arena = new OffHeapStringArena(
+						channel.map(MapMode.PRIVATE, arenaOffset, arenaLength), header.getInt(HEADER_ARENA_USED),
+						header.getInt(HEADER_ARENA_GARBAGE));
+
+				return new OffHeapImage(directory, header.getInt(HEADER_FIRST_SEGMENT), numBooks, records, index,
+						arena);
+			} catch (IllegalArgumentException ex) {
+				throw new BookStoreException("The image " + path + " is corrupt", ex);
+			}
+		} catch (IOException ex) {
+			throw new BookStoreException("Cannot map the image " + path, ex);
+		}
+	}
+
+	/**
+	 * Gets the number of the first segment of the log not covered by the
+	 * image, which recovery replays from.
+	 *
+	 * @return the number of the segment
+	 */
+	int getFirstSegment() {
+		return firstSegment;
+	}
+
+	/**
+	 * Gets the number of books of the image.
+	 *
+	 * @return the number of books
+	 */
+	int getNumBooks() {
+		return numBooks;
+	}
+
+	/**
+	 * Gets the mapped records of the books, in the native byte order.
+	 *
+	 * @return the records, or null if there is no image
+	 */
+	ByteBuffer getRecords() {
+		return records;
+	}
+
+	/**
+	 * Gets the mapped index of the records.
+	 *
+	 * @return the index, or null if there is no image
+	 */
+	OffHeapIntIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Gets the mapped arena of the titles and authors.
+	 *
+	 * @return the arena, or null if there is no image
+	 */
+	OffHeapStringArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * Starts copying the buffers of the bookstore into a new image file. The
+	 * caller holds its exclusive lock, and then copies the records
+	 * {@link Copy#copyNextChunk() a chunk at a time} under its shared lock.
+	 * Meanwhile writers {@link Copy#preserve(ByteBuffer, int, int) preserve}
+	 * the chunks they change. The appended bytes of the arena are never
+	 * changed, so the arena is copied without any lock by
+	 * {@link Copy#save()}, which also rebuilds the index from the copied
+	 * records.
+	 *
+	 * @param segment
+	 *            the number of the first segment of the log not covered by
+	 *            the copy
+	 * @param records
+	 *            the records of the books, each starting with its ISBN
+	 * @param numBooks
+	 *            the number of books
+	 * @param recordSize
+	 *            the size of a record in bytes
+	 * @param index
+	 *            the index of the records
+	 * @param arena
+	 *            the arena of the titles and authors
+	 * @return the copy
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Copy copy(int segment, ByteBuffer records, int numBooks, int recordSize, OffHeapIntIndex index,
+			OffHeapStringArena arena) throws IOException {
+		Path temporary = directory.resolve(TEMPORARY_FILE_NAME);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(HEADER_MAGIC, MAGIC);
+		header.putInt(HEADER_VERSION, FORMAT_VERSION);
+		header.putInt(HEADER_BYTE_ORDER, byteOrder());
+		header.putInt(HEADER_FIRST_SEGMENT, segment);
+		header.putInt(HEADER_NUM_BOOKS, numBooks);
+		header.putInt(HEADER_INDEX_SIZE, numBooks);
+		header.putInt(HEADER_ARENA_USED, arena.usedBytes());
+		header.putInt(HEADER_ARENA_GARBAGE, arena.garbageBytes());
+		header.putInt(HEADER_RECORDS_LENGTH, records.capacity());
+		header.putInt(HEADER_INDEX_LENGTH, index.byteSize());
+		header.putInt(HEADER_ARENA_LENGTH, arena.capacity());
+
+		long recordsOffset = PAGE_SIZE;
+		long indexOffset = align(recordsOffset + records.capacity());
+		long arenaOffset = align(indexOffset + index.byteSize());
+
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+
+			// Mapping the regions extends the file, the pages which are never
+			// written stay holes.
+			return new Copy(temporary, records, numBooks, recordSize,
+					channel.map(MapMode.READ_WRITE, recordsOffset, records.capacity()),
+					channel.map(MapMode.READ_WRITE, indexOffset, index.byteSize()), arena.appendedBytes(),
+					channel.map(MapMode.READ_WRITE, arenaOffset, arena.capacity()));
+		}
+	}
+
+	private static int byteOrder() {
+		return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? LITTLE_ENDIAN : BIG_ENDIAN;
+	}
+
+	private static long align(long offset) {
+		return (offset + PAGE_SIZE - 1) & -PAGE_SIZE;
+	}
+
+	/**
+	 * {@link Copy} is a new image file in the page cache, whose records are
+	 * copied a chunk at a time. A chunk is copied either by the checkpointer
+	 * or by the first writer changing it, whichever comes first, so the copy
+	 * holds the records as they were when it started.
+	 *
+	 * The checkpointer copies chunks under the shared lock of the bookstore
+	 * and writers preserve them under its exclusive lock, so they never copy
+	 * at the same time.
+	 */
+	final class Copy {
+
+		/** The size of a chunk of the records in bytes. */
+		private static final int CHUNK_SIZE = 64 * 1024;
+
+		/** The temporary file. */
+		private final Path temporary;
+
+		/** The records being copied. */
+		private final ByteBuffer records;
+
+		/** The number of bytes of the records to copy. */
+		private final int recordsLength;
+
+		/** The size of a record in bytes. */
+		private final int recordSize;
+
+		/** The number of chunks of the records. */
+		private final int numChunks;
+
+		/** The chunks of the records copied so far. */
+		private final BitSet copiedChunks;
+
+		/** The mapped records of the file. */
+		private final MappedByteBuffer recordsCopy;
+
+		/** The mapped index of the file. */
+		private final MappedByteBuffer indexCopy;
+
+		/** The appended bytes of the arena. */
+		private final ByteBuffer arenaBytes;
+
+		/** The mapped arena of the file. */
+		private final MappedByteBuffer arenaCopy;
+
+		private Copy(Path temporary, ByteBuffer records, int numBooks, int recordSize, MappedByteBuffer recordsCopy,
+				MappedByteBuffer indexCopy, ByteBuffer arenaBytes, MappedByteBuffer arenaCopy) {
+			this.temporary = temporary;
+			this.records = records;
+			this.recordsLength = numBooks * recordSize;
+			this.recordSize = recordSize;
+			this.numChunks = (recordsLength + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			this.copiedChunks = new BitSet(numChunks);
+			this.recordsCopy = recordsCopy;
+			this.indexCopy = indexCopy;
+			this.arenaBytes = arenaBytes;
+			this.arenaCopy = arenaCopy;
+		}
+
+		/**
+		 * Copies the next chunk of the records which no writer preserved.
+		 *
+		 * @return false if all the chunks are copied
+		 */
+		boolean copyNextChunk() {
+			int chunk = copiedChunks.nextClearBit(0);
+
+			if (chunk >= numChunks) {
+				return false;
+			}
+
+			copyChunk(chunk);
+			return true;
+		}
+
+		/**
+		 * Copies the chunks of the records which a writer is about to change,
+		 * unless they are already copied. Writers call it for every buffer
+		 * they change, the buffers which are not the copied records are left
+		 * alone.
+		 *
+		 * @param buffer
+		 *            the records being changed
+		 * @param offset
+		 *            the offset of the first byte to change
+		 * @param length
+		 *            the number of bytes to change
+		 */
+		void preserve(ByteBuffer buffer, int offset, int length) {
+			if (buffer != records || offset >= recordsLength) {
+				return;
+			}
+
+			int last = (Math.min(offset + length, recordsLength) - 1) / CHUNK_SIZE;
+
+			for (int chunk = offset / CHUNK_SIZE; chunk <= last; chunk++) {
+				if (!copiedChunks.get(chunk)) {
+					copyChunk(chunk);
+				}
+			}
+		}
+
+		private void copyChunk(int chunk) {
+			int start = chunk * CHUNK_SIZE;
+			ByteBuffer source = records.duplicate();
+			((Buffer) source).limit(Math.min(start + CHUNK_SIZE, recordsLength));
+			((Buffer) source).position(start);
+			ByteBuffer target = recordsCopy.duplicate();
+			((Buffer) target).position(start);
+			target.put(source);
+			copiedChunks.set(chunk);
+		}
+
+		/**
+		 * Copies the arena, rebuilds the index from the copied records,
+		 * forces the copy to disk and renames it over the last image. All the
+		 * chunks of the records must be copied.
+		 *
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void save() throws IOException {
+			if (copiedChunks.nextClearBit(0) < numChunks) {
+				throw new IllegalStateException("The records are not copied");
+			}
+
+			ByteBuffer arenaTarget = arenaCopy.duplicate();
+			arenaTarget.put(arenaBytes.duplicate());
+
+			// The slots of the mapped file start empty, and the index is as
+			// large as the one of the bookstore, so it never grows.
+			ByteBuffer copiedRecords = recordsCopy.duplicate().order(ByteOrder.nativeOrder());
+			OffHeapIntIndex index = new OffHeapIntIndex(indexCopy.duplicate(), 0);
+
+			for (int record = 0; record * recordSize < recordsLength; record++) {
+				index.put(copiedRecords.getInt(record * recordSize), record);
+			}
+
+			for (MappedByteBuffer region : new MappedByteBuffer[] { recordsCopy, indexCopy, arenaCopy }) {
+				region.force();
+			}
+
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+
+			// A bookstore which mapped the last image keeps using it, the file
+			// goes away once it is unmapped.
+			Files.move(temporary, directory.resolve(IMAGE_FILE_NAME), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			WriteAheadLog.syncDirectory(directory);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package com.acertainbookstore.business;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * {@link OffHeapIntIndex} maps positive <code>int</code> keys to non-negative
+ * <code>int</code> values in an open-addressing table with linear probing,
+ * stored in a direct buffer outside of the Java heap. Each slot holds a key
+ * and its value next to each other, so a probe touches one cache line.
+ * Removals shift the following keys of the probe sequence back instead of
+ * leaving tombstones.
+ *
+ * The table can be filled in any buffer, for instance a memory-mapped file,
+ * and used again in place, since the slots hold no pointers.
+ *
+ * An {@link OffHeapIntIndex} is not thread-safe for writers, but any number
+ * of readers may call {@link #get(int)} concurrently as long as no writer
+ * runs.
+ */
+final class OffHeapIntIndex {
+
+	/** The key marking an empty slot. */
+	private static final int EMPTY_KEY = 0;
+
+	/** The value returned for keys which are not mapped. */
+	static final int NO_VALUE = -1;
+
+	/** The initial number of slots, a power of two. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The slots, two ints each: the key and the value. */
+	private IntBuffer slots;
+
+	/** The number of slots. */
+	private int capacity;
+
+	/** The number of mapped keys. */
+	private int size;
+
+	/**
+	 * Instantiates a new, empty {@link OffHeapIntIndex}.
+	 */
+	OffHeapIntIndex() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link OffHeapIntIndex} using the slots in place,
+	 * which are either zeroed or filled by another {@link OffHeapIntIndex}.
+	 *
+	 * @param slots
+	 *            the slots, in the native byte order
+	 * @param size
+	 *            the number of mapped keys
+	 */
+	OffHeapIntIndex(ByteBuffer slots, int size) {
+		capacity = slots.capacity() / (2 * Integer.BYTES);
+
+		if (Integer.bitCount(capacity) != 1 || capacity * 2 * Integer.BYTES != slots.capacity() || size < 0
+				|| size * 2 > capacity) {
+			throw new IllegalArgumentException("capacity = " + slots.capacity() + ", size = " + size);
+		}
+
+		this.slots = slots.order(ByteOrder.nativeOrder()).asIntBuffer();
+		this.size = size;
+	}
+
+	/**
+	 * Gets the number of mapped keys.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the value mapped to the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or {@link #NO_VALUE} if the key is not mapped
+	 */
+	int get(int key) {
+		int mask = capacity - 1;
+
+		for (int i = slot(key, mask);; i = (i + 1) & mask) {
+			int slotKey = slots.get(2 * i);
+
+			if (slotKey == key && key != EMPTY_KEY) {
+				return slots.get(2 * i + 1);
+			}
+
+			if (slotKey == EMPTY_KEY) {
+				return NO_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * Maps the key to the value.
+	 *
+	 * @param key
+	 *            the key, must be positive
+	 * @param value
+	 *            the value, must not be negative
+	 */
+	void put(int key, int value) {
+		if (key <= EMPTY_KEY || value < 0) {
+			throw new IllegalArgumentException("key = " + key + ", value = " + value);
+		}
+
+		if ((size + 1) * 2 > capacity) {
+			resize(capacity * 2);
+		}
+
+		int i = find(key);
+
+		if (slots.get(2 * i) == EMPTY_KEY) {
+			slots.put(2 * i, key);
+			size++;
+		}
+
+		slots.put(2 * i + 1, value);
+	}
+
+	/**
+	 * Removes the mapping of the key.
+	 *
+	 * @param key
+	 *            the key
+	 */
+	void remove(int key) {
+		int mask = capacity - 1;
+		int i = find(key);
+
+		if (slots.get(2 * i) == EMPTY_KEY) {
+			return;
+		}
+
+		// Shift back every following key whose probe sequence passes the hole.
+		for (int j = (i + 1) & mask; slots.get(2 * j) != EMPTY_KEY; j = (j + 1) & mask) {
+			int home = slot(slots.get(2 * j), mask);
+
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				slots.put(2 * i, slots.get(2 * j));
+				slots.put(2 * i + 1, slots.get(2 * j + 1));
+				i = j;
+			}
+		}
+
+		slots.put(2 * i, EMPTY_KEY);
+		size--;
+	}
+
+	/**
+	 * Gets the size of the slots in bytes.
+	 *
+	 * @return the number of bytes
+	 */
+	int byteSize() {
+		return capacity * 2 * Integer.BYTES;
+	}
+
+	/**
+	 * Removes all mappings.
+	 */
+	void clear() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private static int slot(int key, int mask) {
+		// Spread sequential ISBNs across the table.
+		int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	private int find(int key) {
+		int mask = capacity - 1;
+		int i = slot(key, mask);
+
+		while (slots.get(2 * i) != key && slots.get(2 * i) != EMPTY_KEY) {
+			i = (i + 1) & mask;
+		}
+
+		return i;
+	}
+
+	private void allocate(int newCapacity) {
+		slots = ByteBuffer.allocateDirect(newCapacity * 2 * Integer.BYTES)
+				.order(ByteOrder.nativeOrder())
+				.asIntBuffer();
+		capacity = newCapacity;
+		size = 0;
+	}
+
+	private void resize(int newCapacity) {
+		IntBuffer oldSlots = slots;
+		int oldCapacity = capacity;
+		allocate(newCapacity);
+
+		for (int i = 0; i < oldCapacity; i++) {
+			int key = oldSlots.get(2 * i);
+
+			if (key != EMPTY_KEY) {
+				put(key, oldSlots.get(2 * i + 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package com.acertainbookstore.business;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link OffHeapStringArena} stores strings as UTF-8 bytes in a direct
+ * {@link ByteBuffer}, outside of the Java heap. A string is appended to the
+ * arena and referred to by a <code>long</code> reference packing its offset
+ * and length. Freed strings leave garbage behind, which is reclaimed by
+ * copying the live strings into a new arena once the garbage makes up most of
+ * the arena.
+ *
+ * Like the index, an arena can be copied out and used again in place, since
+ * the references are offsets into the arena. Appended bytes are never
+ * overwritten, even by {@link #clear()}, so they can be copied out while
+ * writers append more.
+ *
+ * An {@link OffHeapStringArena} is not thread-safe for writers, but any number
+ * of readers may call {@link #get(long)} concurrently.
+ */
+final class OffHeapStringArena {
+
+	/** The initial size of the arena in bytes. */
+	private static final int INITIAL_CAPACITY = 4096;
+
+	/** The arena. */
+	private ByteBuffer bytes;
+
+	/** The number of bytes appended so far. */
+	private int used;
+
+	/** The number of appended bytes belonging to freed strings. */
+	private int garbage;
+
+	/**
+	 * Instantiates a new, empty {@link OffHeapStringArena}.
+	 */
+	OffHeapStringArena() {
+		this(INITIAL_CAPACITY);
+	}
+
+	private OffHeapStringArena(int capacity) {
+		bytes = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Instantiates a new {@link OffHeapStringArena} using bytes copied from
+	 * {@link #appendedBytes()} in place.
+	 *
+	 * @param bytes
+	 *            the bytes of the arena
+	 * @param used
+	 *            the number of bytes appended so far
+	 * @param garbage
+	 *            the number of appended bytes belonging to freed strings
+	 */
+	OffHeapStringArena(ByteBuffer bytes, int used, int garbage) {
+		if (used < 0 || used > bytes.capacity() || garbage < 0 || garbage > used) {
+			throw new IllegalArgumentException(
+					"capacity = " + bytes.capacity() + ", used = " + used + ", garbage = " + garbage);
+		}
+
+		this.bytes = bytes;
+		this.used = used;
+		this.garbage = garbage;
+	}
+
+	/**
+	 * Appends the string to the arena.
+	 *
+	 * @param string
+	 *            the string
+	 * @return the reference to the string
+	 */
+	long add(String string) {
+		byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+
+		if (used + encoded.length > bytes.capacity()) {
+			grow(used + encoded.length);
+		}
+
+		int offset = used;
+
+		// Only the writer moves the position, readers use absolute reads. The
+		// cast keeps the call linkable on a Java 8 runtime.
+		((Buffer) bytes).position(offset);
+		bytes.put(encoded);
+
+		used += encoded.length;
+		return ((long) offset << 32) | encoded.length;
+	}
+
+	/**
+	 * Gets the string of the reference.
+	 *
+	 * @param reference
+	 *            the reference
+	 * @return the string
+	 */
+	String get(long reference) {
+		int offset = (int) (reference >>> 32);
+		int length = (int) reference;
+		byte[] encoded = new byte[length];
+
+		// Absolute reads, so concurrent readers do not share a position.
+		for (int i = 0; i < length; i++) {
+			encoded[i] = bytes.get(offset + i);
+		}
+
+		return new String(encoded, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Frees the string of the reference. Its bytes are reclaimed by the next
+	 * compaction.
+	 *
+	 * @param reference
+	 *            the reference
+	 */
+	void free(long reference) {
+		garbage += (int) reference;
+	}
+
+	/**
+	 * Checks if most of the arena is garbage, in which case it should be
+	 * compacted.
+	 *
+	 * @return true, if the arena should be compacted
+	 */
+	boolean needsCompaction() {
+		return used > INITIAL_CAPACITY && garbage > used / 2;
+	}
+
+	/**
+	 * Gets the number of bytes used by live strings.
+	 *
+	 * @return the number of bytes
+	 */
+	int liveBytes() {
+		return used - garbage;
+	}
+
+	/**
+	 * Gets the number of bytes appended so far, including garbage.
+	 *
+	 * @return the number of bytes
+	 */
+	int usedBytes() {
+		return used;
+	}
+
+	/**
+	 * Gets the number of appended bytes belonging to freed strings.
+	 *
+	 * @return the number of bytes
+	 */
+	int garbageBytes() {
+		return garbage;
+	}
+
+	/**
+	 * Gets the size of the arena in bytes, of which only
+	 * {@link #usedBytes()} are appended.
+	 *
+	 * @return the number of bytes
+	 */
+	int capacity() {
+		return bytes.capacity();
+	}
+
+	/**
+	 * Copies the appended bytes into the target.
+	 *
+	 * @param target
+	 *            the target, with at least {@link #usedBytes()} bytes
+	 *            remaining
+	 */
+	void copyTo(ByteBuffer target) {
+		ByteBuffer usedBytes = bytes.duplicate();
+		((Buffer) usedBytes).limit(used);
+		((Buffer) usedBytes).position(0);
+		target.put(usedBytes);
+	}
+
+	/**
+	 * Gets a read-only view of the bytes appended so far, which the arena
+	 * never changes.
+	 *
+	 * @return the appended bytes
+	 */
+	ByteBuffer appendedBytes() {
+		ByteBuffer appended = bytes.asReadOnlyBuffer();
+		((Buffer) appended).limit(used);
+		((Buffer) appended).position(0);
+		return appended;
+	}
+
+	/**
+	 * Creates an empty arena large enough for the live strings of this one.
+	 * The caller moves the live strings with {@link #add(String)} and then
+	 * uses the new arena instead.
+	 *
+	 * @return the new arena
+	 */
+	OffHeapStringArena newCompactedArena() {
+		return new OffHeapStringArena(Math.max(INITIAL_CAPACITY, liveBytes()));
+	}
+
+	/**
+	 * Removes all strings.
+	 */
+	void clear() {
+		bytes = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+		used = 0;
+		garbage = 0;
+	}
+
+	private void grow(int minCapacity) {
+		int capacity = bytes.capacity();
+
+		while (capacity < minCapacity) {
+			capacity *= 2;
+		}
+
+		ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+		copyTo(grown);
+
+		bytes = grown;
+	}
+}
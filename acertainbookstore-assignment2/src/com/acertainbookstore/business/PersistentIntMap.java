@@ -0,0 +1,301 @@
+package com.acertainbookstore.business;
+
+import java.util.function.Consumer;
+
+/**
+ * {@link PersistentIntMap} is an immutable map from <code>int</code> keys to
+ * values, implemented as a hash array mapped trie. Updates never modify an
+ * existing map but return a new one which shares all untouched nodes with the
+ * old one, so an update only copies the O(log<sub>32</sub> n) nodes on the
+ * path to the key. A reader holding a map therefore holds a consistent
+ * snapshot which no writer can change.
+ *
+ * @param <V>
+ *            the value type, values must not be null
+ */
+final class PersistentIntMap<V> {
+
+	/** The number of key bits consumed by each level of the trie. */
+	private static final int BITS_PER_LEVEL = 5;
+
+	/** The mask selecting the key bits of a level. */
+	private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+
+	/** The empty map. */
+	private static final PersistentIntMap<Object> EMPTY = new PersistentIntMap<>(null, 0);
+
+	/** The root node, null if the map is empty. */
+	private final Node root;
+
+	/** The number of entries. */
+	private final int size;
+
+	/**
+	 * Instantiates a new {@link PersistentIntMap}.
+	 *
+	 * @param root
+	 *            the root node
+	 * @param size
+	 *            the number of entries
+	 */
+	private PersistentIntMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the empty map.
+	 *
+	 * @param <V>
+	 *            the value type
+	 * @return the empty map
+	 */
+	@SuppressWarnings("unchecked")
+	static <V> PersistentIntMap<V> empty() {
+		return (PersistentIntMap<V>) EMPTY;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map contains the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Gets the value mapped to the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	V get(int key) {
+		Node node = root;
+		int shift = 0;
+
+		while (node != null) {
+			int bit = bit(key, shift);
+
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+
+			Object slot = node.slots[node.index(bit)];
+
+			if (slot instanceof Entry) {
+				Entry<V> entry = (Entry<V>) slot;
+				return entry.key == key ? entry.value : null;
+			}
+
+			node = (Node) slot;
+			shift += BITS_PER_LEVEL;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns a map in which the key is mapped to the value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the new map
+	 */
+	PersistentIntMap<V> put(int key, V value) {
+		int newSize = containsKey(key) ? size : size + 1;
+		return new PersistentIntMap<>(put(root, 0, new Entry<>(key, value)), newSize);
+	}
+
+	/**
+	 * Returns a map in which the key is not mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the new map, or this map if the key was not mapped
+	 */
+	PersistentIntMap<V> remove(int key) {
+		if (!containsKey(key)) {
+			return this;
+		}
+
+		return new PersistentIntMap<>(remove(root, 0, key), size - 1);
+	}
+
+	/**
+	 * Performs the action for each value of the map.
+	 *
+	 * @param action
+	 *            the action
+	 */
+	void forEach(Consumer<? super V> action) {
+		if (root != null) {
+			forEach(root, action);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> void forEach(Node node, Consumer<? super V> action) {
+		for (Object slot : node.slots) {
+			if (slot instanceof Entry) {
+				action.accept(((Entry<V>) slot).value);
+			} else {
+				forEach((Node) slot, action);
+			}
+		}
+	}
+
+	private static int bit(int key, int shift) {
+		return 1 << ((key >>> shift) & LEVEL_MASK);
+	}
+
+	private static Node put(Node node, int shift, Entry<?> entry) {
+		int bit = bit(entry.key, shift);
+
+		if (node == null) {
+			return new Node(bit, new Object[] { entry });
+		}
+
+		int index = node.index(bit);
+
+		if ((node.bitmap & bit) == 0) {
+			return node.insert(bit, index, entry);
+		}
+
+		Object slot = node.slots[index];
+
+		if (slot instanceof Entry) {
+			Entry<?> existing = (Entry<?>) slot;
+
+			if (existing.key == entry.key) {
+				return node.replace(index, entry);
+			}
+
+			return node.replace(index, merge(existing, entry, shift + BITS_PER_LEVEL));
+		}
+
+		return node.replace(index, put((Node) slot, shift + BITS_PER_LEVEL, entry));
+	}
+
+	private static Node merge(Entry<?> first, Entry<?> second, int shift) {
+		int firstBit = bit(first.key, shift);
+		int secondBit = bit(second.key, shift);
+
+		if (firstBit == secondBit) {
+			return new Node(firstBit, new Object[] { merge(first, second, shift + BITS_PER_LEVEL) });
+		}
+
+		// Slots are kept in the order of their bits.
+		if (Integer.compareUnsigned(firstBit, secondBit) < 0) {
+			return new Node(firstBit | secondBit, new Object[] { first, second });
+		}
+
+		return new Node(firstBit | secondBit, new Object[] { second, first });
+	}
+
+	private static Node remove(Node node, int shift, int key) {
+		int bit = bit(key, shift);
+		int index = node.index(bit);
+		Object slot = node.slots[index];
+
+		if (slot instanceof Entry) {
+			return node.delete(bit, index);
+		}
+
+		Node child = remove((Node) slot, shift + BITS_PER_LEVEL, key);
+
+		if (child == null) {
+			return node.delete(bit, index);
+		}
+
+		// Pull a lone entry up, so the trie does not keep chains of nodes.
+		if (child.slots.length == 1 && child.slots[0] instanceof Entry) {
+			return node.replace(index, child.slots[0]);
+		}
+
+		return node.replace(index, child);
+	}
+
+	/**
+	 * {@link Node} is an immutable node of the trie. Only the slots of the set
+	 * bits of the bitmap are stored, each slot holding either an {@link Entry}
+	 * or a child {@link Node}.
+	 */
+	private static final class Node {
+
+		/** The bitmap of the occupied slots. */
+		private final int bitmap;
+
+		/** The occupied slots. */
+		private final Object[] slots;
+
+		private Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		private Node insert(int bit, int index, Object slot) {
+			Object[] newSlots = new Object[slots.length + 1];
+			System.arraycopy(slots, 0, newSlots, 0, index);
+			newSlots[index] = slot;
+			System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+			return new Node(bitmap | bit, newSlots);
+		}
+
+		private Node replace(int index, Object slot) {
+			Object[] newSlots = slots.clone();
+			newSlots[index] = slot;
+			return new Node(bitmap, newSlots);
+		}
+
+		private Node delete(int bit, int index) {
+			if (slots.length == 1) {
+				return null;
+			}
+
+			Object[] newSlots = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, newSlots, 0, index);
+			System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+			return new Node(bitmap & ~bit, newSlots);
+		}
+	}
+
+	/**
+	 * {@link Entry} is an immutable key-value pair stored in the trie.
+	 *
+	 * @param <V>
+	 *            the value type
+	 */
+	private static final class Entry<V> {
+
+		/** The key. */
+		private final int key;
+
+		/** The value. */
+		private final V value;
+
+		private Entry(int key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+}
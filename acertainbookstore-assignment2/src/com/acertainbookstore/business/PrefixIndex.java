@@ -0,0 +1,170 @@
+package com.acertainbookstore.business;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@link PrefixIndex} indexes books by a string attribute, e.g. the author or
+ * the title, in a sorted map. The books whose attribute starts with a prefix
+ * form a contiguous range of the map, so a prefix search visits only the
+ * books it returns. Matching ignores case.
+ *
+ * Stores without an index search their books with
+ * {@link #scan(Iterable, Function, ToIntFunction, String, int)}, which matches
+ * and orders the books like the index does.
+ *
+ * A {@link PrefixIndex} is thread-safe.
+ */
+final class PrefixIndex {
+
+	/**
+	 * {@link Key} is the position of a book in the index: its attribute and,
+	 * among books with the same attribute, its ISBN.
+	 */
+	private static final class Key {
+
+		/** The order of the keys. */
+		private static final Comparator<Key> ORDER = Comparator.comparing((Key key) -> key.value)
+				.thenComparingInt(key -> key.isbn);
+
+		/** The normalized attribute. */
+		private final String value;
+
+		/** The ISBN. */
+		private final int isbn;
+
+		private Key(String value, int isbn) {
+			this.value = value;
+			this.isbn = isbn;
+		}
+	}
+
+	/** The books, by key. */
+	private final NavigableMap<Key, BookStoreBook> books = new ConcurrentSkipListMap<>(Key.ORDER);
+
+	/**
+	 * Adds the book.
+	 *
+	 * @param value
+	 *            the attribute of the book
+	 * @param book
+	 *            the book
+	 */
+	void add(String value, BookStoreBook book) {
+		books.put(new Key(normalize(value), book.getISBN()), book);
+	}
+
+	/**
+	 * Removes the book.
+	 *
+	 * @param value
+	 *            the attribute of the book
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	void remove(String value, int isbn) {
+		books.remove(new Key(normalize(value), isbn));
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	void clear() {
+		books.clear();
+	}
+
+	/**
+	 * Searches the books whose attribute starts with the prefix, in the order
+	 * of the attribute.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 */
+	List<Book> search(String prefix, int numBooks) {
+		String normalizedPrefix = normalize(prefix);
+		List<Book> result = new ArrayList<>();
+
+		// The smallest key with the prefix has the prefix itself as attribute.
+		for (Map.Entry<Key, BookStoreBook> entry : books.tailMap(new Key(normalizedPrefix, Integer.MIN_VALUE))
+				.entrySet()) {
+			if (result.size() == numBooks || !entry.getKey().value.startsWith(normalizedPrefix)) {
+				break;
+			}
+
+			result.add(entry.getValue().immutableBook());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Searches the books whose attribute starts with the prefix by visiting
+	 * all books, in the order of the attribute and then of the ISBN, like
+	 * {@link #search(String, int)}.
+	 *
+	 * @param <T>
+	 *            the type of the books
+	 * @param books
+	 *            the books
+	 * @param attribute
+	 *            the attribute of a book
+	 * @param isbn
+	 *            the ISBN of a book
+	 * @param prefix
+	 *            the prefix
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 */
+	static <T> List<T> scan(Iterable<T> books, Function<T, String> attribute, ToIntFunction<T> isbn, String prefix,
+			int numBooks) {
+		Comparator<Map.Entry<Key, T>> order = Map.Entry.comparingByKey(Key.ORDER);
+		String normalizedPrefix = normalize(prefix);
+
+		// Keep the first numBooks matches in a heap whose root is the last of
+		// them.
+		PriorityQueue<Map.Entry<Key, T>> first = new PriorityQueue<>(order.reversed());
+
+		for (T book : books) {
+			if (numBooks == 0) {
+				break;
+			}
+
+			String value = normalize(attribute.apply(book));
+
+			if (value.startsWith(normalizedPrefix)) {
+				first.add(new AbstractMap.SimpleImmutableEntry<>(new Key(value, isbn.applyAsInt(book)), book));
+
+				if (first.size() > numBooks) {
+					first.poll();
+				}
+			}
+		}
+
+		List<Map.Entry<Key, T>> matches = new ArrayList<>(first);
+		matches.sort(order);
+		List<T> result = new ArrayList<>(matches.size());
+
+		for (Map.Entry<Key, T> match : matches) {
+			result.add(match.getValue());
+		}
+
+		return result;
+	}
+
+	private static String normalize(String value) {
+		return value.toLowerCase(Locale.ROOT);
+	}
+}
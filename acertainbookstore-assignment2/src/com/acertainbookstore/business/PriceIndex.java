@@ -0,0 +1,166 @@
+package com.acertainbookstore.business;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@link PriceIndex} keeps the books of a bookstore ordered by price, and by
+ * ISBN among equally priced books. The books within a price range form a
+ * contiguous range of the order, so a page of them is read off the order
+ * without visiting the books after the page.
+ *
+ * Each book is keyed by a single <code>long</code> which packs the bits of
+ * its price in the upper and its ISBN in the lower 32 bits. Prices are never
+ * negative or NaN, and the bits of non-negative floats order like the floats
+ * themselves, so the keys order like (price, ISBN).
+ *
+ * Stores without an index page through their books with
+ * {@link #scan(Iterable, ToDoubleFunction, ToIntFunction, float, float, int, int)},
+ * which orders them by the same keys.
+ *
+ * A {@link PriceIndex} is thread-safe.
+ */
+final class PriceIndex {
+
+	/** The books, by key. */
+	private final NavigableMap<Long, BookStoreBook> books = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Adds the book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void add(BookStoreBook book) {
+		books.put(key(book.getPrice(), book.getISBN()), book);
+	}
+
+	/**
+	 * Removes the book.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	void remove(BookStoreBook book) {
+		books.remove(key(book.getPrice(), book.getISBN()));
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	void clear() {
+		books.clear();
+	}
+
+	/**
+	 * Gets a page of the books priced between the minimum and maximum price,
+	 * both inclusive, ordered by price.
+	 *
+	 * @param minPrice
+	 *            the minimum price
+	 * @param maxPrice
+	 *            the maximum price
+	 * @param offset
+	 *            the number of books in the range before the page
+	 * @param numBooks
+	 *            the maximum number of books on the page
+	 * @return the books on the page
+	 */
+	List<Book> range(float minPrice, float maxPrice, int offset, int numBooks) {
+		List<Book> page = new ArrayList<>();
+
+		if (maxPrice < 0 || minPrice > maxPrice) {
+			return page;
+		}
+
+		long fromKey = key(Math.max(minPrice, 0.0f), 0);
+		long toKey = key(maxPrice, -1);
+		int skipped = 0;
+
+		for (BookStoreBook book : books.subMap(fromKey, true, toKey, true).values()) {
+			if (page.size() == numBooks) {
+				break;
+			}
+
+			if (skipped < offset) {
+				skipped++;
+			} else {
+				page.add(book.immutableBook());
+			}
+		}
+
+		return page;
+	}
+
+	/**
+	 * Gets a page of the books priced between the minimum and maximum price
+	 * by visiting all books, like {@link #range(float, float, int, int)}.
+	 *
+	 * @param <T>
+	 *            the type of the books
+	 * @param books
+	 *            the books
+	 * @param price
+	 *            the price of a book
+	 * @param isbn
+	 *            the ISBN of a book
+	 * @param minPrice
+	 *            the minimum price
+	 * @param maxPrice
+	 *            the maximum price
+	 * @param offset
+	 *            the number of books in the range before the page
+	 * @param numBooks
+	 *            the maximum number of books on the page
+	 * @return the books on the page
+	 */
+	static <T> List<T> scan(Iterable<T> books, ToDoubleFunction<T> price, ToIntFunction<T> isbn, float minPrice,
+			float maxPrice, int offset, int numBooks) {
+		List<T> page = new ArrayList<>();
+
+		if (maxPrice < 0 || minPrice > maxPrice || numBooks == 0) {
+			return page;
+		}
+
+		Comparator<Map.Entry<Long, T>> order = Map.Entry.comparingByKey();
+		long limit = (long) offset + numBooks;
+
+		// Keep the first books up to the end of the page in a heap whose root
+		// is the last of them.
+		PriorityQueue<Map.Entry<Long, T>> first = new PriorityQueue<>(order.reversed());
+
+		for (T book : books) {
+			float bookPrice = (float) price.applyAsDouble(book);
+
+			if (bookPrice >= minPrice && bookPrice <= maxPrice) {
+				first.add(new AbstractMap.SimpleImmutableEntry<>(key(bookPrice, isbn.applyAsInt(book)), book));
+
+				if (first.size() > limit) {
+					first.poll();
+				}
+			}
+		}
+
+		List<Map.Entry<Long, T>> range = new ArrayList<>(first);
+		range.sort(order);
+
+		for (int i = offset; i < range.size(); i++) {
+			page.add(range.get(i).getValue());
+		}
+
+		return page;
+	}
+
+	private static long key(float price, int isbn) {
+		// Adding zero turns -0.0 into 0.0, whose bits are not negative.
+		return ((long) Float.floatToIntBits(price + 0.0f) << 32) | (isbn & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,152 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * {@link RatingAccumulator} accumulates the ratings of a book. Each rating
+ * adds its value to the total rating and one to the number of times rated in
+ * a single atomic update of one <code>long</code>, which packs the total in
+ * its upper and the count in its lower 32 bits. Totals and counts summed over
+ * the cells therefore always belong to the same set of ratings.
+ *
+ * Like a {@link java.util.concurrent.atomic.LongAdder}, the accumulator starts
+ * with a single base value and only spreads the updates over striped cells
+ * once threads contend on the base, so rarely rated books stay small. Each
+ * cell holds up to 2^32 - 1 as total rating, i.e. several hundred million
+ * ratings. The ratings a book was added with are kept apart from the packed
+ * values, so they may be as large as a <code>long</code>.
+ */
+final class RatingAccumulator {
+
+	/** The atomic updater of the base. */
+	private static final AtomicLongFieldUpdater<RatingAccumulator> BASE = AtomicLongFieldUpdater
+			.newUpdater(RatingAccumulator.class, "base");
+
+	/** The number of bits of the number of times rated. */
+	private static final int COUNT_BITS = 32;
+
+	/** The mask of the number of times rated. */
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+	/** The number of cells, a power of two. */
+	private static final int NUM_CELLS = Integer
+			.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+	/**
+	 * The distance between two cells in <code>long</code>s, so no two cells
+	 * share a cache line.
+	 */
+	private static final int CELL_STRIDE = 8;
+
+	/**
+	 * {@link Sum} is the total rating and the number of times rated of the
+	 * same set of ratings.
+	 */
+	static final class Sum {
+
+		/** The total rating. */
+		final long totalRating;
+
+		/** The number of times rated. */
+		final long numTimesRated;
+
+		private Sum(long totalRating, long numTimesRated) {
+			this.totalRating = totalRating;
+			this.numTimesRated = numTimesRated;
+		}
+
+		/**
+		 * Gets the average rating.
+		 *
+		 * @return the average rating, or -1 if there are no ratings
+		 */
+		float averageRating() {
+			return numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated;
+		}
+	}
+
+	/** The total rating the accumulator started with. */
+	private final long initialTotalRating;
+
+	/** The number of times rated the accumulator started with. */
+	private final long initialNumTimesRated;
+
+	/** The packed ratings accumulated while there was no contention. */
+	private volatile long base;
+
+	/** The packed ratings accumulated under contention, or null. */
+	private volatile AtomicLongArray cells;
+
+	/**
+	 * Instantiates a new {@link RatingAccumulator} with existing ratings.
+	 *
+	 * @param totalRating
+	 *            the total rating
+	 * @param numTimesRated
+	 *            the number of times rated
+	 */
+	RatingAccumulator(long totalRating, long numTimesRated) {
+		this.initialTotalRating = totalRating;
+		this.initialNumTimesRated = numTimesRated;
+	}
+
+	/**
+	 * Adds a rating.
+	 *
+	 * @param rating
+	 *            the rating
+	 */
+	void add(int rating) {
+		long delta = ((long) rating << COUNT_BITS) | 1;
+		AtomicLongArray cells = this.cells;
+
+		if (cells == null) {
+			long current = base;
+
+			if (BASE.compareAndSet(this, current, current + delta)) {
+				return;
+			}
+
+			cells = newCells();
+		}
+
+		cells.addAndGet(cellIndex(), delta);
+	}
+
+	/**
+	 * Sums the ratings accumulated so far.
+	 *
+	 * @return the sum
+	 */
+	Sum sum() {
+		long packed = base;
+		long totalRating = initialTotalRating + (packed >>> COUNT_BITS);
+		long numTimesRated = initialNumTimesRated + (packed & COUNT_MASK);
+		AtomicLongArray cells = this.cells;
+
+		if (cells != null) {
+			for (int i = 0; i < cells.length(); i += CELL_STRIDE) {
+				packed = cells.get(i);
+				totalRating += packed >>> COUNT_BITS;
+				numTimesRated += packed & COUNT_MASK;
+			}
+		}
+
+		return new Sum(totalRating, numTimesRated);
+	}
+
+	private synchronized AtomicLongArray newCells() {
+		if (cells == null) {
+			cells = new AtomicLongArray(NUM_CELLS * CELL_STRIDE);
+		}
+
+		return cells;
+	}
+
+	private static int cellIndex() {
+		// Spread the threads over the cells.
+		int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+		return ((hash ^ (hash >>> 16)) & (NUM_CELLS - 1)) * CELL_STRIDE;
+	}
+}
@@ -0,0 +1,102 @@
+package com.acertainbookstore.business;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link RecentDemandIndex} keeps the {@link DemandWindow}s of the books of a
+ * bookstore without a lock covering them, together with the ISBNs of the
+ * books missed in the last 24 hours, so ranking books by their recent miss
+ * rate visits only those books instead of the catalog. A window is created by
+ * the first sale or sale miss of a book.
+ *
+ * Updates and rankings may run concurrently, each window is updated and
+ * summed while synchronized on it. A book removed while it is bought may keep
+ * a window until the next removal of its ISBN, which the store skips when it
+ * looks up the ranked books.
+ */
+final class RecentDemandIndex {
+
+	/** The windows of the books sold or missed, by ISBN. */
+	private final Map<Integer, DemandWindow> windows = new ConcurrentHashMap<>();
+
+	/** The ISBNs of the books which may have recent sale misses. */
+	private final Set<Integer> recentMissIsbns = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Adds sold copies of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numCopies
+	 *            the number of copies
+	 * @param timeMillis
+	 *            the time of the sale
+	 */
+	void addSales(int isbn, int numCopies, long timeMillis) {
+		DemandWindow window = windows.computeIfAbsent(isbn, key -> new DemandWindow());
+
+		synchronized (window) {
+			window.addSales(numCopies, timeMillis);
+		}
+	}
+
+	/**
+	 * Adds missed copies of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numCopies
+	 *            the number of copies
+	 * @param timeMillis
+	 *            the time of the sale miss
+	 */
+	void addSaleMisses(int isbn, int numCopies, long timeMillis) {
+		DemandWindow window = windows.computeIfAbsent(isbn, key -> new DemandWindow());
+
+		// The ISBN is added while synchronized on the window, so a concurrent
+		// ranking cannot drop it as expired after the miss.
+		synchronized (window) {
+			window.addSaleMisses(numCopies, timeMillis);
+			recentMissIsbns.add(isbn);
+		}
+	}
+
+	/**
+	 * Removes the window of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	void remove(int isbn) {
+		windows.remove(isbn);
+		recentMissIsbns.remove(isbn);
+	}
+
+	/**
+	 * Removes all windows.
+	 */
+	void clear() {
+		windows.clear();
+		recentMissIsbns.clear();
+	}
+
+	/**
+	 * Ranks the books by their sale misses in the last minutes, as
+	 * {@link DemandWindow#rankByRecentMissRate(int[], java.util.function.IntFunction, java.util.function.IntConsumer, int, int, long)}.
+	 *
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @param numMinutes
+	 *            the number of minutes, at most {@link DemandWindow#NUM_BUCKETS}
+	 * @param timeMillis
+	 *            the current time
+	 * @return the ISBNs of the books, most missed first
+	 */
+	int[] rankByRecentMissRate(int numBooks, int numMinutes, long timeMillis) {
+		int[] isbns = recentMissIsbns.stream().mapToInt(Integer::intValue).toArray();
+		return DemandWindow.rankByRecentMissRate(isbns, windows::get, recentMissIsbns::remove, numBooks, numMinutes,
+				timeMillis);
+	}
+}
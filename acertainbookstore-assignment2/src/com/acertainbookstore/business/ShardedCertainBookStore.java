@@ -0,0 +1,851 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link ShardedCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities by partitioning the books by ISBN
+ * across independent shards.
+ *
+ * Each shard has its own book map and {@link ReadWriteLock}, so operations on
+ * books of different shards never contend. An operation locks exactly the
+ * shards of the ISBNs it touches, always in ascending shard order, which makes
+ * operations spanning several shards, e.g. a purchase, atomic and free of
+ * deadlocks. Operations reading the whole catalog lock all shards in the same
+ * order and then scan the shards in parallel. The editor picks of all shards
+ * are sampled from one {@link EditorPickIndex}, which has its own lock, so
+ * sampling them locks no shard. The top rated books of all shards are read off
+ * one {@link TopRatedIndex}, which writers update while they hold the locks of
+ * the shards of the books they change. Each shard rejects most unknown ISBNs
+ * with its own {@link IsbnFilter}, so a full filter is rebuilt under the lock
+ * of its shard only.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class ShardedCertainBookStore implements BookStore, StockManager {
+
+	/** The shards. */
+	private final Shard[] shards;
+
+	/** The recent sales and sale misses of the books of all shards. */
+	private final RecentDemandIndex recentDemand = new RecentDemandIndex();
+
+	/** The editor picks of all shards. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>(BookStoreBook::getISBN,
+			this::isEditorPick);
+
+	/** The books of all shards ordered by rating. */
+	private final TopRatedIndex<BookStoreBook> topRatedIndex = new TopRatedIndex<>(BookStoreBook::getISBN,
+			BookStoreBook::getAverageRating, this::isInStore);
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} with one shard per available
+	 * processor.
+	 */
+	public ShardedCertainBookStore() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param numShards
+	 *            the number of shards
+	 */
+	public ShardedCertainBookStore(int numShards) {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("numShards = " + numShards + ", but it must be positive");
+		}
+
+		shards = new Shard[numShards];
+
+		for (int i = 0; i < numShards; i++) {
+			shards[i] = new Shard();
+		}
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return shards.length;
+	}
+
+	private int shardIndex(int isbn) {
+		return Math.floorMod(isbn, shards.length);
+	}
+
+	private Shard shardOf(int isbn) {
+		return shards[shardIndex(isbn)];
+	}
+
+	private Map<Integer, BookStoreBook> booksOf(int isbn) {
+		return shardOf(isbn).books;
+	}
+
+	/**
+	 * Checks if the book is still in its shard. The caller holds the lock of
+	 * the shard.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is in its shard
+	 */
+	private boolean isInStore(BookStoreBook book) {
+		return booksOf(book.getISBN()).get(book.getISBN()) == book;
+	}
+
+	/**
+	 * Checks if the book is an editor pick which is still in its shard. The
+	 * caller holds the lock of the shard.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is a current editor pick
+	 */
+	private boolean isEditorPick(BookStoreBook book) {
+		return book.isEditorPick() && isInStore(book);
+	}
+
+	/**
+	 * Locks the shards of the ISBNs in ascending shard order.
+	 *
+	 * @param isbns
+	 *            the ISBNs
+	 * @param exclusive
+	 *            true to lock the shards in write mode, false in read mode
+	 * @return the acquired locks, in acquisition order
+	 */
+	private List<Lock> lockShards(Stream<Integer> isbns, boolean exclusive) {
+		boolean[] involved = new boolean[shards.length];
+		isbns.forEach(isbn -> involved[shardIndex(isbn)] = true);
+
+		return lockShards(IntStream.range(0, shards.length).filter(i -> involved[i]), exclusive);
+	}
+
+	/**
+	 * Locks all shards in ascending shard order.
+	 *
+	 * @param exclusive
+	 *            true to lock the shards in write mode, false in read mode
+	 * @return the acquired locks, in acquisition order
+	 */
+	private List<Lock> lockAllShards(boolean exclusive) {
+		return lockShards(IntStream.range(0, shards.length), exclusive);
+	}
+
+	private List<Lock> lockShards(IntStream ascendingIndices, boolean exclusive) {
+		List<Lock> locks = new ArrayList<>();
+
+		ascendingIndices.forEach(i -> {
+			ReadWriteLock shardLock = shards[i].lock;
+			Lock lock = exclusive ? shardLock.writeLock() : shardLock.readLock();
+			lock.lock();
+			locks.add(lock);
+		});
+
+		return locks;
+	}
+
+	/**
+	 * Releases the locks in the reverse order of their acquisition.
+	 *
+	 * @param locks
+	 *            the locks
+	 */
+	private void unlockShards(List<Lock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+
+	/**
+	 * Scans all shards in parallel and merges the results. The caller must
+	 * hold the locks of all shards, which keeps the scan a consistent snapshot
+	 * across shards.
+	 *
+	 * @param <T>
+	 *            the result type
+	 * @param scan
+	 *            the scan of the books of one shard
+	 * @return the merged results
+	 */
+	private <T> List<T> scanShards(Function<Collection<BookStoreBook>, List<T>> scan) {
+		return Arrays.stream(shards)
+				.parallel()
+				.map(shard -> scan.apply(shard.books.values()))
+				.flatMap(List::stream)
+				.collect(Collectors.toList());
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (!(bookPrice >= 0.0)) { // Check if the price of the book is valid, NaN is not
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (booksOf(isbn).containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		Shard shard = shardOf(ISBN);
+
+		if (!shard.isbnFilter.mightContain(ISBN)) { // Reject most unknown ISBNs without touching the book map
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		if (!shard.books.containsKey(ISBN)) {// Check if the book is in stock
+			shard.isbnFilter.recordFalsePositive();
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(bookSet.stream().map(StockBook::getISBN), true);
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			List<BookStoreBook> books = new ArrayList<>(bookSet.size());
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				Shard shard = shardOf(isbn);
+
+				// A set may hold different books with the same ISBN.
+				if (shard.books.put(isbn, bookStoreBook) == null) {
+					shard.isbnFilter.add(isbn);
+				}
+
+				books.add(bookStoreBook);
+			}
+
+			for (StockBook book : bookSet) {
+				Shard shard = shardOf(book.getISBN());
+
+				if (shard.isbnFilter.isFull()) {
+					shard.isbnFilter.rebuild(shard.books.keySet().stream().mapToInt(Integer::intValue).toArray());
+				}
+			}
+
+			editorPickIndex.update(books);
+			topRatedIndex.updateAll(books);
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(bookCopiesSet.stream().map(BookCopy::getISBN), true);
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int isbn = bookCopy.getISBN();
+				booksOf(isbn).get(isbn).addCopies(bookCopy.getNumCopies());
+			}
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		List<Lock> locks = lockAllShards(false);
+
+		try {
+			return scanShards(books -> books.stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList()));
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(editorPicks.stream().map(BookEditorPick::getISBN), true);
+
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			List<BookStoreBook> books = new ArrayList<>(editorPicks.size());
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				int isbn = editorPickArg.getISBN();
+				BookStoreBook book = booksOf(isbn).get(isbn);
+				book.setEditorPick(editorPickArg.isEditorPick());
+				books.add(book);
+			}
+
+			editorPickIndex.update(books);
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we buy are there first.
+		int isbn;
+		BookStoreBook book;
+		Boolean saleMiss = false;
+
+		Map<Integer, Integer> salesMisses = new HashMap<>();
+		long timeMillis = System.currentTimeMillis();
+
+		// Holding the locks of all shards of the order makes it atomic.
+		List<Lock> locks = lockShards(bookCopiesToBuy.stream().map(BookCopy::getISBN), true);
+
+		try {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				isbn = bookCopyToBuy.getISBN();
+
+				validate(bookCopyToBuy);
+
+				book = booksOf(isbn).get(isbn);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					isbn = saleMissEntry.getKey();
+					booksOf(isbn).get(isbn).addSaleMiss(saleMissEntry.getValue());
+					recentDemand.addSaleMisses(isbn, saleMissEntry.getValue(), timeMillis);
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				isbn = bookCopyToBuy.getISBN();
+				booksOf(isbn).get(isbn).buyCopies(bookCopyToBuy.getNumCopies());
+				recentDemand.addSales(isbn, bookCopyToBuy.getNumCopies(), timeMillis);
+			}
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(isbnSet.stream(), false);
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> booksOf(isbn).get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(isbnSet.stream(), false);
+
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> booksOf(isbn).get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return editorPickIndex.sample(numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The shards are locked so that ratings of books of several shards are
+		// seen all or none.
+		List<Lock> locks = lockAllShards(false);
+
+		try {
+			return topRatedIndex.top(numBooks).stream()
+					.map(book -> (Book) book.immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByAuthorPrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<Lock> locks = lockAllShards(false);
+
+		try {
+			// The first books of the whole store are among the first books of
+			// their shards.
+			List<BookStoreBook> candidates = scanShards(
+					books -> PrefixIndex.scan(books, BookStoreBook::getAuthor, BookStoreBook::getISBN, prefix, numBooks));
+
+			return PrefixIndex.scan(candidates, BookStoreBook::getAuthor, BookStoreBook::getISBN, prefix, numBooks)
+					.stream()
+					.map(BookStoreBook::immutableBook)
+					.collect(Collectors.toList());
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByTitlePrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<Lock> locks = lockAllShards(false);
+
+		try {
+			// The first books of the whole store are among the first books of
+			// their shards.
+			List<BookStoreBook> candidates = scanShards(
+					books -> PrefixIndex.scan(books, BookStoreBook::getTitle, BookStoreBook::getISBN, prefix, numBooks));
+
+			return PrefixIndex.scan(candidates, BookStoreBook::getTitle, BookStoreBook::getISBN, prefix, numBooks)
+					.stream()
+					.map(BookStoreBook::immutableBook)
+					.collect(Collectors.toList());
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * boolean, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<Lock> locks = lockAllShards(false);
+
+		try {
+			// The best books of the whole store are among the best books of
+			// their shards.
+			List<BookStoreBook> candidates = scanShards(books -> InvertedIndex.scan(books, BookStoreBook::getTitle,
+					BookStoreBook::getAuthor, BookStoreBook::getISBN, query, matchAll, numBooks));
+
+			return InvertedIndex.scan(candidates, BookStoreBook::getTitle, BookStoreBook::getAuthor,
+					BookStoreBook::getISBN, query, matchAll, numBooks)
+					.stream()
+					.map(BookStoreBook::immutableBook)
+					.collect(Collectors.toList());
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice) || Float.isNaN(maxPrice)) {
+			throw new BookStoreException("minPrice = " + minPrice + ", maxPrice = " + maxPrice
+					+ ", but they must be numbers");
+		}
+
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<Lock> locks = lockAllShards(false);
+
+		try {
+			// The page of the whole store is among the first books of each
+			// shard up to the end of the page.
+			int limit = (int) Math.min(Integer.MAX_VALUE, (long) offset + numBooks);
+			List<BookStoreBook> candidates = scanShards(books -> PriceIndex.scan(books, BookStoreBook::getPrice,
+					BookStoreBook::getISBN, minPrice, maxPrice, 0, limit));
+
+			return PriceIndex.scan(candidates, BookStoreBook::getPrice, BookStoreBook::getISBN, minPrice, maxPrice,
+					offset, numBooks)
+					.stream()
+					.map(BookStoreBook::immutableBook)
+					.collect(Collectors.toList());
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		List<Lock> locks = lockAllShards(false);
+
+		try {
+			return scanShards(books -> books.stream()
+					.filter(book -> book.hadSaleMiss())
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList()));
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByRecentMissRate(
+	 * int, int)
+	 */
+	@Override
+	public List<StockBook> getBooksByRecentMissRate(int numBooks, int numMinutes) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (numMinutes < 1 || numMinutes > DemandWindow.NUM_BUCKETS) {
+			throw new BookStoreException(
+					"numMinutes = " + numMinutes + ", but it must be between 1 and " + DemandWindow.NUM_BUCKETS);
+		}
+
+		// Only the shards of the ranked books are locked to look them up.
+		int[] rankedIsbns = recentDemand.rankByRecentMissRate(numBooks, numMinutes, System.currentTimeMillis());
+		List<Lock> locks = lockShards(Arrays.stream(rankedIsbns).boxed(), false);
+
+		try {
+			List<StockBook> books = new ArrayList<>(rankedIsbns.length);
+
+			for (int isbn : rankedIsbns) {
+				BookStoreBook book = booksOf(isbn).get(isbn);
+
+				// The book may have been removed since it was ranked.
+				if (book != null) {
+					books.add(book.immutableStockBook());
+				}
+			}
+
+			return books;
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(bookRating.stream().map(BookRating::getISBN), true);
+
+		try {
+			for (BookRating bookRatingArg : bookRating) {
+				validate(bookRatingArg);
+			}
+
+			for (BookRating bookRatingArg : bookRating) {
+				int isbn = bookRatingArg.getISBN();
+				BookStoreBook book = booksOf(isbn).get(isbn);
+				book.addRating(bookRatingArg.getRating());
+				topRatedIndex.update(book);
+			}
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		List<Lock> locks = lockAllShards(true);
+
+		try {
+			for (Shard shard : shards) {
+				shard.books.clear();
+				shard.isbnFilter.clear();
+			}
+
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			recentDemand.clear();
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Lock> locks = lockShards(isbnSet.stream(), true);
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				booksOf(isbn).remove(isbn);
+				shardOf(isbn).isbnFilter.remove(isbn);
+				topRatedIndex.remove(isbn);
+				recentDemand.remove(isbn);
+			}
+
+			editorPickIndex.removeAll(isbnSet);
+		} finally {
+			unlockShards(locks);
+		}
+	}
+
+	/**
+	 * {@link Shard} holds the books of one partition of the ISBNs.
+	 */
+	private static final class Shard {
+
+		/** The mapping of books from ISBN to {@link BookStoreBook}. */
+		private final Map<Integer, BookStoreBook> books = new HashMap<>();
+
+		/** The lock protecting the book map and all books in it. */
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+		/** The filter rejecting ISBNs which are not in the book map. */
+		private final IsbnFilter isbnFilter = new IsbnFilter();
+	}
+}
@@ -1,15 +1,14 @@
 package com.acertainbookstore.business;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
@@ -21,20 +20,218 @@ import com.acertainbookstore.utils.BookStoreUtility;
 /** {@link SingleLockConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
  * 
+ * All operations are protected by a single global {@link ReadWriteLock}:
+ * read-only operations run concurrently under the read lock, while operations
+ * that change the state of the store take the write lock.
+ * 
+ * A store created with a data directory is durable: it logs its mutations to
+ * a {@link WriteAheadLog} in the directory before they return, and replays
+ * the log when it is created again. A {@link Checkpointer} snapshots the books
+ * in the background, so only the log written since the last snapshot is
+ * replayed. Mutations preserve the books they change for a running snapshot.
+ * 
  * @see BookStore
  * @see StockManager
  */
 public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntHashMap<BookStoreBook> bookMap = null;
+
+	/** The editor picks among the books of the book map. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>(BookStoreBook::getISBN,
+			this::isEditorPick);
+
+	/** The ISBNs of the books with sale misses. */
+	private final Set<Integer> saleMissIsbns = ConcurrentHashMap.newKeySet();
+
+	/** The recent sales and sale misses of the books, by ISBN. */
+	private final IntHashMap<DemandWindow> demandWindows = new IntHashMap<>();
+
+	/** The ISBNs of the books which may have sale misses in the last 24 hours. */
+	private final Set<Integer> recentMissIsbns = ConcurrentHashMap.newKeySet();
+
+	/** The books of the book map ordered by rating. */
+	private final TopRatedIndex<BookStoreBook> topRatedIndex = new TopRatedIndex<>(BookStoreBook::getISBN,
+			BookStoreBook::getAverageRating, this::isInStore);
+
+	/** The books of the book map ordered by author. */
+	private final PrefixIndex authorIndex = new PrefixIndex();
+
+	/** The books of the book map ordered by title. */
+	private final PrefixIndex titleIndex = new PrefixIndex();
+
+	/** The books of the book map by the words of their titles and authors. */
+	private final InvertedIndex searchIndex = new InvertedIndex();
+
+	/** The books of the book map ordered by price. */
+	private final PriceIndex priceIndex = new PriceIndex();
+
+	/** The filter rejecting ISBNs which are not in the book map. */
+	private final IsbnFilter isbnFilter = new IsbnFilter();
+
+	/** The log of the mutations, disabled unless the store is durable. */
+	private WriteAheadLog log = WriteAheadLog.disabled();
+
+	/** The snapshots of the books, disabled unless the store is durable. */
+	private Checkpointer checkpointer = Checkpointer.disabled();
+
+	/** The global lock protecting the book map and all books in it. */
+	private final ReadWriteLock lock;
 
 	/**
-	 * Instantiates a new {@link CertainBookStore}.
+	 * Instantiates a new {@link CertainBookStore} with a non-fair lock.
 	 */
 	public SingleLockConcurrentCertainBookStore() {
+		this(false);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param fair
+	 *            true if the global lock should use a fair ordering policy
+	 */
+	public SingleLockConcurrentCertainBookStore(boolean fair) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntHashMap<>();
+		lock = new ReentrantReadWriteLock(fair);
+	}
+
+	/**
+	 * Instantiates a new durable {@link CertainBookStore}, which recovers the
+	 * books from the snapshot and the log in the data directory and logs its
+	 * mutations there.
+	 *
+	 * @param fair
+	 *            true if the global lock should use a fair ordering policy
+	 * @param dataDirectory
+	 *            the data directory
+	 * @throws BookStoreException
+	 *             if the snapshot cannot be read or the log cannot be opened or
+	 *             replayed
+	 */
+	public SingleLockConcurrentCertainBookStore(boolean fair, Path dataDirectory) throws BookStoreException {
+		this(fair);
+
+		// The log stays disabled during the replay, so replayed mutations are
+		// not logged again.
+		Checkpointer recovered = Checkpointer.open(dataDirectory, lock, bookMap, demandWindows, saleMissIsbns,
+				this::restoreBooks);
+		restoreRecentMisses();
+		log = WriteAheadLog.open(dataDirectory, recovered.getFirstSegment(), this, this, this::buyBooks);
+		checkpointer = recovered;
+		checkpointer.start(log);
+	}
+
+	/**
+	 * Gets the rate of the lookups of ISBNs not in the bookstore which the
+	 * ISBN filter did not reject.
+	 *
+	 * @return the false-positive rate, or 0 if there were no such lookups
+	 */
+	public double getIsbnFilterFalsePositiveRate() {
+		return isbnFilter.falsePositiveRate();
+	}
+
+	/**
+	 * Checks if the book is still in the book map.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is in the book map
+	 */
+	private boolean isInStore(BookStoreBook book) {
+		return bookMap.get(book.getISBN()) == book;
+	}
+
+	/**
+	 * Checks if the book is an editor pick which is still in the book map.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is a current editor pick
+	 */
+	private boolean isEditorPick(BookStoreBook book) {
+		return book.isEditorPick() && isInStore(book);
+	}
+
+	/**
+	 * Puts a book into the book map and the indexes, replacing the book with the
+	 * same ISBN. The caller must hold the write lock and update the
+	 * editor picks and the ISBN filter afterwards.
+	 *
+	 * @param bookStoreBook
+	 *            the book
+	 */
+	private void putBook(BookStoreBook bookStoreBook) {
+		int isbn = bookStoreBook.getISBN();
+		BookStoreBook previous = bookMap.put(isbn, bookStoreBook);
+		checkpointer.exclude(bookStoreBook);
+
+		// A set may hold different books with the same ISBN.
+		if (previous == null) {
+			isbnFilter.add(isbn);
+		} else {
+			checkpointer.preserve(previous);
+			authorIndex.remove(previous.getAuthor(), isbn);
+			titleIndex.remove(previous.getTitle(), isbn);
+			searchIndex.remove(previous);
+			priceIndex.remove(previous);
+		}
+
+		authorIndex.add(bookStoreBook.getAuthor(), bookStoreBook);
+		titleIndex.add(bookStoreBook.getTitle(), bookStoreBook);
+		searchIndex.add(bookStoreBook);
+		priceIndex.add(bookStoreBook);
+		demandWindows.put(isbn, new DemandWindow());
+
+		// Added and replayed books may come with sale misses.
+		if (bookStoreBook.hadSaleMiss()) {
+			saleMissIsbns.add(isbn);
+		} else {
+			saleMissIsbns.remove(isbn);
+		}
+
+		topRatedIndex.update(bookStoreBook);
+	}
+
+	/**
+	 * Restores books from a snapshot, before the store is shared.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	private void restoreBooks(List<BookStoreBook> books) {
+		lock.writeLock().lock();
+
+		try {
+			for (BookStoreBook book : books) {
+				putBook(book);
+			}
+
+			if (isbnFilter.isFull()) {
+				isbnFilter.rebuild(bookMap.keys());
+			}
+
+			editorPickIndex.update(books);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the books with recent sale misses among the windows restored from a
+	 * snapshot, before the store is shared.
+	 */
+	private void restoreRecentMisses() {
+		long timeMillis = System.currentTimeMillis();
+
+		for (int isbn : bookMap.keys()) {
+			if (demandWindows.get(isbn).sumSaleMisses(DemandWindow.NUM_BUCKETS, timeMillis) > 0) {
+				recentMissIsbns.add(isbn);
+			}
+		}
 	}
 
 	private void validate(StockBook book) throws BookStoreException {
@@ -60,7 +257,7 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
 		}
 
-		if (bookPrice < 0.0) { // Check if the price of the book is valid
+		if (!(bookPrice >= 0.0)) { // Check if the price of the book is valid, NaN is not
 			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
 		}
 
@@ -69,29 +266,54 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		}
 	}	
 	
-	private void validate(BookCopy bookCopy) throws BookStoreException {
+	private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
 		int isbn = bookCopy.getISBN();
 		int numCopies = bookCopy.getNumCopies();
 
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 
 		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
 			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
 		}
+
+		return book;
 	}
 	
-	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+	private BookStoreBook validate(BookEditorPick editorPickArg) throws BookStoreException {
 		int isbn = editorPickArg.getISBN();
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		return validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 	
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private BookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private BookStoreBook validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
-		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+
+		if (!isbnFilter.mightContain(ISBN)) { // Reject most unknown ISBNs without touching the book map
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+
+		if (book == null) {// Check if the book is in stock
+			isbnFilter.recordFalsePositive();
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 		}
+
+		return book;
 	}
 
 	
@@ -106,15 +328,35 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check if all are there
-		for (StockBook book : bookSet) {
-			validate(book);
-		}
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
 
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			List<BookStoreBook> books = new ArrayList<>(bookSet.size());
+
+			for (StockBook book : bookSet) {
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				putBook(bookStoreBook);
+				books.add(bookStoreBook);
+			}
+
+			if (isbnFilter.isFull()) {
+				isbnFilter.rebuild(bookMap.keys());
+			}
+
+			editorPickIndex.update(books);
+			position = log.logAddBooks(bookSet);
+		} finally {
+			lock.writeLock().unlock();
 		}
+
+		log.sync(position);
 	}
 
 	/*
@@ -124,26 +366,37 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		int isbn;
-		int numCopies;
-
 		if (bookCopiesSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (BookCopy bookCopy : bookCopiesSet) {
-			validate(bookCopy);
-		}
+		// The books found by the validation, in iteration order.
+		BookStoreBook[] books = new BookStoreBook[bookCopiesSet.size()];
+		int i = 0;
+		long position;
 
-		BookStoreBook book;
+		lock.writeLock().lock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books[i++] = validate(bookCopy);
+			}
 
-		// Update the number of copies
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
+			i = 0;
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				checkpointer.preserve(books[i]);
+				books[i++].addCopies(bookCopy.getNumCopies());
+				saleMissIsbns.remove(bookCopy.getISBN());
+			}
+
+			position = log.logAddCopies(bookCopiesSet);
+		} finally {
+			lock.writeLock().unlock();
 		}
+
+		log.sync(position);
 	}
 
 	/*
@@ -152,11 +405,15 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
 	public List<StockBook> getBooks() {
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
-
-		return bookMapValues.stream()
-                .map(book -> book.immutableStockBook())
-                .collect(Collectors.toList());
+		lock.readLock().lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(bookMap.size());
+			bookMap.forEach(book -> books.add(book.immutableStockBook()));
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	/*
@@ -172,15 +429,31 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		int isbnValue;
+		// The books found by the validation, in iteration order.
+		List<BookStoreBook> books = new ArrayList<>(editorPicks.size());
+		long position;
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			validate(editorPickArg);
-		}
+		lock.writeLock().lock();
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books.add(validate(editorPickArg));
+			}
+
+			int i = 0;
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				checkpointer.preserve(books.get(i));
+				books.get(i++).setEditorPick(editorPickArg.isEditorPick());
+			}
+
+			editorPickIndex.update(books);
+			position = log.logUpdateEditorPicks(editorPicks);
+		} finally {
+			lock.writeLock().unlock();
 		}
+
+		log.sync(position);
 	}
 
 	/*
@@ -189,45 +462,85 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
 	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		buyBooks(bookCopiesToBuy, System.currentTimeMillis());
+	}
+
+	/**
+	 * Buys the books at the given time, which a replayed purchase takes from
+	 * the log.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the book copies to buy
+	 * @param timeMillis
+	 *            the time of the purchase
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void buyBooks(Set<BookCopy> bookCopiesToBuy, long timeMillis) throws BookStoreException {
 		if (bookCopiesToBuy == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
 		// Check that all ISBNs that we buy are there first.
-		int isbn;
 		BookStoreBook book;
 		Boolean saleMiss = false;
 
-		Map<Integer, Integer> salesMisses = new HashMap<>();
+		// The books found by the validation, in iteration order.
+		BookStoreBook[] books = new BookStoreBook[bookCopiesToBuy.size()];
+		int i = 0;
+		long position;
 
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			isbn = bookCopyToBuy.getISBN();
+		lock.writeLock().lock();
 
-			validate(bookCopyToBuy);
-			
-			book = bookMap.get(isbn);
+		try {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = validate(bookCopyToBuy);
+				books[i++] = book;
 
-			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-				// If we cannot sell the copies of the book, it is a miss.
-				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-				saleMiss = true;
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					saleMiss = true;
+				}
 			}
-		}
 
-		// We throw exception now since we want to see how many books in the
-		// order incurred misses which is used by books in demand
-		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
+			// We throw exception once the misses are logged since we want to
+			// see how many books in the order incurred misses which is used by
+			// books in demand
+			if (saleMiss) {
+				i = 0;
+
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					book = books[i++];
+
+					if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+						checkpointer.preserve(book);
+						int numMissing = bookCopyToBuy.getNumCopies() - book.getNumCopies();
+						book.addSaleMiss(numMissing);
+						demandWindows.get(book.getISBN()).addSaleMisses(numMissing, timeMillis);
+						saleMissIsbns.add(book.getISBN());
+						recentMissIsbns.add(book.getISBN());
+					}
+				}
+			} else {
+				i = 0;
+
+				// Then make the purchase.
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					checkpointer.preserve(books[i]);
+					books[i++].buyCopies(bookCopyToBuy.getNumCopies());
+					demandWindows.get(bookCopyToBuy.getISBN()).addSales(bookCopyToBuy.getNumCopies(), timeMillis);
+				}
 			}
-			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+
+			position = log.logBuyBooks(bookCopiesToBuy, timeMillis, saleMiss);
+		} finally {
+			lock.writeLock().unlock();
 		}
 
-		// Then make the purchase.
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
+		log.sync(position);
+
+		if (saleMiss) {
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
 	}
 
@@ -243,13 +556,19 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (Integer ISBN : isbnSet) {
-			validateISBNInStock(ISBN);
-		}
+		lock.readLock().lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
 
-		return isbnSet.stream()
-                .map(isbn -> bookMap.get(isbn).immutableStockBook())
-                .collect(Collectors.toList());
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	/*
@@ -262,14 +581,20 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all ISBNs that we rate are there to start with.
-		for (Integer ISBN : isbnSet) {
-			validateISBNInStock(ISBN);
-		}
+		lock.readLock().lock();
 
-		return isbnSet.stream()
-                .map(isbn -> bookMap.get(isbn).immutableBook())
-                .collect(Collectors.toList());
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	/*
@@ -282,47 +607,147 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-                .map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
-                .collect(Collectors.toList());
+		lock.readLock().lock();
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
+		try {
+			return editorPickIndex.sample(numBooks).stream()
+					.map(book -> (Book) book.immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
 
-		if (rangePicks <= numBooks) {
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
 
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
+		lock.readLock().lock();
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+		try {
+			return topRatedIndex.top(numBooks).stream()
+					.map(book -> (Book) book.immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByAuthorPrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-        // Return all the books by the randomly chosen indices.
-        return tobePicked.stream()
-                .map(index -> listAllEditorPicks.get(index).immutableBook())
-                .collect(Collectors.toList());
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return authorIndex.search(prefix, numBooks);
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByTitlePrefix(java.
+	 * lang.String, int)
 	 */
 	@Override
-	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return titleIndex.search(prefix, numBooks);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * boolean, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return searchIndex.search(query, matchAll, numBooks);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice) || Float.isNaN(maxPrice)) {
+			throw new BookStoreException("minPrice = " + minPrice + ", maxPrice = " + maxPrice
+					+ ", but they must be numbers");
+		}
+
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return priceIndex.range(minPrice, maxPrice, offset, numBooks);
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	/*
@@ -332,7 +757,56 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		lock.readLock().lock();
+
+		try {
+			List<StockBook> books = new ArrayList<>(saleMissIsbns.size());
+
+			for (int isbn : saleMissIsbns) {
+				books.add(bookMap.get(isbn).immutableStockBook());
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByRecentMissRate(
+	 * int, int)
+	 */
+	@Override
+	public List<StockBook> getBooksByRecentMissRate(int numBooks, int numMinutes) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (numMinutes < 1 || numMinutes > DemandWindow.NUM_BUCKETS) {
+			throw new BookStoreException(
+					"numMinutes = " + numMinutes + ", but it must be between 1 and " + DemandWindow.NUM_BUCKETS);
+		}
+
+		lock.readLock().lock();
+
+		try {
+			// Only the books missed in the last 24 hours are visited.
+			int[] isbns = recentMissIsbns.stream().mapToInt(Integer::intValue).toArray();
+			int[] rankedIsbns = DemandWindow.rankByRecentMissRate(isbns, demandWindows::get,
+					recentMissIsbns::remove, numBooks, numMinutes, System.currentTimeMillis());
+			List<StockBook> books = new ArrayList<>(rankedIsbns.length);
+
+			for (int isbn : rankedIsbns) {
+				books.add(bookMap.get(isbn).immutableStockBook());
+			}
+
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	/*
@@ -342,7 +816,38 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The books found by the validation, in iteration order.
+		List<BookStoreBook> books = new ArrayList<>(bookRating.size());
+		long position;
+
+		// Ratings are accumulated atomically, so the read lock suffices to
+		// keep the books in the book map.
+		lock.readLock().lock();
+
+		try {
+			for (BookRating bookRatingArg : bookRating) {
+				books.add(validate(bookRatingArg));
+			}
+
+			int i = 0;
+
+			for (BookRating bookRatingArg : bookRating) {
+				BookStoreBook book = books.get(i++);
+				checkpointer.preserve(book);
+				book.addRating(bookRatingArg.getRating());
+				topRatedIndex.update(book);
+			}
+
+			position = log.logRateBooks(bookRating);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		log.sync(position);
 	}
 
 	/*
@@ -351,7 +856,29 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public void removeAllBooks() throws BookStoreException {
-		bookMap.clear();
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			bookMap.forEach(checkpointer::preserve);
+			bookMap.clear();
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			authorIndex.clear();
+			titleIndex.clear();
+			searchIndex.clear();
+			priceIndex.clear();
+			isbnFilter.clear();
+			saleMissIsbns.clear();
+			demandWindows.clear();
+			recentMissIsbns.clear();
+			position = log.logRemoveAllBooks();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		log.sync(position);
 	}
 
 	/*
@@ -365,18 +892,41 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		long position;
+
+		lock.writeLock().lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
 			}
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			for (int isbn : isbnSet) {
+				BookStoreBook book = bookMap.remove(isbn);
+				checkpointer.preserve(book);
+				authorIndex.remove(book.getAuthor(), isbn);
+				titleIndex.remove(book.getTitle(), isbn);
+				searchIndex.remove(book);
+				priceIndex.remove(book);
+				isbnFilter.remove(isbn);
+				demandWindows.remove(isbn);
+				topRatedIndex.remove(isbn);
+				saleMissIsbns.remove(isbn);
+				recentMissIsbns.remove(isbn);
 			}
-		}
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			editorPickIndex.removeAll(isbnSet);
+			position = log.logRemoveBooks(isbnSet);
+		} finally {
+			lock.writeLock().unlock();
 		}
+
+		log.sync(position);
 	}
 }
@@ -0,0 +1,295 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/** {@link SingleWriterConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with a single writer thread.
+ *
+ * Mutations are not applied by the calling threads. They are enqueued as
+ * commands on a bounded queue and applied in batches by one dedicated writer
+ * thread, which publishes a new version of the catalog once per batch and only
+ * then completes the commands of the batch. Reads are served from the
+ * published catalog exactly like in {@link MultiVersionConcurrentCertainBookStore},
+ * so no operation ever takes a lock shared with another client.
+ *
+ * The {@link BookStore} and {@link StockManager} methods block until their
+ * command has been applied; the <code>*Async</code> methods return a
+ * {@link CompletableFuture} instead, which fails with the
+ * {@link BookStoreException} of the command.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see MultiVersionConcurrentCertainBookStore
+ */
+public class SingleWriterConcurrentCertainBookStore extends MultiVersionConcurrentCertainBookStore {
+
+	/** The default capacity of the command queue. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+	/** The maximum number of commands applied in one batch. */
+	private static final int MAX_BATCH_SIZE = 256;
+
+	/** The time the writer waits for a command before checking if it is stopped. */
+	private static final long POLL_MILLISECS = 100;
+
+	/** The queue of commands waiting to be applied. */
+	private final BlockingQueue<Command> commands;
+
+	/** The writer thread. */
+	private final Thread writerThread;
+
+	/** Whether the writer thread should keep running. */
+	private volatile boolean running = true;
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} with the default queue
+	 * capacity.
+	 */
+	public SingleWriterConcurrentCertainBookStore() {
+		this(DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 *
+	 * @param queueCapacity
+	 *            the maximum number of commands waiting to be applied, callers
+	 *            block when the queue is full
+	 */
+	public SingleWriterConcurrentCertainBookStore(int queueCapacity) {
+		commands = new ArrayBlockingQueue<>(queueCapacity);
+		writerThread = new Thread(this::applyCommands, "bookstore-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Stops the writer thread after it applied the commands already enqueued.
+	 * Commands enqueued concurrently are either applied or fail.
+	 */
+	public void stop() {
+		running = false;
+
+		try {
+			writerThread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Enqueues the mutation and waits until the writer thread applied it.
+	 *
+	 * @param mutation
+	 *            the mutation
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Override
+	void write(CatalogWriter.Mutation mutation) throws BookStoreException {
+		try {
+			submit(mutation).get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new BookStoreException(ex);
+		} catch (ExecutionException ex) {
+			throw (BookStoreException) ex.getCause();
+		}
+	}
+
+	/**
+	 * Enqueues the mutation, blocking while the queue is full.
+	 *
+	 * @param mutation
+	 *            the mutation
+	 * @return the future completed once the mutation is applied
+	 */
+	private CompletableFuture<Void> submit(CatalogWriter.Mutation mutation) {
+		Command command = new Command(mutation);
+
+		if (!running) {
+			command.result.completeExceptionally(new BookStoreException("The bookstore is stopped"));
+			return command.result;
+		}
+
+		try {
+			commands.put(command);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			command.result.completeExceptionally(new BookStoreException(ex));
+			return command.result;
+		}
+
+		// The writer thread may have stopped while the command was enqueued,
+		// in which case nobody takes it out but this caller.
+		if (!running && commands.remove(command)) {
+			command.result.completeExceptionally(new BookStoreException("The bookstore is stopped"));
+		}
+
+		return command.result;
+	}
+
+	/**
+	 * Fails with the null input error.
+	 *
+	 * @return the failed future
+	 */
+	private static CompletableFuture<Void> nullInput() {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		result.completeExceptionally(new BookStoreException(BookStoreConstants.NULL_INPUT));
+		return result;
+	}
+
+	/**
+	 * Adds the books asynchronously.
+	 *
+	 * @param bookSet
+	 *            the book set
+	 * @return the future completed once the books are added
+	 * @see StockManager#addBooks(Set)
+	 */
+	public CompletableFuture<Void> addBooksAsync(Set<StockBook> bookSet) {
+		return bookSet == null ? nullInput() : submit(writer -> writer.addBooks(bookSet));
+	}
+
+	/**
+	 * Adds copies of existing books asynchronously.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @return the future completed once the copies are added
+	 * @see StockManager#addCopies(Set)
+	 */
+	public CompletableFuture<Void> addCopiesAsync(Set<BookCopy> bookCopiesSet) {
+		return bookCopiesSet == null ? nullInput() : submit(writer -> writer.addCopies(bookCopiesSet));
+	}
+
+	/**
+	 * Updates the editor picks asynchronously.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @return the future completed once the editor picks are updated
+	 * @see StockManager#updateEditorPicks(Set)
+	 */
+	public CompletableFuture<Void> updateEditorPicksAsync(Set<BookEditorPick> editorPicks) {
+		return editorPicks == null ? nullInput() : submit(writer -> writer.updateEditorPicks(editorPicks));
+	}
+
+	/**
+	 * Buys the books asynchronously.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the book copies to buy
+	 * @return the future completed once the books are bought
+	 * @see BookStore#buyBooks(Set)
+	 */
+	public CompletableFuture<Void> buyBooksAsync(Set<BookCopy> bookCopiesToBuy) {
+		return bookCopiesToBuy == null ? nullInput() : submit(writer -> writer.buyBooks(bookCopiesToBuy));
+	}
+
+	/**
+	 * Removes the books asynchronously.
+	 *
+	 * @param isbnSet
+	 *            the ISBN set
+	 * @return the future completed once the books are removed
+	 * @see StockManager#removeBooks(Set)
+	 */
+	public CompletableFuture<Void> removeBooksAsync(Set<Integer> isbnSet) {
+		return isbnSet == null ? nullInput() : submit(writer -> writer.removeBooks(isbnSet));
+	}
+
+	/**
+	 * The loop of the writer thread: takes a batch of commands, applies them
+	 * to a working version of the catalog, publishes the version and then
+	 * completes the commands.
+	 */
+	private void applyCommands() {
+		List<Command> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+		while (running || !commands.isEmpty()) {
+			try {
+				Command first = commands.poll(POLL_MILLISECS, TimeUnit.MILLISECONDS);
+
+				if (first == null) {
+					continue;
+				}
+
+				batch.add(first);
+			} catch (InterruptedException ex) {
+				continue;
+			}
+
+			commands.drainTo(batch, MAX_BATCH_SIZE - 1);
+			CatalogWriter writer = new CatalogWriter(getCatalog(), getRecentDemand());
+
+			for (Command command : batch) {
+				try {
+					command.mutation.apply(writer);
+				} catch (BookStoreException ex) {
+					command.failure = ex;
+				} catch (RuntimeException ex) {
+					command.failure = new BookStoreException(ex);
+				}
+			}
+
+			// Publish before completing, so callers see their own writes.
+			publish(writer);
+
+			for (Command command : batch) {
+				if (command.failure == null) {
+					command.result.complete(null);
+				} else {
+					command.result.completeExceptionally(command.failure);
+				}
+			}
+
+			batch.clear();
+		}
+
+		// Fail the commands which raced with stop().
+		Command command;
+
+		while ((command = commands.poll()) != null) {
+			command.result.completeExceptionally(new BookStoreException("The bookstore is stopped"));
+		}
+	}
+
+	/**
+	 * {@link Command} is a mutation waiting to be applied by the writer thread.
+	 */
+	private static final class Command {
+
+		/** The mutation. */
+		private final CatalogWriter.Mutation mutation;
+
+		/** The future completed once the mutation is applied. */
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		/** The failure of the mutation, only accessed by the writer thread. */
+		private BookStoreException failure;
+
+		/**
+		 * Instantiates a new {@link Command}.
+		 *
+		 * @param mutation
+		 *            the mutation
+		 */
+		private Command(CatalogWriter.Mutation mutation) {
+			this.mutation = mutation;
+		}
+	}
+}
@@ -0,0 +1,742 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/** {@link StampedLockConcurrentCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities.
+ * 
+ * All operations are protected by a single global {@link StampedLock}.
+ * Operations that change the state of the store take the write lock. Read-only
+ * operations first run as optimistic reads, which do not write to the lock at
+ * all, and only take the read lock if a writer interfered with them.
+ * 
+ * The editor picks are sampled from an {@link EditorPickIndex}, which has
+ * its own lock, and the top rated books are read off a {@link TopRatedIndex}
+ * by an optimistic read. Most unknown ISBNs are rejected by an
+ * {@link IsbnFilter}, which writers rebuild while they hold the write lock, so
+ * an optimistic read which meets a rebuild is retried like any other.
+ * 
+ * @see BookStore
+ * @see StockManager
+ */
+public class StampedLockConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private IntHashMap<BookStoreBook> bookMap = null;
+
+	/** The recent sales and sale misses of the books. */
+	private final RecentDemandIndex recentDemand = new RecentDemandIndex();
+
+	/** The global lock protecting the book map and all books in it. */
+	private final StampedLock lock;
+
+	/** The editor picks, which have their own lock. */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>(BookStoreBook::getISBN,
+			this::isEditorPick);
+
+	/** The books of the book map ordered by rating. */
+	private final TopRatedIndex<BookStoreBook> topRatedIndex = new TopRatedIndex<>(BookStoreBook::getISBN,
+			BookStoreBook::getAverageRating, this::isInStore);
+
+	/** The filter rejecting ISBNs which are not in the book map. */
+	private final IsbnFilter isbnFilter = new IsbnFilter();
+
+	/**
+	 * A read-only operation on the store, which may be run optimistically.
+	 *
+	 * @param <T>
+	 *            the result type
+	 */
+	@FunctionalInterface
+	private interface BookStoreRead<T> {
+
+		/**
+		 * Runs the read.
+		 *
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		T read() throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 */
+	public StampedLockConcurrentCertainBookStore() {
+		// Constructors are not synchronized
+		bookMap = new IntHashMap<>();
+		lock = new StampedLock();
+	}
+
+	/**
+	 * Gets the rate of the lookups of ISBNs not in the bookstore which the
+	 * ISBN filter did not reject.
+	 *
+	 * @return the false-positive rate, or 0 if there were no such lookups
+	 */
+	public double getIsbnFilterFalsePositiveRate() {
+		return isbnFilter.falsePositiveRate();
+	}
+
+	/**
+	 * Checks if the book is still in the book map.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is in the book map
+	 */
+	private boolean isInStore(BookStoreBook book) {
+		return bookMap.get(book.getISBN()) == book;
+	}
+
+	/**
+	 * Checks if the book is an editor pick which is still in the book map.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is a current editor pick
+	 */
+	private boolean isEditorPick(BookStoreBook book) {
+		return book.isEditorPick() && isInStore(book);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (!(bookPrice >= 0.0)) { // Check if the price of the book is valid, NaN is not
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}	
+	
+	private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+	
+	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+	
+	private BookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return book;
+	}
+
+	private BookStoreBook validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		if (!isbnFilter.mightContain(ISBN)) { // Reject most unknown ISBNs without touching the book map
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+
+		if (book == null) {// Check if the book is in stock
+			isbnFilter.recordFalsePositive();
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	/**
+	 * Runs a read-only operation, first as an optimistic read and, if a writer
+	 * acquired the lock in the meantime, again under the read lock. Neither the
+	 * result nor the exception of an optimistic read is used unless the read
+	 * is validated, since it may have seen the store in the middle of a write.
+	 *
+	 * @param <T>
+	 *            the result type
+	 * @param read
+	 *            the read-only operation
+	 * @return the result of the read
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private <T> T optimisticRead(BookStoreRead<T> read) throws BookStoreException {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0L) {
+			try {
+				T result = read.read();
+
+				if (lock.validate(stamp)) {
+					return result;
+				}
+			} catch (BookStoreException ex) {
+				if (lock.validate(stamp)) {
+					throw ex;
+				}
+			} catch (RuntimeException ex) {
+				// The book map was modified while we read it, retry below.
+			}
+		}
+
+		stamp = lock.readLock();
+
+		try {
+			return read.read();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long stamp = lock.writeLock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			List<BookStoreBook> books = new ArrayList<>(bookSet.size());
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+
+				// A set may hold different books with the same ISBN.
+				if (bookMap.put(isbn, bookStoreBook) == null) {
+					isbnFilter.add(isbn);
+				}
+
+				books.add(bookStoreBook);
+			}
+
+			if (isbnFilter.isFull()) {
+				isbnFilter.rebuild(bookMap.keys());
+			}
+
+			editorPickIndex.update(books);
+			topRatedIndex.updateAll(books);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The books found by the validation, in iteration order.
+		BookStoreBook[] books = new BookStoreBook[bookCopiesSet.size()];
+		int i = 0;
+
+		long stamp = lock.writeLock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books[i++] = validate(bookCopy);
+			}
+
+			i = 0;
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books[i++].addCopies(bookCopy.getNumCopies());
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return optimisticRead(() -> bookMap.values().stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long stamp = lock.writeLock();
+
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validate(editorPickArg);
+			}
+
+			List<BookStoreBook> books = new ArrayList<>(editorPicks.size());
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+				book.setEditorPick(editorPickArg.isEditorPick());
+				books.add(book);
+			}
+
+			editorPickIndex.update(books);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we buy are there first.
+		BookStoreBook book;
+		Boolean saleMiss = false;
+
+		// The books found by the validation, in iteration order.
+		BookStoreBook[] books = new BookStoreBook[bookCopiesToBuy.size()];
+		int i = 0;
+		long timeMillis = System.currentTimeMillis();
+
+		long stamp = lock.writeLock();
+
+		try {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = validate(bookCopyToBuy);
+				books[i++] = book;
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				i = 0;
+
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					book = books[i++];
+
+					if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+						int numMissing = bookCopyToBuy.getNumCopies() - book.getNumCopies();
+						book.addSaleMiss(numMissing);
+						recentDemand.addSaleMisses(book.getISBN(), numMissing, timeMillis);
+					}
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			i = 0;
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				books[i++].buyCopies(bookCopyToBuy.getNumCopies());
+				recentDemand.addSales(bookCopyToBuy.getISBN(), bookCopyToBuy.getNumCopies(), timeMillis);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return optimisticRead(() -> {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return optimisticRead(() -> {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> bookMap.get(isbn).immutableBook())
+					.collect(Collectors.toList());
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// The index has its own lock, so neither the stamped lock nor a retry
+		// is needed.
+		return editorPickIndex.sample(numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return optimisticRead(() -> topRatedIndex.top(numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByAuthorPrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return optimisticRead(() -> PrefixIndex
+				.scan(bookMap.values(), BookStoreBook::getAuthor, BookStoreBook::getISBN, prefix, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByTitlePrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return optimisticRead(() -> PrefixIndex
+				.scan(bookMap.values(), BookStoreBook::getTitle, BookStoreBook::getISBN, prefix, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * boolean, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return optimisticRead(() -> InvertedIndex
+				.scan(bookMap.values(), BookStoreBook::getTitle, BookStoreBook::getAuthor, BookStoreBook::getISBN,
+						query, matchAll, numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice) || Float.isNaN(maxPrice)) {
+			throw new BookStoreException("minPrice = " + minPrice + ", maxPrice = " + maxPrice
+					+ ", but they must be numbers");
+		}
+
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return optimisticRead(() -> PriceIndex
+				.scan(bookMap.values(), BookStoreBook::getPrice, BookStoreBook::getISBN, minPrice, maxPrice, offset,
+						numBooks)
+				.stream()
+				.map(BookStoreBook::immutableBook)
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return optimisticRead(() -> bookMap.values().stream()
+				.filter(book -> book.hadSaleMiss())
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByRecentMissRate(
+	 * int, int)
+	 */
+	@Override
+	public List<StockBook> getBooksByRecentMissRate(int numBooks, int numMinutes) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (numMinutes < 1 || numMinutes > DemandWindow.NUM_BUCKETS) {
+			throw new BookStoreException(
+					"numMinutes = " + numMinutes + ", but it must be between 1 and " + DemandWindow.NUM_BUCKETS);
+		}
+
+		// The windows are ranked without the lock, the books looked up with it.
+		int[] rankedIsbns = recentDemand.rankByRecentMissRate(numBooks, numMinutes, System.currentTimeMillis());
+
+		return optimisticRead(() -> {
+			List<StockBook> books = new ArrayList<>(rankedIsbns.length);
+
+			for (int isbn : rankedIsbns) {
+				BookStoreBook book = bookMap.get(isbn);
+
+				// The book may have been removed since it was ranked.
+				if (book != null) {
+					books.add(book.immutableStockBook());
+				}
+			}
+
+			return books;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The books found by the validation, in iteration order.
+		BookStoreBook[] books = new BookStoreBook[bookRating.size()];
+		int i = 0;
+
+		long stamp = lock.writeLock();
+
+		try {
+			for (BookRating bookRatingArg : bookRating) {
+				books[i++] = validate(bookRatingArg);
+			}
+
+			i = 0;
+
+			for (BookRating bookRatingArg : bookRating) {
+				books[i].addRating(bookRatingArg.getRating());
+				topRatedIndex.update(books[i++]);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		long stamp = lock.writeLock();
+
+		try {
+			bookMap.clear();
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			isbnFilter.clear();
+			recentDemand.clear();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long stamp = lock.writeLock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+				topRatedIndex.remove(isbn);
+				isbnFilter.remove(isbn);
+				recentDemand.remove(isbn);
+			}
+
+			editorPickIndex.removeAll(isbnSet);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+}
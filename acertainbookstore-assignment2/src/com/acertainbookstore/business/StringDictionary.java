@@ -0,0 +1,116 @@
+package com.acertainbookstore.business;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link StringDictionary} encodes strings as dense <code>int</code> ids, so
+ * columns can refer to a string with an id instead of a reference. Equal
+ * strings share one id and one instance. Ids are reference counted: an id is
+ * recycled once every user released it.
+ *
+ * A {@link StringDictionary} is not thread-safe.
+ */
+final class StringDictionary {
+
+	/** The initial number of ids. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** The strings by id, null for free ids. */
+	private String[] strings = new String[INITIAL_CAPACITY];
+
+	/** The number of references to each id. */
+	private int[] refCounts = new int[INITIAL_CAPACITY];
+
+	/** The ids by string. */
+	private final Map<String, Integer> ids = new HashMap<>();
+
+	/** The free ids, used as a stack. */
+	private int[] freeIds = new int[INITIAL_CAPACITY];
+
+	/** The number of free ids. */
+	private int numFreeIds;
+
+	/** The number of ids ever handed out. */
+	private int numIds;
+
+	/**
+	 * Gets the id of the string and adds a reference to it.
+	 *
+	 * @param string
+	 *            the string
+	 * @return the id
+	 */
+	int acquire(String string) {
+		Integer id = ids.get(string);
+
+		if (id == null) {
+			id = numFreeIds > 0 ? freeIds[--numFreeIds] : newId();
+			strings[id] = string;
+			ids.put(string, id);
+		}
+
+		refCounts[id]++;
+		return id;
+	}
+
+	/**
+	 * Removes a reference to the id, freeing it if it was the last one.
+	 *
+	 * @param id
+	 *            the id
+	 */
+	void release(int id) {
+		if (--refCounts[id] == 0) {
+			ids.remove(strings[id]);
+			strings[id] = null;
+
+			if (numFreeIds == freeIds.length) {
+				freeIds = Arrays.copyOf(freeIds, numFreeIds * 2);
+			}
+
+			freeIds[numFreeIds++] = id;
+		}
+	}
+
+	/**
+	 * Gets the string of the id.
+	 *
+	 * @param id
+	 *            the id
+	 * @return the string
+	 */
+	String get(int id) {
+		return strings[id];
+	}
+
+	/**
+	 * Gets the number of distinct strings.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Removes all strings.
+	 */
+	void clear() {
+		strings = new String[INITIAL_CAPACITY];
+		refCounts = new int[INITIAL_CAPACITY];
+		ids.clear();
+		numFreeIds = 0;
+		numIds = 0;
+	}
+
+	private int newId() {
+		if (numIds == strings.length) {
+			strings = Arrays.copyOf(strings, numIds * 2);
+			refCounts = Arrays.copyOf(refCounts, numIds * 2);
+		}
+
+		return numIds++;
+	}
+}
@@ -0,0 +1,175 @@
+package com.acertainbookstore.business;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link StringPool} interns strings, so equal titles and authors share one
+ * instance. Unlike {@link String#intern()}, the pool only holds its strings
+ * weakly: a string is dropped from the pool once no book refers to it any
+ * more, without the books having to release it explicitly.
+ *
+ * The pool counts the strings it deduplicated and estimates the bytes they
+ * would have taken, assuming compact strings of one byte per character.
+ *
+ * A {@link StringPool} is thread-safe.
+ */
+final class StringPool {
+
+	/** The estimated bytes of a string and its array, besides the characters. */
+	private static final int STRING_OVERHEAD = 40;
+
+	/**
+	 * {@link Entry} is a weak reference to a pooled string, equal to the entries
+	 * of equal strings as long as its string is alive.
+	 */
+	private static final class Entry extends WeakReference<String> {
+
+		/** The hash code of the string. */
+		private final int hash;
+
+		private Entry(String string, ReferenceQueue<String> queue) {
+			super(string, queue);
+			this.hash = string.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+
+			if (!(obj instanceof Entry)) {
+				return false;
+			}
+
+			String string = get();
+			return string != null && string.equals(((Entry) obj).get());
+		}
+	}
+
+	/**
+	 * {@link Probe} looks up the entry of a string without creating a weak
+	 * reference.
+	 */
+	private static final class Probe {
+
+		/** The string. */
+		private final String string;
+
+		private Probe(String string) {
+			this.string = string;
+		}
+
+		@Override
+		public int hashCode() {
+			return string.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Entry && string.equals(((Entry) obj).get());
+		}
+	}
+
+	/** The entries, by themselves or by probes of their strings. */
+	private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+
+	/** The queue of the entries whose strings were collected. */
+	private final ReferenceQueue<String> queue = new ReferenceQueue<>();
+
+	/** The number of strings deduplicated. */
+	private final LongAdder numDeduplicated = new LongAdder();
+
+	/** The estimated bytes of the strings deduplicated. */
+	private final LongAdder bytesSaved = new LongAdder();
+
+	/**
+	 * Interns the string.
+	 *
+	 * @param string
+	 *            the string, or null
+	 * @return the pooled string equal to the string, or null
+	 */
+	String intern(String string) {
+		if (string == null) {
+			return null;
+		}
+
+		expungeCollectedEntries();
+
+		while (true) {
+			Entry entry = entries.get(new Probe(string));
+
+			if (entry == null) {
+				Entry newEntry = new Entry(string, queue);
+				entry = entries.putIfAbsent(newEntry, newEntry);
+
+				if (entry == null) {
+					return string;
+				}
+			}
+
+			String pooled = entry.get();
+
+			if (pooled != null) {
+				if (pooled != string) {
+					numDeduplicated.increment();
+					bytesSaved.add(STRING_OVERHEAD + string.length());
+				}
+
+				return pooled;
+			}
+
+			// The string of the entry was collected but its entry not yet
+			// expunged, so make room for the new string.
+			entries.remove(entry, entry);
+		}
+	}
+
+	/**
+	 * Gets the number of strings in the pool.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		expungeCollectedEntries();
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of strings deduplicated so far.
+	 *
+	 * @return the number of strings
+	 */
+	long numDeduplicated() {
+		return numDeduplicated.sum();
+	}
+
+	/**
+	 * Gets the estimated bytes of the strings deduplicated so far.
+	 *
+	 * @return the bytes
+	 */
+	long bytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	private void expungeCollectedEntries() {
+		Reference<? extends String> entry;
+
+		while ((entry = queue.poll()) != null) {
+			// Collected entries are only equal to themselves.
+			entries.remove(entry, entry);
+		}
+	}
+}
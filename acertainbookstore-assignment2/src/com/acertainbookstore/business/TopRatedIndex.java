@@ -0,0 +1,195 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@link TopRatedIndex} keeps the books of a bookstore ordered by descending
+ * average rating, and by ascending ISBN among equally rated books, so the top
+ * rated books are read off the front of the order without sorting the
+ * catalog. A book is moved in O(log n) whenever its rating changes.
+ *
+ * A book is whatever the bookstore looks its books up by, e.g. a
+ * {@link BookStoreBook} or an ISBN. The bookstore tells the index which books
+ * are still in the store, and the index checks it again while it updates a
+ * book, so writers which do not exclude each other may update it in any
+ * order: the last update of an ISBN sees the last change to it.
+ *
+ * Updates may run concurrently, the updates of one book are serialized by the
+ * index. Readers never block.
+ *
+ * @param <T>
+ *            the type of the books
+ */
+final class TopRatedIndex<T> {
+
+	/** The order of the entries, best rated first. */
+	private static final Comparator<Entry<?>> BEST_RATED_FIRST = Comparator
+			.comparing((Entry<?> entry) -> entry.averageRating).reversed()
+			.thenComparingInt(entry -> entry.isbn);
+
+	/**
+	 * {@link Entry} is the position of a book in the order, fixed when the
+	 * entry is created.
+	 */
+	private static final class Entry<T> {
+
+		/** The average rating of the book when the entry was created. */
+		private final float averageRating;
+
+		/** The ISBN. */
+		private final int isbn;
+
+		/** The book. */
+		private final T book;
+
+		private Entry(float averageRating, int isbn, T book) {
+			this.averageRating = averageRating;
+			this.isbn = isbn;
+			this.book = book;
+		}
+	}
+
+	/** The ISBN of a book. */
+	private final ToIntFunction<? super T> isbnOf;
+
+	/** The current average rating of a book. */
+	private final ToDoubleFunction<? super T> averageRatingOf;
+
+	/** Whether a book is still in the bookstore. */
+	private final Predicate<? super T> isInStore;
+
+	/** The entries of all books, best rated first. */
+	private final NavigableSet<Entry<T>> order = new ConcurrentSkipListSet<>(BEST_RATED_FIRST);
+
+	/** The current entry of every book, by ISBN. */
+	private final Map<Integer, Entry<T>> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Instantiates a new, empty {@link TopRatedIndex}.
+	 *
+	 * @param isbnOf
+	 *            the ISBN of a book
+	 * @param averageRatingOf
+	 *            the current average rating of a book
+	 * @param isInStore
+	 *            whether a book is still in the bookstore
+	 */
+	TopRatedIndex(ToIntFunction<? super T> isbnOf, ToDoubleFunction<? super T> averageRatingOf,
+			Predicate<? super T> isInStore) {
+		this.isbnOf = isbnOf;
+		this.averageRatingOf = averageRatingOf;
+		this.isInStore = isInStore;
+	}
+
+	/**
+	 * Adds the book or moves it to the position of its current rating,
+	 * replacing the book with the same ISBN. If the book is no longer in the
+	 * bookstore, the book with its ISBN is removed instead, unless that one
+	 * is still in the bookstore itself.
+	 *
+	 * @param book
+	 *            the book which was added, rated or removed
+	 */
+	void update(T book) {
+		// The entry is created and moved while the mapping of the ISBN is
+		// locked, so the last update reads the latest rating.
+		entries.compute(isbnOf.applyAsInt(book), (isbn, previous) -> {
+			if (!isInStore.test(book)) {
+				if (previous == null || isInStore.test(previous.book)) {
+					return previous;
+				}
+
+				order.remove(previous);
+				return null;
+			}
+
+			Entry<T> entry = new Entry<>((float) averageRatingOf.applyAsDouble(book), isbn, book);
+
+			if (previous == null) {
+				order.add(entry);
+			} else if (BEST_RATED_FIRST.compare(previous, entry) == 0) {
+				// Same position, but possibly another book with the same ISBN.
+				order.remove(previous);
+				order.add(entry);
+			} else {
+				// Insert before removing, so readers never miss the book. They
+				// skip the duplicate instead.
+				order.add(entry);
+				order.remove(previous);
+			}
+
+			return entry;
+		});
+	}
+
+	/**
+	 * Adds, moves or removes the books.
+	 *
+	 * @param books
+	 *            the books which were added, rated or removed
+	 * @see #update(Object)
+	 */
+	void updateAll(Iterable<? extends T> books) {
+		for (T book : books) {
+			update(book);
+		}
+	}
+
+	/**
+	 * Removes the book, whether it is in the bookstore or not.
+	 *
+	 * @param isbn
+	 *            the ISBN of the book
+	 */
+	void remove(int isbn) {
+		Entry<T> entry = entries.remove(isbn);
+
+		if (entry != null) {
+			order.remove(entry);
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	void clear() {
+		entries.clear();
+		order.clear();
+	}
+
+	/**
+	 * Gets the top rated books.
+	 *
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books, best rated first
+	 */
+	List<T> top(int numBooks) {
+		List<T> books = new ArrayList<>(Math.min(numBooks, entries.size()));
+		Set<Integer> isbns = new HashSet<>();
+
+		for (Entry<T> entry : order) {
+			if (books.size() == numBooks) {
+				break;
+			}
+
+			// A book being moved may be met twice, keep its better position.
+			if (isbns.add(entry.isbn)) {
+				books.add(entry.book);
+			}
+		}
+
+		return books;
+	}
+}
@@ -1,15 +1,14 @@
 package com.acertainbookstore.business;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
@@ -20,23 +19,223 @@ import com.acertainbookstore.utils.BookStoreUtility;
 
 /** {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
- * 
+ *
+ * Concurrency is controlled with two levels of {@link ReadWriteLock}s. The
+ * top-level lock protects the structure of the book map: operations which add
+ * or remove books take it in write mode, all other operations take it in read
+ * mode. Each book additionally has its own lock which is taken in read or
+ * write mode depending on whether the book is only read or also modified.
+ * Book locks are always acquired in ascending ISBN order, which keeps the
+ * locking protocol free of deadlocks.
+ *
+ * A store created with a data directory is durable: it logs its mutations to
+ * a {@link WriteAheadLog} in the directory before they return, and replays
+ * the log when it is created again. A mutation is logged while it still holds
+ * its locks, so the log orders the mutations of each book like the locks do.
+ * A {@link Checkpointer} snapshots the books in the background, so only the
+ * log written since the last snapshot is replayed. Mutations preserve the
+ * books they change for a running snapshot.
+ *
  * @see BookStore
  * @see StockManager
  */
 public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntHashMap<BookStoreBook> bookMap = null;
+
+	/** The mapping of books from ISBN to the lock protecting the book. */
+	private IntHashMap<ReadWriteLock> bookLockMap = null;
+
+	/**
+	 * The editor picks among the books of the book map, which synchronizes
+	 * itself so that updates of disjoint books may run concurrently.
+	 */
+	private final EditorPickIndex<BookStoreBook> editorPickIndex = new EditorPickIndex<>(BookStoreBook::getISBN,
+			this::isEditorPick);
+
+	/** The ISBNs of the books with sale misses. */
+	private final Set<Integer> saleMissIsbns = ConcurrentHashMap.newKeySet();
+
+	/** The recent sales and sale misses of the books, by ISBN. */
+	private final IntHashMap<DemandWindow> demandWindows = new IntHashMap<>();
+
+	/** The ISBNs of the books which may have sale misses in the last 24 hours. */
+	private final Set<Integer> recentMissIsbns = ConcurrentHashMap.newKeySet();
+
+	/** The books of the book map ordered by rating. */
+	private final TopRatedIndex<BookStoreBook> topRatedIndex = new TopRatedIndex<>(BookStoreBook::getISBN,
+			BookStoreBook::getAverageRating, this::isInStore);
+
+	/** The books of the book map ordered by author. */
+	private final PrefixIndex authorIndex = new PrefixIndex();
+
+	/** The books of the book map ordered by title. */
+	private final PrefixIndex titleIndex = new PrefixIndex();
+
+	/** The books of the book map by the words of their titles and authors. */
+	private final InvertedIndex searchIndex = new InvertedIndex();
+
+	/** The books of the book map ordered by price. */
+	private final PriceIndex priceIndex = new PriceIndex();
+
+	/** The filter rejecting ISBNs which are not in the book map. */
+	private final IsbnFilter isbnFilter = new IsbnFilter();
+
+	/** The log of the mutations, disabled unless the store is durable. */
+	private WriteAheadLog log = WriteAheadLog.disabled();
+
+	/** The snapshots of the books, disabled unless the store is durable. */
+	private Checkpointer checkpointer = Checkpointer.disabled();
+
+	/** The top-level lock protecting the structure of the book map. */
+	private final ReadWriteLock globalLock;
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public TwoLevelLockingConcurrentCertainBookStore() {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntHashMap<>();
+		bookLockMap = new IntHashMap<>();
+		globalLock = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Instantiates a new durable {@link CertainBookStore}, which recovers the
+	 * books from the snapshot and the log in the data directory and logs its
+	 * mutations there.
+	 *
+	 * @param dataDirectory
+	 *            the data directory
+	 * @throws BookStoreException
+	 *             if the snapshot cannot be read or the log cannot be opened or
+	 *             replayed
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(Path dataDirectory) throws BookStoreException {
+		this();
+
+		// The log stays disabled during the replay, so replayed mutations are
+		// not logged again.
+		Checkpointer recovered = Checkpointer.open(dataDirectory, globalLock, bookMap, demandWindows, saleMissIsbns,
+				this::restoreBooks);
+		restoreRecentMisses();
+		log = WriteAheadLog.open(dataDirectory, recovered.getFirstSegment(), this, this, this::buyBooks);
+		checkpointer = recovered;
+		checkpointer.start(log);
+	}
+
+	/**
+	 * Gets the rate of the lookups of ISBNs not in the bookstore which the
+	 * ISBN filter did not reject.
+	 *
+	 * @return the false-positive rate, or 0 if there were no such lookups
+	 */
+	public double getIsbnFilterFalsePositiveRate() {
+		return isbnFilter.falsePositiveRate();
+	}
+
+	/**
+	 * Checks if the book is still in the book map.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is in the book map
+	 */
+	private boolean isInStore(BookStoreBook book) {
+		return bookMap.get(book.getISBN()) == book;
+	}
+
+	/**
+	 * Checks if the book is an editor pick which is still in the book map.
+	 *
+	 * @param book
+	 *            the book
+	 * @return true, if the book is a current editor pick
+	 */
+	private boolean isEditorPick(BookStoreBook book) {
+		return book.isEditorPick() && isInStore(book);
+	}
+
+	/**
+	 * Puts a book into the book map and the indexes, replacing the book with the
+	 * same ISBN. The caller must hold the top-level write lock and update the
+	 * editor picks and the ISBN filter afterwards.
+	 *
+	 * @param bookStoreBook
+	 *            the book
+	 */
+	private void putBook(BookStoreBook bookStoreBook) {
+		int isbn = bookStoreBook.getISBN();
+		BookStoreBook previous = bookMap.put(isbn, bookStoreBook);
+		checkpointer.exclude(bookStoreBook);
+
+		// A set may hold different books with the same ISBN.
+		if (previous == null) {
+			isbnFilter.add(isbn);
+		} else {
+			checkpointer.preserve(previous);
+			authorIndex.remove(previous.getAuthor(), isbn);
+			titleIndex.remove(previous.getTitle(), isbn);
+			searchIndex.remove(previous);
+			priceIndex.remove(previous);
+		}
+
+		authorIndex.add(bookStoreBook.getAuthor(), bookStoreBook);
+		titleIndex.add(bookStoreBook.getTitle(), bookStoreBook);
+		searchIndex.add(bookStoreBook);
+		priceIndex.add(bookStoreBook);
+		demandWindows.put(isbn, new DemandWindow());
+
+		// Added and replayed books may come with sale misses.
+		if (bookStoreBook.hadSaleMiss()) {
+			saleMissIsbns.add(isbn);
+		} else {
+			saleMissIsbns.remove(isbn);
+		}
+
+		bookLockMap.put(isbn, new ReentrantReadWriteLock());
+		topRatedIndex.update(bookStoreBook);
+	}
+
+	/**
+	 * Restores books from a snapshot, before the store is shared.
+	 *
+	 * @param books
+	 *            the books
+	 */
+	private void restoreBooks(List<BookStoreBook> books) {
+		globalLock.writeLock().lock();
+
+		try {
+			for (BookStoreBook book : books) {
+				putBook(book);
+			}
+
+			if (isbnFilter.isFull()) {
+				isbnFilter.rebuild(bookMap.keys());
+			}
+
+			editorPickIndex.update(books);
+		} finally {
+			globalLock.writeLock().unlock();
+		}
 	}
-	
+
+	/**
+	 * Finds the books with recent sale misses among the windows restored from a
+	 * snapshot, before the store is shared.
+	 */
+	private void restoreRecentMisses() {
+		long timeMillis = System.currentTimeMillis();
+
+		for (int isbn : bookMap.keys()) {
+			if (demandWindows.get(isbn).sumSaleMisses(DemandWindow.NUM_BUCKETS, timeMillis) > 0) {
+				recentMissIsbns.add(isbn);
+			}
+		}
+	}
+
 	private void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
 		String bookTitle = book.getTitle();
@@ -60,43 +259,109 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
 		}
 
-		if (bookPrice < 0.0) { // Check if the price of the book is valid
+		if (!(bookPrice >= 0.0)) { // Check if the price of the book is valid, NaN is not
 			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
 		}
 
 		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
 			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
 		}
-	}	
-	
-	private void validate(BookCopy bookCopy) throws BookStoreException {
+	}
+
+	private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
 		int isbn = bookCopy.getISBN();
 		int numCopies = bookCopy.getNumCopies();
 
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 
 		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
 			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
 		}
+
+		return book;
 	}
-	
-	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+
+	private BookStoreBook validate(BookEditorPick editorPickArg) throws BookStoreException {
 		int isbn = editorPickArg.getISBN();
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		return validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private BookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+
+		return book;
 	}
-	
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+
+	private BookStoreBook validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
-		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+
+		if (!isbnFilter.mightContain(ISBN)) { // Reject most unknown ISBNs without touching the book map
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+
+		if (book == null) {// Check if the book is in stock
+			isbnFilter.recordFalsePositive();
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		return book;
+	}
+
+	/**
+	 * Acquires the locks of the given books in ascending ISBN order. The caller
+	 * must hold the top-level lock and all ISBNs must be in the book map.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books to lock, sorted in place
+	 * @param exclusive
+	 *            true to take the write locks, false to take the read locks
+	 * @return the acquired locks, in acquisition order
+	 */
+	private List<Lock> lockBooks(int[] isbns, boolean exclusive) {
+		Arrays.sort(isbns);
+		List<Lock> acquiredLocks = new ArrayList<>(isbns.length);
+
+		for (int i = 0; i < isbns.length; i++) {
+			if (i > 0 && isbns[i] == isbns[i - 1]) {
+				continue; // The book is already locked
+			}
+
+			ReadWriteLock bookLock = bookLockMap.get(isbns[i]);
+			Lock lock = exclusive ? bookLock.writeLock() : bookLock.readLock();
+			lock.lock();
+			acquiredLocks.add(lock);
+		}
+
+		return acquiredLocks;
+	}
+
+	/**
+	 * Releases the book locks acquired by {@link #lockBooks(int[], boolean)}
+	 * in reverse acquisition order.
+	 *
+	 * @param acquiredLocks
+	 *            the acquired locks
+	 */
+	private void unlockBooks(List<Lock> acquiredLocks) {
+		for (int i = acquiredLocks.size() - 1; i >= 0; i--) {
+			acquiredLocks.get(i).unlock();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
@@ -105,62 +370,109 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check if all are there
-		for (StockBook book : bookSet) {
-			validate(book);
-		}
+		long position;
+
+		globalLock.writeLock().lock();
+
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			List<BookStoreBook> books = new ArrayList<>(bookSet.size());
+
+			for (StockBook book : bookSet) {
+				BookStoreBook bookStoreBook = new BookStoreBook(book);
+				putBook(bookStoreBook);
+				books.add(bookStoreBook);
+			}
+
+			if (isbnFilter.isFull()) {
+				isbnFilter.rebuild(bookMap.keys());
+			}
 
-		for (StockBook book : bookSet) {
-			int isbn = book.getISBN();
-			bookMap.put(isbn, new BookStoreBook(book));
+			editorPickIndex.update(books);
+			position = log.logAddBooks(bookSet);
+		} finally {
+			globalLock.writeLock().unlock();
 		}
+
+		log.sync(position);
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		int isbn;
-		int numCopies;
-
 		if (bookCopiesSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (BookCopy bookCopy : bookCopiesSet) {
-			validate(bookCopy);
-		}
+		// The books found by the validation, in iteration order.
+		BookStoreBook[] books = new BookStoreBook[bookCopiesSet.size()];
+		int i = 0;
+		long position;
 
-		BookStoreBook book;
+		globalLock.readLock().lock();
+
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books[i++] = validate(bookCopy);
+			}
+
+			List<Lock> bookLocks = lockBooks(bookCopiesSet.stream().mapToInt(BookCopy::getISBN).toArray(), true);
+
+			try {
+				i = 0;
 
-		// Update the number of copies
-		for (BookCopy bookCopy : bookCopiesSet) {
-			isbn = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			book = bookMap.get(isbn);
-			book.addCopies(numCopies);
+				// Update the number of copies
+				for (BookCopy bookCopy : bookCopiesSet) {
+					checkpointer.preserve(books[i]);
+					books[i++].addCopies(bookCopy.getNumCopies());
+					saleMissIsbns.remove(bookCopy.getISBN());
+				}
+
+				position = log.logAddCopies(bookCopiesSet);
+			} finally {
+				unlockBooks(bookLocks);
+			}
+		} finally {
+			globalLock.readLock().unlock();
 		}
+
+		log.sync(position);
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
 	public List<StockBook> getBooks() {
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
+		globalLock.readLock().lock();
+
+		try {
+			List<Lock> bookLocks = lockBooks(bookMap.keys(), false);
 
-		return bookMapValues.stream()
-				.map(book -> book.immutableStockBook())
-				.collect(Collectors.toList());
+			try {
+				List<StockBook> books = new ArrayList<>(bookMap.size());
+				bookMap.forEach(book -> books.add(book.immutableStockBook()));
+				return books;
+			} finally {
+				unlockBooks(bookLocks);
+			}
+		} finally {
+			globalLock.readLock().unlock();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
 	 * .Set)
@@ -171,68 +483,141 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		int isbnValue;
+		// The books found by the validation, in iteration order.
+		List<BookStoreBook> books = new ArrayList<>(editorPicks.size());
+		long position;
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			validate(editorPickArg);
-		}
+		globalLock.readLock().lock();
+
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books.add(validate(editorPickArg));
+			}
+
+			List<Lock> bookLocks = lockBooks(editorPicks.stream().mapToInt(BookEditorPick::getISBN).toArray(), true);
+
+			try {
+				int i = 0;
 
-		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+				for (BookEditorPick editorPickArg : editorPicks) {
+					checkpointer.preserve(books.get(i));
+					books.get(i++).setEditorPick(editorPickArg.isEditorPick());
+				}
+
+				// Still holding the book locks, so concurrent updates of a
+				// book reach the index in the order they changed the book.
+				editorPickIndex.update(books);
+				position = log.logUpdateEditorPicks(editorPicks);
+			} finally {
+				unlockBooks(bookLocks);
+			}
+		} finally {
+			globalLock.readLock().unlock();
 		}
+
+		log.sync(position);
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
 	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		buyBooks(bookCopiesToBuy, System.currentTimeMillis());
+	}
+
+	/**
+	 * Buys the books at the given time, which a replayed purchase takes from
+	 * the log.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the book copies to buy
+	 * @param timeMillis
+	 *            the time of the purchase
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void buyBooks(Set<BookCopy> bookCopiesToBuy, long timeMillis) throws BookStoreException {
 		if (bookCopiesToBuy == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
 		// Check that all ISBNs that we buy are there first.
-		int isbn;
 		BookStoreBook book;
 		Boolean saleMiss = false;
 
-		Map<Integer, Integer> salesMisses = new HashMap<>();
+		// The books found by the validation, in iteration order.
+		BookStoreBook[] books = new BookStoreBook[bookCopiesToBuy.size()];
+		int i = 0;
+		long position;
+
+		globalLock.readLock().lock();
+
+		try {
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				books[i++] = validate(bookCopyToBuy);
+			}
+
+			List<Lock> bookLocks = lockBooks(bookCopiesToBuy.stream().mapToInt(BookCopy::getISBN).toArray(), true);
+
+			try {
+				i = 0;
+
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					if (!books[i++].areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+						// If we cannot sell the copies of the book, it is a miss.
+						saleMiss = true;
+					}
+				}
+
+				// We throw exception once the misses are logged since we want to
+				// see how many books in the order incurred misses which is used
+				// by books in demand
+				if (saleMiss) {
+					i = 0;
 
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			isbn = bookCopyToBuy.getISBN();
+					for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+						book = books[i++];
 
-			validate(bookCopyToBuy);
+						if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+							checkpointer.preserve(book);
+							int numMissing = bookCopyToBuy.getNumCopies() - book.getNumCopies();
+							book.addSaleMiss(numMissing);
+							demandWindows.get(book.getISBN()).addSaleMisses(numMissing, timeMillis);
+							saleMissIsbns.add(book.getISBN());
+							recentMissIsbns.add(book.getISBN());
+						}
+					}
+				} else {
+					i = 0;
 
-			book = bookMap.get(isbn);
+					// Then make the purchase.
+					for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+						checkpointer.preserve(books[i]);
+						books[i++].buyCopies(bookCopyToBuy.getNumCopies());
+						demandWindows.get(bookCopyToBuy.getISBN()).addSales(bookCopyToBuy.getNumCopies(), timeMillis);
+					}
+				}
 
-			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-				// If we cannot sell the copies of the book, it is a miss.
-				salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-				saleMiss = true;
+				position = log.logBuyBooks(bookCopiesToBuy, timeMillis, saleMiss);
+			} finally {
+				unlockBooks(bookLocks);
 			}
+		} finally {
+			globalLock.readLock().unlock();
 		}
 
-		// We throw exception now since we want to see how many books in the
-		// order incurred misses which is used by books in demand
+		log.sync(position);
+
 		if (saleMiss) {
-			for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-				book = bookMap.get(saleMissEntry.getKey());
-				book.addSaleMiss(saleMissEntry.getValue());
-			}
 			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
-
-		// Then make the purchase.
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
-		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
 	 * Set)
@@ -242,18 +627,30 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (Integer ISBN : isbnSet) {
-			validateISBNInStock(ISBN);
-		}
+		globalLock.readLock().lock();
 
-		return isbnSet.stream()
-				.map(isbn -> bookMap.get(isbn).immutableStockBook())
-				.collect(Collectors.toList());
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			List<Lock> bookLocks = lockBooks(isbnSet.stream().mapToInt(Integer::intValue).toArray(), false);
+
+			try {
+				return isbnSet.stream()
+						.map(isbn -> bookMap.get(isbn).immutableStockBook())
+						.collect(Collectors.toList());
+			} finally {
+				unlockBooks(bookLocks);
+			}
+		} finally {
+			globalLock.readLock().unlock();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
 	 */
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
@@ -261,19 +658,31 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all ISBNs that we rate are there to start with.
-		for (Integer ISBN : isbnSet) {
-			validateISBNInStock(ISBN);
-		}
+		globalLock.readLock().lock();
+
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
 
-		return isbnSet.stream()
-				.map(isbn -> bookMap.get(isbn).immutableBook())
-				.collect(Collectors.toList());
+			List<Lock> bookLocks = lockBooks(isbnSet.stream().mapToInt(Integer::intValue).toArray(), false);
+
+			try {
+				return isbnSet.stream()
+						.map(isbn -> bookMap.get(isbn).immutableBook())
+						.collect(Collectors.toList());
+			} finally {
+				unlockBooks(bookLocks);
+			}
+		} finally {
+			globalLock.readLock().unlock();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
@@ -281,81 +690,310 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 		}
 
-		List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-				.map(pair -> pair.getValue())
-				.filter(book -> book.isEditorPick())
-				.collect(Collectors.toList());
+		globalLock.readLock().lock();
 
-		// Find numBooks random indices of books that will be picked.
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
+		try {
+			// The index only hands out the immutable part of the books, which
+			// needs no book locks.
+			return editorPickIndex.sample(numBooks).stream()
+					.map(book -> (Book) book.immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			globalLock.readLock().unlock();
+		}
+	}
 
-		if (rangePicks <= numBooks) {
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
 
-			// We need to add all books.
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
+		globalLock.readLock().lock();
 
-			// We need to pick randomly the books that need to be returned.
-			int randNum;
+		try {
+			return topRatedIndex.top(numBooks).stream()
+					.map(book -> (Book) book.immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			globalLock.readLock().unlock();
+		}
+	}
 
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByAuthorPrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Return all the books by the randomly chosen indices.
-		return tobePicked.stream()
-				.map(index -> listAllEditorPicks.get(index).immutableBook())
-				.collect(Collectors.toList());
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		globalLock.readLock().lock();
+
+		try {
+			// The index only hands out the immutable part of the books, which
+			// needs no book locks.
+			return authorIndex.search(prefix, numBooks);
+		} finally {
+			globalLock.readLock().unlock();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
-	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByTitlePrefix(java.
+	 * lang.String, int)
 	 */
 	@Override
-	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException {
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		globalLock.readLock().lock();
+
+		try {
+			// The index only hands out the immutable part of the books, which
+			// needs no book locks.
+			return titleIndex.search(prefix, numBooks);
+		} finally {
+			globalLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * boolean, int)
+	 */
+	@Override
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException {
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		globalLock.readLock().lock();
+
+		try {
+			// The index is only updated under the global write lock.
+			return searchIndex.search(query, matchAll, numBooks);
+		} finally {
+			globalLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int, int)
+	 */
+	@Override
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException {
+		if (Float.isNaN(minPrice) || Float.isNaN(maxPrice)) {
+			throw new BookStoreException("minPrice = " + minPrice + ", maxPrice = " + maxPrice
+					+ ", but they must be numbers");
+		}
+
+		if (offset < 0) {
+			throw new BookStoreException("offset = " + offset + ", but it must be positive");
+		}
+
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		globalLock.readLock().lock();
+
+		try {
+			return priceIndex.range(minPrice, maxPrice, offset, numBooks);
+		} finally {
+			globalLock.readLock().unlock();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		globalLock.readLock().lock();
+
+		try {
+			int[] isbns = saleMissIsbns.stream().mapToInt(Integer::intValue).toArray();
+			List<Lock> bookLocks = lockBooks(isbns, false);
+
+			try {
+				List<StockBook> books = new ArrayList<>(isbns.length);
+
+				for (int isbn : isbns) {
+					BookStoreBook book = bookMap.get(isbn);
+
+					// The misses may have been cleared before the book was locked.
+					if (book.hadSaleMiss()) {
+						books.add(book.immutableStockBook());
+					}
+				}
+
+				return books;
+			} finally {
+				unlockBooks(bookLocks);
+			}
+		} finally {
+			globalLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByRecentMissRate(
+	 * int, int)
+	 */
+	@Override
+	public List<StockBook> getBooksByRecentMissRate(int numBooks, int numMinutes) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		if (numMinutes < 1 || numMinutes > DemandWindow.NUM_BUCKETS) {
+			throw new BookStoreException(
+					"numMinutes = " + numMinutes + ", but it must be between 1 and " + DemandWindow.NUM_BUCKETS);
+		}
+
+		globalLock.readLock().lock();
+
+		try {
+			// Only the books missed in the last 24 hours are visited and locked,
+			// so the buyers of other books are never blocked.
+			int[] isbns = recentMissIsbns.stream().mapToInt(Integer::intValue).toArray();
+			List<Lock> bookLocks = lockBooks(isbns, false);
+
+			try {
+				int[] rankedIsbns = DemandWindow.rankByRecentMissRate(isbns, demandWindows::get,
+						recentMissIsbns::remove, numBooks, numMinutes, System.currentTimeMillis());
+				List<StockBook> books = new ArrayList<>(rankedIsbns.length);
+
+				for (int isbn : rankedIsbns) {
+					books.add(bookMap.get(isbn).immutableStockBook());
+				}
+
+				return books;
+			} finally {
+				unlockBooks(bookLocks);
+			}
+		} finally {
+			globalLock.readLock().unlock();
+		}
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// The books found by the validation, in iteration order.
+		List<BookStoreBook> books = new ArrayList<>(bookRating.size());
+		long position;
+
+		globalLock.readLock().lock();
+
+		try {
+			for (BookRating bookRatingArg : bookRating) {
+				books.add(validate(bookRatingArg));
+			}
+
+			// Ratings are accumulated atomically, so they need no book locks
+			// and never wait for the buyers of a book.
+			int i = 0;
+
+			for (BookRating bookRatingArg : bookRating) {
+				BookStoreBook book = books.get(i++);
+				checkpointer.preserve(book);
+				book.addRating(bookRatingArg.getRating());
+				topRatedIndex.update(book);
+			}
+
+			position = log.logRateBooks(bookRating);
+		} finally {
+			globalLock.readLock().unlock();
+		}
+
+		log.sync(position);
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public void removeAllBooks() throws BookStoreException {
-		bookMap.clear();
+		long position;
+
+		globalLock.writeLock().lock();
+
+		try {
+			bookMap.forEach(checkpointer::preserve);
+			bookMap.clear();
+			bookLockMap.clear();
+			editorPickIndex.clear();
+			topRatedIndex.clear();
+			authorIndex.clear();
+			titleIndex.clear();
+			searchIndex.clear();
+			priceIndex.clear();
+			isbnFilter.clear();
+			saleMissIsbns.clear();
+			demandWindows.clear();
+			recentMissIsbns.clear();
+			position = log.logRemoveAllBooks();
+		} finally {
+			globalLock.writeLock().unlock();
+		}
+
+		log.sync(position);
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
@@ -364,18 +1002,42 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		long position;
+
+		globalLock.writeLock().lock();
+
+		try {
+			for (Integer ISBN : isbnSet) {
+				if (BookStoreUtility.isInvalidISBN(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+				}
+
+				if (!bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+				}
 			}
 
-			if (!bookMap.containsKey(ISBN)) {
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+			for (int isbn : isbnSet) {
+				BookStoreBook book = bookMap.remove(isbn);
+				checkpointer.preserve(book);
+				authorIndex.remove(book.getAuthor(), isbn);
+				titleIndex.remove(book.getTitle(), isbn);
+				searchIndex.remove(book);
+				priceIndex.remove(book);
+				isbnFilter.remove(isbn);
+				bookLockMap.remove(isbn);
+				demandWindows.remove(isbn);
+				topRatedIndex.remove(isbn);
+				saleMissIsbns.remove(isbn);
+				recentMissIsbns.remove(isbn);
 			}
-		}
 
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
+			editorPickIndex.removeAll(isbnSet);
+			position = log.logRemoveBooks(isbnSet);
+		} finally {
+			globalLock.writeLock().unlock();
 		}
+
+		log.sync(position);
 	}
 }
@@ -0,0 +1,1083 @@
+package com.acertainbookstore.business;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WriteAheadLog} makes the mutations of a bookstore durable. Every
+ * successful mutation, and every purchase which failed but recorded sale
+ * misses, is appended to the log as one record while the bookstore still
+ * holds the locks the mutation took, so the records of each book are in the
+ * order in which the mutations changed it. Once it released its locks, the
+ * caller waits with {@link #sync(long)} until its record is on disk, and only
+ * then returns. Other callers may thus see a mutation shortly before it is
+ * durable, but no caller is told that a mutation succeeded before it is.
+ *
+ * Syncing uses group commit: a flusher thread takes all records appended so
+ * far as a batch, writes them and forces them to disk with a single fsync,
+ * while the callers arriving meanwhile append to the next batch. A batch thus
+ * grows with the number of concurrent callers, which share the cost of its
+ * fsync. Waiting callers park until the flusher wrote their records and
+ * unparks them, which wakes each caller once and does not wake the callers of
+ * the next batch at all. The flusher rather than the first waiting caller
+ * writes the batches, so no caller starts a new fsync for a handful of records
+ * before the callers of the last batch had the chance to append again.
+ *
+ * A record is framed as the varint length of its payload, the payload and the
+ * CRC32C of the payload. The payload is the type of the mutation followed by
+ * its arguments, with integers written as varints, floats as their four bytes
+ * and strings as their varint length and UTF-8 bytes. Opening a log replays
+ * its records into the bookstore through the public mutations, and cuts off a
+ * torn record left behind by a crash in the middle of a write.
+ *
+ * The log is split into numbered segment files. A {@link Checkpointer}
+ * {@link #rotate() rotates} the log when it begins a snapshot, so the records
+ * the snapshot covers end up in the segments before the new one, and deletes
+ * those segments once the snapshot is on disk. The flusher switches to the new
+ * segment after it forced the records appended before the rotation to the old
+ * one, so each segment is complete before the next one is started.
+ *
+ * A {@link WriteAheadLog} is thread-safe.
+ */
+final class WriteAheadLog {
+
+	/**
+	 * {@link Purchaser} buys books at a given time, as
+	 * {@link BookStore#buyBooks(Set)} does at the current time.
+	 */
+	@FunctionalInterface
+	interface Purchaser {
+
+		/**
+		 * Buys the books.
+		 *
+		 * @param bookCopiesToBuy
+		 *            the book copies to buy
+		 * @param timeMillis
+		 *            the time of the purchase
+		 * @throws BookStoreException
+		 *             the book store exception
+		 */
+		void buyBooks(Set<BookCopy> bookCopiesToBuy, long timeMillis) throws BookStoreException;
+	}
+
+	/** The prefix of the names of the segment files in the data directory. */
+	private static final String SEGMENT_FILE_PREFIX = "bookstore-";
+
+	/** The suffix of the names of the segment files in the data directory. */
+	private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+	/** The record type of {@link StockManager#addBooks(Set)}. */
+	private static final byte ADD_BOOKS = 1;
+
+	/** The record type of {@link StockManager#addCopies(Set)}. */
+	private static final byte ADD_COPIES = 2;
+
+	/** The record type of a successful {@link BookStore#buyBooks(Set)}. */
+	private static final byte BUY_BOOKS = 3;
+
+	/** The record type of a {@link BookStore#buyBooks(Set)} with sale misses. */
+	private static final byte MISS_SALES = 4;
+
+	/** The record type of {@link StockManager#updateEditorPicks(Set)}. */
+	private static final byte UPDATE_EDITOR_PICKS = 5;
+
+	/** The record type of {@link BookStore#rateBooks(Set)}. */
+	private static final byte RATE_BOOKS = 6;
+
+	/** The record type of {@link StockManager#removeBooks(Set)}. */
+	private static final byte REMOVE_BOOKS = 7;
+
+	/** The record type of {@link StockManager#removeAllBooks()}. */
+	private static final byte REMOVE_ALL_BOOKS = 8;
+
+	/** The length of the checksum closing a record. */
+	private static final int CHECKSUM_LENGTH = 4;
+
+	/** The maximum length of a varint <code>int</code>. */
+	private static final int MAX_VARINT_LENGTH = 5;
+
+	/** The initial capacity of a batch. */
+	private static final int INITIAL_BATCH_CAPACITY = 1 << 16;
+
+	/** The size of the buffer reading the log on replay. */
+	private static final int REPLAY_BUFFER_SIZE = 1 << 16;
+
+	/** The time between the checks whether the flusher started a segment. */
+	private static final long ROTATION_POLL_NANOS = 1000000;
+
+	/** The log of in-memory bookstores, which records nothing. */
+	private static final WriteAheadLog DISABLED = new WriteAheadLog(null, null, 0, 0);
+
+	/** The data directory, or null if the log is disabled. */
+	private final Path directory;
+
+	/** The channel of the segment being written, only used by the flusher. */
+	private FileChannel channel;
+
+	/** The number of the segment being written. */
+	private volatile int segment;
+
+	/**
+	 * The lock protecting the batch, the appended position, the rotation and the
+	 * idle flag.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** The records appended since the flusher last took a batch. */
+	private byte[] batch;
+
+	/** The length of the records in the batch. */
+	private int batchLength;
+
+	/** The array to start the next batch in, only used by the flusher. */
+	private byte[] spareBatch;
+
+	/** The end of the last record appended. */
+	private long appendedPosition;
+
+	/** The number of the segment the next record is appended to. */
+	private int appendedSegment;
+
+	/** The position at which the next segment starts, or -1 if not rotated. */
+	private long rotationPosition = -1;
+
+	/** The end of the last record forced to disk. */
+	private volatile long syncedPosition;
+
+	/** The thread writing the batches, or null if the log is disabled. */
+	private final Thread flusher;
+
+	/** Whether the flusher waits for records to be appended. */
+	private boolean flusherIdle;
+
+	/** The callers waiting for their records to be written. */
+	private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+	/** The failure of a write, after which nothing is written any more. */
+	private volatile IOException failure;
+
+	/**
+	 * Instantiates a new {@link WriteAheadLog}.
+	 *
+	 * @param directory
+	 *            the data directory
+	 * @param channel
+	 *            the channel, positioned at the end of the last segment
+	 * @param segment
+	 *            the number of the last segment
+	 * @param position
+	 *            the length of the segments
+	 */
+	private WriteAheadLog(Path directory, FileChannel channel, int segment, long position) {
+		this.directory = directory;
+		this.channel = channel;
+		this.segment = segment;
+		this.appendedSegment = segment;
+		this.appendedPosition = position;
+		this.syncedPosition = position;
+
+		if (directory != null) {
+			batch = new byte[INITIAL_BATCH_CAPACITY];
+			spareBatch = new byte[INITIAL_BATCH_CAPACITY];
+			flusher = new Thread(this::flush, "bookstore-log-flusher");
+			flusher.setDaemon(true);
+			flusher.start();
+		} else {
+			flusher = null;
+		}
+	}
+
+	/**
+	 * Gets the log of in-memory bookstores, which records nothing and never
+	 * waits.
+	 *
+	 * @return the disabled log
+	 */
+	static WriteAheadLog disabled() {
+		return DISABLED;
+	}
+
+	/**
+	 * Opens the log in the data directory, creating both if necessary, and
+	 * replays the mutations its segments record into a bookstore. Segments
+	 * before the first one to replay are left over from a snapshot which was
+	 * taken just before the bookstore stopped, and are deleted. The bookstore
+	 * must not log the replayed mutations again.
+	 *
+	 * @param directory
+	 *            the data directory
+	 * @param firstSegment
+	 *            the number of the first segment to replay
+	 * @param stockManager
+	 *            the bookstore
+	 * @param bookStore
+	 *            the bookstore
+	 * @param purchaser
+	 *            the purchases of the bookstore
+	 * @return the log, positioned after the last complete record of its last
+	 *         segment
+	 * @throws BookStoreException
+	 *             if the log cannot be read, written or replayed
+	 */
+	static WriteAheadLog open(Path directory, int firstSegment, StockManager stockManager, BookStore bookStore,
+			Purchaser purchaser) throws BookStoreException {
+		try {
+			Files.createDirectories(directory);
+			SortedMap<Integer, Path> segments = listSegments(directory);
+
+			for (Path path : segments.headMap(firstSegment).values()) {
+				Files.delete(path);
+			}
+
+			segments = segments.tailMap(firstSegment);
+			int lastSegment = segments.isEmpty() ? firstSegment : segments.lastKey();
+			long position = 0;
+			long length = 0;
+
+			for (Map.Entry<Integer, Path> entry : segments.entrySet()) {
+				Path path = entry.getValue();
+				length = replay(path, stockManager, bookStore, purchaser);
+
+				// Only the last segment may end in a torn record, the flusher
+				// forced the others completely before it started the next.
+				if (entry.getKey() != lastSegment && length < Files.size(path)) {
+					throw new BookStoreException("The log " + path + " is corrupt at " + length);
+				}
+
+				position += length;
+			}
+
+			FileChannel channel = FileChannel.open(segmentPath(directory, lastSegment), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE);
+
+			// Cut off a torn record, so new records follow the last complete one.
+			channel.truncate(length);
+			channel.position(length);
+			channel.force(true);
+			syncDirectory(directory);
+			return new WriteAheadLog(directory, channel, lastSegment, position);
+		} catch (IOException ex) {
+			throw new BookStoreException("Cannot open the log in " + directory, ex);
+		}
+	}
+
+	/**
+	 * Forces the entries of a directory to disk, so a file created or renamed in
+	 * it survives a crash.
+	 *
+	 * @param directory
+	 *            the directory
+	 */
+	static void syncDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException ex) {
+			// Not every platform can open a directory for syncing.
+		}
+	}
+
+	/**
+	 * Appends the record of {@link StockManager#addBooks(Set)}.
+	 *
+	 * @param bookSet
+	 *            the books added
+	 * @return the position to sync
+	 */
+	long logAddBooks(Set<StockBook> bookSet) {
+		if (directory == null) {
+			return 0;
+		}
+
+		Encoder record = new Encoder(ADD_BOOKS);
+		record.writeVarInt(bookSet.size());
+
+		for (StockBook book : bookSet) {
+			record.writeStockBook(book);
+		}
+
+		return append(record);
+	}
+
+	/**
+	 * Appends the record of {@link StockManager#addCopies(Set)}.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies added
+	 * @return the position to sync
+	 */
+	long logAddCopies(Set<BookCopy> bookCopiesSet) {
+		if (directory == null) {
+			return 0;
+		}
+
+		Encoder record = new Encoder(ADD_COPIES);
+		record.writeCopies(bookCopiesSet);
+		return append(record);
+	}
+
+	/**
+	 * Appends the record of {@link BookStore#buyBooks(Set)}.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies bought
+	 * @param timeMillis
+	 *            the time of the purchase
+	 * @param saleMiss
+	 *            true if the purchase failed and recorded sale misses instead
+	 * @return the position to sync
+	 */
+	long logBuyBooks(Set<BookCopy> bookCopiesToBuy, long timeMillis, boolean saleMiss) {
+		if (directory == null) {
+			return 0;
+		}
+
+		Encoder record = new Encoder(saleMiss ? MISS_SALES : BUY_BOOKS);
+		record.writeVarLong(timeMillis);
+		record.writeCopies(bookCopiesToBuy);
+		return append(record);
+	}
+
+	/**
+	 * Appends the record of {@link StockManager#updateEditorPicks(Set)}.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @return the position to sync
+	 */
+	long logUpdateEditorPicks(Set<BookEditorPick> editorPicks) {
+		if (directory == null) {
+			return 0;
+		}
+
+		Encoder record = new Encoder(UPDATE_EDITOR_PICKS);
+		record.writeVarInt(editorPicks.size());
+
+		for (BookEditorPick editorPick : editorPicks) {
+			record.writeVarInt(editorPick.getISBN());
+			record.writeByte(editorPick.isEditorPick() ? 1 : 0);
+		}
+
+		return append(record);
+	}
+
+	/**
+	 * Appends the record of {@link BookStore#rateBooks(Set)}.
+	 *
+	 * @param bookRating
+	 *            the ratings
+	 * @return the position to sync
+	 */
+	long logRateBooks(Set<BookRating> bookRating) {
+		if (directory == null) {
+			return 0;
+		}
+
+		Encoder record = new Encoder(RATE_BOOKS);
+		record.writeVarInt(bookRating.size());
+
+		for (BookRating rating : bookRating) {
+			record.writeVarInt(rating.getISBN());
+			record.writeVarInt(rating.getRating());
+		}
+
+		return append(record);
+	}
+
+	/**
+	 * Appends the record of {@link StockManager#removeBooks(Set)}.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs removed
+	 * @return the position to sync
+	 */
+	long logRemoveBooks(Set<Integer> isbnSet) {
+		if (directory == null) {
+			return 0;
+		}
+
+		Encoder record = new Encoder(REMOVE_BOOKS);
+		record.writeVarInt(isbnSet.size());
+
+		for (int isbn : isbnSet) {
+			record.writeVarInt(isbn);
+		}
+
+		return append(record);
+	}
+
+	/**
+	 * Appends the record of {@link StockManager#removeAllBooks()}.
+	 *
+	 * @return the position to sync
+	 */
+	long logRemoveAllBooks() {
+		if (directory == null) {
+			return 0;
+		}
+
+		return append(new Encoder(REMOVE_ALL_BOOKS));
+	}
+
+	/**
+	 * Waits until the log is on disk up to a position returned by an append.
+	 *
+	 * @param position
+	 *            the position
+	 * @throws BookStoreException
+	 *             if the log cannot be written
+	 */
+	void sync(long position) throws BookStoreException {
+		if (position <= syncedPosition) {
+			return;
+		}
+
+		waiters.add(new Waiter(position));
+
+		// Check again once registered, so a batch written meanwhile has either
+		// been seen or will unpark this caller.
+		while (position > syncedPosition) {
+			if (failure != null) {
+				throw new BookStoreException("Cannot write the log", failure);
+			}
+
+			LockSupport.park(this);
+		}
+	}
+
+	/**
+	 * Starts a new segment after the records appended so far. The caller must
+	 * keep the bookstore from appending while it rotates, so the records before
+	 * the new segment are exactly the mutations the bookstore applied so far.
+	 *
+	 * @return the number of the new segment
+	 */
+	int rotate() {
+		lock.lock();
+
+		try {
+			rotationPosition = appendedPosition;
+			appendedSegment++;
+
+			if (flusherIdle) {
+				flusherIdle = false;
+				LockSupport.unpark(flusher);
+			}
+
+			return appendedSegment;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the end of the last record appended, counted over the segments since
+	 * the log was opened.
+	 *
+	 * @return the position
+	 */
+	long appendedPosition() {
+		lock.lock();
+
+		try {
+			return appendedPosition;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes the segments before a segment returned by {@link #rotate()}, once
+	 * the flusher started writing it.
+	 *
+	 * @param firstSegment
+	 *            the number of the first segment to keep
+	 * @throws BookStoreException
+	 *             if the log cannot be written or the segments cannot be deleted
+	 */
+	void deleteSegmentsBefore(int firstSegment) throws BookStoreException {
+		while (segment < firstSegment) {
+			if (failure != null) {
+				throw new BookStoreException("Cannot write the log", failure);
+			}
+
+			LockSupport.parkNanos(this, ROTATION_POLL_NANOS);
+		}
+
+		try {
+			for (Path path : listSegments(directory).headMap(firstSegment).values()) {
+				Files.deleteIfExists(path);
+			}
+		} catch (IOException ex) {
+			throw new BookStoreException("Cannot delete the log segments before " + firstSegment, ex);
+		}
+	}
+
+	/**
+	 * Writes the batches until a write fails.
+	 */
+	private void flush() {
+		while (failure == null) {
+			byte[] bytes;
+			int length;
+			long end;
+			long rotation;
+			lock.lock();
+
+			try {
+				flusherIdle = batchLength == 0 && rotationPosition < 0;
+
+				// Let the callers arriving meanwhile append to the spare batch.
+				bytes = batch;
+				length = batchLength;
+				end = appendedPosition;
+				rotation = rotationPosition;
+				batch = spareBatch;
+				batchLength = 0;
+				spareBatch = bytes;
+				rotationPosition = -1;
+			} finally {
+				lock.unlock();
+			}
+
+			if (length == 0 && rotation < 0) {
+				LockSupport.park(this);
+				continue;
+			}
+
+			try {
+				if (rotation < 0) {
+					write(bytes, 0, length);
+				} else {
+					// The batch holds the records appended since the last one,
+					// so the rotation falls within it.
+					int head = (int) (rotation - (end - length));
+					write(bytes, 0, head);
+					startSegment(segment + 1);
+					write(bytes, head, length - head);
+				}
+
+				syncedPosition = end;
+			} catch (IOException ex) {
+				// A lost batch leaves a gap, so no later batch may follow it.
+				failure = ex;
+			} catch (RuntimeException ex) {
+				failure = new IOException("The log write failed", ex);
+			}
+
+			long synced = syncedPosition;
+
+			for (Iterator<Waiter> iterator = waiters.iterator(); iterator.hasNext();) {
+				Waiter waiter = iterator.next();
+
+				if (waiter.position <= synced || failure != null) {
+					iterator.remove();
+					LockSupport.unpark(waiter.thread);
+				}
+			}
+		}
+	}
+
+	private long append(Encoder record) {
+		int checksum = record.checksum();
+		lock.lock();
+
+		try {
+			if (failure != null) {
+				// Nothing is written after a failure, the sync reports it.
+				return appendedPosition + 1;
+			}
+
+			int required = batchLength + MAX_VARINT_LENGTH + record.length + CHECKSUM_LENGTH;
+
+			if (required > batch.length) {
+				batch = Arrays.copyOf(batch, Math.max(batch.length * 2, required));
+			}
+
+			int start = batchLength;
+			batchLength = putVarInt(batch, batchLength, record.length);
+			System.arraycopy(record.bytes, 0, batch, batchLength, record.length);
+			batchLength += record.length;
+			batchLength = putInt(batch, batchLength, checksum);
+			appendedPosition += batchLength - start;
+
+			if (flusherIdle) {
+				flusherIdle = false;
+				LockSupport.unpark(flusher);
+			}
+
+			return appendedPosition;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return;
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		channel.force(false);
+	}
+
+	private void startSegment(int newSegment) throws IOException {
+		Path path = segmentPath(directory, newSegment);
+		FileChannel newChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		syncDirectory(directory);
+		channel.close();
+		channel = newChannel;
+		segment = newSegment;
+	}
+
+	private static Path segmentPath(Path directory, int segment) {
+		return directory.resolve(String.format("%s%010d%s", SEGMENT_FILE_PREFIX, segment, SEGMENT_FILE_SUFFIX));
+	}
+
+	/**
+	 * Lists the segment files of a data directory.
+	 *
+	 * @param directory
+	 *            the data directory
+	 * @return the segment files, by number
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static SortedMap<Integer, Path> listSegments(Path directory) throws IOException {
+		SortedMap<Integer, Path> segments = new TreeMap<>();
+
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory,
+				SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+			for (Path path : paths) {
+				String name = path.getFileName().toString();
+
+				try {
+					segments.put(Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length(),
+							name.length() - SEGMENT_FILE_SUFFIX.length())), path);
+				} catch (NumberFormatException ex) {
+					// Not a segment, but named like one.
+				}
+			}
+		}
+
+		return segments;
+	}
+
+	/**
+	 * Replays the complete records of a log.
+	 *
+	 * @param path
+	 *            the log file
+	 * @param stockManager
+	 *            the bookstore
+	 * @param bookStore
+	 *            the bookstore
+	 * @param purchaser
+	 *            the purchases of the bookstore
+	 * @return the length of the complete records
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if a record cannot be replayed
+	 */
+	private static long replay(Path path, StockManager stockManager, BookStore bookStore, Purchaser purchaser)
+			throws IOException, BookStoreException {
+		long fileLength = Files.size(path);
+		long length = 0;
+
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(path), REPLAY_BUFFER_SIZE)) {
+			byte[] payload;
+
+			while ((payload = readRecord(in, fileLength - length)) != null) {
+				try {
+					apply(new Decoder(payload), stockManager, bookStore, purchaser);
+				} catch (BookStoreException | EOFException ex) {
+					throw new BookStoreException("Cannot replay the record at " + length + " of the log " + path, ex);
+				}
+
+				length += varIntLength(payload.length) + payload.length + CHECKSUM_LENGTH;
+			}
+		}
+
+		return length;
+	}
+
+	/**
+	 * Reads the payload of the next record.
+	 *
+	 * @param in
+	 *            the log, positioned at the record
+	 * @param remaining
+	 *            the number of bytes left in the log, which bounds the length
+	 * @return the payload, or null at the end of the log or at a torn record
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static byte[] readRecord(InputStream in, long remaining) throws IOException {
+		int length = 0;
+
+		for (int shift = 0;; shift += 7) {
+			int b = in.read();
+
+			if (b < 0 || shift == 7 * MAX_VARINT_LENGTH) {
+				return null;
+			}
+
+			length |= (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+
+		if (length <= 0 || length > remaining) {
+			return null;
+		}
+
+		byte[] payload = new byte[length];
+		byte[] checksum = new byte[CHECKSUM_LENGTH];
+
+		if (in.readNBytes(payload, 0, length) < length || in.readNBytes(checksum, 0, CHECKSUM_LENGTH) < CHECKSUM_LENGTH) {
+			return null;
+		}
+
+		CRC32C crc = new CRC32C();
+		crc.update(payload, 0, length);
+		return ByteBuffer.wrap(checksum).getInt() == (int) crc.getValue() ? payload : null;
+	}
+
+	private static void apply(Decoder record, StockManager stockManager, BookStore bookStore, Purchaser purchaser)
+			throws BookStoreException, EOFException {
+		byte type = record.readByte();
+
+		switch (type) {
+		case ADD_BOOKS:
+			int numBooks = record.readVarInt();
+			Set<StockBook> books = new LinkedHashSet<>();
+
+			for (int i = 0; i < numBooks; i++) {
+				books.add(record.readStockBook());
+			}
+
+			stockManager.addBooks(books);
+			break;
+
+		case ADD_COPIES:
+			stockManager.addCopies(record.readCopies());
+			break;
+
+		case BUY_BOOKS:
+			long timeMillis = record.readVarLong();
+			purchaser.buyBooks(record.readCopies(), timeMillis);
+			break;
+
+		case MISS_SALES:
+			long missMillis = record.readVarLong();
+
+			try {
+				purchaser.buyBooks(record.readCopies(), missMillis);
+			} catch (BookStoreException ex) {
+				// The purchase records its sale misses and fails, as it did when
+				// it was logged.
+			}
+			break;
+
+		case UPDATE_EDITOR_PICKS:
+			int numEditorPicks = record.readVarInt();
+			Set<BookEditorPick> editorPicks = new LinkedHashSet<>();
+
+			for (int i = 0; i < numEditorPicks; i++) {
+				editorPicks.add(new BookEditorPick(record.readVarInt(), record.readByte() != 0));
+			}
+
+			stockManager.updateEditorPicks(editorPicks);
+			break;
+
+		case RATE_BOOKS:
+			int numRatings = record.readVarInt();
+			Set<BookRating> ratings = new LinkedHashSet<>();
+
+			for (int i = 0; i < numRatings; i++) {
+				ratings.add(new BookRating(record.readVarInt(), record.readVarInt()));
+			}
+
+			bookStore.rateBooks(ratings);
+			break;
+
+		case REMOVE_BOOKS:
+			int numIsbns = record.readVarInt();
+			Set<Integer> isbns = new LinkedHashSet<>();
+
+			for (int i = 0; i < numIsbns; i++) {
+				isbns.add(record.readVarInt());
+			}
+
+			stockManager.removeBooks(isbns);
+			break;
+
+		case REMOVE_ALL_BOOKS:
+			stockManager.removeAllBooks();
+			break;
+
+		default:
+			throw new BookStoreException("Unknown record type " + type);
+		}
+	}
+
+	private static int varIntLength(int value) {
+		int length = 1;
+
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			length++;
+		}
+
+		return length;
+	}
+
+	private static int putVarInt(byte[] bytes, int offset, int value) {
+		while ((value & ~0x7F) != 0) {
+			bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		bytes[offset++] = (byte) value;
+		return offset;
+	}
+
+	private static int putInt(byte[] bytes, int offset, int value) {
+		bytes[offset++] = (byte) (value >>> 24);
+		bytes[offset++] = (byte) (value >>> 16);
+		bytes[offset++] = (byte) (value >>> 8);
+		bytes[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * {@link Waiter} is a caller waiting for its record to be written.
+	 */
+	private static final class Waiter {
+
+		/** The caller. */
+		private final Thread thread = Thread.currentThread();
+
+		/** The end of the record of the caller. */
+		private final long position;
+
+		private Waiter(long position) {
+			this.position = position;
+		}
+	}
+
+	/**
+	 * {@link Encoder} encodes the payload of a record of the log or of a
+	 * snapshot.
+	 */
+	static final class Encoder {
+
+		/** The bytes of the payload. */
+		private byte[] bytes = new byte[64];
+
+		/** The length of the payload. */
+		private int length;
+
+		Encoder(byte type) {
+			writeByte(type);
+		}
+
+		private void ensureCapacity(int extra) {
+			if (length + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+			}
+		}
+
+		void writeByte(int value) {
+			ensureCapacity(1);
+			bytes[length++] = (byte) value;
+		}
+
+		void writeVarInt(int value) {
+			ensureCapacity(MAX_VARINT_LENGTH);
+			length = putVarInt(bytes, length, value);
+		}
+
+		void writeVarLong(long value) {
+			ensureCapacity(10);
+
+			while ((value & ~0x7FL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+
+			bytes[length++] = (byte) value;
+		}
+
+		void writeFloat(float value) {
+			ensureCapacity(4);
+			length = putInt(bytes, length, Float.floatToIntBits(value));
+		}
+
+		void writeString(String value) {
+			byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(utf8.length);
+			ensureCapacity(utf8.length);
+			System.arraycopy(utf8, 0, bytes, length, utf8.length);
+			length += utf8.length;
+		}
+
+		void writeCopies(Set<BookCopy> bookCopies) {
+			writeVarInt(bookCopies.size());
+
+			for (BookCopy bookCopy : bookCopies) {
+				writeVarInt(bookCopy.getISBN());
+				writeVarInt(bookCopy.getNumCopies());
+			}
+		}
+
+		void writeStockBook(StockBook book) {
+			writeVarInt(book.getISBN());
+			writeString(book.getTitle());
+			writeString(book.getAuthor());
+			writeFloat(book.getPrice());
+			writeVarInt(book.getNumCopies());
+			writeVarLong(book.getNumSaleMisses());
+			writeVarLong(book.getNumTimesRated());
+			writeVarLong(book.getTotalRating());
+			writeByte(book.isEditorPick() ? 1 : 0);
+		}
+
+		private int checksum() {
+			CRC32C crc = new CRC32C();
+			crc.update(bytes, 0, length);
+			return (int) crc.getValue();
+		}
+
+		/**
+		 * Writes the payload framed as a record, like the log does.
+		 *
+		 * @param out
+		 *            the stream
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void writeRecordTo(OutputStream out) throws IOException {
+			byte[] frame = new byte[MAX_VARINT_LENGTH];
+			out.write(frame, 0, putVarInt(frame, 0, length));
+			out.write(bytes, 0, length);
+			out.write(frame, 0, putInt(frame, 0, checksum()));
+		}
+	}
+
+	/**
+	 * {@link Decoder} decodes the payload of a record of the log or of a
+	 * snapshot.
+	 */
+	static final class Decoder {
+
+		/** The bytes of the payload. */
+		private final byte[] bytes;
+
+		/** The position of the next byte. */
+		private int position;
+
+		Decoder(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		byte readByte() throws EOFException {
+			if (position == bytes.length) {
+				throw new EOFException("The record ends early");
+			}
+
+			return bytes[position++];
+		}
+
+		int readVarInt() throws EOFException {
+			return (int) readVarLong();
+		}
+
+		long readVarLong() throws EOFException {
+			long value = 0;
+			byte b;
+			int shift = 0;
+
+			do {
+				b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+
+			return value;
+		}
+
+		float readFloat() throws EOFException {
+			int bits = 0;
+
+			for (int i = 0; i < 4; i++) {
+				bits = (bits << 8) | (readByte() & 0xFF);
+			}
+
+			return Float.intBitsToFloat(bits);
+		}
+
+		String readString() throws EOFException {
+			int length = readVarInt();
+
+			if (length < 0 || length > bytes.length - position) {
+				throw new EOFException("The record ends early");
+			}
+
+			String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+
+		Set<BookCopy> readCopies() throws EOFException {
+			int numCopies = readVarInt();
+			Set<BookCopy> bookCopies = new LinkedHashSet<>();
+
+			for (int i = 0; i < numCopies; i++) {
+				bookCopies.add(new BookCopy(readVarInt(), readVarInt()));
+			}
+
+			return bookCopies;
+		}
+
+		StockBook readStockBook() throws EOFException {
+			return new ImmutableStockBook(readVarInt(), readString(), readString(), readFloat(), readVarInt(),
+					readVarLong(), readVarLong(), readVarLong(), readByte() != 0);
+		}
+	}
+}
@@ -154,7 +154,9 @@ public class BookStoreHTTPProxy implements BookStore {
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RATEBOOKS;
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookRating);
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
 	}
 
 	/*
@@ -163,7 +165,130 @@ public class BookStoreHTTPProxy implements BookStore {
 	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.TOPRATEDBOOKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByAuthorPrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException {
+		return getBooksByPrefix(BookStoreMessageTag.GETBOOKSBYAUTHORPREFIX, prefix, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByTitlePrefix(java.
+	 * lang.String, int)
+	 */
+	@Override
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException {
+		return getBooksByPrefix(BookStoreMessageTag.GETBOOKSBYTITLEPREFIX, prefix, numBooks);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#searchBooks(java.lang.String,
+	 * boolean, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException {
+
+		// A query string cannot carry a null query.
+		if (query == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String urlEncodedQuery = URLEncoder.encode(query, StandardCharsets.UTF_8);
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.SEARCHBOOKS + "?" + BookStoreConstants.QUERY_PARAM
+				+ "=" + urlEncodedQuery + "&" + BookStoreConstants.MATCH_ALL_PARAM + "=" + matchAll + "&"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStore#getBooksByPriceRange(float,
+	 * float, int, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException {
+		String urlEncodedMinPrice = URLEncoder.encode(Float.toString(minPrice), StandardCharsets.UTF_8);
+		String urlEncodedMaxPrice = URLEncoder.encode(Float.toString(maxPrice), StandardCharsets.UTF_8);
+		String urlEncodedOffset = URLEncoder.encode(Integer.toString(offset), StandardCharsets.UTF_8);
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKSBYPRICERANGE + "?"
+				+ BookStoreConstants.MIN_PRICE_PARAM + "=" + urlEncodedMinPrice + "&"
+				+ BookStoreConstants.MAX_PRICE_PARAM + "=" + urlEncodedMaxPrice + "&" + BookStoreConstants.OFFSET_PARAM
+				+ "=" + urlEncodedOffset + "&" + BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<Book>) bookStoreResponse.getList();
+	}
+
+	/**
+	 * Gets the books matching a prefix search.
+	 *
+	 * @param tag
+	 *            the tag of the search
+	 * @param prefix
+	 *            the prefix
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Book> getBooksByPrefix(BookStoreMessageTag tag, String prefix, int numBooks)
+			throws BookStoreException {
+
+		// A query string cannot carry a null prefix.
+		if (prefix == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		String urlEncodedPrefix = URLEncoder.encode(prefix, StandardCharsets.UTF_8);
+		String urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks), StandardCharsets.UTF_8);
+
+		String urlString = serverAddress + "/" + tag + "?" + BookStoreConstants.PREFIX_PARAM + "=" + urlEncodedPrefix
+				+ "&" + BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer.get());
+		return (List<Book>) bookStoreResponse.getList();
 	}
 }
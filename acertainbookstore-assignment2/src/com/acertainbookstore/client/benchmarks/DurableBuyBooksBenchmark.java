@@ -0,0 +1,270 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreEngine;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link DurableBuyBooksBenchmark} measures the throughput of
+ * {@link BookStore#buyBooks(Set)} with as many client threads as the
+ * BookStoreHTTPServer has request threads, once against an in-memory store and
+ * once against a durable store logging to a temporary data directory. Each
+ * purchase is forced to disk before it returns, so the durable throughput
+ * depends on how many purchases the write-ahead log commits per fsync.
+ *
+ * With -Dhttp=true the clients buy through a {@link BookStoreHTTPProxy} from a
+ * Jetty server in the same process, which has the request threads of the
+ * BookStoreHTTPServer. The purchases then pay for the HTTP round trips like
+ * the clients of a real server, which is what the cost of the fsyncs should be
+ * compared to.
+ *
+ * The engines to compare can be given as arguments; by default the durable
+ * engines are compared.
+ */
+public final class DurableBuyBooksBenchmark {
+
+	/** The number of books in the store. */
+	private static final int NUM_BOOKS = 10000;
+
+	/** The number of copies of each book. */
+	private static final int NUM_COPIES = 100000000;
+
+	/** The number of client threads. */
+	private static final int NUM_THREADS = 100;
+
+	/** Whether the clients buy over HTTP. */
+	private static final boolean OVER_HTTP = Boolean.getBoolean("http");
+
+	/** The warm up time of each run; the HTTP stack takes longer to compile. */
+	private static final long WARM_UP_MILLISECS = OVER_HTTP ? 10000 : 1000;
+
+	/** The measured time of each run. */
+	private static final long RUN_MILLISECS = 3000;
+
+	/** The minimum number of request threads of the server. */
+	private static final int MIN_SERVER_THREADS = 10;
+
+	/**
+	 * Prevents the instantiation of a new {@link DurableBuyBooksBenchmark}.
+	 */
+	private DurableBuyBooksBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the engines to compare
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		List<BookStoreEngine> engines = new ArrayList<>();
+
+		for (String arg : args) {
+			engines.add(BookStoreEngine.valueOf(arg.toUpperCase()));
+		}
+
+		if (engines.isEmpty()) {
+			engines.add(BookStoreEngine.SINGLE_LOCK);
+			engines.add(BookStoreEngine.TWO_LEVEL_LOCKING);
+			engines.add(BookStoreEngine.OFF_HEAP);
+		}
+
+		if (OVER_HTTP) {
+			System.out.println("Buying over HTTP");
+		}
+
+		System.out.printf("%-20s %16s %16s %8s%n", "engine", "in-memory ops/s", "durable ops/s", "ratio");
+
+		for (BookStoreEngine engine : engines) {
+			double inMemoryThroughput = run(engine.newInstance());
+			Path dataDirectory = Files.createTempDirectory("bookstore");
+
+			try {
+				double durableThroughput = run(engine.newDurableInstance(dataDirectory));
+				System.out.printf("%-20s %16.0f %16.0f %8.1f%n", engine, inMemoryThroughput, durableThroughput,
+						inMemoryThroughput / durableThroughput);
+			} finally {
+				delete(dataDirectory);
+			}
+		}
+	}
+
+	/**
+	 * Runs the purchases against a new store, directly or over HTTP.
+	 *
+	 * @param stockManager
+	 *            the store
+	 * @return the throughput in purchases per second
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static double run(StockManager stockManager) throws Exception {
+		BookStore bookStore = (BookStore) stockManager;
+
+		Set<StockBook> books = new HashSet<>();
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+		stockManager.addBooks(books);
+
+		if (!OVER_HTTP) {
+			return buy(bookStore);
+		}
+
+		Server server = BookStoreHTTPServerUtility.startServer(0,
+				new BookStoreHTTPMessageHandler(bookStore, stockManager),
+				new QueuedThreadPool(NUM_THREADS, MIN_SERVER_THREADS));
+		BookStoreHTTPProxy proxy = null;
+
+		try {
+			int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+			proxy = new BookStoreHTTPProxy("http://localhost:" + port);
+			return buy(proxy);
+		} finally {
+			if (proxy != null) {
+				proxy.stop();
+			}
+
+			server.stop();
+		}
+	}
+
+	/**
+	 * Buys books with all client threads.
+	 *
+	 * @param bookStore
+	 *            the store or its proxy
+	 * @return the throughput in purchases per second
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static double buy(BookStore bookStore) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		Client[] clients = new Client[NUM_THREADS];
+		Thread[] threads = new Thread[NUM_THREADS];
+
+		for (int i = 0; i < NUM_THREADS; i++) {
+			clients[i] = new Client(bookStore, start);
+			threads[i] = new Thread(clients[i]);
+			threads[i].start();
+		}
+
+		start.countDown();
+		Thread.sleep(WARM_UP_MILLISECS);
+
+		long startOps = 0;
+		for (Client client : clients) {
+			startOps += client.numOperations;
+		}
+
+		long startNanos = System.nanoTime();
+		Thread.sleep(RUN_MILLISECS);
+
+		long endOps = 0;
+		for (Client client : clients) {
+			endOps += client.numOperations;
+		}
+
+		long elapsedNanos = System.nanoTime() - startNanos;
+
+		for (Client client : clients) {
+			client.running = false;
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		return (endOps - startOps) / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	/**
+	 * {@link Client} buys single copies of random books until it is stopped.
+	 */
+	private static final class Client implements Runnable {
+
+		/** The book store. */
+		private final BookStore bookStore;
+
+		/** The latch released when the run starts. */
+		private final CountDownLatch start;
+
+		/** Whether the client should keep running. */
+		private volatile boolean running = true;
+
+		/** The number of purchases completed so far. */
+		private volatile long numOperations;
+
+		/**
+		 * Instantiates a new {@link Client}.
+		 *
+		 * @param bookStore
+		 *            the book store
+		 * @param start
+		 *            the start latch
+		 */
+		private Client(BookStore bookStore, CountDownLatch start) {
+			this.bookStore = bookStore;
+			this.start = start;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+
+			try {
+				start.await();
+
+				while (running) {
+					Set<BookCopy> copies = new HashSet<>();
+					copies.add(new BookCopy(random.nextInt(NUM_BOOKS) + 1, 1));
+					bookStore.buyBooks(copies);
+					numOperations++;
+				}
+			} catch (InterruptedException | BookStoreException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookStoreEngine;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+
+/**
+ * {@link GetBooksAllocationBenchmark} measures the bytes allocated on the heap
+ * by a {@link BookStore#getBooks(Set)} of {@link #ISBNS_PER_READ} ISBNs in
+ * several {@link BookStoreEngine}s, using the allocation counter of the
+ * current thread. Engines which hand out shared immutable views of their
+ * books only allocate the result list, engines which build the books of the
+ * result allocate a book, and possibly its strings, per ISBN.
+ *
+ * The engines to compare can be given as arguments; by default all engines
+ * are compared.
+ */
+public final class GetBooksAllocationBenchmark {
+
+	/** The number of books in the store. */
+	private static final int NUM_BOOKS = 10000;
+
+	/** The number of ISBNs looked up by each read. */
+	private static final int ISBNS_PER_READ = 1000;
+
+	/** The number of reads before measuring. */
+	private static final int NUM_WARM_UP_READS = 20000;
+
+	/** The number of measured reads. */
+	private static final int NUM_READS = 20000;
+
+	/**
+	 * Prevents the instantiation of a new {@link GetBooksAllocationBenchmark}.
+	 */
+	private GetBooksAllocationBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the engines to compare
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.err.println("The JVM does not count the bytes allocated by threads.");
+			return;
+		}
+
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		List<BookStoreEngine> engines = new ArrayList<>();
+
+		for (String arg : args) {
+			engines.add(BookStoreEngine.valueOf(arg.toUpperCase()));
+		}
+
+		if (engines.isEmpty()) {
+			for (BookStoreEngine engine : BookStoreEngine.values()) {
+				engines.add(engine);
+			}
+		}
+
+		System.out.printf("%-20s %16s %16s%n", "engine", "bytes/op", "bytes/book");
+
+		for (BookStoreEngine engine : engines) {
+			double bytesPerRead = run(engine, threads);
+			System.out.printf("%-20s %16.0f %16.1f%n", engine, bytesPerRead, bytesPerRead / ISBNS_PER_READ);
+		}
+	}
+
+	/**
+	 * Runs the reads against a new store of the given engine.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param threads
+	 *            the thread management bean
+	 * @return the bytes allocated per read
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static double run(BookStoreEngine engine, com.sun.management.ThreadMXBean threads) throws Exception {
+		StockManager stockManager = engine.newInstance();
+		BookStore bookStore = (BookStore) stockManager;
+
+		Set<StockBook> books = new HashSet<>();
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, 1, 0, 0, 0, false));
+		}
+		stockManager.addBooks(books);
+
+		Set<Integer> isbns = new HashSet<>();
+		for (int isbn = 1; isbn <= ISBNS_PER_READ; isbn++) {
+			isbns.add(isbn * (NUM_BOOKS / ISBNS_PER_READ));
+		}
+
+		long checksum = 0;
+
+		for (int i = 0; i < NUM_WARM_UP_READS; i++) {
+			checksum += read(bookStore, isbns);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long startBytes = threads.getThreadAllocatedBytes(threadId);
+
+		for (int i = 0; i < NUM_READS; i++) {
+			checksum += read(bookStore, isbns);
+		}
+
+		long endBytes = threads.getThreadAllocatedBytes(threadId);
+
+		// Use the checksum, so the reads cannot be optimized away.
+		if (checksum == 0) {
+			System.err.println("No books were read.");
+		}
+
+		return (endBytes - startBytes) / (double) NUM_READS;
+	}
+
+	private static long read(BookStore bookStore, Set<Integer> isbns) throws Exception {
+		List<Book> result = bookStore.getBooks(isbns);
+		return result.get(result.size() - 1).getTitle().length();
+	}
+}
@@ -0,0 +1,231 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreEngine;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link ReadContentionBenchmark} measures the throughput of a read-dominated
+ * workload against several {@link BookStoreEngine}s and an increasing number
+ * of client threads. Each client looks up books with
+ * {@link BookStore#getBooks(Set)} and, with a small probability, buys a copy
+ * of a book and puts it back in stock.
+ *
+ * The engines to compare can be given as arguments; by default the read/write
+ * lock engine is compared with the optimistic read engine.
+ */
+public final class ReadContentionBenchmark {
+
+	/** The number of books in the store. */
+	private static final int NUM_BOOKS = 10000;
+
+	/** The number of ISBNs looked up by each read. */
+	private static final int ISBNS_PER_READ = 10;
+
+	/** The number of precomputed ISBN sets used by each client. */
+	private static final int NUM_READ_SETS = 256;
+
+	/** The percentage of operations which are reads. */
+	private static final int READ_PERCENTAGE = 99;
+
+	/** The number of copies of each book. */
+	private static final int NUM_COPIES = 1000000;
+
+	/** The warm up time of each run. */
+	private static final long WARM_UP_MILLISECS = 1000;
+
+	/** The measured time of each run. */
+	private static final long RUN_MILLISECS = 3000;
+
+	/**
+	 * Prevents the instantiation of a new {@link ReadContentionBenchmark}.
+	 */
+	private ReadContentionBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the engines to compare
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		List<BookStoreEngine> engines = new ArrayList<>();
+
+		for (String arg : args) {
+			engines.add(BookStoreEngine.valueOf(arg.toUpperCase()));
+		}
+
+		if (engines.isEmpty()) {
+			engines.add(BookStoreEngine.SINGLE_LOCK);
+			engines.add(BookStoreEngine.STAMPED_LOCK);
+		}
+
+		int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+		System.out.printf("%-20s %8s %16s%n", "engine", "threads", "ops/sec");
+
+		for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+			for (BookStoreEngine engine : engines) {
+				double throughput = run(engine, numThreads);
+				System.out.printf("%-20s %8d %16.0f%n", engine, numThreads, throughput);
+			}
+		}
+	}
+
+	/**
+	 * Runs the workload against a new store of the given engine.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param numThreads
+	 *            the number of client threads
+	 * @return the throughput in operations per second
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static double run(BookStoreEngine engine, int numThreads) throws Exception {
+		StockManager stockManager = engine.newInstance();
+		BookStore bookStore = (BookStore) stockManager;
+
+		Set<StockBook> books = new HashSet<>();
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, NUM_COPIES, 0, 0, 0,
+					false));
+		}
+		stockManager.addBooks(books);
+
+		CountDownLatch start = new CountDownLatch(1);
+		Client[] clients = new Client[numThreads];
+		Thread[] threads = new Thread[numThreads];
+
+		for (int i = 0; i < numThreads; i++) {
+			clients[i] = new Client(stockManager, bookStore, start);
+			threads[i] = new Thread(clients[i]);
+			threads[i].start();
+		}
+
+		start.countDown();
+		Thread.sleep(WARM_UP_MILLISECS);
+
+		long startOps = 0;
+		for (Client client : clients) {
+			startOps += client.numOperations;
+		}
+
+		long startNanos = System.nanoTime();
+		Thread.sleep(RUN_MILLISECS);
+
+		long endOps = 0;
+		for (Client client : clients) {
+			endOps += client.numOperations;
+		}
+
+		long elapsedNanos = System.nanoTime() - startNanos;
+
+		for (Client client : clients) {
+			client.running = false;
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		return (endOps - startOps) / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+	}
+
+	/**
+	 * {@link Client} runs the workload in a loop until it is stopped.
+	 */
+	private static final class Client implements Runnable {
+
+		/** The stock manager. */
+		private final StockManager stockManager;
+
+		/** The book store. */
+		private final BookStore bookStore;
+
+		/** The latch released when the run starts. */
+		private final CountDownLatch start;
+
+		/** The ISBN sets to read. */
+		private final List<Set<Integer>> readSets = new ArrayList<>(NUM_READ_SETS);
+
+		/** Whether the client should keep running. */
+		private volatile boolean running = true;
+
+		/** The number of operations completed so far. */
+		private volatile long numOperations;
+
+		/**
+		 * Instantiates a new {@link Client}.
+		 *
+		 * @param stockManager
+		 *            the stock manager
+		 * @param bookStore
+		 *            the book store
+		 * @param start
+		 *            the start latch
+		 */
+		private Client(StockManager stockManager, BookStore bookStore, CountDownLatch start) {
+			this.stockManager = stockManager;
+			this.bookStore = bookStore;
+			this.start = start;
+
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+
+			for (int i = 0; i < NUM_READ_SETS; i++) {
+				Set<Integer> readSet = new HashSet<>();
+
+				while (readSet.size() < ISBNS_PER_READ) {
+					readSet.add(random.nextInt(NUM_BOOKS) + 1);
+				}
+
+				readSets.add(readSet);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+
+			try {
+				start.await();
+
+				while (running) {
+					if (random.nextInt(100) < READ_PERCENTAGE) {
+						bookStore.getBooks(readSets.get(random.nextInt(NUM_READ_SETS)));
+					} else {
+						Set<BookCopy> copies = new HashSet<>();
+						copies.add(new BookCopy(random.nextInt(NUM_BOOKS) + 1, 1));
+						bookStore.buyBooks(copies);
+						stockManager.addCopies(copies);
+					}
+
+					numOperations++;
+				}
+			} catch (InterruptedException | BookStoreException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookStoreEngine;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link RecoveryBenchmark} measures what background snapshots cost a durable
+ * store while it serves purchases, and what they save when it restarts. Each
+ * engine runs the same purchases twice, once without snapshots, so a restart
+ * replays the whole log, and once with a snapshot whenever the log grew by
+ * {@link #CHECKPOINT_LOG_SIZE} bytes, so a restart loads the last snapshot and
+ * replays the log written since. It reports the throughput and the slowest
+ * purchase of each run, which would reveal a snapshot pausing the purchases,
+ * the length of the log left and the time to open the store again.
+ *
+ * The engines to compare can be given as arguments; by default the durable
+ * engines are compared.
+ */
+public final class RecoveryBenchmark {
+
+	/** The number of books in the store. */
+	private static final int NUM_BOOKS = 10000;
+
+	/** The number of copies of each book. */
+	private static final int NUM_COPIES = 100000000;
+
+	/** The number of client threads. */
+	private static final int NUM_THREADS = 100;
+
+	/** The time of each run. */
+	private static final long RUN_MILLISECS = 5000;
+
+	/** The growth of the log which triggers a snapshot in the second run. */
+	private static final long CHECKPOINT_LOG_SIZE = 1 << 20;
+
+	/** The time to wait for a last snapshot once the purchases stopped. */
+	private static final long SETTLE_MILLISECS = 2000;
+
+	/**
+	 * Prevents the instantiation of a new {@link RecoveryBenchmark}.
+	 */
+	private RecoveryBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the engines to compare
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		List<BookStoreEngine> engines = new ArrayList<>();
+
+		for (String arg : args) {
+			engines.add(BookStoreEngine.valueOf(arg.toUpperCase()));
+		}
+
+		if (engines.isEmpty()) {
+			engines.add(BookStoreEngine.SINGLE_LOCK);
+			engines.add(BookStoreEngine.TWO_LEVEL_LOCKING);
+		}
+
+		System.out.printf("%-20s %-10s %12s %14s %14s %12s%n", "engine", "snapshots", "ops/s", "max latency ms",
+				"log bytes", "restart ms");
+
+		for (BookStoreEngine engine : engines) {
+			run(engine, Long.MAX_VALUE, "off");
+			run(engine, CHECKPOINT_LOG_SIZE, "on");
+		}
+	}
+
+	/**
+	 * Runs the purchases against a new durable store, and opens it again.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param checkpointLogSize
+	 *            the growth of the log which triggers a snapshot
+	 * @param label
+	 *            the label of the run
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void run(BookStoreEngine engine, long checkpointLogSize, String label) throws Exception {
+		System.setProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_LOG_SIZE, Long.toString(checkpointLogSize));
+		System.setProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL, Long.toString(Long.MAX_VALUE / 2));
+		Path dataDirectory = Files.createTempDirectory("bookstore");
+
+		try {
+			StockManager stockManager = engine.newDurableInstance(dataDirectory);
+
+			Set<StockBook> books = new HashSet<>();
+			for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+				books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + (isbn % 1000), 10, NUM_COPIES, 0,
+						0, 0, false));
+			}
+			stockManager.addBooks(books);
+
+			CountDownLatch start = new CountDownLatch(1);
+			Client[] clients = new Client[NUM_THREADS];
+			Thread[] threads = new Thread[NUM_THREADS];
+
+			for (int i = 0; i < NUM_THREADS; i++) {
+				clients[i] = new Client((BookStore) stockManager, start);
+				threads[i] = new Thread(clients[i]);
+				threads[i].start();
+			}
+
+			long startNanos = System.nanoTime();
+			start.countDown();
+			Thread.sleep(RUN_MILLISECS);
+
+			for (Client client : clients) {
+				client.running = false;
+			}
+
+			long numOperations = 0;
+			long maxLatencyNanos = 0;
+
+			for (int i = 0; i < NUM_THREADS; i++) {
+				threads[i].join();
+				numOperations += clients[i].numOperations;
+				maxLatencyNanos = Math.max(maxLatencyNanos, clients[i].maxLatencyNanos);
+			}
+
+			long elapsedNanos = System.nanoTime() - startNanos;
+
+			// Let a snapshot triggered by the last purchases finish before the
+			// store is opened again.
+			Thread.sleep(SETTLE_MILLISECS);
+			long logBytes = logBytes(dataDirectory);
+
+			long restartNanos = System.nanoTime();
+			engine.newDurableInstance(dataDirectory);
+			restartNanos = System.nanoTime() - restartNanos;
+
+			System.out.printf("%-20s %-10s %12.0f %14.1f %14d %12.0f%n", engine, label,
+					numOperations / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1)),
+					maxLatencyNanos / (double) TimeUnit.MILLISECONDS.toNanos(1), logBytes,
+					restartNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+		} finally {
+			delete(dataDirectory);
+		}
+	}
+
+	private static long logBytes(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.list(directory)) {
+			return paths.filter(path -> path.getFileName().toString().endsWith(".log")).mapToLong(path -> {
+				try {
+					return Files.size(path);
+				} catch (IOException ex) {
+					return 0;
+				}
+			}).sum();
+		}
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/**
+	 * {@link Client} buys single copies of random books until it is stopped,
+	 * keeping track of its slowest purchase.
+	 */
+	private static final class Client implements Runnable {
+
+		/** The book store. */
+		private final BookStore bookStore;
+
+		/** The latch released when the run starts. */
+		private final CountDownLatch start;
+
+		/** Whether the client should keep running. */
+		private volatile boolean running = true;
+
+		/** The number of purchases completed so far. */
+		private long numOperations;
+
+		/** The latency of the slowest purchase so far. */
+		private long maxLatencyNanos;
+
+		/**
+		 * Instantiates a new {@link Client}.
+		 *
+		 * @param bookStore
+		 *            the book store
+		 * @param start
+		 *            the start latch
+		 */
+		private Client(BookStore bookStore, CountDownLatch start) {
+			this.bookStore = bookStore;
+			this.start = start;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+
+			try {
+				start.await();
+
+				while (running) {
+					Set<BookCopy> copies = new HashSet<>();
+					copies.add(new BookCopy(random.nextInt(NUM_BOOKS) + 1, 1));
+					long startNanos = System.nanoTime();
+					bookStore.buyBooks(copies);
+					maxLatencyNanos = Math.max(maxLatencyNanos, System.nanoTime() - startNanos);
+					numOperations++;
+				}
+			} catch (InterruptedException | BookStoreException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+}
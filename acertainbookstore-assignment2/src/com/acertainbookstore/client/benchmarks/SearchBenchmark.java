@@ -0,0 +1,175 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.business.BookStoreEngine;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+
+/**
+ * {@link SearchBenchmark} measures the latency of
+ * {@link BookStore#searchBooks(String, boolean, int)} with {@link #NUM_BOOKS}
+ * books. Each title starts with one of {@link #NUM_COMMON_WORDS} common words,
+ * contained in tens of thousands of titles, followed by two of
+ * {@link #NUM_RARE_WORDS} rare words, contained in tens of titles. The queries
+ * combine two or three common or rare words, matching all or any of them, and
+ * ask for the best {@link #BOOKS_PER_SEARCH} books. The median, 99th
+ * percentile and maximum latencies are printed for each engine and mode.
+ *
+ * The engines to compare can be given as arguments; by default the
+ * single_lock and two_level_locking engines, which keep an inverted index, are
+ * measured.
+ */
+public final class SearchBenchmark {
+
+	/** The number of books in the store. */
+	private static final int NUM_BOOKS = 2000000;
+
+	/** The number of books added at once. */
+	private static final int BATCH_SIZE = 10000;
+
+	/** The number of words each title starts with. */
+	private static final int NUM_COMMON_WORDS = 100;
+
+	/** The number of other words of the titles. */
+	private static final int NUM_RARE_WORDS = 100000;
+
+	/** The number of authors. */
+	private static final int NUM_AUTHORS = 200000;
+
+	/** The maximum number of books found by each search. */
+	private static final int BOOKS_PER_SEARCH = 10;
+
+	/** The number of searches before measuring. */
+	private static final int NUM_WARM_UP_SEARCHES = 20000;
+
+	/** The number of measured searches of each mode. */
+	private static final int NUM_SEARCHES = 10000;
+
+	/**
+	 * Prevents the instantiation of a new {@link SearchBenchmark}.
+	 */
+	private SearchBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the engines to compare
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		List<BookStoreEngine> engines = new ArrayList<>();
+
+		for (String arg : args) {
+			engines.add(BookStoreEngine.valueOf(arg.toUpperCase()));
+		}
+
+		if (engines.isEmpty()) {
+			engines.add(BookStoreEngine.SINGLE_LOCK);
+			engines.add(BookStoreEngine.TWO_LEVEL_LOCKING);
+		}
+
+		System.out.printf("%-20s %-6s %12s %12s %12s %12s%n", "engine", "mode", "p50 us", "p99 us", "max us",
+				"books/op");
+
+		for (BookStoreEngine engine : engines) {
+			run(engine);
+		}
+	}
+
+	/**
+	 * Runs the searches against a new store of the given engine.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void run(BookStoreEngine engine) throws Exception {
+		StockManager stockManager = engine.newInstance();
+		BookStore bookStore = (BookStore) stockManager;
+		Random random = new Random(42);
+
+		for (int first = 1; first <= NUM_BOOKS; first += BATCH_SIZE) {
+			Set<StockBook> books = new HashSet<>();
+
+			for (int isbn = first; isbn < first + BATCH_SIZE && isbn <= NUM_BOOKS; isbn++) {
+				String title = commonWord(random) + " " + rareWord(random) + " " + rareWord(random);
+				String author = "Author" + random.nextInt(NUM_AUTHORS);
+				books.add(new ImmutableStockBook(isbn, title, author, 10, 1, 0, 0, 0, false));
+			}
+
+			stockManager.addBooks(books);
+		}
+
+		String[] queries = new String[NUM_SEARCHES];
+
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = query(random);
+		}
+
+		for (int i = 0; i < NUM_WARM_UP_SEARCHES; i++) {
+			bookStore.searchBooks(queries[i % queries.length], i % 2 == 0, BOOKS_PER_SEARCH);
+		}
+
+		for (boolean matchAll : new boolean[] { true, false }) {
+			long[] nanos = new long[queries.length];
+			long numBooks = 0;
+
+			for (int i = 0; i < queries.length; i++) {
+				long startNanos = System.nanoTime();
+				numBooks += bookStore.searchBooks(queries[i], matchAll, BOOKS_PER_SEARCH).size();
+				nanos[i] = System.nanoTime() - startNanos;
+			}
+
+			Arrays.sort(nanos);
+			System.out.printf("%-20s %-6s %12.1f %12.1f %12.1f %12.1f%n", engine, matchAll ? "all" : "any",
+					micros(nanos[nanos.length / 2]), micros(nanos[nanos.length * 99 / 100]),
+					micros(nanos[nanos.length - 1]), numBooks / (double) queries.length);
+		}
+
+		stockManager.removeAllBooks();
+	}
+
+	private static String commonWord(Random random) {
+		return "common" + random.nextInt(NUM_COMMON_WORDS);
+	}
+
+	private static String rareWord(Random random) {
+		return "rare" + random.nextInt(NUM_RARE_WORDS);
+	}
+
+	/**
+	 * Creates a query of two or three words, each of which is common or rare.
+	 *
+	 * @param random
+	 *            the random number generator
+	 * @return the query
+	 */
+	private static String query(Random random) {
+		StringBuilder query = new StringBuilder();
+		int numWords = 2 + random.nextInt(2);
+
+		for (int i = 0; i < numWords; i++) {
+			query.append(random.nextBoolean() ? commonWord(random) : rareWord(random)).append(' ');
+		}
+
+		return query.toString();
+	}
+
+	private static double micros(long nanos) {
+		return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+	}
+}
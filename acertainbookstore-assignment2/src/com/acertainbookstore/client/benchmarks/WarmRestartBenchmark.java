@@ -0,0 +1,280 @@
+package com.acertainbookstore.client.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.acertainbookstore.business.BookStoreEngine;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link WarmRestartBenchmark} measures how soon a restarted durable store
+ * serves its first {@link BookStore#getBooks(Set)} with a large catalog. Each
+ * engine is loaded with {@link #NUM_BOOKS} books twice in a new JVM, once
+ * without snapshots, so a restart replays the whole log, and once with a
+ * snapshot taken after the load, so a restart opens the snapshot. The store is
+ * then opened again in another JVM, which reports the time from its start until the
+ * store was opened and until the first lookup of a few random ISBNs returned.
+ * The snapshot is still in the page cache, so the times do not include
+ * reading it from disk.
+ *
+ * The engines to compare can be given as arguments; by default the off_heap
+ * engine, which opens its snapshot in place, is measured.
+ */
+public final class WarmRestartBenchmark {
+
+	/** The number of books in the store. */
+	private static final int NUM_BOOKS = 5000000;
+
+	/** The number of books added at once. */
+	private static final int BATCH_SIZE = 10000;
+
+	/** The number of ISBNs of the first lookup. */
+	private static final int NUM_LOOKUPS = 10;
+
+	/** The time after which a grown log triggers a snapshot in the second run. */
+	private static final long CHECKPOINT_INTERVAL_SECS = 5;
+
+	/** The longest time to wait for the snapshot after the load. */
+	private static final long SNAPSHOT_TIMEOUT_MILLISECS = 120000;
+
+	/**
+	 * Prevents the instantiation of a new {@link WarmRestartBenchmark}.
+	 */
+	private WarmRestartBenchmark() {
+		// Prevent instantiation.
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 *            the names of the engines to compare
+	 * @throws Exception
+	 *             the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		List<BookStoreEngine> engines = new ArrayList<>();
+
+		for (String arg : args) {
+			engines.add(BookStoreEngine.valueOf(arg.toUpperCase()));
+		}
+
+		if (engines.isEmpty()) {
+			engines.add(BookStoreEngine.OFF_HEAP);
+		}
+
+		System.out.printf("%-20s %-10s %12s %14s %12s %18s%n", "engine", "snapshots", "load s", "data bytes",
+				"open ms", "first getBooks ms");
+
+		for (BookStoreEngine engine : engines) {
+			run(engine, false);
+			run(engine, true);
+		}
+	}
+
+	/**
+	 * Loads a new durable store in a new JVM and opens it again in another.
+	 *
+	 * @param engine
+	 *            the engine
+	 * @param snapshots
+	 *            whether to take a snapshot after the load
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static void run(BookStoreEngine engine, boolean snapshots) throws Exception {
+		Path dataDirectory = Files.createTempDirectory("bookstore");
+
+		try {
+			String[] load = fork(Loader.class, engine.name(), dataDirectory.toString(), Boolean.toString(snapshots));
+			long dataBytes = dataBytes(dataDirectory);
+			String[] times = fork(Restarter.class, engine.name(), dataDirectory.toString());
+
+			System.out.printf("%-20s %-10s %12s %14d %12s %18s%n", engine, snapshots ? "on" : "off", load[0],
+					dataBytes, times[0], times[1]);
+		} finally {
+			delete(dataDirectory);
+		}
+	}
+
+	/**
+	 * Runs the main method of a class in a new JVM.
+	 *
+	 * @param mainClass
+	 *            the class
+	 * @param args
+	 *            the arguments
+	 * @return the words of the first line printed
+	 * @throws Exception
+	 *             the exception
+	 */
+	private static String[] fork(Class<?> mainClass, String... args) throws Exception {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(mainClass.getName());
+		command.addAll(Arrays.asList(args));
+
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		String line;
+
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			line = reader.readLine();
+
+			while (reader.readLine() != null) {
+				// Drain the output.
+			}
+		}
+
+		if (process.waitFor() != 0 || line == null) {
+			throw new IllegalStateException(mainClass.getSimpleName() + " failed: " + line);
+		}
+
+		return line.split(" ");
+	}
+
+	private static long logBytes(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.list(directory)) {
+			return paths.filter(path -> path.getFileName().toString().endsWith(".log"))
+					.mapToLong(path -> path.toFile().length()).sum();
+		}
+	}
+
+	private static long dataBytes(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.list(directory)) {
+			return paths.map(Path::toFile).mapToLong(File::length).sum();
+		}
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/**
+	 * {@link Loader} loads the books into a new durable store, waits for the
+	 * snapshot if there is one and prints the seconds the load took.
+	 */
+	public static final class Loader {
+
+		/**
+		 * Prevents the instantiation of a new {@link Loader}.
+		 */
+		private Loader() {
+			// Prevent instantiation.
+		}
+
+		/**
+		 * The main method.
+		 *
+		 * @param args
+		 *            the name of the engine, the data directory and whether to
+		 *            take a snapshot after the load
+		 * @throws Exception
+		 *             the exception
+		 */
+		public static void main(String[] args) throws Exception {
+			boolean snapshots = Boolean.parseBoolean(args[2]);
+			System.setProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_LOG_SIZE, Long.toString(Long.MAX_VALUE));
+			System.setProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL,
+					Long.toString(snapshots ? CHECKPOINT_INTERVAL_SECS : Long.MAX_VALUE / 2));
+			Path dataDirectory = Paths.get(args[1]);
+			StockManager stockManager = BookStoreEngine.valueOf(args[0]).newDurableInstance(dataDirectory);
+			long loadNanos = System.nanoTime();
+
+			for (int first = 1; first <= NUM_BOOKS; first += BATCH_SIZE) {
+				Set<StockBook> books = new HashSet<>();
+
+				for (int isbn = first; isbn < first + BATCH_SIZE && isbn <= NUM_BOOKS; isbn++) {
+					books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + (isbn % 100000), 10, 10, 0,
+							0, 0, false));
+				}
+
+				stockManager.addBooks(books);
+			}
+
+			loadNanos = System.nanoTime() - loadNanos;
+
+			// The snapshot taken after the load leaves an empty log behind.
+			long deadline = System.currentTimeMillis() + SNAPSHOT_TIMEOUT_MILLISECS;
+
+			while (snapshots && logBytes(dataDirectory) > 0) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IllegalStateException("No snapshot was taken");
+				}
+
+				Thread.sleep(100);
+			}
+
+			System.out.printf("%.1f%n", loadNanos / (double) TimeUnit.SECONDS.toNanos(1));
+			System.exit(0);
+		}
+	}
+
+	/**
+	 * {@link Restarter} opens a durable store and looks up a few random books,
+	 * printing the milliseconds from the start of its JVM until each is done.
+	 */
+	public static final class Restarter {
+
+		/**
+		 * Prevents the instantiation of a new {@link Restarter}.
+		 */
+		private Restarter() {
+			// Prevent instantiation.
+		}
+
+		/**
+		 * The main method.
+		 *
+		 * @param args
+		 *            the name of the engine and the data directory
+		 * @throws Exception
+		 *             the exception
+		 */
+		public static void main(String[] args) throws Exception {
+			long startMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+			BookStore bookStore = (BookStore) BookStoreEngine.valueOf(args[0])
+					.newDurableInstance(Paths.get(args[1]));
+			long openMillis = System.currentTimeMillis() - startMillis;
+
+			Set<Integer> isbns = new HashSet<>();
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+
+			while (isbns.size() < NUM_LOOKUPS) {
+				isbns.add(random.nextInt(NUM_BOOKS) + 1);
+			}
+
+			bookStore.getBooks(isbns);
+			long firstMillis = System.currentTimeMillis() - startMillis;
+
+			System.out.println(openMillis + " " + firstMillis);
+			System.exit(0);
+		}
+	}
+}
@@ -7,28 +7,31 @@ import org.junit.Test;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
 public class BookStoreConcurrencyTest {
 
+    /**
+     * Creates the store under test, selected by the engine properties.
+     */
+    private static StockManager createStore() {
+        return BookStoreEngine.fromSystemProperties().newInstance();
+    }
+
     @Test
     public void testBuyAndAddCopiesConcurrency() throws InterruptedException {
         // Initialize the bookstore
-        StockManager stockManager = new SingleLockConcurrentCertainBookStore();
+        StockManager stockManager = createStore();
         BookStore bookstore = (BookStore) stockManager;
 
         // Define a set of books with initial stock
-        List<BookCopy> initialBooks = Arrays.asList(
-                new BookCopy(1, 100),
-                new BookCopy(2, 100)
-        );
-
         try {
-            stockManager.addBooks(Arrays.asList(
-                    new Book(1, "Book A", "Author A", 100, 10),
-                    new Book(2, "Book B", "Author B", 100, 10)
-            ));
+            stockManager.addBooks(new HashSet<>(Arrays.asList(
+                    new ImmutableStockBook(1, "Book A", "Author A", 10, 100, 0, 0, 0, false),
+                    new ImmutableStockBook(2, "Book B", "Author B", 10, 100, 0, 0, 0, false)
+            )));
         } catch (BookStoreException e) {
             e.printStackTrace();
             fail("Failed to initialize bookstore with books");
@@ -38,7 +41,7 @@ public class BookStoreConcurrencyTest {
         Runnable client1 = () -> {
             try {
                 for (int i = 0; i < 50; i++) { // Perform 50 buy operations
-                    bookstore.buyBooks(Arrays.asList(new BookCopy(1, 1), new BookCopy(2, 1)));
+                    bookstore.buyBooks(new HashSet<>(Arrays.asList(new BookCopy(1, 1), new BookCopy(2, 1))));
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -48,7 +51,7 @@ public class BookStoreConcurrencyTest {
         Runnable client2 = () -> {
             try {
                 for (int i = 0; i < 50; i++) { // Perform 50 addCopies operations
-                    stockManager.addCopies(Arrays.asList(new BookCopy(1, 1), new BookCopy(2, 1)));
+                    stockManager.addCopies(new HashSet<>(Arrays.asList(new BookCopy(1, 1), new BookCopy(2, 1))));
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -64,8 +67,8 @@ public class BookStoreConcurrencyTest {
 
         // Validate the final state of the bookstore
         try {
-            List<Book> finalBooks = stockManager.getBooks();
-            for (Book book : finalBooks) {
+            List<StockBook> finalBooks = stockManager.getBooks();
+            for (StockBook book : finalBooks) {
                 assertEquals("Book stock mismatch for Book ID: " + book.getISBN(), 100, book.getNumCopies());
             }
         } catch (BookStoreException e) {
@@ -73,4 +76,168 @@ public class BookStoreConcurrencyTest {
             fail("Failed to retrieve books from the bookstore");
         }
     }
+
+    @Test
+    public void testReadersSeeConsistentStock() throws InterruptedException {
+        // Initialize the bookstore
+        StockManager stockManager = createStore();
+        BookStore bookstore = (BookStore) stockManager;
+
+        try {
+            stockManager.addBooks(new HashSet<>(Arrays.asList(
+                    new ImmutableStockBook(1, "Book A", "Author A", 10, 100, 0, 0, 0, false),
+                    new ImmutableStockBook(2, "Book B", "Author B", 10, 100, 0, 0, 0, false)
+            )));
+        } catch (BookStoreException e) {
+            e.printStackTrace();
+            fail("Failed to initialize bookstore with books");
+        }
+
+        // The writer buys and restocks both books in the same operations, so
+        // a reader must never observe the two books with different stock.
+        Runnable writer = () -> {
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    bookstore.buyBooks(new HashSet<>(Arrays.asList(new BookCopy(1, 1), new BookCopy(2, 1))));
+                    stockManager.addCopies(new HashSet<>(Arrays.asList(new BookCopy(1, 1), new BookCopy(2, 1))));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        };
+
+        Callable<Boolean> reader = () -> {
+            for (int i = 0; i < 1000; i++) {
+                List<StockBook> books = stockManager.getBooks();
+                if (books.get(0).getNumCopies() != books.get(1).getNumCopies()) {
+                    return false;
+                }
+            }
+            return true;
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        executor.submit(writer);
+        Future<Boolean> firstReader = executor.submit(reader);
+        Future<Boolean> secondReader = executor.submit(reader);
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        try {
+            assertTrue("Reader observed an inconsistent snapshot", firstReader.get() && secondReader.get());
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            fail("Reader failed");
+        }
+    }
+
+    @Test
+    public void testColdReaderIsNotHeldUpByHotBuyers() throws Exception {
+        StockManager stockManager = createStore();
+        BookStore bookstore = (BookStore) stockManager;
+
+        try {
+            stockManager.addBooks(new HashSet<>(Arrays.asList(
+                    new ImmutableStockBook(1, "Hot Book", "Author A", 10, 100, 0, 0, 0, false),
+                    new ImmutableStockBook(2, "Cold Book B", "Author B", 10, 100, 0, 0, 0, false),
+                    new ImmutableStockBook(3, "Cold Book C", "Author C", 10, 100, 0, 0, 0, false)
+            )));
+        } catch (BookStoreException e) {
+            e.printStackTrace();
+            fail("Failed to initialize bookstore with books");
+        }
+
+        // Four buyers keep buying and restocking the hot book until the
+        // reader of the cold books is done.
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        for (int buyer = 0; buyer < 4; buyer++) {
+            executor.submit(() -> {
+                try {
+                    while (!done.get()) {
+                        bookstore.buyBooks(Collections.singleton(new BookCopy(1, 1)));
+                        stockManager.addCopies(Collections.singleton(new BookCopy(1, 1)));
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        Future<Boolean> reader = executor.submit(() -> {
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    for (StockBook book : stockManager.getBooksByISBN(new HashSet<>(Arrays.asList(2, 3)))) {
+                        if (book.getNumCopies() != 100) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            } finally {
+                done.set(true);
+            }
+        });
+
+        try {
+            assertTrue("Reader observed wrong stock", reader.get(30, TimeUnit.SECONDS));
+        } catch (TimeoutException e) {
+            fail("Reader of the cold books was held up by the buyers of the hot book");
+        } finally {
+            done.set(true);
+            executor.shutdown();
+            assertTrue("Buyers did not finish", executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+    }
+
+    @Test
+    public void testOverlappingOrdersDoNotDeadlock() throws InterruptedException {
+        StockManager stockManager = createStore();
+        BookStore bookstore = (BookStore) stockManager;
+
+        Set<StockBook> books = new HashSet<>();
+        for (int isbn = 1; isbn <= 10; isbn++) {
+            books.add(new ImmutableStockBook(isbn, "Book " + isbn, "Author", 10, 10000, 0, 0, 0, false));
+        }
+
+        try {
+            stockManager.addBooks(books);
+        } catch (BookStoreException e) {
+            e.printStackTrace();
+            fail("Failed to initialize bookstore with books");
+        }
+
+        // Every client buys an overlapping window of books, so clients contend
+        // on the same book locks from different starting points.
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int client = 0; client < 8; client++) {
+            int first = client + 1;
+            executor.submit(() -> {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        Set<BookCopy> order = new HashSet<>();
+                        for (int isbn = first; isbn < first + 3; isbn++) {
+                            order.add(new BookCopy(isbn, 1));
+                        }
+                        bookstore.buyBooks(order);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue("Clients did not finish", executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        try {
+            long remaining = 0;
+            for (StockBook book : stockManager.getBooks()) {
+                remaining += book.getNumCopies();
+            }
+            assertEquals(10 * 10000 - 8 * 200 * 3, remaining);
+        } catch (BookStoreException e) {
+            e.printStackTrace();
+            fail("Failed to retrieve books from the bookstore");
+        }
+    }
 }
@@ -2,6 +2,9 @@ package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -14,10 +17,10 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
-import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreEngine;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
-import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
@@ -41,9 +44,6 @@ public class BookStoreTest {
 	/** The local test. */
 	private static boolean localTest = true;
 
-	/** Single lock test */
-	private static boolean singleLock = true;
-
 	
 	/** The store manager. */
 	private static StockManager storeManager;
@@ -60,19 +60,9 @@ public class BookStoreTest {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
 			
-			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
-			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
-
 			if (localTest) {
-				if (singleLock) {
-					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
-					storeManager = store;
-					client = store;
-				} else {
-					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
-					storeManager = store;
-					client = store;
-				}
+				storeManager = BookStoreEngine.fromSystemProperties().newInstance();
+				client = (BookStore) storeManager;
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -363,6 +353,424 @@ public class BookStoreTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Tests that ratings add up to the total rating and average rating.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRateBooks() throws BookStoreException {
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		client.rateBooks(ratings);
+
+		ratings.clear();
+		ratings.add(new BookRating(TEST_ISBN, 1));
+		client.rateBooks(ratings);
+
+		StockBook book = storeManager.getBooksByISBN(Collections.singleton(TEST_ISBN)).get(0);
+		assertEquals(5, book.getTotalRating());
+		assertEquals(2, book.getNumTimesRated());
+		assertEquals(2.5f, book.getAverageRating(), 0.0f);
+	}
+
+	/**
+	 * Tests that no rating is added if one of them is invalid.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRateBooksInvalidRating() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		List<StockBook> booksInStorePreTest = storeManager.getBooks();
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 5)); // valid
+		ratings.add(new BookRating(TEST_ISBN + 1, 6)); // invalid
+
+		try {
+			client.rateBooks(ratings);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		ratings.clear();
+		ratings.add(new BookRating(TEST_ISBN, 5)); // valid
+		ratings.add(new BookRating(TEST_ISBN + 2, 5)); // not in stock
+
+		try {
+			client.rateBooks(ratings);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInStorePostTest = storeManager.getBooks();
+		assertTrue(booksInStorePreTest.containsAll(booksInStorePostTest)
+				&& booksInStorePreTest.size() == booksInStorePostTest.size());
+	}
+
+	/**
+	 * Tests that ratings are added to the ratings a book was added with, even
+	 * if these do not fit in 32 bits.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRateBooksWithManyRatings() throws BookStoreException {
+		long numTimesRated = 5000000000L;
+		long totalRating = 4 * numTimesRated;
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, numTimesRated, totalRating, false));
+		storeManager.addBooks(booksToAdd);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN + 1, 5));
+		client.rateBooks(ratings);
+
+		StockBook book = storeManager.getBooksByISBN(Collections.singleton(TEST_ISBN + 1)).get(0);
+		assertEquals(totalRating + 5, book.getTotalRating());
+		assertEquals(numTimesRated + 1, book.getNumTimesRated());
+		assertEquals(4.0f, book.getAverageRating(), 0.001f);
+	}
+
+	/**
+	 * Tests that the top rated books are returned best rated first.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetTopRatedBooks() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 3));
+		ratings.add(new BookRating(TEST_ISBN + 1, 5));
+		ratings.add(new BookRating(TEST_ISBN + 2, 1));
+		client.rateBooks(ratings);
+
+		List<Book> topRated = client.getTopRatedBooks(2);
+		assertEquals(2, topRated.size());
+		assertEquals(TEST_ISBN + 1, topRated.get(0).getISBN());
+		assertEquals(TEST_ISBN, topRated.get(1).getISBN());
+
+		assertEquals(3, client.getTopRatedBooks(10).size());
+		assertTrue(client.getTopRatedBooks(0).isEmpty());
+
+		try {
+			client.getTopRatedBooks(-1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that equally rated books are ranked by ISBN, before unrated books.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetTopRatedBooksTies() throws BookStoreException {
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 3, NUM_COPIES);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN + 2, 4));
+		ratings.add(new BookRating(TEST_ISBN + 1, 4));
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		client.rateBooks(ratings);
+
+		assertEquals(Arrays.asList(TEST_ISBN, TEST_ISBN + 1), isbnsOf(client.getTopRatedBooks(2)));
+		assertEquals(Arrays.asList(TEST_ISBN, TEST_ISBN + 1, TEST_ISBN + 2, TEST_ISBN + 3),
+				isbnsOf(client.getTopRatedBooks(Integer.MAX_VALUE)));
+	}
+
+	/**
+	 * Helper method to add a book with the given title, author and price.
+	 *
+	 * @param isbn
+	 *            the isbn
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 * @param price
+	 *            the price
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void addBook(int isbn, String title, String author, float price) throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(isbn, title, author, price, NUM_COPIES, 0, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+	}
+
+	/**
+	 * Helper method to get the ISBNs of books, in order.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the ISBNs
+	 */
+	public List<Integer> isbnsOf(List<Book> books) {
+		List<Integer> isbns = new ArrayList<Integer>();
+
+		for (Book book : books) {
+			isbns.add(book.getISBN());
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Helper method to add the books searched by the prefix and search tests,
+	 * besides the default book.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void addLibrary() throws BookStoreException {
+		addBook(TEST_ISBN + 2, "Dune", "Frank Herbert", 9);
+		addBook(TEST_ISBN + 1, "Children of Dune", "Frank Herbert", 12);
+		addBook(TEST_ISBN + 3, "The Hobbit", "J. R. R. Tolkien", 8);
+	}
+
+	/**
+	 * Tests that books are found by a prefix of their author, ignoring case,
+	 * in the order of the author and then of the ISBN.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksByAuthorPrefix() throws BookStoreException {
+		addLibrary();
+
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2), isbnsOf(client.getBooksByAuthorPrefix("FRANK", 10)));
+		assertEquals(Arrays.asList(TEST_ISBN + 3, TEST_ISBN), isbnsOf(client.getBooksByAuthorPrefix("j", 10)));
+		assertEquals(Arrays.asList(TEST_ISBN + 1), isbnsOf(client.getBooksByAuthorPrefix("Frank Herbert", 1)));
+		assertTrue(client.getBooksByAuthorPrefix("Herbert", 10).isEmpty());
+		assertTrue(client.getBooksByAuthorPrefix("Frank", 0).isEmpty());
+
+		// The empty prefix matches every book.
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2, TEST_ISBN + 3, TEST_ISBN),
+				isbnsOf(client.getBooksByAuthorPrefix("", 10)));
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2), isbnsOf(client.getBooksByAuthorPrefix("", 2)));
+		assertEquals(4, client.getBooksByAuthorPrefix("", Integer.MAX_VALUE).size());
+
+		Book book = client.getBooksByAuthorPrefix("J. R.", 1).get(0);
+		assertEquals("The Hobbit", book.getTitle());
+		assertEquals("J. R. R. Tolkien", book.getAuthor());
+		assertEquals(8, book.getPrice(), 0);
+	}
+
+	/**
+	 * Tests that books are found by a prefix of their title, and that removed
+	 * books are no longer found.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksByTitlePrefix() throws BookStoreException {
+		addLibrary();
+
+		assertEquals(Arrays.asList(TEST_ISBN + 2), isbnsOf(client.getBooksByTitlePrefix("dune", 10)));
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2, TEST_ISBN, TEST_ISBN + 3),
+				isbnsOf(client.getBooksByTitlePrefix("", 10)));
+
+		storeManager.removeBooks(Collections.singleton(TEST_ISBN + 2));
+		assertTrue(client.getBooksByTitlePrefix("Dune", 10).isEmpty());
+		assertEquals(3, client.getBooksByTitlePrefix("", 10).size());
+	}
+
+	/**
+	 * Tests that a null prefix and a negative number of books are rejected.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksByPrefixInvalidArguments() throws BookStoreException {
+		try {
+			client.getBooksByAuthorPrefix(null, 10);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			client.getBooksByTitlePrefix(null, 10);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			client.getBooksByAuthorPrefix("J", -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			client.getBooksByTitlePrefix("H", -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that books containing any word of the query are ranked by the
+	 * number of words they contain, then by ISBN, and that books containing
+	 * all words are found in the order of their ISBNs.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSearchBooks() throws BookStoreException {
+		addLibrary();
+
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2),
+				isbnsOf(client.searchBooks("dune frank children", false, 10)));
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2, TEST_ISBN + 3),
+				isbnsOf(client.searchBooks("Frank, HOBBIT!", false, 10)));
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2),
+				isbnsOf(client.searchBooks("Frank, HOBBIT!", false, 2)));
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2),
+				isbnsOf(client.searchBooks("herbert DUNE", true, 10)));
+		assertEquals(Arrays.asList(TEST_ISBN + 1), isbnsOf(client.searchBooks("dune children", true, 10)));
+		assertTrue(client.searchBooks("Frank Hobbit", true, 10).isEmpty());
+		assertTrue(client.searchBooks("dune missing", true, 10).isEmpty());
+		assertEquals(Arrays.asList(TEST_ISBN + 1, TEST_ISBN + 2),
+				isbnsOf(client.searchBooks("dune missing", false, 10)));
+		assertEquals(Arrays.asList(TEST_ISBN), isbnsOf(client.searchBooks("junit", true, Integer.MAX_VALUE)));
+
+		Book book = client.searchBooks("tolkien", false, 1).get(0);
+		assertEquals("The Hobbit", book.getTitle());
+		assertEquals(8, book.getPrice(), 0);
+
+		storeManager.removeBooks(Collections.singleton(TEST_ISBN + 1));
+		assertEquals(Arrays.asList(TEST_ISBN + 2), isbnsOf(client.searchBooks("dune children", false, 10)));
+	}
+
+	/**
+	 * Tests that queries without words and a limit of no books find nothing,
+	 * and that a null query and a negative number of books are rejected.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSearchBooksBoundaries() throws BookStoreException {
+		addLibrary();
+
+		assertTrue(client.searchBooks("", false, 10).isEmpty());
+		assertTrue(client.searchBooks(" ,. ", true, 10).isEmpty());
+		assertTrue(client.searchBooks("dune", false, 0).isEmpty());
+
+		try {
+			client.searchBooks(null, false, 10);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			client.searchBooks("dune", true, -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that books priced within the range, both bounds included, are
+	 * paged through in the order of their price and then of their ISBN.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksByPriceRange() throws BookStoreException {
+		addLibrary();
+
+		assertEquals(Arrays.asList(TEST_ISBN + 2, TEST_ISBN, TEST_ISBN + 1),
+				isbnsOf(client.getBooksByPriceRange(9, 12, 0, 10)));
+		assertEquals(Arrays.asList(TEST_ISBN + 2, TEST_ISBN),
+				isbnsOf(client.getBooksByPriceRange(0, Float.POSITIVE_INFINITY, 1, 2)));
+		assertEquals(Arrays.asList(TEST_ISBN + 1), isbnsOf(client.getBooksByPriceRange(-1, 100, 3, 10)));
+		assertEquals(Arrays.asList(TEST_ISBN), isbnsOf(client.getBooksByPriceRange(10, 10, 0, 10)));
+		assertEquals(4, client.getBooksByPriceRange(0, 100, 0, Integer.MAX_VALUE).size());
+
+		Book book = client.getBooksByPriceRange(8, 8, 0, 1).get(0);
+		assertEquals("The Hobbit", book.getTitle());
+		assertEquals(8, book.getPrice(), 0);
+
+		storeManager.removeBooks(Collections.singleton(TEST_ISBN));
+		assertEquals(Arrays.asList(TEST_ISBN + 3, TEST_ISBN + 2, TEST_ISBN + 1),
+				isbnsOf(client.getBooksByPriceRange(0, 100, 0, 10)));
+	}
+
+	/**
+	 * Tests that an empty range, an offset past the end of the range and a
+	 * page of no books find nothing, and that prices which are not numbers
+	 * and a negative offset or number of books are rejected.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksByPriceRangeBoundaries() throws BookStoreException {
+		addLibrary();
+
+		assertTrue(client.getBooksByPriceRange(12, 9, 0, 10).isEmpty());
+		assertTrue(client.getBooksByPriceRange(-10, -1, 0, 10).isEmpty());
+		assertTrue(client.getBooksByPriceRange(0, 100, 4, 10).isEmpty());
+		assertTrue(client.getBooksByPriceRange(0, 100, Integer.MAX_VALUE, Integer.MAX_VALUE).isEmpty());
+		assertTrue(client.getBooksByPriceRange(0, 100, 0, 0).isEmpty());
+
+		try {
+			client.getBooksByPriceRange(Float.NaN, 100, 0, 10);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			client.getBooksByPriceRange(0, Float.NaN, 0, 10);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			client.getBooksByPriceRange(0, 100, -1, 10);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		try {
+			client.getBooksByPriceRange(0, 100, 0, -1);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
 	/**
 	 * Tear down after class.
 	 *
@@ -3,8 +3,11 @@ package com.acertainbookstore.client.tests;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.After;
@@ -16,7 +19,7 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
-import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.BookStoreEngine;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
@@ -39,6 +42,9 @@ public class StockManagerTest {
 	/** The Constant NUM_COPIES. */
 	private static final Integer NUM_COPIES = 5;
 
+	/** The longest window of getBooksByRecentMissRate, 24 hours. */
+	private static final int MAX_MINUTES = 24 * 60;
+
 	/** The local test. */
 	private static boolean localTest = true;
 
@@ -58,9 +64,8 @@ public class StockManagerTest {
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
 			
 			if (localTest) {
-				SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
-				storeManager = store;
-				client = store;
+				storeManager = BookStoreEngine.fromSystemProperties().newInstance();
+				client = (BookStore) storeManager;
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -219,6 +224,36 @@ public class StockManagerTest {
 				&& booksInStorePreTest.size() == booksInStorePostTest.size());
 	}
 
+	/**
+	 * Checks whether a book whose price is not a number can be added.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAddBookNaNPrice() throws BookStoreException {
+		List<StockBook> booksInStorePreTest = storeManager.getBooks();
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Harry Potter and Vivek", "JUnit Rowling", (float) 100, 5,
+				0, 0, 0, false)); // valid
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 2, "Harry Potter and Marcos", "JUnit Rowling", Float.NaN, 5,
+				0, 0, 0, false)); // invalid price
+
+		try {
+			storeManager.addBooks(booksToAdd);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> booksInStorePostTest = storeManager.getBooks();
+
+		// Check pre and post state are same.
+		assertTrue(booksInStorePreTest.containsAll(booksInStorePostTest)
+				&& booksInStorePreTest.size() == booksInStorePostTest.size());
+	}
+
 	/**
 	 * Tests adding copies of a book with correct parameters.
 	 *
@@ -475,6 +510,208 @@ public class StockManagerTest {
 		assertTrue(booksInStoreList.size() == 0);
 	}
 
+	/**
+	 * Tests adding and removing a large number of books, spread over the whole
+	 * range of ISBNs.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAddAndRemoveManyBooks() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+
+		for (int i = 1; i <= 2000; i++) {
+			int isbn = i * 1000003;
+			booksToAdd.add(new ImmutableStockBook(isbn, "Title " + i, "Author " + i, (float) i, NUM_COPIES, 0, 0, 0,
+					false));
+
+			if (i % 2 == 0) {
+				isbnsToRemove.add(isbn);
+			}
+		}
+
+		storeManager.addBooks(booksToAdd);
+		assertEquals(2001, storeManager.getBooks().size());
+
+		storeManager.removeBooks(isbnsToRemove);
+		List<StockBook> booksInStoreList = storeManager.getBooks();
+		assertEquals(1001, booksInStoreList.size());
+
+		for (StockBook book : booksInStoreList) {
+			assertFalse(isbnsToRemove.contains(book.getISBN()));
+		}
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(1000003);
+		isbnSet.add(1999 * 1000003);
+		assertEquals(2, storeManager.getBooksByISBN(isbnSet).size());
+
+		try {
+			storeManager.getBooksByISBN(isbnsToRemove);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Buys copies of a book, ignoring the failure of a purchase which misses
+	 * copies.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	private void tryToBuy(int isbn, int numCopies) {
+		Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(isbn, numCopies));
+
+		try {
+			client.buyBooks(booksToBuy);
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that books are ranked by their recent sale misses, most missed
+	 * first, then by their recent sales, fewest first, and that books without
+	 * sale misses are left out.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksByRecentMissRate() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 4; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i, (float) 10, NUM_COPIES,
+					0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+
+		tryToBuy(TEST_ISBN, NUM_COPIES + 1); // 1 missed
+		tryToBuy(TEST_ISBN + 1, NUM_COPIES + 2); // 2 missed
+		tryToBuy(TEST_ISBN + 1, 1); // 1 sold
+		tryToBuy(TEST_ISBN + 2, NUM_COPIES + 3); // 3 missed
+		tryToBuy(TEST_ISBN + 3, NUM_COPIES + 2); // 2 missed
+		tryToBuy(TEST_ISBN + 4, 1); // 1 sold, never missed
+
+		List<StockBook> books = storeManager.getBooksByRecentMissRate(10, 60);
+		List<Integer> isbns = new ArrayList<Integer>();
+
+		for (StockBook book : books) {
+			isbns.add(book.getISBN());
+		}
+
+		assertEquals(Arrays.asList(TEST_ISBN + 2, TEST_ISBN + 3, TEST_ISBN + 1, TEST_ISBN), isbns);
+		assertEquals(3, books.get(0).getNumSaleMisses());
+
+		assertEquals(2, storeManager.getBooksByRecentMissRate(2, 1).size());
+		assertEquals(TEST_ISBN + 2, storeManager.getBooksByRecentMissRate(1, MAX_MINUTES).get(0).getISBN());
+		assertTrue(storeManager.getBooksByRecentMissRate(0, 60).isEmpty());
+
+		// Removed books are no longer ranked.
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 2);
+		storeManager.removeBooks(isbnsToRemove);
+		assertEquals(TEST_ISBN + 3, storeManager.getBooksByRecentMissRate(1, 60).get(0).getISBN());
+		assertEquals(3, storeManager.getBooksByRecentMissRate(Integer.MAX_VALUE, 60).size());
+	}
+
+	/**
+	 * Tests that the books in demand are those which missed sales, until their
+	 * copies are added or they are removed.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInDemand() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+
+		for (int i = 1; i <= 3; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Title " + i, "Author " + i, (float) 10, NUM_COPIES,
+					0, 0, 0, false));
+		}
+
+		storeManager.addBooks(booksToAdd);
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+
+		tryToBuy(TEST_ISBN, NUM_COPIES + 1); // 1 missed
+		tryToBuy(TEST_ISBN + 1, 1); // 1 sold, never missed
+		tryToBuy(TEST_ISBN + 2, NUM_COPIES + 3); // 3 missed
+		tryToBuy(TEST_ISBN + 2, NUM_COPIES + 1); // 1 more missed
+
+		Map<Integer, Long> saleMisses = new HashMap<Integer, Long>();
+
+		for (StockBook book : storeManager.getBooksInDemand()) {
+			assertNull(saleMisses.put(book.getISBN(), book.getNumSaleMisses()));
+		}
+
+		Map<Integer, Long> expected = new HashMap<Integer, Long>();
+		expected.put(TEST_ISBN, 1L);
+		expected.put(TEST_ISBN + 2, 4L);
+		assertEquals(expected, saleMisses);
+
+		// Adding copies satisfies the demand.
+		Set<BookCopy> booksToCopy = new HashSet<BookCopy>();
+		booksToCopy.add(new BookCopy(TEST_ISBN, 1));
+		storeManager.addCopies(booksToCopy);
+		List<StockBook> books = storeManager.getBooksInDemand();
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 2, books.get(0).getISBN());
+
+		// Removed books are no longer in demand.
+		Set<Integer> isbnsToRemove = new HashSet<Integer>();
+		isbnsToRemove.add(TEST_ISBN + 2);
+		storeManager.removeBooks(isbnsToRemove);
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+	}
+
+	/**
+	 * Tests that books added with sale misses are in demand from the start.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testAddBooksInDemand() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "Title 1", "Author 1", (float) 10, 5, 3, 0, 0, false));
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> books = storeManager.getBooksInDemand();
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN + 1, books.get(0).getISBN());
+		assertEquals(3, books.get(0).getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that the number of books and of minutes are validated.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksByRecentMissRateInvalidArguments() throws BookStoreException {
+		int[][] invalidArguments = { { -1, 60 }, { 10, 0 }, { 10, MAX_MINUTES + 1 } };
+
+		for (int[] arguments : invalidArguments) {
+			try {
+				storeManager.getBooksByRecentMissRate(arguments[0], arguments[1]);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		}
+	}
+
 	/**
 	 * Tear down after class.
 	 *
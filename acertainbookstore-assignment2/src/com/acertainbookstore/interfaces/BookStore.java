@@ -67,4 +67,69 @@ public interface BookStore {
 	 *             the book store exception
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException;
+
+	/**
+	 * Gets the books whose author starts with the prefix, ignoring case,
+	 * ordered by author.
+	 *
+	 * @param prefix
+	 *            the prefix of the author
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> getBooksByAuthorPrefix(String prefix, int numBooks) throws BookStoreException;
+
+	/**
+	 * Gets the books whose title starts with the prefix, ignoring case,
+	 * ordered by title.
+	 *
+	 * @param prefix
+	 *            the prefix of the title
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> getBooksByTitlePrefix(String prefix, int numBooks) throws BookStoreException;
+
+	/**
+	 * Searches the books whose title or author contains all or any of the
+	 * words of the query, ignoring case. Books containing all words are
+	 * returned in the order of their ISBNs. Books containing any word are
+	 * ranked by the number of words they contain, then by their ISBNs.
+	 *
+	 * @param query
+	 *            the query
+	 * @param matchAll
+	 *            true if the books must contain all words, false if any
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @return the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> searchBooks(String query, boolean matchAll, int numBooks) throws BookStoreException;
+
+	/**
+	 * Gets a page of the books priced between the minimum and the maximum
+	 * price, both inclusive, ordered by price, then by ISBN.
+	 *
+	 * @param minPrice
+	 *            the minimum price
+	 * @param maxPrice
+	 *            the maximum price
+	 * @param offset
+	 *            the number of books in the range before the page
+	 * @param numBooks
+	 *            the maximum number of books on the page
+	 * @return the books on the page
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<Book> getBooksByPriceRange(float minPrice, float maxPrice, int offset, int numBooks)
+			throws BookStoreException;
 }
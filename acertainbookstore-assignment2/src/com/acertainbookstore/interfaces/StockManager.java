@@ -64,6 +64,21 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooksInDemand() throws BookStoreException;
 
+	/**
+	 * Gets the books with the most sale misses in the last minutes, i.e. with
+	 * the highest recent miss rate. Books missed equally often are ranked by
+	 * their sales in the same minutes, fewest first.
+	 *
+	 * @param numBooks
+	 *            the maximum number of books
+	 * @param numMinutes
+	 *            the number of minutes, at most one day
+	 * @return the books, most missed first
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public List<StockBook> getBooksByRecentMissRate(int numBooks, int numMinutes) throws BookStoreException;
+
 	/**
 	 * Updates the books by mark/unmark them as editor pick.
 	 *
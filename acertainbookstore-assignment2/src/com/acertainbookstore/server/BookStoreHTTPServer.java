@@ -1,10 +1,14 @@
 package com.acertainbookstore.server;
 
-import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
-import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import java.nio.file.Paths;
+
+import com.acertainbookstore.business.BookStoreEngine;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
@@ -16,11 +20,6 @@ public class BookStoreHTTPServer {
 	private static final int DEFAULT_PORT = 8081;
 	private static final int MIN_THREADPOOL_SIZE = 10;
 	private static final int MAX_THREADPOOL_SIZE = 100;
-	
-	/** The constant, defining which locking scheme implementation to use
-	 *  true - single lock 
-	 *  false - two-level locking */
-	private static final boolean SINGLE_LOCK = true;
 
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
@@ -39,16 +38,27 @@ public class BookStoreHTTPServer {
 		int listenOnPort = DEFAULT_PORT;
 		
 		BookStoreHTTPMessageHandler handler = null;
-		
-		if (SINGLE_LOCK) {
-			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
-			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
-			 * since it implements both interfaces: BookStore and StockManager */
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		} else {
-			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
-			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
-		}		
+
+		// The locking scheme implementation is chosen with -Dengine, or with
+		// -Dsinglelock=false for the two-level locking implementation.
+		BookStoreEngine engine = BookStoreEngine.fromSystemProperties();
+
+		// With -Ddatadir the bookstore is durable and recovers its books from
+		// the log in the directory.
+		String dataDirectory = System.getProperty(BookStoreConstants.PROPERTY_KEY_DATA_DIR);
+		StockManager bookStore;
+
+		try {
+			bookStore = dataDirectory == null ? engine.newInstance()
+					: engine.newDurableInstance(Paths.get(dataDirectory));
+		} catch (BookStoreException ex) {
+			ex.printStackTrace();
+			return;
+		}
+
+		/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
+		 * since it implements both interfaces: BookStore and StockManager */
+		handler = new BookStoreHTTPMessageHandler((BookStore) bookStore, bookStore);
 		
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
@@ -19,6 +19,27 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant NUM_MINUTES_PARAM. */
+	public static final String NUM_MINUTES_PARAM = "number_of_minutes";
+
+	/** The Constant PREFIX_PARAM. */
+	public static final String PREFIX_PARAM = "prefix";
+
+	/** The Constant QUERY_PARAM. */
+	public static final String QUERY_PARAM = "query";
+
+	/** The Constant MATCH_ALL_PARAM. */
+	public static final String MATCH_ALL_PARAM = "match_all";
+
+	/** The Constant MIN_PRICE_PARAM. */
+	public static final String MIN_PRICE_PARAM = "min_price";
+
+	/** The Constant MAX_PRICE_PARAM. */
+	public static final String MAX_PRICE_PARAM = "max_price";
+
+	/** The Constant OFFSET_PARAM. */
+	public static final String OFFSET_PARAM = "offset";
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -60,9 +81,24 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/** The Constant PROPERTY_KEY_ENGINE. */
+	public static final String PROPERTY_KEY_ENGINE = "engine";
+
+	/** The Constant PROPERTY_KEY_FAIR_LOCK. */
+	public static final String PROPERTY_KEY_FAIR_LOCK = "fairlock";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
+	/** The Constant PROPERTY_KEY_DATA_DIR. */
+	public static final String PROPERTY_KEY_DATA_DIR = "datadir";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_LOG_SIZE. */
+	public static final String PROPERTY_KEY_CHECKPOINT_LOG_SIZE = "checkpointlogsize";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL. */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
 	/** The Constant EPSILON used for floating point number comparison */
 	public static final float EPSILON = 0.000001F;
 
@@ -0,0 +1,49 @@
+package com.acertainbookstore.utils;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * {@link BookStoreExceptionSerializer} serializes {@link BookStoreException}
+ * instances with Kryo. Only the message of an exception is sent, since the
+ * fields of {@link Throwable}, e.g. its stack trace, cannot be accessed by
+ * reflection on newer JVMs. The client throws the exception with its own
+ * stack trace.
+ *
+ * @see BookStoreException
+ */
+public final class BookStoreExceptionSerializer extends Serializer<BookStoreException> {
+
+	/**
+	 * Instantiates a new {@link BookStoreExceptionSerializer}.
+	 */
+	public BookStoreExceptionSerializer() {
+		setImmutable(true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.esotericsoftware.kryo.Serializer#write(com.esotericsoftware.kryo.Kryo,
+	 * com.esotericsoftware.kryo.io.Output, java.lang.Object)
+	 */
+	@Override
+	public void write(Kryo kryo, Output output, BookStoreException exception) {
+		output.writeString(exception.getMessage());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.esotericsoftware.kryo.Serializer#read(com.esotericsoftware.kryo.Kryo,
+	 * com.esotericsoftware.kryo.io.Input, java.lang.Class)
+	 */
+	@Override
+	public BookStoreException read(Kryo kryo, Input input, Class<BookStoreException> type) {
+		return new BookStoreException(input.readString());
+	}
+}
@@ -4,6 +4,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableBookSerializer;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.esotericsoftware.kryo.Kryo;
@@ -29,6 +31,8 @@ public final class BookStoreKryoSerializer implements BookStoreSerializer {
 		binaryStream = new Kryo();
 		binaryStream.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
 		binaryStream.register(ImmutableStockBook.class);
+		binaryStream.register(ImmutableBook.class, new ImmutableBookSerializer());
+		binaryStream.register(BookStoreException.class, new BookStoreExceptionSerializer());
 	}
 
 	/*
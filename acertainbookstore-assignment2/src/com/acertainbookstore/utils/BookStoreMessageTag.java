@@ -34,5 +34,29 @@ public enum BookStoreMessageTag {
 	REMOVEBOOKS,
 
 	/** The tag for the get stock books by ISBN message. */
-	GETSTOCKBOOKSBYISBN;
+	GETSTOCKBOOKSBYISBN,
+
+	/** The tag for the top rated books message. */
+	TOPRATEDBOOKS,
+
+	/** The tag for the rate books message. */
+	RATEBOOKS,
+
+	/** The tag for the books in demand message. */
+	GETBOOKSINDEMAND,
+
+	/** The tag for the books by recent miss rate message. */
+	GETBOOKSBYRECENTMISSRATE,
+
+	/** The tag for the books by author prefix message. */
+	GETBOOKSBYAUTHORPREFIX,
+
+	/** The tag for the books by title prefix message. */
+	GETBOOKSBYTITLEPREFIX,
+
+	/** The tag for the search books message. */
+	SEARCHBOOKS,
+
+	/** The tag for the books by price range message. */
+	GETBOOKSBYPRICERANGE;
 }
@@ -0,0 +1,92 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CatalogWriterTest} tests that a {@link CatalogWriter} applying
+ * several mutations, like the writer of a batch, publishes the editor picks of
+ * the last version of every book.
+ *
+ * @see CatalogWriter
+ * @see MultiVersionConcurrentCertainBookStore
+ */
+public class CatalogWriterTest {
+
+	/** The store the writers publish to. */
+	private final MultiVersionConcurrentCertainBookStore store = new MultiVersionConcurrentCertainBookStore();
+
+	private CatalogWriter newWriter() {
+		return new CatalogWriter(store.getCatalog(), store.getRecentDemand());
+	}
+
+	private static Set<StockBook> newBooks(int... isbns) {
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn : isbns) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, 5, 0, 0, 0, false));
+		}
+
+		return books;
+	}
+
+	private List<Integer> editorPicks() throws BookStoreException {
+		List<Integer> isbns = new ArrayList<>();
+
+		for (Book book : store.getEditorPicks(10)) {
+			isbns.add(book.getISBN());
+		}
+
+		Collections.sort(isbns);
+		return isbns;
+	}
+
+	/**
+	 * Tests that books marked and then changed again by the same writer stay
+	 * editor picks, and that books added and removed again do not become any.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testPublishLastVersions() throws BookStoreException {
+		CatalogWriter writer = newWriter();
+		writer.addBooks(newBooks(1, 2, 3));
+		store.publish(writer);
+
+		writer = newWriter();
+		writer.updateEditorPicks(new HashSet<>(Arrays.asList(new BookEditorPick(1, true), new BookEditorPick(2, true))));
+		writer.buyBooks(Collections.singleton(new BookCopy(1, 1)));
+		writer.rateBooks(Collections.singleton(new BookRating(2, 4)));
+		writer.addCopies(Collections.singleton(new BookCopy(1, 3)));
+		store.publish(writer);
+		assertEquals(Arrays.asList(1, 2), editorPicks());
+
+		writer = newWriter();
+		writer.updateEditorPicks(Collections.singleton(new BookEditorPick(2, false)));
+		writer.updateEditorPicks(Collections.singleton(new BookEditorPick(3, true)));
+		writer.removeBooks(Collections.singleton(3));
+		writer.addBooks(newBooks(4));
+		writer.updateEditorPicks(Collections.singleton(new BookEditorPick(4, true)));
+		writer.removeBooks(Collections.singleton(4));
+		store.publish(writer);
+		assertEquals(Arrays.asList(1), editorPicks());
+
+		writer = newWriter();
+		writer.removeAllBooks();
+		writer.addBooks(newBooks(1));
+		writer.updateEditorPicks(Collections.singleton(new BookEditorPick(1, true)));
+		store.publish(writer);
+		assertEquals(Arrays.asList(1), editorPicks());
+	}
+}
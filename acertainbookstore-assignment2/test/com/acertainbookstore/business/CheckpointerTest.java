@@ -0,0 +1,203 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link CheckpointerTest} tests that snapshots delete the segments of the log
+ * they cover, that the durable engines recover from a snapshot and the log
+ * written since, and that failed snapshots are retried less and less often.
+ *
+ * @see Checkpointer
+ */
+public class CheckpointerTest {
+
+	/** The maximum time to wait for a snapshot. */
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	/** The data directory. */
+	private Path directory;
+
+	/**
+	 * Creates the data directory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("bookstore");
+	}
+
+	/**
+	 * Deletes the data directory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	/**
+	 * Lists the segments of the log in a data directory.
+	 *
+	 * @param directory
+	 *            the data directory
+	 * @return the segment files, in order
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static List<Path> segments(Path directory) throws IOException {
+		List<Path> segments = new ArrayList<>();
+
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "bookstore-*.log")) {
+			for (Path path : paths) {
+				segments.add(path);
+			}
+		}
+
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Waits until a snapshot covers the whole log in a data directory, which is
+	 * then a single empty segment.
+	 *
+	 * @param directory
+	 *            the data directory
+	 * @param snapshotFileName
+	 *            the name of the snapshot file
+	 * @throws Exception
+	 *             the exception
+	 */
+	static void awaitSnapshot(Path directory, String snapshotFileName) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+		while (System.currentTimeMillis() < deadline) {
+			List<Path> segments = segments(directory);
+
+			if (Files.exists(directory.resolve(snapshotFileName)) && segments.size() == 1
+					&& Files.size(segments.get(0)) == 0) {
+				return;
+			}
+
+			Thread.sleep(10);
+		}
+
+		fail("No snapshot covers the log " + segments(directory));
+	}
+
+	/**
+	 * Tests that a snapshot deletes the segments it covers, and that the
+	 * engines recover from the snapshot and the log written since.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testSnapshotDeletesSegments() throws Exception {
+		for (BookStoreEngine engine : new BookStoreEngine[] { BookStoreEngine.SINGLE_LOCK,
+				BookStoreEngine.TWO_LEVEL_LOCKING }) {
+			deleteDirectory();
+			createDirectory();
+			StockManager stockManager;
+
+			// Snapshot as soon as the log grew at all.
+			System.setProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_LOG_SIZE, "1");
+
+			try {
+				stockManager = engine.newDurableInstance(directory);
+				WriteAheadLogTest.mutate(stockManager);
+				WriteAheadLogTest.rate(stockManager, 1, 4);
+				awaitSnapshot(directory, "bookstore.snapshot");
+			} finally {
+				System.clearProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_LOG_SIZE);
+			}
+
+			assertFalse(Files.exists(directory.resolve("bookstore-0000000000.log")));
+			List<String> expected = WriteAheadLogTest.describe(stockManager);
+
+			// The restarted store only reads the snapshot.
+			StockManager recovered = engine.newDurableInstance(directory);
+			assertEquals(engine.toString(), expected, WriteAheadLogTest.describe(recovered));
+
+			WriteAheadLogTest.rate(recovered, 2, 5);
+			Set<Integer> isbns = new HashSet<>();
+			isbns.add(3);
+			recovered.removeBooks(isbns);
+			expected = WriteAheadLogTest.describe(recovered);
+			assertTrue(Files.size(segments(directory).get(0)) > 0);
+
+			assertEquals(engine.toString(), expected,
+					WriteAheadLogTest.describe(engine.newDurableInstance(directory)));
+		}
+	}
+
+	/**
+	 * Tests that a failed snapshot is retried after a growing delay instead of
+	 * at every check.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRetryBackOff() throws Exception {
+		WriteAheadLog log = WriteAheadLog.open(directory, 0, null, null, null);
+		AtomicInteger numAttempts = new AtomicInteger();
+		AtomicBoolean failing = new AtomicBoolean(true);
+
+		System.setProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_LOG_SIZE, "1");
+
+		try {
+			Checkpointer.startSnapshots(log, () -> {
+				numAttempts.incrementAndGet();
+
+				if (failing.get()) {
+					throw new IOException("The disk is full");
+				}
+
+				return log.appendedPosition();
+			});
+
+			Set<StockBook> books = new HashSet<>();
+			books.add(new ImmutableStockBook(1, "Title", "Author", 10, 1, 0, 0, 0, false));
+			log.sync(log.logAddBooks(books));
+
+			// Without backing off, the snapshot would be retried every 100 ms.
+			Thread.sleep(TimeUnit.SECONDS.toMillis(2));
+			int numFailures = numAttempts.get();
+			failing.set(false);
+			assertTrue(numFailures + " attempts", numFailures >= 2 && numFailures <= 8);
+		} finally {
+			System.clearProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_LOG_SIZE);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * {@link DemandWindowTest} tests the {@link DemandWindow} and the ranking of
+ * books by their recent miss rate.
+ *
+ * @see DemandWindow
+ */
+public class DemandWindowTest {
+
+	/** The start of a minute, far from the epoch. */
+	private static final long START_MILLIS = 28000000L * DemandWindow.BUCKET_MILLIS;
+
+	/**
+	 * Gets the time a number of minutes after the start.
+	 *
+	 * @param numMinutes
+	 *            the number of minutes
+	 * @return the time
+	 */
+	private static long minutesLater(long numMinutes) {
+		return START_MILLIS + numMinutes * DemandWindow.BUCKET_MILLIS;
+	}
+
+	/**
+	 * Tests that sums count only the copies of the last minutes.
+	 */
+	@Test
+	public void testSumLastMinutes() {
+		DemandWindow window = new DemandWindow();
+		window.addSales(2, minutesLater(0));
+		window.addSales(3, minutesLater(5) + 59999);
+		window.addSaleMisses(4, minutesLater(5));
+
+		assertEquals(0, new DemandWindow().sumSaleMisses(DemandWindow.NUM_BUCKETS, minutesLater(5)));
+		assertEquals(3, window.sumSales(1, minutesLater(5)));
+		assertEquals(3, window.sumSales(5, minutesLater(5)));
+		assertEquals(5, window.sumSales(6, minutesLater(5)));
+		assertEquals(4, window.sumSaleMisses(DemandWindow.NUM_BUCKETS, minutesLater(5)));
+
+		// Minutes after the last update are empty.
+		assertEquals(0, window.sumSales(10, minutesLater(20)));
+		assertEquals(3, window.sumSales(20, minutesLater(20)));
+	}
+
+	/**
+	 * Tests that minutes older than 24 hours fall out of the window and are
+	 * cleared before their buckets are reused.
+	 */
+	@Test
+	public void testOldMinutesExpire() {
+		DemandWindow window = new DemandWindow();
+		window.addSaleMisses(4, minutesLater(0));
+
+		assertEquals(4, window.sumSaleMisses(DemandWindow.NUM_BUCKETS, minutesLater(DemandWindow.NUM_BUCKETS - 1)));
+		assertEquals(0, window.sumSaleMisses(DemandWindow.NUM_BUCKETS, minutesLater(DemandWindow.NUM_BUCKETS)));
+
+		// The update reuses the bucket of the first minute.
+		window.addSaleMisses(1, minutesLater(DemandWindow.NUM_BUCKETS));
+		assertEquals(1, window.sumSaleMisses(DemandWindow.NUM_BUCKETS, minutesLater(DemandWindow.NUM_BUCKETS)));
+
+		// An update days later clears the whole window.
+		window.addSales(1, minutesLater(10 * DemandWindow.NUM_BUCKETS));
+		assertEquals(0, window.sumSaleMisses(DemandWindow.NUM_BUCKETS, minutesLater(10 * DemandWindow.NUM_BUCKETS)));
+		assertEquals(1, window.sumSales(1, minutesLater(10 * DemandWindow.NUM_BUCKETS)));
+	}
+
+	/**
+	 * Tests that a clock going backwards counts in the last bucket.
+	 */
+	@Test
+	public void testClockGoingBackwards() {
+		DemandWindow window = new DemandWindow();
+		window.addSales(1, minutesLater(10));
+		window.addSales(2, minutesLater(3));
+
+		assertEquals(3, window.sumSales(1, minutesLater(10)));
+	}
+
+	/**
+	 * Tests that the counts of a minute saturate instead of overflowing.
+	 */
+	@Test
+	public void testCountsSaturate() {
+		DemandWindow window = new DemandWindow();
+		window.addSales(Short.MAX_VALUE, minutesLater(0));
+		window.addSales(10, minutesLater(0));
+		window.addSaleMisses(Integer.MAX_VALUE, minutesLater(1));
+		window.addSaleMisses(Integer.MAX_VALUE, minutesLater(1));
+
+		assertEquals(Short.MAX_VALUE, window.sumSales(1, minutesLater(0)));
+		assertEquals(Short.MAX_VALUE, window.sumSaleMisses(1, minutesLater(1)));
+	}
+
+	/**
+	 * Tests that a window read from a snapshot sums like the window written.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testSnapshotRoundTrip() throws IOException {
+		DemandWindow window = new DemandWindow();
+		window.addSales(7, minutesLater(0));
+		window.addSaleMisses(3, minutesLater(30));
+		window.addSales(Short.MAX_VALUE, minutesLater(60));
+
+		WriteAheadLog.Encoder out = new WriteAheadLog.Encoder((byte) 0);
+		window.writeTo(out);
+		new DemandWindow().writeTo(out);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		out.writeRecordTo(bytes);
+
+		byte[] payload = WriteAheadLog.readRecord(new ByteArrayInputStream(bytes.toByteArray()), bytes.size());
+		WriteAheadLog.Decoder in = new WriteAheadLog.Decoder(payload);
+		in.readByte();
+		DemandWindow read = DemandWindow.readFrom(in);
+		DemandWindow empty = DemandWindow.readFrom(in);
+
+		for (int numMinutes : new int[] { 1, 31, 61, DemandWindow.NUM_BUCKETS }) {
+			assertEquals(window.sumSales(numMinutes, minutesLater(60)), read.sumSales(numMinutes, minutesLater(60)));
+			assertEquals(window.sumSaleMisses(numMinutes, minutesLater(60)),
+					read.sumSaleMisses(numMinutes, minutesLater(60)));
+		}
+
+		assertEquals(0, empty.sumSales(DemandWindow.NUM_BUCKETS, minutesLater(60)));
+
+		// A window read without buckets allocates them on its first update.
+		empty.addSaleMisses(2, minutesLater(61));
+		assertEquals(2, empty.sumSaleMisses(1, minutesLater(61)));
+		assertEquals(0, empty.sumSales(DemandWindow.NUM_BUCKETS, minutesLater(61)));
+	}
+
+	/**
+	 * Tests that books are ranked most missed first, then fewest sold first,
+	 * then by ISBN, and that books without recent misses are left out.
+	 */
+	@Test
+	public void testRankByRecentMissRate() {
+		Map<Integer, DemandWindow> windows = new HashMap<>();
+
+		for (int isbn = 1; isbn <= 6; isbn++) {
+			windows.put(isbn, new DemandWindow());
+		}
+
+		windows.get(1).addSaleMisses(2, minutesLater(100));
+		windows.get(2).addSaleMisses(5, minutesLater(100));
+		windows.get(3).addSaleMisses(2, minutesLater(100));
+		windows.get(3).addSales(1, minutesLater(100));
+		windows.get(4).addSaleMisses(2, minutesLater(100));
+		windows.get(5).addSales(9, minutesLater(100)); // sold, never missed
+		windows.get(6).addSaleMisses(50, minutesLater(0)); // missed before the last hour
+
+		List<Integer> expired = new ArrayList<>();
+		int[] isbns = { 6, 5, 4, 3, 2, 1, 7 };
+
+		int[] ranked = DemandWindow.rankByRecentMissRate(isbns, windows::get, expired::add, 10, 60,
+				minutesLater(100));
+		assertArrayEquals(new int[] { 2, 1, 4, 3 }, ranked);
+
+		// Only the book without a window and the book without any misses in
+		// the last 24 hours expire.
+		assertEquals(2, expired.size());
+		assertTrue(expired.contains(5) && expired.contains(7));
+
+		ranked = DemandWindow.rankByRecentMissRate(isbns, windows::get, isbn -> {
+		}, 2, DemandWindow.NUM_BUCKETS, minutesLater(100));
+		assertArrayEquals(new int[] { 6, 2 }, ranked);
+
+		assertEquals(0, DemandWindow.rankByRecentMissRate(isbns, windows::get, isbn -> {
+		}, 0, 60, minutesLater(100)).length);
+
+		// A day later every miss has expired.
+		expired.clear();
+		ranked = DemandWindow.rankByRecentMissRate(isbns, windows::get, expired::add, 10, DemandWindow.NUM_BUCKETS,
+				minutesLater(100 + DemandWindow.NUM_BUCKETS));
+		assertEquals(0, ranked.length);
+		assertEquals(isbns.length, expired.size());
+	}
+}
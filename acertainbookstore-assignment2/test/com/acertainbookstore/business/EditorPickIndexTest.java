@@ -0,0 +1,158 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * {@link EditorPickIndexTest} tests the {@link EditorPickIndex}.
+ *
+ * @see EditorPickIndex
+ */
+public class EditorPickIndexTest {
+
+	/** The books of the bookstore, by ISBN. */
+	private final Map<Integer, BookStoreBook> bookMap = new HashMap<>();
+
+	/** The index of the editor picks of the bookstore. */
+	private final EditorPickIndex<BookStoreBook> index = new EditorPickIndex<>(BookStoreBook::getISBN,
+			book -> book.isEditorPick() && bookMap.get(book.getISBN()) == book);
+
+	/**
+	 * Creates a new book and puts it into the bookstore.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param editorPick
+	 *            whether the book is an editor pick
+	 * @return the book
+	 */
+	private BookStoreBook newBook(int isbn, boolean editorPick) {
+		BookStoreBook book = new BookStoreBook(
+				new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, 1, 0, 0, 0, editorPick));
+		bookMap.put(isbn, book);
+		return book;
+	}
+
+	private static Set<Integer> isbnsOf(List<? extends Book> books) {
+		Set<Integer> isbns = new HashSet<>();
+
+		for (Book book : books) {
+			isbns.add(book.getISBN());
+		}
+
+		assertEquals("The sample has duplicates", books.size(), isbns.size());
+		return isbns;
+	}
+
+	/**
+	 * Tests that updates add editor picks, remove the others and move the last
+	 * pick into the place of a removed one.
+	 */
+	@Test
+	public void testUpdate() {
+		List<BookStoreBook> books = new ArrayList<>();
+
+		for (int isbn = 1; isbn <= 40; isbn++) {
+			books.add(newBook(isbn, isbn % 2 == 0));
+		}
+
+		index.update(books);
+		assertEquals(20, index.size());
+		assertEquals(20, isbnsOf(index.sample(100)).size());
+
+		// Adding a pick again replaces it.
+		index.update(Arrays.asList(newBook(2, true)));
+		assertEquals(20, index.size());
+
+		index.update(Arrays.asList(newBook(2, false), newBook(3, false)));
+		index.removeAll(Arrays.asList(4, 5, 40, 42));
+		assertEquals(17, index.size());
+
+		Set<Integer> isbns = isbnsOf(index.sample(100));
+		Set<Integer> expected = new HashSet<>();
+
+		for (int isbn = 6; isbn < 40; isbn += 2) {
+			expected.add(isbn);
+		}
+
+		assertEquals(expected, isbns);
+
+		index.clear();
+		assertEquals(0, index.size());
+		assertTrue(index.sample(10).isEmpty());
+	}
+
+	/**
+	 * Tests that updates applied out of order, as by writers which do not
+	 * exclude each other, leave the current editor picks only.
+	 */
+	@Test
+	public void testUpdateOutOfOrder() {
+		BookStoreBook first = newBook(1, true);
+		BookStoreBook unmarked = newBook(2, true);
+		BookStoreBook removed = newBook(3, true);
+		index.update(Arrays.asList(first, unmarked, removed));
+
+		// The book is replaced and the update of the old one comes last.
+		BookStoreBook second = newBook(1, true);
+		index.update(Arrays.asList(second));
+		index.update(Arrays.asList(first));
+
+		// The book is unmarked and the update of an earlier change comes last.
+		unmarked.setEditorPick(false);
+		index.update(Arrays.asList(unmarked));
+		index.update(Arrays.asList(unmarked));
+
+		// The book is removed while another write marks it.
+		bookMap.remove(3);
+		index.update(Arrays.asList(removed));
+		index.update(Arrays.asList(removed));
+
+		List<BookStoreBook> picks = index.sample(10);
+		assertEquals(1, picks.size());
+		assertSame(second, picks.get(0));
+	}
+
+	/**
+	 * Tests that samples are distinct, of the requested size, and that every
+	 * pick is sampled about equally often.
+	 */
+	@Test
+	public void testSample() {
+		List<BookStoreBook> books = new ArrayList<>();
+
+		for (int isbn = 1; isbn <= 10; isbn++) {
+			books.add(newBook(isbn, true));
+		}
+
+		index.update(books);
+		assertTrue(index.sample(0).isEmpty());
+		assertEquals(10, index.sample(10).size());
+
+		int numSamples = 30000;
+		int[] counts = new int[11];
+
+		for (int i = 0; i < numSamples; i++) {
+			Set<Integer> isbns = isbnsOf(index.sample(3));
+			assertEquals(3, isbns.size());
+
+			for (int isbn : isbns) {
+				counts[isbn]++;
+			}
+		}
+
+		// Each pick is expected 9000 times, the standard deviation is about 80.
+		for (int isbn = 1; isbn <= 10; isbn++) {
+			assertEquals("ISBN " + isbn, numSamples * 3 / 10, counts[isbn], 600);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+import com.acertainbookstore.utils.BookStoreKryoSerializer;
+
+/**
+ * {@link ImmutableBookSerializerTest} tests the {@link ImmutableBookSerializer}
+ * and the encodings cached by shared book views.
+ *
+ * @see ImmutableBookSerializer
+ */
+public class ImmutableBookSerializerTest {
+
+	/**
+	 * Creates books whose titles and authors need more than the initial buffer
+	 * or more than one byte per character.
+	 *
+	 * @return the books
+	 */
+	private static List<BookStoreBook> newBooks() {
+		StringBuilder longTitle = new StringBuilder();
+
+		for (int i = 0; i < 100; i++) {
+			longTitle.append("Title ");
+		}
+
+		return Arrays.asList(new BookStoreBook(1, "Dune", "Frank Herbert", 9.5f, 1),
+				new BookStoreBook(Integer.MAX_VALUE, longTitle.toString(), "Author", 0, 1),
+				new BookStoreBook(3, "Les Mis\u00e9rables", "Victor Hugo \u2013 \u00c9d.", 12.25f, 1),
+				new BookStoreBook(4, "", "", Float.MAX_VALUE, 1));
+	}
+
+	private static ImmutableBook uncachedCopyOf(Book book) {
+		return new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice());
+	}
+
+	/**
+	 * Tests that a cached encoding is computed on the first write, and that
+	 * it equals the encoding of an uncached book.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCachedEncoding() throws IOException {
+		BookStoreSerializer serializer = new BookStoreKryoSerializer();
+
+		for (BookStoreBook book : newBooks()) {
+			ImmutableBook view = book.immutableBook();
+			assertSame(view, book.immutableBook());
+			assertNull(view.encoding);
+
+			byte[] bytes = serializer.serialize(view);
+			byte[] encoding = view.encoding;
+			assertNotNull(encoding);
+
+			// Later writes reuse the encoding.
+			assertArrayEquals(bytes, serializer.serialize(view));
+			assertSame(encoding, view.encoding);
+
+			ImmutableBook copy = uncachedCopyOf(book);
+			assertArrayEquals(bytes, serializer.serialize(copy));
+			assertNull(copy.encoding);
+		}
+	}
+
+	/**
+	 * Tests that lists of shared views, repeated and mixed with other books,
+	 * are read back as equal books.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		BookStoreSerializer serializer = new BookStoreKryoSerializer();
+		List<Book> books = new ArrayList<>();
+
+		for (BookStoreBook book : newBooks()) {
+			books.add(book.immutableBook());
+			books.add(uncachedCopyOf(book));
+			books.add(book.immutableBook());
+		}
+
+		for (int i = 0; i < 2; i++) {
+			@SuppressWarnings("unchecked")
+			List<Book> read = (List<Book>) serializer.deserialize(serializer.serialize(books));
+			assertEquals(books, read);
+
+			for (int j = 0; j < books.size(); j++) {
+				Book book = books.get(j);
+				Book readBook = read.get(j);
+				assertEquals(ImmutableBook.class, readBook.getClass());
+				assertEquals(book.getTitle(), readBook.getTitle());
+				assertEquals(book.getAuthor(), readBook.getAuthor());
+				assertEquals(book.getPrice(), readBook.getPrice(), 0.0f);
+				assertFalse(((ImmutableBook) readBook).cachesEncoding);
+			}
+		}
+	}
+}
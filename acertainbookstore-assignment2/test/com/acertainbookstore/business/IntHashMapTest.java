@@ -0,0 +1,187 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * {@link IntHashMapTest} tests the {@link IntHashMap}.
+ *
+ * @see IntHashMap
+ */
+public class IntHashMapTest {
+
+	/**
+	 * Tests that put, get and remove return the mapped values and keep the
+	 * size.
+	 */
+	@Test
+	public void testPutGetRemove() {
+		IntHashMap<String> map = new IntHashMap<>();
+
+		assertNull(map.put(7, "a"));
+		assertEquals("a", map.put(7, "b"));
+		assertNull(map.put(Integer.MAX_VALUE, "c"));
+		assertEquals(2, map.size());
+		assertEquals("b", map.get(7));
+		assertTrue(map.containsKey(Integer.MAX_VALUE));
+		assertNull(map.get(8));
+
+		assertEquals("b", map.remove(7));
+		assertNull(map.remove(7));
+		assertNull(map.get(7));
+		assertEquals(1, map.size());
+		assertArrayEquals(new int[] { Integer.MAX_VALUE }, map.keys());
+
+		map.clear();
+		assertEquals(0, map.size());
+		assertNull(map.get(Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Tests that keys which are not positive are rejected by put and never
+	 * found, and that null values are rejected.
+	 */
+	@Test
+	public void testNonPositiveKeys() {
+		IntHashMap<String> map = new IntHashMap<>();
+		map.put(1, "a");
+
+		for (int key : new int[] { 0, -1, Integer.MIN_VALUE }) {
+			try {
+				map.put(key, "b");
+				fail();
+			} catch (IllegalArgumentException ex) {
+				;
+			}
+
+			assertNull(map.get(key));
+			assertFalse(map.containsKey(key));
+			assertNull(map.remove(key));
+		}
+
+		try {
+			map.put(2, null);
+			fail();
+		} catch (NullPointerException ex) {
+			;
+		}
+
+		assertEquals(1, map.size());
+		assertEquals("a", map.get(1));
+	}
+
+	/**
+	 * Tests that removed keys leave tombstones which are found and reused
+	 * again, and that churning keys agrees with a {@link HashMap}.
+	 */
+	@Test
+	public void testTombstones() {
+		IntHashMap<Integer> map = new IntHashMap<>();
+		Map<Integer, Integer> expected = new HashMap<>();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(3000) + 1;
+
+			if (random.nextBoolean()) {
+				assertEquals(expected.put(key, i), map.put(key, i));
+			} else {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+
+			assertEquals(expected.size(), map.size());
+		}
+
+		for (int key = 1; key <= 3000; key++) {
+			assertEquals(expected.get(key), map.get(key));
+		}
+
+		int[] keys = map.keys();
+		Arrays.sort(keys);
+		assertArrayEquals(expected.keySet().stream().mapToInt(Integer::intValue).sorted().toArray(), keys);
+		assertEquals(expected.size(), map.values().size());
+	}
+
+	/**
+	 * Tests that the map grows from its initial capacity to many keys, and
+	 * shrinks back when removed keys are rehashed away.
+	 */
+	@Test
+	public void testResize() {
+		IntHashMap<Integer> map = new IntHashMap<>();
+
+		for (int key = 1; key <= 100000; key++) {
+			map.put(key, -key);
+		}
+
+		assertEquals(100000, map.size());
+
+		for (int key = 1; key <= 100000; key++) {
+			assertEquals(Integer.valueOf(-key), map.get(key));
+		}
+
+		for (int key = 1; key <= 99990; key++) {
+			map.remove(key);
+		}
+
+		// New keys fill the tombstones until a resize drops them.
+		for (int key = 200001; key <= 300000; key++) {
+			map.put(key, -key);
+		}
+
+		assertEquals(100010, map.size());
+		assertEquals(Integer.valueOf(-99995), map.get(99995));
+		assertNull(map.get(5));
+		assertEquals(Integer.valueOf(-300000), map.get(300000));
+	}
+
+	/**
+	 * Tests that a reader sees every stable key while the writer inserts,
+	 * removes and resizes.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testReadDuringResize() throws InterruptedException {
+		IntHashMap<Integer> map = new IntHashMap<>();
+
+		for (int key = 1; key <= 1000; key++) {
+			map.put(key, key);
+		}
+
+		AtomicReference<String> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			for (int round = 0; round < 20; round++) {
+				for (int key = 1001; key <= 20000; key++) {
+					map.put(key, key);
+				}
+
+				for (int key = 1001; key <= 20000; key++) {
+					map.remove(key);
+				}
+			}
+		});
+
+		writer.start();
+
+		while (writer.isAlive() && failure.get() == null) {
+			for (int key = 1; key <= 1000; key++) {
+				if (!Integer.valueOf(key).equals(map.get(key))) {
+					failure.set("Key " + key + " was not found");
+				}
+			}
+		}
+
+		writer.join();
+		assertNull(failure.get());
+		assertEquals(1000, map.size());
+	}
+}
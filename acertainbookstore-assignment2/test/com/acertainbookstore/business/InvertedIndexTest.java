@@ -0,0 +1,163 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * {@link InvertedIndexTest} tests the {@link InvertedIndex} and the scan used
+ * by stores without one.
+ *
+ * @see InvertedIndex
+ */
+public class InvertedIndexTest {
+
+	/**
+	 * Creates a new book with the given title and author.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 * @return the book
+	 */
+	private static BookStoreBook newBook(int isbn, String title, String author) {
+		return new BookStoreBook(new ImmutableStockBook(isbn, title, author, 10, 1, 0, 0, 0, false));
+	}
+
+	private static List<Integer> isbnsOf(List<? extends Book> books) {
+		List<Integer> isbns = new ArrayList<>();
+
+		for (Book book : books) {
+			isbns.add(book.getISBN());
+		}
+
+		return isbns;
+	}
+
+	private static List<Integer> scan(Iterable<BookStoreBook> books, String query, boolean matchAll, int numBooks) {
+		return isbnsOf(InvertedIndex.scan(books, BookStoreBook::getTitle, BookStoreBook::getAuthor,
+				BookStoreBook::getISBN, query, matchAll, numBooks));
+	}
+
+	/**
+	 * Tests that words are matched ignoring case and punctuation, that books
+	 * containing all words are ordered by ISBN and that books containing any
+	 * word are ranked by the number of words, then by ISBN.
+	 */
+	@Test
+	public void testSearch() {
+		List<BookStoreBook> books = Arrays.asList(newBook(4, "Dune", "Frank Herbert"),
+				newBook(2, "Children of Dune", "Frank Herbert"), newBook(3, "The Hobbit", "J.R.R. Tolkien"),
+				newBook(1, "Dune-Messiah", "HERBERT, Frank"), newBook(5, "\u00c9tude", "Ann \u00c9cole"));
+		InvertedIndex index = new InvertedIndex();
+
+		for (BookStoreBook book : books) {
+			index.add(book);
+		}
+
+		assertEquals(Arrays.asList(1, 2, 4), isbnsOf(index.search("frank DUNE", true, 10)));
+		assertEquals(Arrays.asList(1, 2), isbnsOf(index.search("frank DUNE", true, 2)));
+		assertEquals(Arrays.asList(2, 1, 3, 4), isbnsOf(index.search("children, dune; tolkien", false, 10)));
+		assertEquals(Arrays.asList(1), isbnsOf(index.search("messiah", true, 10)));
+		assertEquals(Arrays.asList(5), isbnsOf(index.search("\u00e9tude", true, 10)));
+		assertEquals(Arrays.asList(3), isbnsOf(index.search("r.r", true, 10)));
+		assertTrue(index.search("dune missing", true, 10).isEmpty());
+		assertEquals(Arrays.asList(1, 2, 4), isbnsOf(index.search("dune missing", false, 10)));
+		assertTrue(index.search(" -- ", false, 10).isEmpty());
+		assertTrue(index.search("dune", false, 0).isEmpty());
+
+		for (String query : new String[] { "frank DUNE", "children, dune; tolkien", "dune missing", "r.r", "" }) {
+			for (boolean matchAll : new boolean[] { true, false }) {
+				assertEquals(query, isbnsOf(index.search(query, matchAll, 10)), scan(books, query, matchAll, 10));
+			}
+		}
+
+		index.remove(books.get(1));
+		assertEquals(Arrays.asList(1, 4), isbnsOf(index.search("children dune", false, 10)));
+		assertTrue(index.search("children", false, 10).isEmpty());
+
+		index.clear();
+		assertTrue(index.search("dune", false, 10).isEmpty());
+	}
+
+	/**
+	 * Tests that postings with ISBNs far apart, whose deltas take up to 31
+	 * bits and span two words, are found in order and intersected.
+	 */
+	@Test
+	public void testSparseIsbns() {
+		Random random = new Random(7);
+		TreeSet<Integer> isbns = new TreeSet<>();
+		InvertedIndex index = new InvertedIndex();
+
+		while (isbns.size() < 2000) {
+			isbns.add(random.nextInt(Integer.MAX_VALUE) + 1);
+		}
+
+		isbns.add(1);
+		isbns.add(Integer.MAX_VALUE);
+		List<Integer> sevens = new ArrayList<>();
+
+		for (int isbn : isbns) {
+			index.add(newBook(isbn, "Word", isbn % 7 == 0 ? "Seven" : "Other"));
+
+			if (isbn % 7 == 0) {
+				sevens.add(isbn);
+			}
+		}
+
+		assertEquals(new ArrayList<>(isbns), isbnsOf(index.search("word", true, Integer.MAX_VALUE)));
+		assertEquals(sevens, isbnsOf(index.search("seven word", true, Integer.MAX_VALUE)));
+		assertEquals(sevens.subList(0, 3), isbnsOf(index.search("word seven", false, 3)));
+	}
+
+	/**
+	 * Tests that the index and the scan find the same books while many books
+	 * are added and removed, so that long postings are merged and skipped.
+	 */
+	@Test
+	public void testScanMatchesSearch() {
+		Random random = new Random(42);
+		String[] words = { "alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta" };
+		Map<Integer, BookStoreBook> books = new LinkedHashMap<>();
+		InvertedIndex index = new InvertedIndex();
+
+		for (int round = 0; round < 20000; round++) {
+			int isbn = random.nextInt(5000) + 1;
+			BookStoreBook book = books.remove(isbn);
+
+			if (book != null) {
+				index.remove(book);
+			} else {
+				// Rare words make short postings to leapfrog over long ones.
+				String title = words[random.nextInt(words.length)] + " " + words[random.nextInt(3)];
+				String author = random.nextInt(50) == 0 ? "Rare" : words[random.nextInt(words.length)];
+				book = newBook(isbn, title, author);
+				books.put(isbn, book);
+				index.add(book);
+			}
+
+			if (round % 1000 == 999) {
+				for (String query : new String[] { "alpha", "alpha beta", "rare alpha", "theta eta zeta", "none" }) {
+					for (int numBooks : new int[] { 1, 10, 10000 }) {
+						assertEquals(query, isbnsOf(index.search(query, true, numBooks)),
+								scan(books.values(), query, true, numBooks));
+						assertEquals(query, isbnsOf(index.search(query, false, numBooks)),
+								scan(books.values(), query, false, numBooks));
+					}
+				}
+			}
+		}
+	}
+}
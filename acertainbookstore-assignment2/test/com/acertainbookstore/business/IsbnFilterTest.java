@@ -0,0 +1,168 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * {@link IsbnFilterTest} tests the {@link IsbnFilter}.
+ *
+ * @see IsbnFilter
+ */
+public class IsbnFilterTest {
+
+	/**
+	 * Creates distinct random ISBNs.
+	 *
+	 * @param random
+	 *            the random number generator
+	 * @param numIsbns
+	 *            the number of ISBNs
+	 * @return the ISBNs
+	 */
+	private static List<Integer> randomIsbns(Random random, int numIsbns) {
+		Set<Integer> isbns = new HashSet<>();
+
+		while (isbns.size() < numIsbns) {
+			isbns.add(random.nextInt(Integer.MAX_VALUE) + 1);
+		}
+
+		List<Integer> list = new ArrayList<>(isbns);
+		Collections.shuffle(list, random);
+		return list;
+	}
+
+	/**
+	 * Tests that removing ISBNs never hides the others, also after counters
+	 * overflowed because the filter was not rebuilt.
+	 */
+	@Test
+	public void testNoFalseNegativesAfterRemove() {
+		Random random = new Random(42);
+
+		for (int numIsbns : new int[] { 1000, 50000 }) {
+			IsbnFilter filter = new IsbnFilter();
+			List<Integer> isbns = randomIsbns(random, numIsbns);
+
+			for (int isbn : isbns) {
+				filter.add(isbn);
+			}
+
+			assertEquals(numIsbns > 1000, filter.isFull());
+
+			// Remove all but a tenth of the ISBNs.
+			List<Integer> kept = isbns.subList(0, numIsbns / 10);
+
+			for (int isbn : isbns.subList(kept.size(), numIsbns)) {
+				filter.remove(isbn);
+			}
+
+			for (int isbn : kept) {
+				assertTrue(Integer.toString(isbn), filter.mightContain(isbn));
+			}
+		}
+	}
+
+	/**
+	 * Tests that a rebuilt filter lets through few unknown ISBNs and that the
+	 * rejections and false positives make up its rate.
+	 */
+	@Test
+	public void testFalsePositiveRate() {
+		Random random = new Random(42);
+		List<Integer> isbns = randomIsbns(random, 20000);
+		Set<Integer> known = new HashSet<>(isbns);
+		IsbnFilter filter = new IsbnFilter();
+		int[] array = new int[isbns.size()];
+
+		for (int i = 0; i < array.length; i++) {
+			array[i] = isbns.get(i);
+		}
+
+		filter.rebuild(array);
+		assertFalse(filter.isFull());
+		assertEquals(0.0, filter.falsePositiveRate(), 0.0);
+
+		for (int isbn : isbns) {
+			assertTrue(filter.mightContain(isbn));
+		}
+
+		int numLookups = 0;
+		int numFalsePositives = 0;
+
+		while (numLookups < 100000) {
+			int isbn = random.nextInt(Integer.MAX_VALUE) + 1;
+
+			if (known.contains(isbn)) {
+				continue;
+			}
+
+			numLookups++;
+
+			if (filter.mightContain(isbn)) {
+				filter.recordFalsePositive();
+				numFalsePositives++;
+			}
+		}
+
+		assertTrue(numFalsePositives + " false positives", numFalsePositives < numLookups / 50);
+		assertEquals((double) numFalsePositives / numLookups, filter.falsePositiveRate(), 1e-9);
+
+		filter.clear();
+		assertFalse(filter.mightContain(isbns.get(0)));
+	}
+
+	/**
+	 * Tests that concurrent adds and removes of some ISBNs never hide the
+	 * others.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testConcurrentRemoves() throws InterruptedException {
+		Random random = new Random(42);
+		List<Integer> isbns = randomIsbns(random, 4000);
+		IsbnFilter filter = new IsbnFilter();
+
+		for (int isbn : isbns) {
+			filter.add(isbn);
+		}
+
+		List<Thread> threads = new ArrayList<>();
+
+		for (int t = 0; t < 4; t++) {
+			List<Integer> churned = isbns.subList(1000 * t, 1000 * t + 1000);
+			threads.add(new Thread(() -> {
+				for (int round = 0; round < 50; round++) {
+					for (int isbn : churned) {
+						filter.remove(isbn);
+					}
+
+					for (int isbn : churned) {
+						filter.add(isbn);
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (int isbn : isbns) {
+			assertTrue(Integer.toString(isbn), filter.mightContain(isbn));
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link OffHeapImageTest} tests that the off-heap engine restarts from its
+ * {@link OffHeapImage}, and keeps serving from a mapped image while a new one
+ * is renamed over it. It also tests that an image holds the buffers as they
+ * were when its copy started, whatever writers change meanwhile.
+ *
+ * @see OffHeapImage
+ */
+public class OffHeapImageTest {
+
+	/** The name of the image file. */
+	private static final String IMAGE_FILE_NAME = "bookstore.image";
+
+	/** The data directory. */
+	private Path directory;
+
+	/**
+	 * Creates the data directory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("bookstore");
+	}
+
+	/**
+	 * Deletes the data directory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	private Object imageFileKey() throws IOException {
+		return Files.readAttributes(directory.resolve(IMAGE_FILE_NAME), BasicFileAttributes.class).fileKey();
+	}
+
+	/**
+	 * Tests that a store mapping an image changes its private copy of the
+	 * pages, keeps reading them after its own image replaced the mapped file,
+	 * and that the new image is mapped on the next restart.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testRemapOverLiveMapping() throws Exception {
+		StockManager stockManager;
+		StockManager mapped;
+		Object firstImage;
+		List<String> expected;
+
+		// Snapshot as soon as the log grew at all.
+		System.setProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_LOG_SIZE, "1");
+
+		try {
+			stockManager = BookStoreEngine.OFF_HEAP.newDurableInstance(directory);
+			WriteAheadLogTest.mutate(stockManager);
+			WriteAheadLogTest.rate(stockManager, 1, 4);
+			CheckpointerTest.awaitSnapshot(directory, IMAGE_FILE_NAME);
+			firstImage = imageFileKey();
+			expected = WriteAheadLogTest.describe(stockManager);
+
+			mapped = BookStoreEngine.OFF_HEAP.newDurableInstance(directory);
+			assertEquals(expected, WriteAheadLogTest.describe(mapped));
+
+			// Write to the mapped pages, which leaves the image unchanged.
+			WriteAheadLogTest.rate(mapped, 2, 5);
+			Set<Integer> isbns = new HashSet<>();
+			isbns.add(1);
+			mapped.removeBooks(isbns);
+			Set<StockBook> books = new HashSet<>();
+			books.add(new ImmutableStockBook(8, "Title 8", "Author 8", 8, 2, 0, 0, 0, false));
+			mapped.addBooks(books);
+			CheckpointerTest.awaitSnapshot(directory, IMAGE_FILE_NAME);
+		} finally {
+			System.clearProperty(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_LOG_SIZE);
+		}
+
+		assertNotEquals(firstImage, imageFileKey());
+		assertEquals(expected, WriteAheadLogTest.describe(stockManager));
+
+		// The store keeps reading the pages of the replaced image.
+		List<String> changed = WriteAheadLogTest.describe(mapped);
+		assertNotEquals(expected, changed);
+		WriteAheadLogTest.rate(mapped, 8, 3);
+		changed = WriteAheadLogTest.describe(mapped);
+
+		// The store still snapshots as soon as its log grew.
+		CheckpointerTest.awaitSnapshot(directory, IMAGE_FILE_NAME);
+
+		assertEquals(changed, WriteAheadLogTest.describe(BookStoreEngine.OFF_HEAP.newDurableInstance(directory)));
+	}
+
+	/**
+	 * Tests that records changed during a copy, before or after the
+	 * checkpointer copied them, and strings appended after a clear of the
+	 * arena leave the image as it was when the copy started.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCopyPreservesChangedRecords() throws Exception {
+		// A record holds an ISBN and a value, three chunks hold them all.
+		int recordSize = 8;
+		int numBooks = 20000;
+		ByteBuffer records = ByteBuffer.allocateDirect(numBooks * recordSize).order(ByteOrder.nativeOrder());
+		OffHeapIntIndex index = new OffHeapIntIndex();
+		OffHeapStringArena arena = new OffHeapStringArena();
+		long title = arena.add("Title");
+
+		for (int record = 0; record < numBooks; record++) {
+			records.putInt(record * recordSize, record + 1);
+			records.putInt(record * recordSize + 4, record);
+			index.put(record + 1, record);
+		}
+
+		OffHeapImage.Copy copy = OffHeapImage.open(directory, recordSize).copy(1, records, numBooks, recordSize,
+				index, arena);
+		assertTrue(copy.copyNextChunk());
+
+		for (int record : new int[] { 0, 10000, numBooks - 1 }) {
+			copy.preserve(records, record * recordSize, recordSize);
+			records.putInt(record * recordSize + 4, -1);
+		}
+
+		arena.clear();
+		arena.add("Other");
+
+		while (copy.copyNextChunk()) {
+			// Copy the chunks no writer preserved.
+		}
+
+		copy.save();
+
+		OffHeapImage image = OffHeapImage.open(directory, recordSize);
+		ByteBuffer copiedRecords = image.getRecords();
+		assertEquals(numBooks, image.getNumBooks());
+		assertEquals(numBooks, image.getIndex().size());
+		assertEquals("Title", image.getArena().get(title));
+
+		for (int record = 0; record < numBooks; record++) {
+			assertEquals(record, copiedRecords.getInt(record * recordSize + 4));
+			assertEquals(record, image.getIndex().get(record + 1));
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link PrefixIndexTest} tests the {@link PrefixIndex} and the scan used by
+ * stores without one.
+ *
+ * @see PrefixIndex
+ */
+public class PrefixIndexTest {
+
+	/**
+	 * Creates a new book with the given author.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param author
+	 *            the author
+	 * @return the book
+	 */
+	private static BookStoreBook newBook(int isbn, String author) {
+		return new BookStoreBook(new ImmutableStockBook(isbn, "Title " + isbn, author, 10, 1, 0, 0, 0, false));
+	}
+
+	private static List<Integer> isbnsOf(List<? extends Book> books) {
+		List<Integer> isbns = new ArrayList<>();
+
+		for (Book book : books) {
+			isbns.add(book.getISBN());
+		}
+
+		return isbns;
+	}
+
+	private static PrefixIndex indexOf(List<BookStoreBook> books) {
+		PrefixIndex index = new PrefixIndex();
+
+		for (BookStoreBook book : books) {
+			index.add(book.getAuthor(), book);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Tests that matching ignores case and that books are ordered by their
+	 * attribute, then by ISBN.
+	 */
+	@Test
+	public void testSearch() {
+		List<BookStoreBook> books = Arrays.asList(newBook(3, "Ann"), newBook(1, "anna"), newBook(2, "ANN"),
+				newBook(4, "Bob"), newBook(5, "an"));
+		PrefixIndex index = indexOf(books);
+
+		assertEquals(Arrays.asList(5, 2, 3, 1), isbnsOf(index.search("AN", 10)));
+		assertEquals(Arrays.asList(2, 3, 1), isbnsOf(index.search("ann", 10)));
+		assertEquals(Arrays.asList(2, 3), isbnsOf(index.search("ann", 2)));
+		assertEquals(Arrays.asList(5, 2, 3, 1, 4), isbnsOf(index.search("", 10)));
+		assertTrue(index.search("annab", 10).isEmpty());
+		assertTrue(index.search("c", 10).isEmpty());
+		assertTrue(index.search("a", 0).isEmpty());
+
+		index.remove("Ann", 3);
+		assertEquals(Arrays.asList(2, 1), isbnsOf(index.search("ann", 10)));
+
+		index.clear();
+		assertTrue(index.search("", 10).isEmpty());
+	}
+
+	/**
+	 * Tests that the scan returns the same books as the index.
+	 */
+	@Test
+	public void testScanMatchesSearch() {
+		Random random = new Random(42);
+		List<BookStoreBook> books = new ArrayList<>();
+		String[] names = { "Ada", "ada", "Adam", "Al", "Bea", "bert", "\u00d6", "\u00f6l", "" };
+
+		for (int isbn = 1; isbn <= 500; isbn++) {
+			String author = names[random.nextInt(names.length)] + " " + names[random.nextInt(names.length)];
+			books.add(newBook(random.nextInt(1000) * 1000 + isbn, author));
+		}
+
+		PrefixIndex index = indexOf(books);
+
+		for (String prefix : new String[] { "", "a", "AD", "ada ", "\u00d6", "bert b", "x" }) {
+			for (int numBooks : new int[] { 0, 1, 7, 1000 }) {
+				List<Integer> scanned = new ArrayList<>();
+
+				for (BookStoreBook book : PrefixIndex.scan(books, BookStoreBook::getAuthor, BookStoreBook::getISBN,
+						prefix, numBooks)) {
+					scanned.add(book.getISBN());
+				}
+
+				assertEquals(prefix + " " + numBooks, isbnsOf(index.search(prefix, numBooks)), scanned);
+			}
+		}
+	}
+}
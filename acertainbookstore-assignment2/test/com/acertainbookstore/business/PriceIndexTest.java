@@ -0,0 +1,116 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * {@link PriceIndexTest} tests the {@link PriceIndex} and the scan used by
+ * stores without one.
+ *
+ * @see PriceIndex
+ */
+public class PriceIndexTest {
+
+	/**
+	 * Creates a new book with the given price.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param price
+	 *            the price
+	 * @return the book
+	 */
+	private static BookStoreBook newBook(int isbn, float price) {
+		return new BookStoreBook(new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, price, 1, 0, 0, 0,
+				false));
+	}
+
+	private static List<Integer> isbnsOf(List<? extends Book> books) {
+		List<Integer> isbns = new ArrayList<>();
+
+		for (Book book : books) {
+			isbns.add(book.getISBN());
+		}
+
+		return isbns;
+	}
+
+	private static PriceIndex indexOf(List<BookStoreBook> books) {
+		PriceIndex index = new PriceIndex();
+
+		for (BookStoreBook book : books) {
+			index.add(book);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Tests that both bounds are inclusive, that books are ordered by price
+	 * and then by ISBN, and that pages are cut by the offset and the number of
+	 * books.
+	 */
+	@Test
+	public void testRange() {
+		List<BookStoreBook> books = Arrays.asList(newBook(5, 10), newBook(3, 10), newBook(4, 0), newBook(1, -0.0f),
+				newBook(2, 20.5f), newBook(6, Float.MAX_VALUE));
+		PriceIndex index = indexOf(books);
+
+		assertEquals(Arrays.asList(3, 5, 2), isbnsOf(index.range(10, 20.5f, 0, 10)));
+		assertEquals(Arrays.asList(1, 4, 3, 5, 2, 6), isbnsOf(index.range(Float.NEGATIVE_INFINITY,
+				Float.POSITIVE_INFINITY, 0, Integer.MAX_VALUE)));
+		assertEquals(Arrays.asList(1, 4), isbnsOf(index.range(-5, 0, 0, 10)));
+		assertEquals(Arrays.asList(5, 2), isbnsOf(index.range(10, 100, 1, 2)));
+		assertEquals(Arrays.asList(3, 5), isbnsOf(index.range(10, 10, 0, 10)));
+		assertTrue(index.range(10, 100, 5, 10).isEmpty());
+		assertTrue(index.range(10, 100, Integer.MAX_VALUE, Integer.MAX_VALUE).isEmpty());
+		assertTrue(index.range(10, 100, 0, 0).isEmpty());
+		assertTrue(index.range(20, 10, 0, 10).isEmpty());
+		assertTrue(index.range(-10, -1, 0, 10).isEmpty());
+
+		index.remove(books.get(1));
+		assertEquals(Arrays.asList(5), isbnsOf(index.range(10, 10, 0, 10)));
+
+		index.clear();
+		assertTrue(index.range(0, Float.POSITIVE_INFINITY, 0, 10).isEmpty());
+	}
+
+	/**
+	 * Tests that the scan returns the same pages as the index.
+	 */
+	@Test
+	public void testScanMatchesRange() {
+		Random random = new Random(42);
+		List<BookStoreBook> books = new ArrayList<>();
+
+		for (int isbn = 1; isbn <= 500; isbn++) {
+			books.add(newBook(random.nextInt(1000) * 1000 + isbn, random.nextInt(40) / 4.0f));
+		}
+
+		PriceIndex index = indexOf(books);
+		float[][] ranges = { { 0, 10 }, { 2.5f, 2.5f }, { -1, 3 }, { 9.75f, 100 }, { 5, 4 }, { -2, -1 },
+				{ Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY } };
+
+		for (float[] range : ranges) {
+			for (int offset : new int[] { 0, 1, 13, 499, 1000, Integer.MAX_VALUE }) {
+				for (int numBooks : new int[] { 0, 1, 7, 1000, Integer.MAX_VALUE }) {
+					List<Integer> scanned = new ArrayList<>();
+
+					for (BookStoreBook book : PriceIndex.scan(books, BookStoreBook::getPrice, BookStoreBook::getISBN,
+							range[0], range[1], offset, numBooks)) {
+						scanned.add(book.getISBN());
+					}
+
+					assertEquals(Arrays.toString(range) + " " + offset + " " + numBooks,
+							isbnsOf(index.range(range[0], range[1], offset, numBooks)), scanned);
+				}
+			}
+		}
+	}
+}
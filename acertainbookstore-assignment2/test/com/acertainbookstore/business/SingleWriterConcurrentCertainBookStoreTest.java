@@ -0,0 +1,81 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link SingleWriterConcurrentCertainBookStoreTest} tests stopping the writer
+ * thread of a {@link SingleWriterConcurrentCertainBookStore}.
+ *
+ * @see SingleWriterConcurrentCertainBookStore
+ */
+public class SingleWriterConcurrentCertainBookStoreTest {
+
+	/** The number of threads submitting commands. */
+	private static final int NUM_SUBMITTERS = 4;
+
+	/**
+	 * Tests that every command submitted while the store is stopped is either
+	 * applied or fails, and that no caller stays blocked on the full queue.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 * @throws TimeoutException
+	 *             if a command is never completed
+	 */
+	@Test
+	public void testStopWhileSubmitting() throws InterruptedException, TimeoutException {
+		for (int round = 0; round < 20; round++) {
+			// A queue of one command keeps the submitters blocked in the queue.
+			SingleWriterConcurrentCertainBookStore store = new SingleWriterConcurrentCertainBookStore(1);
+			List<List<CompletableFuture<Void>>> futures = new ArrayList<>();
+			List<Thread> submitters = new ArrayList<>();
+
+			for (int t = 0; t < NUM_SUBMITTERS; t++) {
+				List<CompletableFuture<Void>> submitted = new ArrayList<>();
+				futures.add(submitted);
+				submitters.add(new Thread(() -> {
+					CompletableFuture<Void> future;
+
+					do {
+						future = store.removeBooksAsync(Collections.emptySet());
+						submitted.add(future);
+					} while (!future.isCompletedExceptionally());
+				}));
+			}
+
+			for (Thread submitter : submitters) {
+				submitter.start();
+			}
+
+			Thread.sleep(10);
+			store.stop();
+
+			for (Thread submitter : submitters) {
+				submitter.join(TimeUnit.SECONDS.toMillis(10));
+				assertFalse("A submitter is blocked on the queue", submitter.isAlive());
+			}
+
+			for (List<CompletableFuture<Void>> submitted : futures) {
+				for (CompletableFuture<Void> future : submitted) {
+					try {
+						future.get(10, TimeUnit.SECONDS);
+					} catch (ExecutionException ex) {
+						assertTrue(ex.getCause() instanceof BookStoreException);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@link StringPoolTest} tests the {@link StringPool}.
+ *
+ * @see StringPool
+ */
+public class StringPoolTest {
+
+	/** The maximum number of garbage collections to wait for. */
+	private static final int MAX_COLLECTIONS = 100;
+
+	/**
+	 * Collects garbage until the pool holds the given number of strings.
+	 *
+	 * @param pool
+	 *            the pool
+	 * @param size
+	 *            the size
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	private static void collectUntil(StringPool pool, int size) throws InterruptedException {
+		for (int i = 0; i < MAX_COLLECTIONS && pool.size() != size; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+
+		assertEquals(size, pool.size());
+	}
+
+	/**
+	 * Interns new titles and keeps every tenth of them. No other titles stay
+	 * referred to once this method returned.
+	 *
+	 * @param pool
+	 *            the pool
+	 * @param numTitles
+	 *            the number of titles
+	 * @return the kept titles
+	 */
+	private static List<String> internTitles(StringPool pool, int numTitles) {
+		List<String> kept = new ArrayList<>();
+
+		for (int i = 0; i < numTitles; i++) {
+			String title = pool.intern(new String("Title " + i));
+
+			if (i % 10 == 0) {
+				kept.add(title);
+			}
+		}
+
+		return kept;
+	}
+
+	/**
+	 * Tests that equal strings are interned to the first one and counted as
+	 * deduplicated.
+	 */
+	@Test
+	public void testIntern() {
+		StringPool pool = new StringPool();
+		String first = new String("Frank Herbert");
+
+		assertNull(pool.intern(null));
+		assertSame(first, pool.intern(first));
+		assertSame(first, pool.intern(first));
+		assertEquals(0, pool.numDeduplicated());
+
+		assertSame(first, pool.intern(new String("Frank Herbert")));
+		assertSame(first, pool.intern(new String("Frank Herbert")));
+		assertEquals(2, pool.numDeduplicated());
+		assertEquals(2 * (40 + first.length()), pool.bytesSaved());
+
+		assertEquals("Dune", pool.intern(new String("Dune")));
+		assertEquals(2, pool.size());
+	}
+
+	/**
+	 * Tests that strings no longer referred to are evicted, and that strings
+	 * still referred to are kept.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testWeakEviction() throws InterruptedException {
+		StringPool pool = new StringPool();
+		List<String> kept = internTitles(pool, 1000);
+		collectUntil(pool, kept.size());
+
+		for (String string : kept) {
+			assertSame(string, pool.intern(new String(string)));
+		}
+
+		// An evicted string is pooled again as a new instance.
+		String evicted = new String("Title 1");
+		assertSame(evicted, pool.intern(evicted));
+		assertEquals(kept.size() + 1, pool.size());
+
+		kept.clear();
+		evicted = null;
+		collectUntil(pool, 0);
+	}
+}
@@ -0,0 +1,163 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+/**
+ * {@link TopRatedIndexTest} tests the {@link TopRatedIndex}.
+ *
+ * @see TopRatedIndex
+ */
+public class TopRatedIndexTest {
+
+	/** The books of the bookstore, by ISBN. */
+	private final Map<Integer, BookStoreBook> bookMap = new HashMap<>();
+
+	/** The index of the books of the bookstore. */
+	private final TopRatedIndex<BookStoreBook> index = new TopRatedIndex<>(BookStoreBook::getISBN,
+			BookStoreBook::getAverageRating, book -> bookMap.get(book.getISBN()) == book);
+
+	/**
+	 * Creates a new book with the given ratings and puts it into the
+	 * bookstore.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param ratings
+	 *            the ratings
+	 * @return the book
+	 */
+	private BookStoreBook newBook(int isbn, int... ratings) {
+		BookStoreBook book = new BookStoreBook(
+				new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn, 10, 1, 0, 0, 0, false));
+
+		for (int rating : ratings) {
+			book.addRating(rating);
+		}
+
+		bookMap.put(isbn, book);
+		return book;
+	}
+
+	private static List<Integer> isbnsOf(List<? extends Book> books) {
+		List<Integer> isbns = new ArrayList<>();
+
+		for (Book book : books) {
+			isbns.add(book.getISBN());
+		}
+
+		return isbns;
+	}
+
+	/**
+	 * Tests that books are ordered by descending average rating, equally
+	 * rated books by ISBN, unrated books last, and that rated books move.
+	 */
+	@Test
+	public void testTop() {
+		List<BookStoreBook> books = Arrays.asList(newBook(4, 2, 4), newBook(2, 3), newBook(3), newBook(1, 5, 1),
+				newBook(5, 5));
+
+		for (BookStoreBook book : books) {
+			index.update(book);
+		}
+
+		assertEquals(Arrays.asList(5, 1, 2, 4, 3), isbnsOf(index.top(10)));
+		assertEquals(Arrays.asList(5, 1), isbnsOf(index.top(2)));
+		assertEquals(5, index.top(Integer.MAX_VALUE).size());
+		assertTrue(index.top(0).isEmpty());
+
+		// The unrated book overtakes all others.
+		books.get(2).addRating(5);
+		index.update(books.get(2));
+		assertEquals(Arrays.asList(3, 5, 1, 2, 4), isbnsOf(index.top(10)));
+
+		// Updating a book without a new rating keeps its position.
+		index.update(books.get(2));
+		assertEquals(Arrays.asList(3, 5, 1, 2, 4), isbnsOf(index.top(10)));
+
+		index.remove(5);
+		index.remove(42);
+		assertEquals(Arrays.asList(3, 1, 2, 4), isbnsOf(index.top(10)));
+
+		index.clear();
+		assertTrue(index.top(10).isEmpty());
+	}
+
+	/**
+	 * Tests that updates applied out of order, as by writers which do not
+	 * exclude each other, leave the books of the bookstore only, at their
+	 * current ratings.
+	 */
+	@Test
+	public void testUpdateOutOfOrder() {
+		BookStoreBook first = newBook(1, 1);
+		BookStoreBook rated = newBook(2, 2);
+		BookStoreBook removed = newBook(3, 3);
+		index.update(first);
+		index.update(rated);
+		index.update(removed);
+
+		// The book is replaced and the update of the old one comes last.
+		BookStoreBook second = newBook(1, 5);
+		index.update(second);
+		index.update(first);
+
+		// The book is rated twice and the update of the first rating comes
+		// last, it reads the latest rating anyway.
+		rated.addRating(4);
+		rated.addRating(5);
+		index.update(rated);
+		index.update(rated);
+
+		// The book is removed while another write rates it.
+		bookMap.remove(3);
+		index.update(removed);
+		removed.addRating(5);
+		index.update(removed);
+
+		assertEquals(Arrays.asList(1, 2), isbnsOf(index.top(10)));
+		assertSame(second, index.top(1).get(0));
+	}
+
+	/**
+	 * Tests that the index returns the same books as sorting all of them.
+	 */
+	@Test
+	public void testTopMatchesSort() {
+		Random random = new Random(42);
+		List<BookStoreBook> books = new ArrayList<>();
+
+		for (int isbn = 1; isbn <= 500; isbn++) {
+			int[] ratings = new int[random.nextInt(3)];
+
+			for (int i = 0; i < ratings.length; i++) {
+				ratings[i] = random.nextInt(6);
+			}
+
+			BookStoreBook book = newBook(random.nextInt(1000) * 1000 + isbn, ratings);
+			books.add(book);
+			index.update(book);
+		}
+
+		List<BookStoreBook> sorted = books.stream()
+				.sorted(Comparator.comparing(BookStoreBook::getAverageRating).reversed()
+						.thenComparingInt(BookStoreBook::getISBN))
+				.collect(Collectors.toList());
+
+		for (int numBooks : new int[] { 0, 1, 7, 499, 500, Integer.MAX_VALUE }) {
+			assertEquals(Integer.toString(numBooks), isbnsOf(sorted.subList(0, Math.min(numBooks, sorted.size()))),
+					isbnsOf(index.top(numBooks)));
+		}
+	}
+}
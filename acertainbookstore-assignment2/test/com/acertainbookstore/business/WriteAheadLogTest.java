@@ -0,0 +1,290 @@
+package com.acertainbookstore.business;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WriteAheadLogTest} tests that the durable engines recover their books
+ * from the {@link WriteAheadLog}, and cut off a torn or corrupt record at its
+ * end.
+ *
+ * @see WriteAheadLog
+ */
+public class WriteAheadLogTest {
+
+	/** The durable engines. */
+	private static final BookStoreEngine[] DURABLE_ENGINES = { BookStoreEngine.SINGLE_LOCK,
+			BookStoreEngine.TWO_LEVEL_LOCKING, BookStoreEngine.OFF_HEAP };
+
+	/** The data directory. */
+	private Path directory;
+
+	/**
+	 * Creates the data directory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("bookstore");
+	}
+
+	/**
+	 * Deletes the data directory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	/**
+	 * Describes the books of a bookstore with all their counters, the books in
+	 * demand and the editor picks.
+	 *
+	 * @param stockManager
+	 *            the bookstore
+	 * @return the description
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	static List<String> describe(StockManager stockManager) throws BookStoreException {
+		List<String> description = new ArrayList<>();
+
+		for (StockBook book : stockManager.getBooks()) {
+			description.add(String.format("%d %s %s %s %d %d %d %d %b", book.getISBN(), book.getTitle(),
+					book.getAuthor(), book.getPrice(), book.getNumCopies(), book.getNumSaleMisses(),
+					book.getNumTimesRated(), book.getTotalRating(), book.isEditorPick()));
+		}
+
+		for (StockBook book : stockManager.getBooksInDemand()) {
+			description.add("In demand " + book.getISBN());
+		}
+
+		for (Book book : ((BookStore) stockManager).getEditorPicks(Integer.MAX_VALUE)) {
+			description.add("Editor pick " + book.getISBN());
+		}
+
+		int rank = 0;
+
+		for (Book book : ((BookStore) stockManager).getTopRatedBooks(Integer.MAX_VALUE)) {
+			description.add("Top rated " + rank++ + " " + book.getISBN());
+		}
+
+		Collections.sort(description);
+		return description;
+	}
+
+	private static void tryToBuy(StockManager stockManager, int isbn, int numCopies) {
+		Set<BookCopy> booksToBuy = new HashSet<>();
+		booksToBuy.add(new BookCopy(isbn, numCopies));
+
+		try {
+			((BookStore) stockManager).buyBooks(booksToBuy);
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Applies every kind of mutation to a bookstore.
+	 *
+	 * @param stockManager
+	 *            the bookstore
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	static void mutate(StockManager stockManager) throws BookStoreException {
+		Set<StockBook> books = new HashSet<>();
+
+		for (int isbn = 1; isbn <= 5; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author \u00e9 " + isbn, isbn * 1.5f, 3, 0, 0, 0,
+					false));
+		}
+
+		stockManager.addBooks(books);
+
+		Set<BookCopy> copies = new HashSet<>();
+		copies.add(new BookCopy(1, 2));
+		stockManager.addCopies(copies);
+
+		tryToBuy(stockManager, 1, 4); // 4 sold
+		tryToBuy(stockManager, 2, 5); // 2 missed
+		tryToBuy(stockManager, 3, 1); // 1 sold
+
+		Set<BookEditorPick> editorPicks = new HashSet<>();
+		editorPicks.add(new BookEditorPick(3, true));
+		editorPicks.add(new BookEditorPick(4, true));
+		stockManager.updateEditorPicks(editorPicks);
+
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(5);
+		stockManager.removeBooks(isbns);
+	}
+
+	/**
+	 * Rates a book.
+	 *
+	 * @param stockManager
+	 *            the bookstore
+	 * @param isbn
+	 *            the ISBN
+	 * @param rating
+	 *            the rating
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	static void rate(StockManager stockManager, int isbn, int rating) throws BookStoreException {
+		Set<BookRating> ratings = new HashSet<>();
+		ratings.add(new BookRating(isbn, rating));
+		((BookStore) stockManager).rateBooks(ratings);
+	}
+
+	/**
+	 * Gets the last segment of the log in the data directory.
+	 *
+	 * @return the segment file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private Path lastSegment() throws IOException {
+		List<Path> segments = new ArrayList<>();
+
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "bookstore-*.log")) {
+			for (Path path : paths) {
+				segments.add(path);
+			}
+		}
+
+		Collections.sort(segments);
+		return segments.get(segments.size() - 1);
+	}
+
+	/**
+	 * Tests that every kind of mutation is replayed, also after a restart
+	 * which appended to the log again.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testReplay() throws Exception {
+		for (BookStoreEngine engine : DURABLE_ENGINES) {
+			deleteDirectory();
+			createDirectory();
+
+			StockManager stockManager = engine.newDurableInstance(directory);
+			mutate(stockManager);
+			rate(stockManager, 1, 4);
+			rate(stockManager, 1, 2);
+			List<String> expected = describe(stockManager);
+			assertEquals(engine.toString(), 4, stockManager.getBooks().size());
+
+			StockManager recovered = engine.newDurableInstance(directory);
+			assertEquals(engine.toString(), expected, describe(recovered));
+
+			// The recovered store appends after the replayed records.
+			recovered.removeAllBooks();
+			Set<StockBook> books = new HashSet<>();
+			books.add(new ImmutableStockBook(7, "Title 7", "Author 7", 7, 1, 0, 0, 0, true));
+			recovered.addBooks(books);
+			expected = describe(recovered);
+
+			assertEquals(engine.toString(), expected, describe(engine.newDurableInstance(directory)));
+		}
+	}
+
+	/**
+	 * Tests that a record torn by a crash in the middle of a write is cut off,
+	 * and that the records appended after the restart follow the last complete
+	 * one.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testTornTail() throws Exception {
+		StockManager stockManager = BookStoreEngine.SINGLE_LOCK.newDurableInstance(directory);
+		mutate(stockManager);
+		List<String> expected = describe(stockManager);
+		Path segment = lastSegment();
+		long length = Files.size(segment);
+
+		// A record announcing 100 bytes of payload, of which only 3 were written.
+		try (OutputStream out = Files.newOutputStream(segment, StandardOpenOption.APPEND)) {
+			out.write(new byte[] { 100, 6, 1, 1 });
+		}
+
+		StockManager recovered = BookStoreEngine.SINGLE_LOCK.newDurableInstance(directory);
+		assertEquals(expected, describe(recovered));
+		assertEquals(length, Files.size(segment));
+
+		rate(recovered, 1, 5);
+		expected = describe(recovered);
+		assertEquals(expected, describe(BookStoreEngine.SINGLE_LOCK.newDurableInstance(directory)));
+	}
+
+	/**
+	 * Tests that a last record whose checksum does not match is cut off, and
+	 * the records before it are replayed.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testChecksumMismatch() throws Exception {
+		StockManager stockManager = BookStoreEngine.SINGLE_LOCK.newDurableInstance(directory);
+		mutate(stockManager);
+		List<String> expected = describe(stockManager);
+		Path segment = lastSegment();
+		long length = Files.size(segment);
+
+		rate(stockManager, 1, 5);
+		assertNotEquals(expected, describe(stockManager));
+
+		// Flip a bit of the rating, the last byte of the payload.
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1);
+			long position = channel.size() - 5;
+			channel.read(buffer, position);
+			buffer.put(0, (byte) (buffer.get(0) ^ 1));
+			((Buffer) buffer).rewind();
+			channel.write(buffer, position);
+		}
+
+		StockManager recovered = BookStoreEngine.SINGLE_LOCK.newDurableInstance(directory);
+		assertEquals(expected, describe(recovered));
+		assertEquals(length, Files.size(segment));
+	}
+}